@@ -0,0 +1,162 @@
+/* Copyright (C) LENAM, s.r.o. - All Rights Reserved
+ * Unauthorized copying of this file, via any medium is strictly prohibited
+ * Proprietary and confidential
+ * Written by Petr Jecmen <petr.jecmen@tul.cz>, 2015
+ */
+package cz.tul.dic.engine.java;
+
+import cz.tul.dic.data.BicubicInterpolator;
+import cz.tul.dic.data.deformation.DeformationOrder;
+import cz.tul.dic.data.subset.AbstractSubset;
+import cz.tul.dic.engine.platform.Platform;
+import java.util.List;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * SIMD version of {@link JavaFloatKernel} using Java Vector API. Deformation
+ * and correlation are vectorized, interpolation is inherited - gather
+ * loads are slower than the scalar version on current JVMs. Requires
+ * JDK 16+ and jdk.incubator.vector module (--add-modules
+ * jdk.incubator.vector), the class is compiled separately from the main
+ * sources. When the module is missing, {@link cz.tul.dic.engine.AbstractKernel}
+ * falls back to {@link JavaKernel}.
+ *
+ * @author Petr Jecmen
+ */
+public class JavaVectorKernel extends JavaFloatKernel {
+
+    private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+
+    public JavaVectorKernel(final Platform platform) {
+        super(platform);
+    }
+
+    @Override
+    Worker createWorker(final float[] imageB, final BicubicInterpolator interpolator, final int imageWidth,
+            final List<AbstractSubset> subsets, final SubsetData subsetData, final ReferenceSubsetCache referenceCache,
+            final List<double[]> deformations, final List<long[]> counts,
+            final DeformationOrder defOrder, final boolean usesZncc, final ResultStore store) {
+        return new VectorWorker(
+                imageB, interpolator, imageWidth,
+                subsets, subsetData, referenceCache,
+                deformations, counts,
+                defOrder, usesZncc, store);
+    }
+
+    private static final class VectorWorker extends Worker {
+
+        VectorWorker(final float[] imageB, final BicubicInterpolator interpolator, final int imageWidth,
+                final List<AbstractSubset> subsets, final SubsetData subsetData, final ReferenceSubsetCache referenceCache,
+                final List<double[]> deformations, final List<long[]> counts,
+                final DeformationOrder defOrder, final boolean usesZncc, final ResultStore store) {
+            super(imageB, interpolator, imageWidth,
+                    subsets, subsetData, referenceCache,
+                    deformations, counts,
+                    defOrder, usesZncc, store);
+        }
+
+        @Override
+        void deform(final int base, final int area, final double[] deformation, final float[] deformedX, final float[] deformedY) {
+            final float[] sx = subsetData.x;
+            final float[] sy = subsetData.y;
+            final float[] sdx = subsetData.dx;
+            final float[] sdy = subsetData.dy;
+
+            final float u = (float) deformation[0];
+            final float v = (float) deformation[1];
+            final float ux = (float) deformation[2];
+            final float uy = (float) deformation[3];
+            final float vx = (float) deformation[4];
+            final float vy = (float) deformation[5];
+            final float uxx = (float) (0.5 * deformation[6]);
+            final float uyy = (float) (0.5 * deformation[7]);
+            final float uxy = (float) deformation[8];
+            final float vxx = (float) (0.5 * deformation[9]);
+            final float vyy = (float) (0.5 * deformation[10]);
+            final float vxy = (float) deformation[11];
+            final boolean second = defOrder == DeformationOrder.SECOND;
+
+            final int bound = SPECIES.loopBound(area);
+            int i = 0;
+            FloatVector dx, dy, x, y;
+            for (; i < bound; i += SPECIES.length()) {
+                dx = FloatVector.fromArray(SPECIES, sdx, base + i);
+                dy = FloatVector.fromArray(SPECIES, sdy, base + i);
+                x = FloatVector.fromArray(SPECIES, sx, base + i).add(u).add(dx.mul(ux)).add(dy.mul(uy));
+                y = FloatVector.fromArray(SPECIES, sy, base + i).add(v).add(dx.mul(vx)).add(dy.mul(vy));
+                if (second) {
+                    x = x.add(dx.mul(dx).mul(uxx)).add(dy.mul(dy).mul(uyy)).add(dx.mul(dy).mul(uxy));
+                    y = y.add(dx.mul(dx).mul(vxx)).add(dy.mul(dy).mul(vyy)).add(dx.mul(dy).mul(vxy));
+                }
+                x.max(0f).intoArray(deformedX, i);
+                y.max(0f).intoArray(deformedY, i);
+            }
+            // remainder
+            float fdx, fdy;
+            for (; i < area; i++) {
+                fdx = sdx[base + i];
+                fdy = sdy[base + i];
+                deformedX[i] = Math.max(sx[base + i] + u + ux * fdx + uy * fdy + uxx * fdx * fdx + uyy * fdy * fdy + uxy * fdx * fdy, 0f);
+                deformedY[i] = Math.max(sy[base + i] + v + vx * fdx + vy * fdy + vxx * fdx * fdx + vyy * fdy * fdy + vxy * fdx * fdy, 0f);
+            }
+        }
+
+        @Override
+        double correlate(final ReferenceSubsetCache.ReferenceSubset reference, final float[] deformedI, final float meanG) {
+            final float[] f = reference.getZeroMean();
+            final float deltaF = reference.getNorm();
+            final int area = f.length;
+            final int bound = SPECIES.loopBound(area);
+
+            int i = 0;
+            FloatVector crossV = FloatVector.zero(SPECIES);
+            FloatVector deltaGV = FloatVector.zero(SPECIES);
+            FloatVector a, g;
+            for (; i < bound; i += SPECIES.length()) {
+                a = FloatVector.fromArray(SPECIES, f, i);
+                g = FloatVector.fromArray(SPECIES, deformedI, i).sub(meanG);
+                crossV = a.fma(g, crossV);
+                deltaGV = g.fma(g, deltaGV);
+            }
+            float cross = crossV.reduceLanes(VectorOperators.ADD);
+            float deltaG = deltaGV.reduceLanes(VectorOperators.ADD);
+            float gs;
+            for (; i < area; i++) {
+                gs = deformedI[i] - meanG;
+                cross += f[i] * gs;
+                deltaG += gs * gs;
+            }
+            deltaG = (float) Math.sqrt(deltaG);
+
+            if (deltaF == 0 || deltaG == 0) {
+                return 0;
+            }
+
+            if (usesZncc) {
+                return cross / (deltaF * deltaG);
+            } else {
+                final float invF = 1 / deltaF;
+                final float invG = 1 / deltaG;
+                i = 0;
+                FloatVector sumV = FloatVector.zero(SPECIES);
+                FloatVector temp;
+                for (; i < bound; i += SPECIES.length()) {
+                    a = FloatVector.fromArray(SPECIES, f, i);
+                    g = FloatVector.fromArray(SPECIES, deformedI, i).sub(meanG);
+                    temp = a.mul(invF).sub(g.mul(invG));
+                    sumV = temp.fma(temp, sumV);
+                }
+                float sum = sumV.reduceLanes(VectorOperators.ADD);
+                float temps;
+                for (; i < area; i++) {
+                    temps = f[i] * invF - (deformedI[i] - meanG) * invG;
+                    sum += temps * temps;
+                }
+                return 1 - sum / 2.0;
+            }
+        }
+    }
+
+}
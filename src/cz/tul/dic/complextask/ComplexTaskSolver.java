@@ -9,9 +9,11 @@ import cz.tul.dic.ComputationException;
 import cz.tul.dic.ComputationExceptionCause;
 import cz.tul.dic.FpsManager;
 import cz.tul.dic.Utils;
+import cz.tul.dic.data.Coordinates;
 import cz.tul.dic.data.Image;
 import cz.tul.dic.data.roi.AbstractROI;
 import cz.tul.dic.data.result.DisplacementResult;
+import cz.tul.dic.data.result.VectorField;
 import cz.tul.dic.data.task.TaskContainer;
 import cz.tul.dic.data.task.TaskContainerUtils;
 import cz.tul.dic.data.task.TaskParameter;
@@ -131,12 +133,12 @@ public class ComplexTaskSolver extends Observable implements Observer {
             } else {
                 Journal.addEntry("Skipping round", "No shift detected in round {0}.", r);
                 final Image img = rrm.getTc().getImage(r);
-                final double[][][] data;
+                final VectorField data;
                 if (!tcR.getRois(r).isEmpty()) {
                     AbstractROI roi = tcR.getRois(r).iterator().next();
                     data = generateZeroResults(img, roi);
                 } else {
-                    data = new double[img.getWidth()][img.getHeight()][];
+                    data = new VectorField(img.getWidth(), img.getHeight(), Coordinates.DIMENSION);
                 }
                 tcR.setResult(r, nextR, new Result(new DisplacementResult(data, null)));
             }
@@ -211,17 +213,17 @@ public class ComplexTaskSolver extends Observable implements Observer {
         return ratio < LIMIT_COUNT_RATIO;
     }
 
-    private static double[][][] generateZeroResults(final Image img, final AbstractROI roi) {
-        final double[][][] data = new double[img.getWidth()][img.getHeight()][];
+    private static VectorField generateZeroResults(final Image img, final AbstractROI roi) {
+        final VectorField data = new VectorField(img.getWidth(), img.getHeight(), Coordinates.DIMENSION);
         for (int x = (int) roi.getX1(); x <= roi.getX2(); x++) {
-            if (x < 0 || x >= data.length) {
+            if (x < 0 || x >= data.getWidth()) {
                 continue;
             }
             for (int y = (int) roi.getY1(); y <= roi.getY2(); y++) {
-                if (y < 0 || y >= data[x].length) {
+                if (y < 0 || y >= data.getHeight()) {
                     continue;
                 }
-                data[x][y] = new double[2];
+                data.setValues(x, y, 0, 0);
             }
         }
         return data;
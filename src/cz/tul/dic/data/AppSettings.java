@@ -16,14 +16,24 @@ import java.util.prefs.Preferences;
  */
 public class AppSettings {
 
+    private static final String KEY_IMAGE_CACHE_SIZE = "imageCacheSize";
+    private static final String KEY_IMAGE_LOADING_THREADS = "imageLoadingThreads";
+    private static final String KEY_RESULT_CACHE_SIZE = "resultCacheSize";
+
     private final Preferences prefs;
     private ColorMap.Type colorMapType;
     private BasicMemoryManager.Type memManagerType;
+    private long imageCacheSize;
+    private int imageLoadingThreads;
+    private int resultCacheSize;
 
     private AppSettings() {        
         prefs = Preferences.userNodeForPackage(AppSettings.class);
         colorMapType = ColorMap.Type.valueOf(prefs.get(ColorMap.Type.class.toString(), ColorMap.Type.CoolWarm.toString()));
         memManagerType = AbstractOpenCLMemoryManager.Type.valueOf(prefs.get(AbstractOpenCLMemoryManager.Type.class.toString(), AbstractOpenCLMemoryManager.Type.PREFETCH.toString()));
+        imageCacheSize = prefs.getLong(KEY_IMAGE_CACHE_SIZE, Runtime.getRuntime().maxMemory() / 4);
+        imageLoadingThreads = prefs.getInt(KEY_IMAGE_LOADING_THREADS, Runtime.getRuntime().availableProcessors());
+        resultCacheSize = prefs.getInt(KEY_RESULT_CACHE_SIZE, 8);
     }
 
     public ColorMap.Type getColorMapType() {
@@ -44,6 +54,44 @@ public class AppSettings {
         prefs.put(AbstractOpenCLMemoryManager.Type.class.toString(), memManagerType.toString());
     }
 
+    /**
+     * @return memory limit for loaded images in bytes
+     */
+    public long getImageCacheSize() {
+        return imageCacheSize;
+    }
+
+    public void setImageCacheSize(long imageCacheSize) {
+        this.imageCacheSize = imageCacheSize;
+        prefs.putLong(KEY_IMAGE_CACHE_SIZE, imageCacheSize);
+    }
+
+    /**
+     * @return count of threads decoding input images, 0 if images are loaded
+     * only on demand
+     */
+    public int getImageLoadingThreads() {
+        return imageLoadingThreads;
+    }
+
+    public void setImageLoadingThreads(int imageLoadingThreads) {
+        this.imageLoadingThreads = imageLoadingThreads;
+        prefs.putInt(KEY_IMAGE_LOADING_THREADS, imageLoadingThreads);
+    }
+
+    /**
+     * @return count of results of a loaded task held in memory, 0 if all
+     * results are loaded with the task
+     */
+    public int getResultCacheSize() {
+        return resultCacheSize;
+    }
+
+    public void setResultCacheSize(int resultCacheSize) {
+        this.resultCacheSize = resultCacheSize;
+        prefs.putInt(KEY_RESULT_CACHE_SIZE, resultCacheSize);
+    }
+
     public static AppSettings getInstance() {
         return AppSettingsHolder.INSTANCE;
     }
@@ -0,0 +1,399 @@
+/* Copyright (C) LENAM, s.r.o. - All Rights Reserved
+ * Unauthorized copying of this file, via any medium is strictly prohibited
+ * Proprietary and confidential
+ * Written by Petr Jecmen <petr.jecmen@tul.cz>, 2015
+ */
+package cz.tul.dic.data;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import javax.imageio.ImageIO;
+import javax.imageio.plugins.jpeg.JPEGHuffmanTable;
+
+/**
+ * Reader of video frames stored in AVI container. Supports uncompressed
+ * (8, 24 and 32 bit RGB, 8 bit grayscale) and MJPEG video streams, including
+ * OpenDML files larger than 1 GB. Only the position of each frame is read
+ * when opening the file, frames are read and decoded on demand.
+ *
+ * @author Petr Jecmen
+ */
+public final class AviReader implements ImageSource {
+
+    private static final String FOURCC_RIFF = "RIFF";
+    private static final String FOURCC_LIST = "LIST";
+    private static final String FOURCC_AVI = "AVI ";
+    private static final String FOURCC_AVIX = "AVIX";
+    private static final String FOURCC_HDRL = "hdrl";
+    private static final String FOURCC_STRL = "strl";
+    private static final String FOURCC_MOVI = "movi";
+    private static final String FOURCC_REC = "rec ";
+    private static final String FOURCC_AVIH = "avih";
+    private static final String FOURCC_STRH = "strh";
+    private static final String FOURCC_STRF = "strf";
+    private static final String FOURCC_VIDS = "vids";
+    private static final int COMPRESSION_RGB = 0;
+    private static final int COMPRESSION_DIB = fourcc("DIB ");
+    private static final int COMPRESSION_GREY = fourcc("GREY");
+    private static final int COMPRESSION_Y800 = fourcc("Y800");
+    private static final int COMPRESSION_MJPG = fourcc("MJPG");
+    private static final int CHUNK_HEADER_SIZE = 8;
+    private static final int LIST_HEADER_SIZE = 12;
+    private static final int MARKER_DHT = 0xC4;
+    private static final int MARKER_SOS = 0xDA;
+    private static final byte[] DEFAULT_DHT = createDefaultHuffmanTables();
+    private final File file;
+    private final String name;
+    private int width, height, bitCount, compression;
+    private boolean bottomUp;
+    private double fps;
+    private byte[] grayPalette;
+    private String frameChunkId;
+    private long[] frameOffsets;
+    private int[] frameSizes;
+    private int frameCount, streamCount;
+
+    /**
+     * Reads structure of the video.
+     *
+     * @param file AVI file
+     * @throws IOException file could not be read or has unsupported format
+     */
+    public AviReader(final File file) throws IOException {
+        this.file = file;
+        name = file.getName();
+
+        frameOffsets = new long[16];
+        frameSizes = new int[16];
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            final long length = channel.size();
+            long position = 0;
+            ByteBuffer header;
+            long size;
+            while (position + LIST_HEADER_SIZE <= length) {
+                header = read(channel, position, LIST_HEADER_SIZE);
+                size = Integer.toUnsignedLong(header.getInt(4));
+                if (FOURCC_RIFF.equals(fourcc(header, 0))) {
+                    final String type = fourcc(header, 8);
+                    if (position == 0 && !FOURCC_AVI.equals(type)) {
+                        throw new IOException("Not an AVI file - " + name);
+                    }
+                    if (FOURCC_AVI.equals(type) || FOURCC_AVIX.equals(type)) {
+                        readChunks(channel, position + LIST_HEADER_SIZE, Math.min(length, position + CHUNK_HEADER_SIZE + size));
+                    }
+                } else if (position == 0) {
+                    throw new IOException("Not an AVI file - " + name);
+                }
+                position += CHUNK_HEADER_SIZE + size + (size & 1);
+            }
+        }
+
+        if (frameChunkId == null) {
+            throw new IOException("No supported video stream found in " + name);
+        }
+        frameOffsets = Arrays.copyOf(frameOffsets, frameCount);
+        frameSizes = Arrays.copyOf(frameSizes, frameCount);
+    }
+
+    @Override
+    public int getImageCount() {
+        return frameCount;
+    }
+
+    @Override
+    public Image loadImage(final int index) throws IOException {
+        if (index < 0 || index >= frameCount) {
+            throw new IndexOutOfBoundsException("Illegal frame index " + index + ", video has " + frameCount + " frames.");
+        }
+
+        final byte[] data = new byte[frameSizes[index]];
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            read(channel, frameOffsets[index], ByteBuffer.wrap(data));
+        }
+
+        final String frameName = name + String.format("%05d", index);
+        if (compression == COMPRESSION_MJPG) {
+            return decodeJpeg(data, frameName);
+        } else {
+            return Image.createImage(width, height, decodeRaw(data), frameName);
+        }
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return frame rate of the video, 0 if not specified
+     */
+    public double getFps() {
+        return fps;
+    }
+
+    private void readChunks(final FileChannel channel, final long from, final long to) throws IOException {
+        long position = from;
+        ByteBuffer header;
+        String id;
+        long size;
+        while (position + CHUNK_HEADER_SIZE <= to) {
+            header = read(channel, position, CHUNK_HEADER_SIZE);
+            id = fourcc(header, 0);
+            size = Integer.toUnsignedLong(header.getInt(4));
+            if (FOURCC_LIST.equals(id)) {
+                final String type = fourcc(read(channel, position + CHUNK_HEADER_SIZE, 4), 0);
+                final long end = Math.min(to, position + CHUNK_HEADER_SIZE + size);
+                switch (type) {
+                    case FOURCC_HDRL:
+                    case FOURCC_STRL:
+                        readHeaders(channel, position + LIST_HEADER_SIZE, end);
+                        break;
+                    case FOURCC_MOVI:
+                    case FOURCC_REC:
+                        readChunks(channel, position + LIST_HEADER_SIZE, end);
+                        break;
+                    default:
+                        break;
+                }
+            } else if (frameChunkId != null && id.regionMatches(0, frameChunkId, 0, 2) && (id.endsWith("db") || id.endsWith("dc"))) {
+                addFrame(position + CHUNK_HEADER_SIZE, (int) size);
+            }
+            position += CHUNK_HEADER_SIZE + size + (size & 1);
+        }
+    }
+
+    private void readHeaders(final FileChannel channel, final long from, final long to) throws IOException {
+        long position = from;
+        ByteBuffer header, data;
+        String id;
+        long size;
+        int streamIndex = -1;
+        boolean videoStream = false;
+        while (position + CHUNK_HEADER_SIZE <= to) {
+            header = read(channel, position, CHUNK_HEADER_SIZE);
+            id = fourcc(header, 0);
+            size = Integer.toUnsignedLong(header.getInt(4));
+            switch (id) {
+                case FOURCC_LIST:
+                    if (FOURCC_STRL.equals(fourcc(read(channel, position + CHUNK_HEADER_SIZE, 4), 0))) {
+                        readHeaders(channel, position + LIST_HEADER_SIZE, Math.min(to, position + CHUNK_HEADER_SIZE + size));
+                    }
+                    break;
+                case FOURCC_AVIH:
+                    data = read(channel, position + CHUNK_HEADER_SIZE, (int) size);
+                    final int microSecPerFrame = data.getInt(0);
+                    if (microSecPerFrame > 0 && fps == 0) {
+                        fps = 1_000_000.0 / microSecPerFrame;
+                    }
+                    break;
+                case FOURCC_STRH:
+                    streamIndex = streamCount++;
+                    data = read(channel, position + CHUNK_HEADER_SIZE, (int) size);
+                    videoStream = frameChunkId == null && FOURCC_VIDS.equals(fourcc(data, 0));
+                    if (videoStream && size >= 28) {
+                        final int scale = data.getInt(20);
+                        final int rate = data.getInt(24);
+                        if (scale > 0 && rate > 0) {
+                            fps = rate / (double) scale;
+                        }
+                    }
+                    break;
+                case FOURCC_STRF:
+                    if (videoStream) {
+                        readVideoFormat(read(channel, position + CHUNK_HEADER_SIZE, (int) size));
+                        frameChunkId = String.format("%02d", streamIndex);
+                    }
+                    break;
+                default:
+                    break;
+            }
+            position += CHUNK_HEADER_SIZE + size + (size & 1);
+        }
+    }
+
+    private void readVideoFormat(final ByteBuffer data) throws IOException {
+        width = data.getInt(4);
+        final int h = data.getInt(8);
+        bitCount = data.getShort(14);
+        compression = data.getInt(16);
+
+        height = Math.abs(h);
+        if (compression == COMPRESSION_RGB || compression == COMPRESSION_DIB) {
+            compression = COMPRESSION_RGB;
+            bottomUp = h > 0;
+            if (bitCount != 8 && bitCount != 24 && bitCount != 32) {
+                throw new IOException("Unsupported bit depth of uncompressed video - " + bitCount);
+            }
+            if (bitCount == 8) {
+                final int headerSize = data.getInt(0);
+                int colorCount = data.getInt(32);
+                if (colorCount == 0) {
+                    colorCount = 256;
+                }
+                grayPalette = new byte[256];
+                for (int i = 0; i < 256; i++) {
+                    if (i < colorCount && headerSize + i * 4 + 4 <= data.limit()) {
+                        grayPalette[i] = Image.toGray(data.getInt(headerSize + i * 4) & 0xffffff);
+                    } else {
+                        grayPalette[i] = Image.toGray(i << 16 | i << 8 | i);
+                    }
+                }
+            }
+        } else if (compression == COMPRESSION_GREY || compression == COMPRESSION_Y800) {
+            compression = COMPRESSION_GREY;
+            bitCount = 8;
+            bottomUp = false;
+        } else if (compression != COMPRESSION_MJPG) {
+            throw new IOException("Unsupported video compression - " + fourcc(data, 16));
+        }
+    }
+
+    private void addFrame(final long offset, final int size) {
+        if (frameCount == frameOffsets.length) {
+            frameOffsets = Arrays.copyOf(frameOffsets, frameCount * 2);
+            frameSizes = Arrays.copyOf(frameSizes, frameCount * 2);
+        }
+        if (size == 0 && frameCount > 0) {
+            // dropped frame, repeat the previous one
+            frameOffsets[frameCount] = frameOffsets[frameCount - 1];
+            frameSizes[frameCount] = frameSizes[frameCount - 1];
+        } else {
+            frameOffsets[frameCount] = offset;
+            frameSizes[frameCount] = size;
+        }
+        frameCount++;
+    }
+
+    private byte[] decodeRaw(final byte[] data) throws IOException {
+        final int bytesPerPixel = bitCount / 8;
+        final int stride = compression == COMPRESSION_GREY ? width : ((width * bitCount + 31) / 32) * 4;
+        if (data.length < stride * height) {
+            throw new IOException("Frame data are too short - " + data.length + ", expected " + stride * height);
+        }
+
+        final byte[] result = new byte[width * height];
+        int index, base;
+        for (int y = 0; y < height; y++) {
+            base = (bottomUp ? height - 1 - y : y) * stride;
+            index = y * width;
+            if (compression == COMPRESSION_GREY) {
+                System.arraycopy(data, base, result, index, width);
+            } else if (bytesPerPixel == 1) {
+                for (int x = 0; x < width; x++) {
+                    result[index + x] = grayPalette[data[base + x] & 0xff];
+                }
+            } else {
+                // pixels are stored as BGR(X)
+                for (int x = 0; x < width; x++) {
+                    result[index + x] = Image.toGray(
+                            (data[base + 2] & 0xff) << 16 | (data[base + 1] & 0xff) << 8 | (data[base] & 0xff));
+                    base += bytesPerPixel;
+                }
+            }
+        }
+        return result;
+    }
+
+    private static Image decodeJpeg(final byte[] data, final String frameName) throws IOException {
+        final BufferedImage img = ImageIO.read(new ByteArrayInputStream(insertHuffmanTables(data)));
+        if (img == null) {
+            throw new IOException("Frame " + frameName + " is not a valid JPEG image.");
+        }
+        return Image.createImage(img, frameName);
+    }
+
+    /**
+     * MJPEG frames usually omit Huffman tables and use the default ones from
+     * JPEG specification, which have to be inserted before decoding.
+     */
+    private static byte[] insertHuffmanTables(final byte[] data) {
+        int position = 2;
+        int marker;
+        while (position + 4 <= data.length && (data[position] & 0xff) == 0xff) {
+            marker = data[position + 1] & 0xff;
+            if (marker == MARKER_DHT) {
+                return data;
+            } else if (marker == MARKER_SOS) {
+                final byte[] result = new byte[data.length + DEFAULT_DHT.length];
+                System.arraycopy(data, 0, result, 0, position);
+                System.arraycopy(DEFAULT_DHT, 0, result, position, DEFAULT_DHT.length);
+                System.arraycopy(data, position, result, position + DEFAULT_DHT.length, data.length - position);
+                return result;
+            }
+            position += 2 + ((data[position + 2] & 0xff) << 8 | (data[position + 3] & 0xff));
+        }
+        return data;
+    }
+
+    private static byte[] createDefaultHuffmanTables() {
+        final JPEGHuffmanTable[] tables = {
+            JPEGHuffmanTable.StdDCLuminance, JPEGHuffmanTable.StdDCChrominance,
+            JPEGHuffmanTable.StdACLuminance, JPEGHuffmanTable.StdACChrominance};
+        final int[] ids = {0x00, 0x01, 0x10, 0x11};
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < tables.length; i++) {
+            out.write(ids[i]);
+            for (short s : tables[i].getLengths()) {
+                out.write(s);
+            }
+            for (short s : tables[i].getValues()) {
+                out.write(s);
+            }
+        }
+        final byte[] content = out.toByteArray();
+        final byte[] result = new byte[content.length + 4];
+        result[0] = (byte) 0xff;
+        result[1] = (byte) MARKER_DHT;
+        result[2] = (byte) ((content.length + 2) >> 8);
+        result[3] = (byte) (content.length + 2);
+        System.arraycopy(content, 0, result, 4, content.length);
+        return result;
+    }
+
+    private static ByteBuffer read(final FileChannel channel, final long position, final int size) throws IOException {
+        final ByteBuffer result = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        read(channel, position, result);
+        result.flip();
+        return result;
+    }
+
+    private static void read(final FileChannel channel, final long position, final ByteBuffer target) throws IOException {
+        long pos = position;
+        int count;
+        while (target.hasRemaining()) {
+            count = channel.read(target, pos);
+            if (count < 0) {
+                throw new EOFException("Unexpected end of video file.");
+            }
+            pos += count;
+        }
+    }
+
+    private static String fourcc(final ByteBuffer data, final int index) {
+        final byte[] result = new byte[4];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = data.get(index + i);
+        }
+        return new String(result, StandardCharsets.US_ASCII);
+    }
+
+    private static int fourcc(final String code) {
+        final byte[] bytes = code.getBytes(StandardCharsets.US_ASCII);
+        return (bytes[0] & 0xff) | (bytes[1] & 0xff) << 8 | (bytes[2] & 0xff) << 16 | (bytes[3] & 0xff) << 24;
+    }
+
+}
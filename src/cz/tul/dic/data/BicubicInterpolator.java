@@ -0,0 +1,117 @@
+/* Copyright (C) LENAM, s.r.o. - All Rights Reserved
+ * Unauthorized copying of this file, via any medium is strictly prohibited
+ * Proprietary and confidential
+ * Written by Petr Jecmen <petr.jecmen@tul.cz>, 2015
+ */
+package cz.tul.dic.data;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import org.apache.commons.math3.analysis.BivariateFunction;
+
+/**
+ * Bicubic interpolation over whole image. Coefficients of each pixel
+ * (intensity and its x, y and xy derivatives) are computed once per image and
+ * stored interleaved in a single plane, so one sample reads two pairs of
+ * neighbouring entries and no neighbourhood has to be gathered and clamped.
+ * The instance can be shared by all threads working on the image. Values
+ * outside of image are clamped to the border.
+ *
+ * With central difference derivatives the interpolation is identical to the
+ * Catmull-Rom bicubic interpolation used by the kernels.
+ *
+ * @author Petr Jecmen
+ */
+public final class BicubicInterpolator implements BivariateFunction {
+
+    private static final int COEFF_COUNT = 4;
+    private static final int VALUE = 0, DX = 1, DY = 2, DXY = 3;
+    private static final Map<Image, BicubicInterpolator> CACHE = Collections.synchronizedMap(new WeakHashMap<>());
+    private final int width, height;
+    // [value, dx, dy, dxy] for each pixel, row by row
+    private final float[] coefficients;
+
+    private BicubicInterpolator(final float[] values, final int width, final int height) {
+        this.width = width;
+        this.height = height;
+
+        coefficients = new float[width * height * COEFF_COUNT];
+        int row, rowUp, rowDown, left, right, index;
+        for (int y = 0; y < height; y++) {
+            row = y * width;
+            rowUp = clamp(y - 1, height) * width;
+            rowDown = clamp(y + 1, height) * width;
+            for (int x = 0; x < width; x++) {
+                left = clamp(x - 1, width);
+                right = clamp(x + 1, width);
+                index = (row + x) * COEFF_COUNT;
+                coefficients[index + VALUE] = values[row + x];
+                coefficients[index + DX] = (values[row + right] - values[row + left]) / 2f;
+                coefficients[index + DY] = (values[rowDown + x] - values[rowUp + x]) / 2f;
+                coefficients[index + DXY] = (values[rowDown + right] - values[rowDown + left] - values[rowUp + right] + values[rowUp + left]) / 4f;
+            }
+        }
+    }
+
+    /**
+     * @param image source image
+     * @return interpolator of image intensities (normalized to [0, 1]),
+     * shared for each image
+     */
+    public static BicubicInterpolator getInstance(final Image image) {
+        synchronized (CACHE) {
+            BicubicInterpolator result = CACHE.get(image);
+            if (result == null) {
+                result = new BicubicInterpolator(image.toNormalizedBWArray(), image.getWidth(), image.getHeight());
+                CACHE.put(image, result);
+            }
+            return result;
+        }
+    }
+
+    @Override
+    public double value(final double x, final double y) {
+        final double cx = Math.max(0, Math.min(x, width - 1));
+        final double cy = Math.max(0, Math.min(y, height - 1));
+        final int x0 = Math.min((int) cx, Math.max(width - 2, 0));
+        final int y0 = Math.min((int) cy, Math.max(height - 2, 0));
+        final double tx = cx - x0;
+        final double ty = cy - y0;
+
+        // Hermite basis
+        final double tx2 = tx * tx, tx3 = tx2 * tx;
+        final double ty2 = ty * ty, ty3 = ty2 * ty;
+        final double hx0 = 2 * tx3 - 3 * tx2 + 1, hx1 = -2 * tx3 + 3 * tx2;
+        final double gx0 = tx3 - 2 * tx2 + tx, gx1 = tx3 - tx2;
+        final double hy0 = 2 * ty3 - 3 * ty2 + 1, hy1 = -2 * ty3 + 3 * ty2;
+        final double gy0 = ty3 - 2 * ty2 + ty, gy1 = ty3 - ty2;
+
+        // neighbours on the right and bottom, same pixel for images of width or height 1
+        final int stepX = width > 1 ? COEFF_COUNT : 0;
+        final int stepY = height > 1 ? width * COEFF_COUNT : 0;
+        final float[] c = coefficients;
+        final int i00 = (y0 * width + x0) * COEFF_COUNT;
+        final int i10 = i00 + stepX;
+        final int i01 = i00 + stepY;
+        final int i11 = i01 + stepX;
+
+        return hy0 * (hx0 * c[i00] + hx1 * c[i10] + gx0 * c[i00 + DX] + gx1 * c[i10 + DX])
+                + hy1 * (hx0 * c[i01] + hx1 * c[i11] + gx0 * c[i01 + DX] + gx1 * c[i11 + DX])
+                + gy0 * (hx0 * c[i00 + DY] + hx1 * c[i10 + DY] + gx0 * c[i00 + DXY] + gx1 * c[i10 + DXY])
+                + gy1 * (hx0 * c[i01 + DY] + hx1 * c[i11 + DY] + gx0 * c[i01 + DXY] + gx1 * c[i11 + DXY]);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    private static int clamp(final int val, final int size) {
+        return Math.max(0, Math.min(val, size - 1));
+    }
+
+}
@@ -0,0 +1,198 @@
+/* Copyright (C) LENAM, s.r.o. - All Rights Reserved
+ * Unauthorized copying of this file, via any medium is strictly prohibited
+ * Proprietary and confidential
+ * Written by Petr Jecmen <petr.jecmen@tul.cz>, 2015
+ */
+package cz.tul.dic.data;
+
+import cz.tul.dic.Utils;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+import org.pmw.tinylog.Logger;
+
+/**
+ * Decoded grayscale frames of a video stored in a memory mapped file next to
+ * the video. Frames are decoded on first access and written to the store,
+ * reopening the same video reads them directly from the store.
+ * <p>
+ * File layout - header (magic, version, width, height, frame count, size,
+ * modification time and checksum of source), one flag per frame marking
+ * stored frames, frames as contiguous 8-bit grayscale planes.
+ *
+ * @author Petr Jecmen
+ */
+public final class FrameStore implements ImageSource {
+
+    private static final String EXT_STORE = ".frames";
+    private static final int MAGIC = 0x44494346;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 4 + 4 + 4 + 4 + 8 + 8 + 8;
+    private static final int PAGE_SIZE = 4096;
+    private static final int CHECKSUM_LENGTH = 1 << 20;
+    private static final long MAX_SEGMENT_SIZE = 1 << 30;
+    private final File source;
+    private final String name;
+    private final int width, height, frameCount, frameSize;
+    private final int framesPerSegment;
+    private final MappedByteBuffer flags;
+    private final MappedByteBuffer[] segments;
+    private AviReader decoder;
+
+    private FrameStore(final File source, final File store, final AviReader decoder) throws IOException {
+        this.source = source;
+        this.decoder = decoder;
+        name = source.getName();
+
+        final long checksum = computeChecksum(source);
+        try (FileChannel channel = FileChannel.open(store.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            final boolean valid = channel.size() >= HEADER_SIZE
+                    && channel.read(header, 0) == HEADER_SIZE
+                    && isHeaderValid(header, source, checksum);
+            if (valid) {
+                width = header.getInt(8);
+                height = header.getInt(12);
+                frameCount = header.getInt(16);
+            } else {
+                if (this.decoder == null) {
+                    this.decoder = new AviReader(source);
+                }
+                width = this.decoder.getWidth();
+                height = this.decoder.getHeight();
+                frameCount = this.decoder.getImageCount();
+
+                header.clear();
+                header.putInt(MAGIC).putInt(VERSION);
+                header.putInt(width).putInt(height).putInt(frameCount);
+                header.putLong(source.length()).putLong(source.lastModified()).putLong(checksum);
+                header.flip();
+                channel.truncate(0);
+                channel.write(header, 0);
+            }
+            frameSize = width * height;
+
+            final long dataOffset = computeDataOffset(frameCount);
+            final long storeSize = dataOffset + (long) frameCount * frameSize;
+            if (channel.size() < storeSize) {
+                // extend the file, frames are written through mapping
+                channel.write(ByteBuffer.allocate(1), storeSize - 1);
+            }
+
+            flags = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_SIZE, frameCount);
+            framesPerSegment = (int) Math.max(1, MAX_SEGMENT_SIZE / Math.max(1, frameSize));
+            segments = new MappedByteBuffer[(frameCount + framesPerSegment - 1) / framesPerSegment];
+            int count;
+            for (int i = 0; i < segments.length; i++) {
+                count = Math.min(framesPerSegment, frameCount - i * framesPerSegment);
+                segments[i] = channel.map(FileChannel.MapMode.READ_WRITE, dataOffset + (long) i * framesPerSegment * frameSize, (long) count * frameSize);
+            }
+
+            Logger.debug("Frame store {} opened, {} of {} frames stored.", store, countStoredFrames(), frameCount);
+        }
+    }
+
+    /**
+     * Opens frame store of given video, store is created if it does not
+     * exist or if the video has changed. If the store cannot be used, frames
+     * are read directly from video.
+     *
+     * @param video AVI file
+     * @return source of video frames
+     * @throws IOException video could not be read
+     */
+    public static ImageSource open(final File video) throws IOException {
+        final File store = new File(Utils.getTempDir(video), video.getName().concat(EXT_STORE));
+        ImageSource result;
+        try {
+            result = new FrameStore(video, store, null);
+        } catch (IOException ex) {
+            Logger.warn(ex, "Frame store {} could not be used, reading frames directly from video.", store);
+            result = new AviReader(video);
+        }
+        return result;
+    }
+
+    @Override
+    public int getImageCount() {
+        return frameCount;
+    }
+
+    @Override
+    public Image loadImage(final int index) throws IOException {
+        if (index < 0 || index >= frameCount) {
+            throw new IndexOutOfBoundsException("Illegal frame index " + index + ", video has " + frameCount + " frames.");
+        }
+
+        final ByteBuffer frame = segments[index / framesPerSegment].duplicate();
+        frame.position((index % framesPerSegment) * frameSize);
+        final byte[] data = new byte[frameSize];
+        if (flags.get(index) != 0) {
+            frame.get(data);
+        } else {
+            final byte[] decoded = getDecoder().loadImage(index).toBWArray();
+            if (decoded.length != frameSize) {
+                throw new IOException("Frame " + index + " of " + name + " has different size than the video.");
+            }
+            System.arraycopy(decoded, 0, data, 0, frameSize);
+            frame.put(decoded);
+            flags.put(index, (byte) 1);
+        }
+
+        return Image.createImage(width, height, data, name + String.format("%05d", index));
+    }
+
+    private synchronized AviReader getDecoder() throws IOException {
+        if (decoder == null) {
+            decoder = new AviReader(source);
+            if (decoder.getImageCount() != frameCount || decoder.getWidth() != width || decoder.getHeight() != height) {
+                throw new IOException("Frame store of " + name + " does not match the video.");
+            }
+        }
+        return decoder;
+    }
+
+    private int countStoredFrames() {
+        int result = 0;
+        for (int i = 0; i < frameCount; i++) {
+            if (flags.get(i) != 0) {
+                result++;
+            }
+        }
+        return result;
+    }
+
+    private static boolean isHeaderValid(final ByteBuffer header, final File source, final long checksum) {
+        return header.getInt(0) == MAGIC
+                && header.getInt(4) == VERSION
+                && header.getInt(8) > 0 && header.getInt(12) > 0 && header.getInt(16) >= 0
+                && header.getLong(20) == source.length()
+                && header.getLong(28) == source.lastModified()
+                && header.getLong(36) == checksum;
+    }
+
+    private static long computeDataOffset(final int frameCount) {
+        return ((HEADER_SIZE + frameCount + PAGE_SIZE - 1) / PAGE_SIZE) * (long) PAGE_SIZE;
+    }
+
+    private static long computeChecksum(final File source) throws IOException {
+        final CRC32 crc = new CRC32();
+        try (InputStream in = Files.newInputStream(source.toPath())) {
+            final byte[] buffer = new byte[8192];
+            int remaining = CHECKSUM_LENGTH;
+            int count;
+            while (remaining > 0 && (count = in.read(buffer, 0, Math.min(buffer.length, remaining))) > 0) {
+                crc.update(buffer, 0, count);
+                remaining -= count;
+            }
+        }
+        return crc.getValue();
+    }
+
+}
@@ -0,0 +1,168 @@
+/* Copyright (C) LENAM, s.r.o. - All Rights Reserved
+ * Unauthorized copying of this file, via any medium is strictly prohibited
+ * Proprietary and confidential
+ * Written by Petr Jecmen <petr.jecmen@tul.cz>, 2015
+ */
+package cz.tul.dic.data;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Separable Gaussian blur of 8-bit grayscale planes. The image is processed
+ * by bands of rows in parallel, first horizontally and then vertically.
+ * Kernel and border handling match OpenCV GaussianBlur with zero sigma and
+ * reflected borders - fixed kernels for sizes up to 7, sigma computed from
+ * kernel size for larger kernels.
+ *
+ * @author Petr Jecmen
+ */
+final class GaussianFilter {
+
+    private static final int COUNT_THREADS = Runtime.getRuntime().availableProcessors();
+    private static final int MIN_BAND_HEIGHT = 16;
+    // kernels used by OpenCV getGaussianKernel for small sizes and zero sigma
+    private static final float[][] SMALL_KERNELS = {
+        {1f},
+        {0.25f, 0.5f, 0.25f},
+        {0.0625f, 0.25f, 0.375f, 0.25f, 0.0625f},
+        {0.03125f, 0.109375f, 0.21875f, 0.28125f, 0.21875f, 0.109375f, 0.03125f}
+    };
+    private static final ExecutorService POOL = Executors.newFixedThreadPool(COUNT_THREADS, (r) -> {
+        final Thread t = new Thread(r, "GaussianFilter-worker");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private GaussianFilter() {
+    }
+
+    /**
+     * @param data grayscale plane, row by row
+     * @param width image width
+     * @param height image height
+     * @param kernelSize odd size of the kernel
+     * @return new filtered plane
+     */
+    static byte[] filter(final byte[] data, final int width, final int height, final int kernelSize) {
+        final float[] kernel = createKernel(kernelSize);
+        final int radius = kernelSize / 2;
+        final int[] offsetsX = createBorderOffsets(width, radius);
+        final int[] offsetsY = createBorderOffsets(height, radius);
+        final float[] horizontal = new float[width * height];
+        final byte[] result = new byte[width * height];
+
+        runInBands(height, (from, to) -> {
+            int base;
+            float sum;
+            for (int y = from; y < to; y++) {
+                base = y * width;
+                for (int x = 0; x < width; x++) {
+                    sum = 0;
+                    for (int k = 0; k < kernel.length; k++) {
+                        sum += kernel[k] * (data[base + offsetsX[x + k]] & 0xff);
+                    }
+                    horizontal[base + x] = sum;
+                }
+            }
+        });
+        runInBands(height, (from, to) -> {
+            float sum;
+            int val;
+            for (int y = from; y < to; y++) {
+                for (int x = 0; x < width; x++) {
+                    sum = 0;
+                    for (int k = 0; k < kernel.length; k++) {
+                        sum += kernel[k] * horizontal[offsetsY[y + k] * width + x];
+                    }
+                    val = Math.round(sum);
+                    result[y * width + x] = (byte) (val < 0 ? 0 : (val > 255 ? 255 : val));
+                }
+            }
+        });
+
+        return result;
+    }
+
+    private static float[] createKernel(final int kernelSize) {
+        if (kernelSize % 2 == 1 && kernelSize / 2 < SMALL_KERNELS.length) {
+            return SMALL_KERNELS[kernelSize / 2];
+        }
+
+        final double sigma = 0.3 * ((kernelSize - 1) * 0.5 - 1) + 0.8;
+        final int radius = kernelSize / 2;
+        final double[] values = new double[kernelSize];
+        double sum = 0;
+        for (int i = 0; i < kernelSize; i++) {
+            values[i] = Math.exp(-((i - radius) * (i - radius)) / (2 * sigma * sigma));
+            sum += values[i];
+        }
+
+        final float[] result = new float[kernelSize];
+        for (int i = 0; i < kernelSize; i++) {
+            result[i] = (float) (values[i] / sum);
+        }
+        return result;
+    }
+
+    /**
+     * @return index of source pixel for each position of kernel start, border
+     * pixels are reflected without repeating the edge (dcb|abcd|cba)
+     */
+    private static int[] createBorderOffsets(final int length, final int radius) {
+        final int[] result = new int[length + 2 * radius];
+        int index;
+        for (int i = 0; i < result.length; i++) {
+            index = i - radius;
+            if (length == 1) {
+                index = 0;
+            } else {
+                while (index < 0 || index >= length) {
+                    index = index < 0 ? -index : 2 * length - 2 - index;
+                }
+            }
+            result[i] = index;
+        }
+        return result;
+    }
+
+    private static void runInBands(final int height, final BandWorker worker) {
+        final int bandCount = Math.max(1, Math.min(COUNT_THREADS, height / MIN_BAND_HEIGHT));
+        if (bandCount == 1) {
+            worker.compute(0, height);
+            return;
+        }
+
+        final int bandHeight = (height + bandCount - 1) / bandCount;
+        final List<Future<?>> futures = new ArrayList<>(bandCount);
+        for (int from = 0; from < height; from += bandHeight) {
+            final int start = from;
+            final int end = Math.min(height, from + bandHeight);
+            futures.add(POOL.submit(() -> worker.compute(start, end)));
+        }
+        try {
+            for (Future<?> f : futures) {
+                f.get();
+            }
+        } catch (InterruptedException ex) {
+            for (Future<?> f : futures) {
+                f.cancel(true);
+            }
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Image filtering has been interrupted.", ex);
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException("Image filtering has failed.", ex.getCause());
+        }
+    }
+
+    @FunctionalInterface
+    private interface BandWorker {
+
+        void compute(final int from, final int to);
+    }
+
+}
@@ -5,36 +5,39 @@
  */
 package cz.tul.dic.data;
 
-import cz.tul.dic.OpenCVHandler;
 import cz.tul.dic.debug.converters.ImageConverter;
 import cz.tul.pj.journal.Journal;
 import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBufferByte;
 import java.io.File;
 import java.io.IOException;
 import javax.imageio.ImageIO;
-import org.opencv.core.CvType;
-import org.opencv.core.Mat;
-import org.opencv.core.Size;
-import org.opencv.imgproc.Imgproc;
 
 /**
+ * Grayscale frame stored as a single plane of bytes, row by row. Other views
+ * of the data (filtered, normalized, transposed) are created on demand.
  *
  * @author Petr Jecmen
  */
-public final class Image extends BufferedImage {
+public final class Image {
 
     private final String imageName;
-    private byte[] grayScale;
+    private final int width, height;
+    private final byte[] grayScale;
     private byte[][] grayScale2d;
     private byte[] filtered;
+    private int filterSize;
+    private float[] normalized;
 
     static {
-        OpenCVHandler.loadLibrary();
         Journal.registerConverter(new ImageConverter());
     }
 
-    private Image(final int width, final int height, final int imageType, final String imageName) {
-        super(width, height, imageType);
+    private Image(final int width, final int height, final byte[] grayScale, final String imageName) {
+        this.width = width;
+        this.height = height;
+        this.grayScale = grayScale;
         this.imageName = imageName;
     }
 
@@ -43,76 +46,151 @@ public final class Image extends BufferedImage {
             throw new IllegalArgumentException("Illegal input file.");
         }
 
-        return createImage(ImageIO.read(in), in.getName());
+        final BufferedImage img = ImageIO.read(in);
+        if (img == null) {
+            throw new IOException("Unsupported image format - " + in.getName());
+        }
+        return createImage(img, in.getName());
     }
 
     public static Image createImage(final BufferedImage img) {
         return createImage(img, null);
     }
-    
+
     public static Image createImage(final BufferedImage img, final String imageName) {
-        final Image result = new Image(img.getWidth(), img.getHeight(), img.getType(), imageName);
-        result.getGraphics().drawImage(img, 0, 0, null);
+        final int width = img.getWidth();
+        final int height = img.getHeight();
+        final byte[] data = new byte[width * height];
+
+        if (img.getType() == BufferedImage.TYPE_BYTE_GRAY
+                && img.getRaster().getDataBuffer() instanceof DataBufferByte
+                && img.getRaster().getDataBuffer().getSize() == data.length) {
+            // same values as from getRGB, which converts linear gray to sRGB
+            final byte[] table = createGrayTable(img.getColorModel());
+            final byte[] raw = ((DataBufferByte) img.getRaster().getDataBuffer()).getData();
+            for (int i = 0; i < data.length; i++) {
+                data[i] = table[raw[i] & 0xff];
+            }
+        } else {
+            final int[] row = new int[width];
+            for (int y = 0; y < height; y++) {
+                img.getRGB(0, y, width, 1, row, 0, width);
+                for (int x = 0; x < width; x++) {
+                    data[y * width + x] = toGray(row[x]);
+                }
+            }
+        }
 
-        return result;
+        return new Image(width, height, data, imageName);
     }
 
-    public byte[] toBWArray() {
-        if (grayScale == null) {
-            createBw();
+    /**
+     * @param width image width
+     * @param height image height
+     * @param grayScale grayscale plane, row by row, the array is not copied
+     * @param imageName name of the image, may be null
+     * @return image backed by given plane
+     */
+    public static Image createImage(final int width, final int height, final byte[] grayScale, final String imageName) {
+        if (grayScale.length != width * height) {
+            throw new IllegalArgumentException("Illegal size of grayscale data - " + grayScale.length + " for image " + width + "x" + height);
         }
-
-        return grayScale;
+        return new Image(width, height, grayScale, imageName);
     }
 
-    private void createBw() {
-        final int width = getWidth();
-        final int height = getHeight();
-        grayScale = new byte[width * height];
-        grayScale2d = new byte[width][height];
-
-        int val;
-        byte r, g, b, newVal;
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                val = getRGB(x, y);
-                r = (byte) ((val & 0xff0000) >> 16);
-                g = (byte) ((val & 0xff00) >> 8);
-                b = (byte) (val & 0xff);
-                newVal = (byte) ((r + g + b) / 3);
-                grayScale[y * width + x] = newVal;
-                grayScale2d[x][y] = newVal;
-            }
+    private static byte[] createGrayTable(final ColorModel colorModel) {
+        final byte[] result = new byte[256];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = toGray(colorModel.getRGB(i));
         }
+        return result;
+    }
+
+    /**
+     * @param rgb packed RGB value
+     * @return grayscale value used for all images
+     */
+    static byte toGray(final int rgb) {
+        final byte r = (byte) ((rgb & 0xff0000) >> 16);
+        final byte g = (byte) ((rgb & 0xff00) >> 8);
+        final byte b = (byte) (rgb & 0xff);
+        return (byte) ((r + g + b) / 3);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public byte[] toBWArray() {
+        return grayScale;
     }
 
     public byte[][] to2DBWArray() {
-        if (grayScale == null) {
-            createBw();
+        if (grayScale2d == null) {
+            final byte[][] result = new byte[width][height];
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    result[x][y] = grayScale[y * width + x];
+                }
+            }
+            grayScale2d = result;
         }
 
         return grayScale2d;
     }
 
-    public void filter(int filterSize) {
-        final byte[] bw = toBWArray();
-        if (filterSize > 0) {
-            if (filterSize % 2 == 0) {
-                filterSize++;
+    /**
+     * Grayscale data as unsigned values normalized to [0, 1].
+     *
+     * @return normalized grayscale plane, row by row
+     */
+    public float[] toNormalizedBWArray() {
+        if (normalized == null) {
+            final float[] result = new float[grayScale.length];
+            for (int i = 0; i < grayScale.length; i++) {
+                result[i] = (grayScale[i] & 0xff) / 255f;
             }
-            final Mat in = new Mat(getWidth(), getHeight(), CvType.CV_8U);
-            in.put(0, 0, bw);
-            final Mat out = new Mat();
-            Imgproc.GaussianBlur(in, out, new Size(filterSize, filterSize), 0, 0);
-            filtered = new byte[bw.length];
-            out.get(0, 0, filtered);
-        } else {
-            filtered = bw;
+            normalized = result;
         }
+
+        return normalized;
+    }
+
+    /**
+     * Applies Gaussian blur, result is kept until the image is filtered with
+     * different kernel size.
+     *
+     * @param filterSize size of the kernel, even sizes are increased by one,
+     * no filtering for sizes smaller than 2
+     */
+    public synchronized void filter(int filterSize) {
+        if (filterSize > 0 && filterSize % 2 == 0) {
+            filterSize++;
+        }
+        if (filterSize <= 1) {
+            filtered = grayScale;
+            this.filterSize = 0;
+        } else if (filtered == null || this.filterSize != filterSize) {
+            filtered = GaussianFilter.filter(grayScale, width, height, filterSize);
+            this.filterSize = filterSize;
+        }
+    }
+
+    public synchronized byte[] toFiltered() {
+        final byte[] result = filtered == null ? grayScale : filtered;
+        return result;
     }
 
-    public byte[] toFiltered() {
-        final byte[] result = filtered == null ? toBWArray() : filtered;
+    /**
+     * @return new grayscale image for display and export
+     */
+    public BufferedImage toBufferedImage() {
+        final BufferedImage result = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+        System.arraycopy(grayScale, 0, ((DataBufferByte) result.getRaster().getDataBuffer()).getData(), 0, grayScale.length);
         return result;
     }
 
@@ -0,0 +1,351 @@
+/* Copyright (C) LENAM, s.r.o. - All Rights Reserved
+ * Unauthorized copying of this file, via any medium is strictly prohibited
+ * Proprietary and confidential
+ * Written by Petr Jecmen <petr.jecmen@tul.cz>, 2015
+ */
+package cz.tul.dic.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.IntConsumer;
+import org.pmw.tinylog.Logger;
+
+/**
+ * Images of a sequence loaded on demand. Least recently used images are
+ * dropped when the estimated size of loaded images exceeds the memory limit,
+ * images of upcoming rounds can be loaded in background using
+ * {@link #prefetch(int...)} and the beginning of the sequence can be decoded
+ * in parallel using {@link #preload(int, IntConsumer)}.
+ *
+ * @author Petr Jecmen
+ */
+public final class ImageCache {
+
+    // grayscale plane, its 2D copy, filtered and normalized planes and
+    // coefficients of BicubicInterpolator, which live as long as the image
+    private static final int BYTES_PER_PIXEL = 1 + 1 + 1 + 4 + 16;
+    // images of current round and one prefetched image are never dropped
+    private static final int MIN_IMAGE_COUNT = 3;
+    private static final String EXT_AVI = ".avi";
+    private static final ExecutorService PREFETCHER;
+    private final ImageSource source;
+    private final LinkedHashMap<Integer, Image> images;
+    private final Map<Integer, Future<Image>> loading;
+    private final long memoryLimit;
+    private long memoryUsed;
+
+    static {
+        PREFETCHER = Executors.newSingleThreadExecutor(createThreadFactory("ImageCache prefetch"));
+    }
+
+    /**
+     * @param sources image files, index of file is the round number
+     * @param memoryLimit maximal estimated size of loaded images in bytes
+     */
+    public ImageCache(final List<File> sources, final long memoryLimit) {
+        this(new FileImageSource(sources), memoryLimit);
+    }
+
+    /**
+     * @param source images, index of image is the round number
+     * @param memoryLimit maximal estimated size of loaded images in bytes
+     */
+    public ImageCache(final ImageSource source, final long memoryLimit) {
+        this.source = source;
+        this.memoryLimit = memoryLimit;
+
+        images = new LinkedHashMap<>(16, 0.75f, true);
+        loading = new HashMap<>();
+    }
+
+    /**
+     * @param inputs image files or a single video file
+     * @param memoryLimit maximal estimated size of loaded images in bytes
+     * @return cache of images, frames of video files are read through
+     * {@link FrameStore}, video file is opened on first access to its images
+     */
+    public static ImageCache createCache(final List<File> inputs, final long memoryLimit) {
+        final ImageCache result;
+        if (inputs.size() == 1 && inputs.get(0).getName().toLowerCase(Locale.ENGLISH).endsWith(EXT_AVI)) {
+            result = new ImageCache(new VideoImageSource(inputs.get(0)), memoryLimit);
+        } else {
+            result = new ImageCache(inputs, memoryLimit);
+        }
+        return result;
+    }
+
+    public int size() {
+        return source.getImageCount();
+    }
+
+    /**
+     * @param index round number
+     * @return image, loaded from disk if needed
+     * @throws IOException image could not be loaded
+     */
+    public Image getImage(final int index) throws IOException {
+        Future<Image> pending;
+        FutureTask<Image> load = null;
+        synchronized (this) {
+            final Image result = images.get(index);
+            if (result != null) {
+                return result;
+            }
+
+            pending = loading.get(index);
+            if (pending == null) {
+                load = createLoad(index);
+                loading.put(index, load);
+                pending = load;
+            }
+        }
+
+        if (load != null) {
+            load.run();
+        }
+
+        try {
+            return waitFor(index, pending);
+        } catch (CancellationException ex) {
+            // parallel preload has been aborted, load the image again
+            return getImage(index);
+        }
+    }
+
+    /**
+     * Decodes images from the beginning of the sequence in parallel. Only as
+     * many images as fit into the memory limit are loaded, images are stored
+     * in the order of rounds.
+     *
+     * @param threadCount maximal count of decoding threads
+     * @param progress receives count of loaded images after each stored image,
+     * may be null
+     * @return count of loaded images
+     * @throws IOException some image could not be loaded
+     */
+    public int preload(final int threadCount, final IntConsumer progress) throws IOException {
+        final int count = Math.min(size(), (int) Math.max(MIN_IMAGE_COUNT, memoryLimit / estimateSize(getImage(0))));
+        final Map<Integer, FutureTask<Image>> decoding = new LinkedHashMap<>();
+        final ExecutorService decoder = Executors.newFixedThreadPool(Math.max(1, threadCount), createThreadFactory("ImageCache decoder"));
+        try {
+            synchronized (this) {
+                FutureTask<Image> decode;
+                for (int i = 0; i < count; i++) {
+                    if (images.containsKey(i) || loading.containsKey(i)) {
+                        continue;
+                    }
+
+                    final int index = i;
+                    decode = new FutureTask<>(() -> source.loadImage(index));
+                    loading.put(i, decode);
+                    decoding.put(i, decode);
+                }
+            }
+            for (FutureTask<Image> decode : decoding.values()) {
+                decoder.execute(decode);
+            }
+
+            int loaded = count - decoding.size();
+            if (progress != null) {
+                progress.accept(loaded);
+            }
+            final Iterator<Map.Entry<Integer, FutureTask<Image>>> it = decoding.entrySet().iterator();
+            Map.Entry<Integer, FutureTask<Image>> e;
+            Image image;
+            while (it.hasNext()) {
+                e = it.next();
+                image = waitFor(e.getKey(), e.getValue());
+                synchronized (this) {
+                    loading.remove(e.getKey());
+                    store(e.getKey(), image);
+                }
+                it.remove();
+                loaded++;
+                if (progress != null) {
+                    progress.accept(loaded);
+                }
+            }
+            return loaded;
+        } finally {
+            decoder.shutdownNow();
+            if (!decoding.isEmpty()) {
+                synchronized (this) {
+                    for (Map.Entry<Integer, FutureTask<Image>> e : decoding.entrySet()) {
+                        e.getValue().cancel(true);
+                        loading.remove(e.getKey());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Starts loading of given images in background.
+     *
+     * @param indices round numbers, indices outside of sequence are ignored
+     */
+    public synchronized void prefetch(final int... indices) {
+        FutureTask<Image> load;
+        for (int index : indices) {
+            if (index < 0 || index >= size() || images.containsKey(index) || loading.containsKey(index)) {
+                continue;
+            }
+
+            load = createLoad(index);
+            loading.put(index, load);
+            PREFETCHER.execute(load);
+        }
+    }
+
+    public synchronized void clear() {
+        images.clear();
+        memoryUsed = 0;
+    }
+
+    private FutureTask<Image> createLoad(final int index) {
+        return new FutureTask<>(() -> {
+            final Image image = source.loadImage(index);
+            synchronized (ImageCache.this) {
+                loading.remove(index);
+                store(index, image);
+            }
+            return image;
+        });
+    }
+
+    private Image waitFor(final int index, final Future<Image> pending) throws IOException {
+        try {
+            return pending.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Loading of image " + index + " has been interrupted.", ex);
+        } catch (ExecutionException ex) {
+            synchronized (this) {
+                if (loading.get(index) == pending) {
+                    loading.remove(index);
+                }
+            }
+            final Throwable cause = ex.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else {
+                throw new IOException(cause);
+            }
+        }
+    }
+
+    private void store(final int index, final Image image) {
+        images.put(index, image);
+        memoryUsed += estimateSize(image);
+
+        final Iterator<Map.Entry<Integer, Image>> it = images.entrySet().iterator();
+        Map.Entry<Integer, Image> e;
+        while (memoryUsed > memoryLimit && images.size() > MIN_IMAGE_COUNT && it.hasNext()) {
+            e = it.next();
+            if (e.getKey() == index) {
+                continue;
+            }
+            memoryUsed -= estimateSize(e.getValue());
+            it.remove();
+            Logger.trace("Image {} dropped from cache, {} images cached.", e.getKey(), images.size());
+        }
+    }
+
+    private static class FileImageSource implements ImageSource {
+
+        private final List<File> files;
+
+        FileImageSource(final List<File> files) {
+            this.files = new ArrayList<>(files);
+        }
+
+        @Override
+        public int getImageCount() {
+            return files.size();
+        }
+
+        @Override
+        public Image loadImage(final int index) throws IOException {
+            return Image.loadImageFromDisk(files.get(index));
+        }
+
+    }
+
+    /**
+     * Opens the video only when its images are needed, so tasks referencing
+     * a moved video can still be loaded. Sequence of a video which cannot be
+     * opened is empty, loading of its images fails.
+     */
+    private static class VideoImageSource implements ImageSource {
+
+        private final File video;
+        private ImageSource frames;
+        private IOException openError;
+
+        VideoImageSource(final File video) {
+            this.video = video;
+        }
+
+        @Override
+        public int getImageCount() {
+            try {
+                return open().getImageCount();
+            } catch (IOException ex) {
+                return 0;
+            }
+        }
+
+        @Override
+        public Image loadImage(final int index) throws IOException {
+            return open().loadImage(index);
+        }
+
+        /**
+         * Failed open is remembered, so missing video is reported only once
+         * and not opened again on each request.
+         */
+        private synchronized ImageSource open() throws IOException {
+            if (frames == null) {
+                if (openError != null) {
+                    throw openError;
+                }
+                try {
+                    frames = FrameStore.open(video);
+                } catch (IOException ex) {
+                    Logger.warn(ex, "Video {} could not be opened.", video);
+                    openError = ex;
+                    throw ex;
+                }
+            }
+            return frames;
+        }
+
+    }
+
+    private static ThreadFactory createThreadFactory(final String name) {
+        return r -> {
+            final Thread t = new Thread(r, name);
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    private static long estimateSize(final Image image) {
+        return (long) image.getWidth() * image.getHeight() * BYTES_PER_PIXEL;
+    }
+
+}
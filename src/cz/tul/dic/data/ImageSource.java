@@ -0,0 +1,22 @@
+/* Copyright (C) LENAM, s.r.o. - All Rights Reserved
+ * Unauthorized copying of this file, via any medium is strictly prohibited
+ * Proprietary and confidential
+ * Written by Petr Jecmen <petr.jecmen@tul.cz>, 2015
+ */
+package cz.tul.dic.data;
+
+import java.io.IOException;
+
+/**
+ * Source of images of a sequence, images must be loadable in any order and
+ * from multiple threads at once.
+ *
+ * @author Petr Jecmen
+ */
+public interface ImageSource {
+
+    int getImageCount();
+
+    Image loadImage(final int index) throws IOException;
+
+}
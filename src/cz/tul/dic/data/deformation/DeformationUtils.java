@@ -6,7 +6,6 @@
 package cz.tul.dic.data.deformation;
 
 import java.util.ArrayList;
-import java.util.LinkedList;
 import java.util.List;
 
 /**
@@ -156,7 +155,7 @@ public final class DeformationUtils {
         double[] deformation;
         long[] count;
         long counter;
-        List<double[]> deformations = new LinkedList<>();
+        List<double[]> deformations = new ArrayList<>();
         for (int i = 0; i < deformationLimits.size(); i++) {
             deformations.clear();
             limits = deformationLimits.get(i);
@@ -5,6 +5,9 @@
  */
 package cz.tul.dic.data.result;
 
+import cz.tul.dic.data.Coordinates;
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 
 /**
@@ -13,20 +16,39 @@ import java.io.Serializable;
  */
 public class DisplacementResult implements Serializable {
 
-    private final double[][][] deformation;
-    private final double[][] quality;
+    // version of results stored using Java serialization
+    private static final long serialVersionUID = -538595709297396783L;
+    private VectorField displacement;
+    private double[][] quality;
 
-    public DisplacementResult(final double[][][] deformation, final double[][] quality) {
-        this.deformation = deformation;
+    public DisplacementResult(final VectorField displacement, final double[][] quality) {
+        this.displacement = displacement;
         this.quality = quality;
     }
 
-    public double[][][] getDisplacement() {
-        return deformation;
+    /**
+     * @return field with {@link Coordinates#DIMENSION} components for each
+     * pixel
+     */
+    public VectorField getDisplacement() {
+        return displacement;
     }
 
     public double[][] getQuality() {
         return quality;
     }
 
+    private void readObject(final ObjectInputStream in) throws IOException, ClassNotFoundException {
+        final ObjectInputStream.GetField fields = in.readFields();
+        quality = (double[][]) fields.get("quality", null);
+        displacement = (VectorField) fields.get("displacement", null);
+        if (displacement == null) {
+            // results stored before the fields were flattened keep value arrays of each pixel
+            final double[][][] deformation = (double[][][]) VectorField.readLegacyField(fields, "deformation");
+            if (deformation != null) {
+                displacement = VectorField.fromArray(deformation, Coordinates.DIMENSION);
+            }
+        }
+    }
+
 }
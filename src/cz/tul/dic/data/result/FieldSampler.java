@@ -0,0 +1,129 @@
+/* Copyright (C) LENAM, s.r.o. - All Rights Reserved
+ * Unauthorized copying of this file, via any medium is strictly prohibited
+ * Proprietary and confidential
+ * Written by Petr Jecmen <petr.jecmen@tul.cz>, 2015
+ */
+package cz.tul.dic.data.result;
+
+/**
+ * Interpolation of result fields at non-integer positions. Positions outside
+ * the field and pixels without value are detected by explicit checks of
+ * bounds and validity, never by catching exceptions.
+ *
+ * @author Petr Jecmen
+ */
+public final class FieldSampler {
+
+    private FieldSampler() {
+    }
+
+    /**
+     * Bilinear interpolation of all components. Neighbours outside the field
+     * are left out.
+     *
+     * @param result array for interpolated components
+     * @return false if the position or any of its neighbours inside the field
+     * has no value, result is not changed in that case
+     */
+    public static boolean sample(final VectorField field, final double x, final double y, final double[] result) {
+        final int intX = (int) x;
+        final int intY = (int) y;
+        final boolean hasNextX = intX < field.getWidth() - 1;
+        final boolean hasNextY = intY < field.getHeight() - 1;
+        if (!field.isValid(intX, intY)
+                || (hasNextX && !field.isValid(intX + 1, intY))
+                || (hasNextY && !field.isValid(intX, intY + 1))
+                || (hasNextX && hasNextY && !field.isValid(intX + 1, intY + 1))) {
+            return false;
+        }
+
+        final double dX = x - intX;
+        final double dY = y - intY;
+        double val;
+        for (int c = 0; c < field.getComponentCount(); c++) {
+            val = field.getValue(intX, intY, c) * (1 - dX) * (1 - dY);
+            if (hasNextX) {
+                val += field.getValue(intX + 1, intY, c) * dX * (1 - dY);
+                if (hasNextY) {
+                    val += field.getValue(intX + 1, intY + 1, c) * dX * dY;
+                }
+            }
+            if (hasNextY) {
+                val += field.getValue(intX, intY + 1, c) * (1 - dX) * dY;
+            }
+            result[c] = val;
+        }
+        return true;
+    }
+
+    /**
+     * Bilinear interpolation of values indexed [x][y]. Neighbours outside the
+     * data and neighbours without finite value are left out.
+     *
+     * @return interpolated value, NaN if there are no data or the position is
+     * outside of them
+     */
+    public static double sample(final double[][] data, final double x, final double y) {
+        final int intX = (int) x;
+        final int intY = (int) y;
+        if (data == null || intX < 0 || intY < 0 || intX >= data.length || data[intX] == null || intY >= data[intX].length) {
+            return Double.NaN;
+        }
+
+        final double dX = x - intX;
+        final double dY = y - intY;
+        final boolean hasNextX = intX < data.length - 1 && data[intX + 1] != null;
+        final boolean hasNextY = intY < data[intX].length - 1;
+        double result = finiteValue(data[intX][intY]) * (1 - dX) * (1 - dY);
+        if (hasNextX) {
+            result += finiteValue(data[intX + 1][intY]) * dX * (1 - dY);
+            if (hasNextY) {
+                result += finiteValue(data[intX + 1][intY + 1]) * dX * dY;
+            }
+        }
+        if (hasNextY) {
+            result += finiteValue(data[intX][intY + 1]) * (1 - dX) * dY;
+        }
+        return result;
+    }
+
+    /**
+     * Linear interpolation of values indexed [x][y] in the direction of Y
+     * axis.
+     *
+     * @return interpolated value, NaN if the position is outside of the data
+     * or any of the used values is not finite
+     */
+    public static double sampleColumn(final double[][] data, final int x, final double y) {
+        if (x < 0 || x >= data.length || y < 0 || y > data[x].length - 1) {
+            return Double.NaN;
+        }
+
+        final int y1 = (int) y;
+        final double ratio = y - y1;
+        final double val1 = data[x][y1];
+        if (ratio == 0) {
+            return Double.isFinite(val1) ? val1 : Double.NaN;
+        }
+
+        final double val2 = data[x][y1 + 1];
+        if (!Double.isFinite(val1) || !Double.isFinite(val2)) {
+            return Double.NaN;
+        }
+        return val1 * (1 - ratio) + val2 * ratio;
+    }
+
+    /**
+     * @return index of the last line containing a pixel with value, -1 if
+     * there is no such pixel
+     */
+    public static int findLastValidLine(final VectorField field) {
+        final int index = field.findLastValidIndex();
+        return index < 0 ? -1 : index / field.getWidth();
+    }
+
+    private static double finiteValue(final double val) {
+        return Double.isFinite(val) ? val : 0;
+    }
+
+}
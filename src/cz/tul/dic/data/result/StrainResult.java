@@ -5,6 +5,8 @@
  */
 package cz.tul.dic.data.result;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 
 /**
@@ -13,20 +15,26 @@ import java.io.Serializable;
  */
 public class StrainResult implements Serializable {
 
+    // version of results stored using Java serialization
+    private static final long serialVersionUID = 9080194766317585514L;
     public static final int E_XX = 0;
     public static final int E_YY = 1;
     public static final int E_XY = 2;
-    private final double[][][] strain;
-    private final double[][] qualityX, qualityY;
+    public static final int COMPONENT_COUNT = 3;
+    private VectorField strainField;
+    private double[][] qualityX, qualityY;
 
-    public StrainResult(final double[][][] strain, final double[][] qualityX, final double[][] qualityY) {
-        this.strain = strain;
+    public StrainResult(final VectorField strain, final double[][] qualityX, final double[][] qualityY) {
+        this.strainField = strain;
         this.qualityX = qualityX;
         this.qualityY = qualityY;
     }
 
-    public double[][][] getStrain() {
-        return strain;
+    /**
+     * @return field with {@link #COMPONENT_COUNT} components for each pixel
+     */
+    public VectorField getStrain() {
+        return strainField;
     }
 
     public double[][] getQualityX() {
@@ -37,4 +45,18 @@ public class StrainResult implements Serializable {
         return qualityY;
     }
 
+    private void readObject(final ObjectInputStream in) throws IOException, ClassNotFoundException {
+        final ObjectInputStream.GetField fields = in.readFields();
+        qualityX = (double[][]) fields.get("qualityX", null);
+        qualityY = (double[][]) fields.get("qualityY", null);
+        strainField = (VectorField) fields.get("strainField", null);
+        if (strainField == null) {
+            // results stored before the fields were flattened keep value arrays of each pixel
+            final double[][][] strain = (double[][][]) VectorField.readLegacyField(fields, "strain");
+            if (strain != null) {
+                strainField = VectorField.fromArray(strain, COMPONENT_COUNT);
+            }
+        }
+    }
+
 }
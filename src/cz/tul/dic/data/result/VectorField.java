@@ -0,0 +1,155 @@
+/* Copyright (C) LENAM, s.r.o. - All Rights Reserved
+ * Unauthorized copying of this file, via any medium is strictly prohibited
+ * Proprietary and confidential
+ * Written by Petr Jecmen <petr.jecmen@tul.cz>, 2015
+ */
+package cz.tul.dic.data.result;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.BitSet;
+
+/**
+ * Dense field of vectors, one vector for each pixel of an image. Each
+ * component is stored in its own plane row by row, pixels without value are
+ * marked in a validity bitmap.
+ *
+ * @author Petr Jecmen
+ */
+public final class VectorField implements Serializable {
+
+    private static final long serialVersionUID = -846526562837177196L;
+    private final int width, height, componentCount;
+    private final double[][] planes;
+    private final BitSet valid;
+
+    public VectorField(final int width, final int height, final int componentCount) {
+        if (width < 0 || height < 0 || componentCount < 1) {
+            throw new IllegalArgumentException("Illegal field size - " + width + "x" + height + "x" + componentCount);
+        }
+        this.width = width;
+        this.height = height;
+        this.componentCount = componentCount;
+        planes = new double[componentCount][width * height];
+        valid = new BitSet(width * height);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getComponentCount() {
+        return componentCount;
+    }
+
+    /**
+     * @return true if the pixel lies inside the field and has a value
+     */
+    public boolean isValid(final int x, final int y) {
+        return x >= 0 && y >= 0 && x < width && y < height && valid.get(y * width + x);
+    }
+
+    /**
+     * @return value of the component, result is undefined for pixels without
+     * value
+     */
+    public double getValue(final int x, final int y, final int component) {
+        return planes[component][y * width + x];
+    }
+
+    /**
+     * @return new array with all components, null if the pixel has no value
+     */
+    public double[] getValues(final int x, final int y) {
+        if (!isValid(x, y)) {
+            return null;
+        }
+        final double[] result = new double[componentCount];
+        getValues(x, y, result);
+        return result;
+    }
+
+    /**
+     * @param target array for all components
+     */
+    public void getValues(final int x, final int y, final double[] target) {
+        final int index = y * width + x;
+        for (int c = 0; c < componentCount; c++) {
+            target[c] = planes[c][index];
+        }
+    }
+
+    /**
+     * Sets all components and marks the pixel as valid.
+     */
+    public void setValues(final int x, final int y, final double... values) {
+        if (values.length != componentCount) {
+            throw new IllegalArgumentException("Illegal component count - " + values.length + ", required " + componentCount);
+        }
+        final int index = y * width + x;
+        for (int c = 0; c < componentCount; c++) {
+            planes[c][index] = values[c];
+        }
+        valid.set(index);
+    }
+
+    /**
+     * Sets single component and marks the pixel as valid.
+     */
+    public void setValue(final int x, final int y, final int component, final double value) {
+        final int index = y * width + x;
+        planes[component][index] = value;
+        valid.set(index);
+    }
+
+    /**
+     * @return index (y * width + x) of the last pixel with value, -1 if no
+     * pixel has value
+     */
+    int findLastValidIndex() {
+        return valid.previousSetBit(width * height - 1);
+    }
+
+    /**
+     * @param data values of each pixel indexed [x][y], null for pixels without
+     * value
+     * @param componentCount count of components of each value
+     * @return field with given values
+     */
+    public static VectorField fromArray(final double[][][] data, final int componentCount) {
+        final int width = data.length;
+        final int height = width > 0 ? data[0].length : 0;
+        final VectorField result = new VectorField(width, height, componentCount);
+        double[] val;
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                val = data[x][y];
+                if (val != null) {
+                    for (int c = 0; c < Math.min(componentCount, val.length); c++) {
+                        result.setValue(x, y, c, val[c]);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return value of a field which is present only in data stored by older
+     * versions, null if the field is not present
+     */
+    static Object readLegacyField(final ObjectInputStream.GetField fields, final String name) throws IOException, ClassNotFoundException {
+        try {
+            return fields.get(name, null);
+        } catch (IllegalArgumentException ex) {
+            // field is neither in stored data nor in current class
+            return null;
+        }
+    }
+
+}
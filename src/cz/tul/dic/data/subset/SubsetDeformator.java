@@ -25,54 +25,49 @@ public class SubsetDeformator {
     }
     
     public Map<int[], double[]> deformSubset(final AbstractSubset subset, final double[] deformation) {
+        return fillCache(subset, deformSubset(subset, deformation, null), false);
+    }
+
+    public Map<int[], double[]> computePixelDeformationValues(final AbstractSubset subset, final double[] deformation) {
+        return fillCache(subset, deformSubset(subset, deformation, null), true);
+    }
+
+    /**
+     * Deforms subset coordinates without any temporary objects.
+     *
+     * @param subset deformed subset
+     * @param deformation deformation coefficients
+     * @param result array for deformed coordinates [x0, y0, x1, y1, ...] (same
+     * layout as subset data), new array is created if null
+     * @return array with deformed coordinates
+     */
+    public static double[] deformSubset(final AbstractSubset subset, final double[] deformation, final double[] result) {
         final int[] data = subset.getData();
         final double[] center = subset.getCenter();
-        final int subsetArea = data.length / Coordinates.DIMENSION;
         final DeformationOrder degree = DeformationUtils.getDegreeFromValue(deformation);
-
-        if (dataCache.size() != subsetArea) {
-            if (dataCache.size() > subsetArea) {
-                dataCache.clear();
-            }
-
-            while (dataCache.size() < subsetArea) {
-                dataCache.put(new int[Coordinates.DIMENSION], new double[Coordinates.DIMENSION]);
-            }
+        final double[] coords = result == null ? new double[data.length] : result;
+        if (coords.length < data.length) {
+            throw new IllegalArgumentException("Result array too small - " + coords.length + ", needed " + data.length);
         }
 
-        int x, y, i = 0;
-        double dx, dy;
         final double[] newCoords = new double[Coordinates.DIMENSION];
-        int[] pos;
-        double[] def;
-        for (Map.Entry<int[], double[]> e : dataCache.entrySet()) {
-            x = data[i * 2];
-            y = data[i * 2 + 1];
-
-            dx = x - center[Coordinates.X];
-            dy = y - center[Coordinates.Y];
-
-            deform(x, y, dx, dy, deformation, newCoords, degree);
-
-            pos = e.getKey();
-            pos[Coordinates.X] = x;
-            pos[Coordinates.Y] = y;
+        int x, y;
+        for (int i = 0; i < data.length; i += Coordinates.DIMENSION) {
+            x = data[i];
+            y = data[i + 1];
 
-            def = e.getValue();
-            def[Coordinates.X] = newCoords[Coordinates.X];
-            def[Coordinates.Y] = newCoords[Coordinates.Y];
+            deform(x, y, x - center[Coordinates.X], y - center[Coordinates.Y], deformation, newCoords, degree);
 
-            i++;
+            coords[i] = newCoords[Coordinates.X];
+            coords[i + 1] = newCoords[Coordinates.Y];
         }
-        
-        return dataCache;
+
+        return coords;
     }
-    
-    public Map<int[], double[]> computePixelDeformationValues(final AbstractSubset subset, final double[] deformation) {
+
+    private Map<int[], double[]> fillCache(final AbstractSubset subset, final double[] deformedCoords, final boolean displacementOnly) {
         final int[] data = subset.getData();
-        final double[] center = subset.getCenter();
         final int subsetArea = data.length / Coordinates.DIMENSION;
-        final DeformationOrder degree = DeformationUtils.getDegreeFromValue(deformation);
 
         if (dataCache.size() != subsetArea) {
             if (dataCache.size() > subsetArea) {
@@ -85,26 +80,23 @@ public class SubsetDeformator {
         }
 
         int x, y, i = 0;
-        double dx, dy;
-        final double[] newCoords = new double[Coordinates.DIMENSION];
         int[] pos;
         double[] def;
         for (Map.Entry<int[], double[]> e : dataCache.entrySet()) {
             x = data[i * 2];
             y = data[i * 2 + 1];
 
-            dx = x - center[Coordinates.X];
-            dy = y - center[Coordinates.Y];
-
-            deform(x, y, dx, dy, deformation, newCoords, degree);
-
             pos = e.getKey();
             pos[Coordinates.X] = x;
             pos[Coordinates.Y] = y;
 
             def = e.getValue();
-            def[Coordinates.X] = newCoords[Coordinates.X] - x;
-            def[Coordinates.Y] = newCoords[Coordinates.Y] - y;
+            def[Coordinates.X] = deformedCoords[i * 2];
+            def[Coordinates.Y] = deformedCoords[i * 2 + 1];
+            if (displacementOnly) {
+                def[Coordinates.X] -= x;
+                def[Coordinates.Y] -= y;
+            }
 
             i++;
         }
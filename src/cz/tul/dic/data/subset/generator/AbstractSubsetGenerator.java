@@ -31,6 +31,14 @@ public abstract class AbstractSubsetGenerator {
 
     public abstract HashMap<AbstractROI, List<AbstractSubset>> generateSubsets(final TaskContainer task, final int round) throws ComputationException;
 
+    /**
+     * @return true if subsets are generated from results of the previous
+     * round, so the previous round has to be finished first
+     */
+    public boolean usesPreviousResults() {
+        return false;
+    }
+
     protected boolean checkAreaValidity(final double x1, final double y1, final double x2, final double y2, final double width, final double height) {
         boolean result = true;
 
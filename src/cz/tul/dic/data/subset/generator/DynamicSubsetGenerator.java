@@ -8,6 +8,7 @@ package cz.tul.dic.data.subset.generator;
 import cz.tul.dic.ComputationException;
 import cz.tul.dic.ComputationExceptionCause;
 import cz.tul.dic.data.result.Result;
+import cz.tul.dic.data.result.VectorField;
 import cz.tul.dic.data.subset.AbstractSubset;
 import cz.tul.dic.data.task.TaskContainer;
 import cz.tul.dic.data.task.TaskParameter;
@@ -27,6 +28,11 @@ public class DynamicSubsetGenerator extends AbstractSubsetGenerator {
     private static final double DIST_MIN_2 = DIST_MIN * DIST_MIN;
     private static final double DELTA = 1 / 4.0;
 
+    @Override
+    public boolean usesPreviousResults() {
+        return true;
+    }
+
     @Override
     public HashMap<AbstractROI, List<AbstractSubset>> generateSubsets(TaskContainer tc, int round) throws ComputationException {
         final Object o = tc.getParameter(TaskParameter.SUBSET_GENERATOR_PARAM);
@@ -44,7 +50,7 @@ public class DynamicSubsetGenerator extends AbstractSubsetGenerator {
         if (previousResult == null) {
             return equalGenerator.generateSubsets(tc, round);
         }
-        final double[][][] previousDisplacement = previousResult.getDisplacementResult().getDisplacement();
+        final VectorField previousDisplacement = previousResult.getDisplacementResult().getDisplacement();
 
         final Set<AbstractROI> rois = tc.getRois(round);
         final HashMap<AbstractROI, List<AbstractSubset>> result = equalGenerator.generateSubsets(tc, round);
@@ -190,21 +196,24 @@ public class DynamicSubsetGenerator extends AbstractSubsetGenerator {
         return result;
     }
 
-    private static boolean difExceedsTreshold(final AbstractSubset subsetA, final AbstractSubset subsetB, final double[][][] displacementResults) {
+    private static boolean difExceedsTreshold(final AbstractSubset subsetA, final AbstractSubset subsetB, final VectorField displacementResults) {
         final double[] centerA = subsetA.getCenter();
         final double[] centerB = subsetB.getCenter();
-        final double dif2 = calculateDist2(
-                displacementResults[(int) Math.round(centerA[0])][(int) Math.round(centerA[1])],
-                displacementResults[(int) Math.round(centerB[0])][(int) Math.round(centerB[1])]);        
-        return dif2 > DIF_TRESHOLD_2;
+        final double[] valA = displacementResults.getValues((int) Math.round(centerA[0]), (int) Math.round(centerA[1]));
+        final double[] valB = displacementResults.getValues((int) Math.round(centerB[0]), (int) Math.round(centerB[1]));
+        // no refinement around subsets without previous result
+        if (valA == null || valB == null) {
+            return false;
+        }
+        return calculateDist2(valA, valB) > DIF_TRESHOLD_2;
     }
 
-    private static double calculateInvariant(final AbstractSubset subset, final double[][][] displacementResults) {
+    private static double calculateInvariant(final AbstractSubset subset, final VectorField displacementResults) {
         final double[] center = subset.getCenter();
         final int x = (int) Math.round(center[0]);
         final int y = (int) Math.round(center[1]);
-        double result = Math.abs(displacementResults[x][y][0] - displacementResults[x + 1][y][0]);
-        result += Math.abs(displacementResults[x][y][1] - displacementResults[x][y + 1][1]);
+        double result = Math.abs(displacementResults.getValue(x, y, 0) - displacementResults.getValue(x + 1, y, 0));
+        result += Math.abs(displacementResults.getValue(x, y, 1) - displacementResults.getValue(x, y + 1, 1));
         return result;
     }
 
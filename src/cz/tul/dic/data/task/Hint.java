@@ -13,6 +13,8 @@ public enum Hint {
     
     NO_STRAIN,
     NO_CUMULATIVE,
-    NO_STATS;
+    NO_STATS,
+    PIPELINED,
+    INCREMENTAL_CUMULATIVE;
 
 }
@@ -0,0 +1,95 @@
+/* Copyright (C) LENAM, s.r.o. - All Rights Reserved
+ * Unauthorized copying of this file, via any medium is strictly prohibited
+ * Proprietary and confidential
+ * Written by Petr Jecmen <petr.jecmen@tul.cz>, 2015
+ */
+package cz.tul.dic.data.task;
+
+import cz.tul.dic.data.result.Result;
+import cz.tul.dic.data.roi.AbstractROI;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.pmw.tinylog.Logger;
+
+/**
+ * Results of a task stored in binary task file. Results are read from the
+ * file when requested, recently used results are kept in memory.
+ *
+ * @author Petr Jecmen
+ */
+final class StoredResults {
+
+    private final File source;
+    private final boolean compressed;
+    private final Map<Long, long[]> index;
+    private final AbstractROI[] roiTable;
+    private final Map<Long, Result> cache;
+
+    StoredResults(final File source, final boolean compressed, final List<long[]> index, final AbstractROI[] roiTable, final int cacheSize) {
+        this.source = source;
+        this.compressed = compressed;
+        this.roiTable = roiTable;
+
+        this.index = new HashMap<>(index.size());
+        for (long[] entry : index) {
+            this.index.put(key((int) entry[0], (int) entry[1]), entry);
+        }
+
+        cache = new LinkedHashMap<Long, Result>(cacheSize, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<Long, Result> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    File getSource() {
+        return source;
+    }
+
+    /**
+     * @return pairs of round from and round to of all stored results
+     */
+    List<int[]> getRounds() {
+        final List<int[]> result = new ArrayList<>(index.size());
+        for (long[] entry : index.values()) {
+            result.add(new int[]{(int) entry[0], (int) entry[1]});
+        }
+        return result;
+    }
+
+    /**
+     * @return stored result, null if there is no result for given rounds or
+     * the result could not be read
+     */
+    synchronized Result getResult(final int roundFrom, final int roundTo) {
+        final long key = key(roundFrom, roundTo);
+        final long[] entry = index.get(key);
+        if (entry == null) {
+            return null;
+        }
+
+        Result result = cache.get(key);
+        if (result == null) {
+            try (FileChannel channel = FileChannel.open(source.toPath(), StandardOpenOption.READ)) {
+                result = TaskBinaryFormat.readResult(channel, entry, compressed, roiTable);
+                cache.put(key, result);
+            } catch (IOException ex) {
+                Logger.error(ex, "Error reading result {}:{} from {}.", roundFrom, roundTo, source);
+            }
+        }
+        return result;
+    }
+
+    private static long key(final int roundFrom, final int roundTo) {
+        return ((long) roundFrom << 32) | (roundTo & 0xffffffffL);
+    }
+
+}
@@ -0,0 +1,661 @@
+/* Copyright (C) LENAM, s.r.o. - All Rights Reserved
+ * Unauthorized copying of this file, via any medium is strictly prohibited
+ * Proprietary and confidential
+ * Written by Petr Jecmen <petr.jecmen@tul.cz>, 2015
+ */
+package cz.tul.dic.data.task;
+
+import cz.tul.dic.data.Coordinates;
+import cz.tul.dic.data.result.CorrelationResult;
+import cz.tul.dic.data.result.DisplacementResult;
+import cz.tul.dic.data.result.Result;
+import cz.tul.dic.data.result.StrainResult;
+import cz.tul.dic.data.result.VectorField;
+import cz.tul.dic.data.roi.AbstractROI;
+import cz.tul.dic.data.subset.AbstractSubset;
+import cz.tul.dic.data.subset.SquareSubset2D;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Binary storage of task with results. Task configuration is stored as a
+ * single serialized chunk, every result is stored in its own chunk with
+ * displacement and strain fields written as float planes. Chunks can be
+ * compressed, an index of all chunks at the end of the file allows reading
+ * results of a single round without reading the whole file.
+ * <p>
+ * File layout - magic, version, flags, task chunk, result chunks, index (chunk
+ * count, round from, round to, offset and length of each chunk), offset of
+ * the index.
+ *
+ * @author Petr Jecmen
+ */
+public final class TaskBinaryFormat {
+
+    private static final int MAGIC = 0x44494354;
+    private static final int VERSION = 1;
+    private static final int FLAG_COMPRESSED = 1;
+    private static final int HEADER_SIZE = 4 + 4 + 4;
+    private static final int INDEX_ENTRY_SIZE = 4 + 4 + 8 + 8;
+    private static final int TASK_CHUNK = -1;
+    private static final int NULL = -1;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private TaskBinaryFormat() {
+    }
+
+    /**
+     * @param file tested file
+     * @return true if the file starts with the header of this format
+     */
+    public static boolean isBinaryFormat(final File file) {
+        boolean result = false;
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(file.toPath()))) {
+            result = in.readInt() == MAGIC;
+        } catch (IOException ex) {
+            // not readable, so not supported
+        }
+        return result;
+    }
+
+    /**
+     * @param tc task with results
+     * @param target target file
+     * @param compress chunks are compressed if true
+     * @throws IOException data could not be written
+     */
+    public static void write(final TaskContainer tc, final File target, final boolean compress) throws IOException {
+        if (tc.isResultSource(target)) {
+            // results are read from the target, which is going to be overwritten
+            tc.loadStoredResults();
+        }
+
+        // results are not limited by image count, images may be unavailable
+        final List<int[]> rounds = new ArrayList<>();
+        final Map<AbstractROI, Integer> roiIndices = new IdentityHashMap<>();
+        final List<AbstractROI> roiTable = new ArrayList<>();
+        Result r;
+        for (int[] round : tc.getResultRounds()) {
+            r = tc.getResult(round[0], round[1]);
+            if (r != null) {
+                rounds.add(round);
+                registerRois(r.getSubsets(), roiIndices, roiTable);
+                registerRois(r.getCorrelations(), roiIndices, roiTable);
+            }
+        }
+
+        final TaskContainer config = new TaskContainer(tc);
+        config.clearResultData();
+
+        final List<long[]> index = new ArrayList<>(rounds.size() + 1);
+        try (CountingOutputStream out = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(target), BUFFER_SIZE))) {
+            final DataOutputStream header = new DataOutputStream(out);
+            header.writeInt(MAGIC);
+            header.writeInt(VERSION);
+            header.writeInt(compress ? FLAG_COMPRESSED : 0);
+            header.flush();
+
+            final Deflater deflater = compress ? new Deflater(Deflater.BEST_SPEED) : null;
+            try {
+                long start = out.getCount();
+                DataOutputStream chunk = openChunk(out, deflater);
+                try (ObjectOutputStream oos = new ObjectOutputStream(new NonClosingOutputStream(chunk))) {
+                    oos.writeObject(config);
+                    oos.writeObject(roiTable.toArray(new AbstractROI[roiTable.size()]));
+                }
+                chunk.close();
+                index.add(new long[]{TASK_CHUNK, TASK_CHUNK, start, out.getCount() - start});
+
+                for (int[] round : rounds) {
+                    start = out.getCount();
+                    chunk = openChunk(out, deflater);
+                    writeResult(chunk, tc.getResult(round[0], round[1]), roiIndices);
+                    chunk.close();
+                    index.add(new long[]{round[0], round[1], start, out.getCount() - start});
+                }
+            } finally {
+                if (deflater != null) {
+                    deflater.end();
+                }
+            }
+
+            final long indexOffset = out.getCount();
+            final DataOutputStream footer = new DataOutputStream(out);
+            footer.writeInt(index.size());
+            for (long[] entry : index) {
+                footer.writeInt((int) entry[0]);
+                footer.writeInt((int) entry[1]);
+                footer.writeLong(entry[2]);
+                footer.writeLong(entry[3]);
+            }
+            footer.writeLong(indexOffset);
+            footer.flush();
+        }
+    }
+
+    /**
+     * @param source file written by {@link #write}
+     * @return task with all results
+     * @throws IOException file could not be read or has illegal format
+     */
+    public static TaskContainer read(final File source) throws IOException {
+        return read(source, 0);
+    }
+
+    /**
+     * @param source file written by {@link #write}
+     * @param cacheSize count of results held in memory, results are read from
+     * file when requested from task; all results are read immediately if 0
+     * @return task with results
+     * @throws IOException file could not be read or has illegal format
+     */
+    public static TaskContainer read(final File source, final int cacheSize) throws IOException {
+        try (FileChannel channel = FileChannel.open(source.toPath(), StandardOpenOption.READ)) {
+            final boolean compressed = readHeader(channel);
+            final List<long[]> index = readIndex(channel);
+            if (index.isEmpty() || index.get(0)[0] != TASK_CHUNK) {
+                throw new IOException("Task data are missing in " + source.getName());
+            }
+
+            final TaskContainer result;
+            final AbstractROI[] roiTable;
+            try (ObjectInputStream ois = new ObjectInputStream(openChunk(channel, index.get(0), compressed))) {
+                result = (TaskContainer) ois.readObject();
+                roiTable = (AbstractROI[]) ois.readObject();
+            } catch (ClassNotFoundException | ClassCastException ex) {
+                throw new IOException("Illegal task data in " + source.getName(), ex);
+            }
+
+            final List<long[]> resultIndex = index.subList(1, index.size());
+            if (cacheSize > 0) {
+                result.setStoredResults(new StoredResults(source, compressed, resultIndex, roiTable, cacheSize));
+            } else {
+                for (long[] entry : resultIndex) {
+                    result.setResult((int) entry[0], (int) entry[1], readResult(channel, entry, compressed, roiTable));
+                }
+            }
+            return result;
+        }
+    }
+
+    /**
+     * @param entry index entry of the result chunk
+     */
+    static Result readResult(final FileChannel channel, final long[] entry, final boolean compressed, final AbstractROI[] roiTable) throws IOException {
+        try (DataInputStream in = new DataInputStream(openChunk(channel, entry, compressed))) {
+            return readResult(in, roiTable);
+        }
+    }
+
+    private static boolean readHeader(final FileChannel channel) throws IOException {
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        if (channel.read(header, 0) != HEADER_SIZE || header.getInt(0) != MAGIC) {
+            throw new IOException("Not a binary task file.");
+        }
+        if (header.getInt(4) != VERSION) {
+            throw new IOException("Unsupported version of binary task file - " + header.getInt(4));
+        }
+        return (header.getInt(8) & FLAG_COMPRESSED) != 0;
+    }
+
+    private static List<long[]> readIndex(final FileChannel channel) throws IOException {
+        final long size = channel.size();
+        final ByteBuffer offsetBuffer = ByteBuffer.allocate(8);
+        if (size < HEADER_SIZE + 4 + 8 || channel.read(offsetBuffer, size - 8) != 8) {
+            throw new IOException("Binary task file is truncated.");
+        }
+        final long indexOffset = offsetBuffer.getLong(0);
+        if (indexOffset < HEADER_SIZE || indexOffset > size - 4 - 8) {
+            throw new IOException("Illegal index offset in binary task file.");
+        }
+
+        final ByteBuffer indexBuffer = ByteBuffer.allocate((int) (size - 8 - indexOffset));
+        while (indexBuffer.hasRemaining()) {
+            if (channel.read(indexBuffer, indexOffset + indexBuffer.position()) < 0) {
+                throw new IOException("Binary task file is truncated.");
+            }
+        }
+        indexBuffer.flip();
+        final int count = indexBuffer.getInt();
+        if (count < 0 || indexBuffer.remaining() != count * INDEX_ENTRY_SIZE) {
+            throw new IOException("Illegal index in binary task file.");
+        }
+        final List<long[]> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            result.add(new long[]{indexBuffer.getInt(), indexBuffer.getInt(), indexBuffer.getLong(), indexBuffer.getLong()});
+        }
+        return result;
+    }
+
+    private static InputStream openChunk(final FileChannel channel, final long[] entry, final boolean compressed) throws IOException {
+        channel.position(entry[2]);
+        final InputStream in = new BoundedInputStream(Channels.newInputStream(channel), entry[3]);
+        if (!compressed) {
+            return new BufferedInputStream(in, BUFFER_SIZE);
+        }
+        return new BufferedInputStream(new InflaterInputStream(in, new Inflater(), BUFFER_SIZE) {
+            @Override
+            public void close() throws IOException {
+                super.close();
+                inf.end();
+            }
+        }, BUFFER_SIZE);
+    }
+
+    /**
+     * Closing the returned stream finishes the chunk, target stream stays
+     * open.
+     */
+    private static DataOutputStream openChunk(final OutputStream out, final Deflater deflater) {
+        OutputStream target = new NonClosingOutputStream(out);
+        if (deflater != null) {
+            deflater.reset();
+            target = new DeflaterOutputStream(target, deflater, BUFFER_SIZE);
+        }
+        return new DataOutputStream(new BufferedOutputStream(target, BUFFER_SIZE));
+    }
+
+    private static void registerRois(final Map<AbstractROI, ?> data, final Map<AbstractROI, Integer> roiIndices, final List<AbstractROI> roiTable) {
+        if (data != null) {
+            for (AbstractROI roi : data.keySet()) {
+                if (!roiIndices.containsKey(roi)) {
+                    roiIndices.put(roi, roiTable.size());
+                    roiTable.add(roi);
+                }
+            }
+        }
+    }
+
+    private static void writeResult(final DataOutputStream out, final Result result, final Map<AbstractROI, Integer> roiIndices) throws IOException {
+        final Map<AbstractROI, List<AbstractSubset>> subsets = result.getSubsets();
+        if (subsets == null) {
+            out.writeInt(NULL);
+        } else {
+            out.writeInt(subsets.size());
+            for (Entry<AbstractROI, List<AbstractSubset>> e : subsets.entrySet()) {
+                out.writeInt(roiIndices.get(e.getKey()));
+                writeSubsets(out, e.getValue());
+            }
+        }
+
+        final Map<AbstractROI, List<CorrelationResult>> correlations = result.getCorrelations();
+        if (correlations == null) {
+            out.writeInt(NULL);
+        } else {
+            out.writeInt(correlations.size());
+            for (Entry<AbstractROI, List<CorrelationResult>> e : correlations.entrySet()) {
+                out.writeInt(roiIndices.get(e.getKey()));
+                writeCorrelations(out, e.getValue());
+            }
+        }
+
+        final DisplacementResult displacement = result.getDisplacementResult();
+        out.writeBoolean(displacement != null);
+        if (displacement != null) {
+            writeField(out, displacement.getDisplacement());
+            writePlane(out, displacement.getQuality());
+        }
+
+        final StrainResult strain = result.getStrainResult();
+        out.writeBoolean(strain != null);
+        if (strain != null) {
+            writeField(out, strain.getStrain());
+            writePlane(out, strain.getQualityX());
+            writePlane(out, strain.getQualityY());
+        }
+    }
+
+    private static Result readResult(final DataInputStream in, final AbstractROI[] roiTable) throws IOException {
+        HashMap<AbstractROI, List<AbstractSubset>> subsets = null;
+        int count = in.readInt();
+        if (count != NULL) {
+            subsets = new HashMap<>(count);
+            for (int i = 0; i < count; i++) {
+                subsets.put(readRoi(in, roiTable), readSubsets(in));
+            }
+        }
+
+        HashMap<AbstractROI, List<CorrelationResult>> correlations = null;
+        count = in.readInt();
+        if (count != NULL) {
+            correlations = new HashMap<>(count);
+            for (int i = 0; i < count; i++) {
+                correlations.put(readRoi(in, roiTable), readCorrelations(in));
+            }
+        }
+
+        DisplacementResult displacement = null;
+        if (in.readBoolean()) {
+            displacement = new DisplacementResult(readField(in, Coordinates.DIMENSION), readPlane(in));
+        }
+
+        Result result = new Result(subsets, correlations, displacement);
+        if (in.readBoolean()) {
+            result = new Result(result, new StrainResult(readField(in, StrainResult.COMPONENT_COUNT), readPlane(in), readPlane(in)));
+        }
+        return result;
+    }
+
+    private static AbstractROI readRoi(final DataInputStream in, final AbstractROI[] roiTable) throws IOException {
+        final int index = in.readInt();
+        if (index < 0 || index >= roiTable.length) {
+            throw new IOException("Illegal ROI index " + index);
+        }
+        return roiTable[index];
+    }
+
+    private static void writeSubsets(final DataOutputStream out, final List<AbstractSubset> subsets) throws IOException {
+        if (subsets == null) {
+            out.writeInt(NULL);
+            return;
+        }
+        out.writeInt(subsets.size());
+        for (AbstractSubset subset : subsets) {
+            if (!(subset instanceof SquareSubset2D)) {
+                throw new IOException("Unsupported subset type - " + subset.getClass().getSimpleName());
+            }
+            out.writeInt(subset.getSize());
+            writeArray(out, subset.getCenter());
+        }
+    }
+
+    private static List<AbstractSubset> readSubsets(final DataInputStream in) throws IOException {
+        final int count = in.readInt();
+        if (count == NULL) {
+            return null;
+        }
+        final List<AbstractSubset> result = new ArrayList<>(count);
+        int size;
+        for (int i = 0; i < count; i++) {
+            size = in.readInt();
+            result.add(new SquareSubset2D(size, readArray(in)));
+        }
+        return result;
+    }
+
+    private static void writeCorrelations(final DataOutputStream out, final List<CorrelationResult> correlations) throws IOException {
+        if (correlations == null) {
+            out.writeInt(NULL);
+            return;
+        }
+        out.writeInt(correlations.size());
+        for (CorrelationResult cr : correlations) {
+            if (cr == null) {
+                out.writeBoolean(false);
+            } else {
+                out.writeBoolean(true);
+                out.writeDouble(cr.getQuality());
+                writeArray(out, cr.getDeformation());
+            }
+        }
+    }
+
+    private static List<CorrelationResult> readCorrelations(final DataInputStream in) throws IOException {
+        final int count = in.readInt();
+        if (count == NULL) {
+            return null;
+        }
+        final List<CorrelationResult> result = new ArrayList<>(count);
+        double quality;
+        for (int i = 0; i < count; i++) {
+            if (in.readBoolean()) {
+                quality = in.readDouble();
+                result.add(new CorrelationResult(quality, readArray(in)));
+            } else {
+                result.add(null);
+            }
+        }
+        return result;
+    }
+
+    private static void writeArray(final DataOutputStream out, final double[] data) throws IOException {
+        if (data == null) {
+            out.writeInt(NULL);
+        } else {
+            out.writeInt(data.length);
+            for (double d : data) {
+                out.writeDouble(d);
+            }
+        }
+    }
+
+    private static double[] readArray(final DataInputStream in) throws IOException {
+        final int length = in.readInt();
+        if (length == NULL) {
+            return null;
+        }
+        final double[] result = new double[length];
+        for (int i = 0; i < length; i++) {
+            result[i] = in.readDouble();
+        }
+        return result;
+    }
+
+    /**
+     * Field of values for each pixel - size, component count, plane of value
+     * counts of each pixel (0 for missing value) and a float plane for each
+     * component. Planes are stored column by column.
+     */
+    private static void writeField(final DataOutputStream out, final VectorField data) throws IOException {
+        if (data == null) {
+            out.writeInt(NULL);
+            return;
+        }
+        final int width = data.getWidth();
+        final int height = data.getHeight();
+        final int components = data.getComponentCount();
+        if (components > Byte.MAX_VALUE) {
+            throw new IOException("Too many values per pixel - " + components);
+        }
+        out.writeInt(width);
+        out.writeInt(height);
+        out.writeInt(components);
+
+        final byte[] lengths = new byte[height];
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                lengths[y] = (byte) (data.isValid(x, y) ? components : 0);
+            }
+            out.write(lengths);
+        }
+
+        final ByteBuffer buffer = ByteBuffer.allocate(height * 4);
+        for (int c = 0; c < components; c++) {
+            for (int x = 0; x < width; x++) {
+                buffer.clear();
+                for (int y = 0; y < height; y++) {
+                    buffer.putFloat(data.isValid(x, y) ? (float) data.getValue(x, y, c) : Float.NaN);
+                }
+                out.write(buffer.array(), 0, buffer.position());
+            }
+        }
+    }
+
+    private static VectorField readField(final DataInputStream in, final int componentCount) throws IOException {
+        final int width = in.readInt();
+        if (width == NULL) {
+            return null;
+        }
+        final int height = in.readInt();
+        final int components = in.readInt();
+        if (width < 0 || height < 0 || components < 0) {
+            throw new IOException("Illegal field size.");
+        }
+
+        final VectorField result = new VectorField(width, height, componentCount);
+        final byte[][] lengths = new byte[width][height];
+        for (int x = 0; x < width; x++) {
+            in.readFully(lengths[x]);
+        }
+
+        final ByteBuffer buffer = ByteBuffer.allocate(height * 4);
+        for (int c = 0; c < components; c++) {
+            for (int x = 0; x < width; x++) {
+                in.readFully(buffer.array());
+                if (c >= componentCount) {
+                    continue;
+                }
+                for (int y = 0; y < height; y++) {
+                    if (c < lengths[x][y]) {
+                        result.setValue(x, y, c, buffer.getFloat(y * 4));
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    private static void writePlane(final DataOutputStream out, final double[][] data) throws IOException {
+        if (data == null) {
+            out.writeInt(NULL);
+            return;
+        }
+        final int width = data.length;
+        final int height = width > 0 ? data[0].length : 0;
+        out.writeInt(width);
+        out.writeInt(height);
+
+        final ByteBuffer buffer = ByteBuffer.allocate(height * 4);
+        for (double[] column : data) {
+            buffer.clear();
+            for (int y = 0; y < height; y++) {
+                buffer.putFloat((float) column[y]);
+            }
+            out.write(buffer.array(), 0, buffer.position());
+        }
+    }
+
+    private static double[][] readPlane(final DataInputStream in) throws IOException {
+        final int width = in.readInt();
+        if (width == NULL) {
+            return null;
+        }
+        final int height = in.readInt();
+        if (width < 0 || height < 0) {
+            throw new IOException("Illegal plane size.");
+        }
+
+        final double[][] result = new double[width][height];
+        final ByteBuffer buffer = ByteBuffer.allocate(height * 4);
+        for (int x = 0; x < width; x++) {
+            in.readFully(buffer.array());
+            for (int y = 0; y < height; y++) {
+                result[x][y] = buffer.getFloat(y * 4);
+            }
+        }
+        return result;
+    }
+
+    private static final class CountingOutputStream extends FilterOutputStream {
+
+        private long count;
+
+        CountingOutputStream(final OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        long getCount() {
+            return count;
+        }
+    }
+
+    private static final class NonClosingOutputStream extends FilterOutputStream {
+
+        NonClosingOutputStream(final OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+
+    private static final class BoundedInputStream extends InputStream {
+
+        private final InputStream in;
+        private long remaining;
+
+        BoundedInputStream(final InputStream in, final long length) {
+            this.in = in;
+            remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            final int result = in.read();
+            if (result >= 0) {
+                remaining--;
+            }
+            return result;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            final int count = in.read(b, off, (int) Math.min(len, remaining));
+            if (count > 0) {
+                remaining -= count;
+            }
+            return count;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(in.available(), remaining);
+        }
+
+        @Override
+        public void close() {
+            // channel is closed by the reader
+        }
+    }
+
+}
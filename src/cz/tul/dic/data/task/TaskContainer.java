@@ -7,13 +7,18 @@ package cz.tul.dic.data.task;
 
 import com.thoughtworks.xstream.annotations.XStreamOmitField;
 import cz.tul.dic.ComputationException;
+import cz.tul.dic.data.AppSettings;
 import cz.tul.dic.data.Image;
+import cz.tul.dic.data.ImageCache;
 import cz.tul.dic.data.Container;
 import cz.tul.dic.data.roi.AbstractROI;
 import cz.tul.dic.data.result.Result;
 import cz.tul.dic.data.task.loaders.InputLoader;
 import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -26,6 +31,8 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Observable;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 
@@ -35,6 +42,8 @@ import java.util.concurrent.CopyOnWriteArrayList;
  */
 public class TaskContainer extends Observable implements Serializable {
 
+    // version of tasks stored using Java serialization
+    private static final long serialVersionUID = -5369988371147614792L;
     // input data    
     private final List<File> input;
     private final Map<TaskParameter, Object> params;
@@ -44,12 +53,15 @@ public class TaskContainer extends Observable implements Serializable {
     private final Set<Hint> hints;
     // generated data
     @XStreamOmitField
-    private final transient List<Image> images;
+    private transient ImageCache images;
     // results
     @XStreamOmitField
     private final List<Result> results;
     @XStreamOmitField
     private final Map<Integer, Map<Integer, Result>> cumulativeResults;
+    // results not loaded from task file yet
+    @XStreamOmitField
+    private transient StoredResults storedResults;
 
     public TaskContainer() {
         params = new EnumMap<>(TaskParameter.class);
@@ -62,7 +74,7 @@ public class TaskContainer extends Observable implements Serializable {
         hints = EnumSet.noneOf(Hint.class);
 
         input = new ArrayList<>();
-        images = new ArrayList<>();
+        images = new ImageCache(input, 0);
     }
 
     public TaskContainer(final TaskContainer task) {
@@ -73,10 +85,11 @@ public class TaskContainer extends Observable implements Serializable {
 
         results = new CopyOnWriteArrayList<>(task.results);
         cumulativeResults = new ConcurrentHashMap<>(task.cumulativeResults);
+        storedResults = task.storedResults;
         hints = EnumSet.copyOf(task.hints);
 
         input = new ArrayList<>(task.input);
-        images = new ArrayList<>(task.images);
+        images = task.images;
     }
 
     public static TaskContainer initTaskContainer(final Object in) throws ComputationException {
@@ -84,12 +97,16 @@ public class TaskContainer extends Observable implements Serializable {
         return InputLoader.loadInput(in, result);
     }
 
-    public void setInput(final List<File> input, final List<Image> images) {
+    public void setInput(final List<File> input, final ImageCache images) {
         this.input.clear();
-        this.images.clear();
-
         this.input.addAll(input);
-        this.images.addAll(images);
+
+        this.images = images;
+    }
+
+    private void readObject(final ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        images = ImageCache.createCache(input, AppSettings.getInstance().getImageCacheSize());
     }
 
     public List<File> getInput() {
@@ -127,21 +144,46 @@ public class TaskContainer extends Observable implements Serializable {
     }
 
     public Image getImage(final int round) {
-        int counter = -1;
-        Image img = null;
-        for (int i = 0; i < images.size(); i++) {
-            img = images.get(i);
-            counter++;
-            if (counter == round) {
-                break;
-            }
+        final int count = images.size();
+        if (count == 0) {
+            return null;
+        }
+
+        try {
+            return images.getImage(round >= 0 && round < count ? round : count - 1);
+        } catch (IOException ex) {
+            throw new IllegalStateException("Failed to load image for round " + round, ex);
         }
+    }
 
-        return img;
+    /**
+     * Starts loading of images for given rounds in background.
+     *
+     * @param rounds round numbers
+     */
+    public void prefetchImages(final int... rounds) {
+        images.prefetch(rounds);
     }
 
+    /**
+     * @return view of all images, images are loaded on access
+     */
     public List<Image> getImages() {
-        return Collections.unmodifiableList(images);
+        return new AbstractList<Image>() {
+            @Override
+            public Image get(final int index) {
+                return getImage(index);
+            }
+
+            @Override
+            public int size() {
+                return images.size();
+            }
+        };
+    }
+
+    public int getImageCount() {
+        return images.size();
     }
 
     public HashSet<AbstractROI> getRois(final int round) {
@@ -223,7 +265,7 @@ public class TaskContainer extends Observable implements Serializable {
     public void setResult(final int roundFrom, final int roundTo, final Result result) {
         if (roundFrom + 1 == roundTo) {
             if (results.size() < roundTo + 1) {
-                for (int i = 0; i < roundTo - results.size(); i++) {
+                while (results.size() < roundTo) {
                     results.add(null);
                 }
                 results.add(result);
@@ -242,7 +284,7 @@ public class TaskContainer extends Observable implements Serializable {
     }
 
     public Result getResult(final int roundFrom, final int roundTo) {
-        final Result result;
+        Result result;
         if (roundFrom + 1 == roundTo) {
             if (roundTo < results.size()) {
                 result = results.get(roundTo);
@@ -254,12 +296,70 @@ public class TaskContainer extends Observable implements Serializable {
         } else {
             result = null;
         }
+        if (result == null && storedResults != null) {
+            result = storedResults.getResult(roundFrom, roundTo);
+        }
+        return result;
+    }
+
+    /**
+     * @return pairs of round from and round to of all results in memory and in
+     * task file, ordered by round from and round to
+     */
+    List<int[]> getResultRounds() {
+        final Map<Integer, Set<Integer>> rounds = new TreeMap<>();
+        for (int to = 1; to < results.size(); to++) {
+            if (results.get(to) != null) {
+                rounds.computeIfAbsent(to - 1, k -> new TreeSet<>()).add(to);
+            }
+        }
+        for (Entry<Integer, Map<Integer, Result>> e : cumulativeResults.entrySet()) {
+            for (Entry<Integer, Result> r : e.getValue().entrySet()) {
+                if (r.getValue() != null) {
+                    rounds.computeIfAbsent(e.getKey(), k -> new TreeSet<>()).add(r.getKey());
+                }
+            }
+        }
+        if (storedResults != null) {
+            for (int[] round : storedResults.getRounds()) {
+                rounds.computeIfAbsent(round[0], k -> new TreeSet<>()).add(round[1]);
+            }
+        }
+
+        final List<int[]> result = new ArrayList<>();
+        for (Entry<Integer, Set<Integer>> e : rounds.entrySet()) {
+            for (int to : e.getValue()) {
+                result.add(new int[]{e.getKey(), to});
+            }
+        }
         return result;
     }
 
+    void setStoredResults(final StoredResults storedResults) {
+        this.storedResults = storedResults;
+    }
+
+    boolean isResultSource(final File file) {
+        return storedResults != null && storedResults.getSource().getAbsoluteFile().equals(file.getAbsoluteFile());
+    }
+
+    /**
+     * Reads all results which are not in memory yet from the task file.
+     */
+    void loadStoredResults() {
+        if (storedResults != null) {
+            final StoredResults store = storedResults;
+            for (int[] round : store.getRounds()) {
+                setResult(round[0], round[1], getResult(round[0], round[1]));
+            }
+            storedResults = null;
+        }
+    }
+
     public void clearResultData() {
         results.clear();
         cumulativeResults.clear();
+        storedResults = null;
 
         for (int i = 0; i < TaskContainerUtils.getMaxRoundCount(this); i++) {
             results.add(null);
@@ -6,6 +6,7 @@
 package cz.tul.dic.data.task;
 
 import cz.tul.dic.data.result.DisplacementResult;
+import cz.tul.dic.data.result.FieldSampler;
 import cz.tul.dic.ComputationException;
 import cz.tul.dic.ComputationExceptionCause;
 import cz.tul.dic.data.config.Config;
@@ -13,16 +14,14 @@ import cz.tul.dic.data.Image;
 import cz.tul.dic.data.deformation.DeformationOrder;
 import cz.tul.dic.data.deformation.DeformationUtils;
 import cz.tul.dic.data.result.Result;
+import cz.tul.dic.data.result.VectorField;
 import cz.tul.dic.data.roi.AbstractROI;
 import cz.tul.dic.data.roi.RectangleROI;
 import cz.tul.dic.data.task.loaders.ConfigLoader;
 import cz.tul.dic.engine.KernelPerformanceManager;
 import cz.tul.dic.engine.solvers.SolverType;
-import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectOutputStream;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -42,7 +41,7 @@ public final class TaskContainerUtils {
         if (tc != null) {
             final Object roundData = tc.getParameter(TaskParameter.ROUND_LIMITS);
             if (roundData == null) {
-                for (int r = 0; r < tc.getImages().size() - 1; r++) {
+                for (int r = 0; r < tc.getImageCount() - 1; r++) {
                     result.put(r, r + 1);
                 }
             } else {
@@ -60,7 +59,7 @@ public final class TaskContainerUtils {
     }
 
     public static int getMaxRoundCount(final TaskContainer tc) {
-        return tc.getImages().size() - 1;
+        return tc.getImageCount() - 1;
     }
 
     public static double getStretchFactor(final TaskContainer tc, final int endImageIndex) {
@@ -72,8 +71,8 @@ public final class TaskContainerUtils {
             final DisplacementResult resultsDR = resultsC.getDisplacementResult();
             final DisplacementResult dResultsDR = dResultsC.getDisplacementResult();
             if (resultsDR != null && dResultsDR != null) {
-                final double[][][] results = resultsDR.getDisplacement();
-                final double[][][] dResults = dResultsDR.getDisplacement();
+                final VectorField results = resultsDR.getDisplacement();
+                final VectorField dResults = dResultsDR.getDisplacement();
                 if (dResults != null) {
                     final int y2 = finalBottomLine(dResults);
                     final int y1 = finalBottomLine(results);
@@ -85,15 +84,9 @@ public final class TaskContainerUtils {
         return result;
     }
 
-    private static int finalBottomLine(final double[][][] data) {
-        for (int y = data[0].length - 1; y >= 0; y--) {
-            for (int x = 0; x < data.length; x++) {
-                if (data[x][y] != null) {
-                    return y;
-                }
-            }
-        }
-        return 1;
+    private static int finalBottomLine(final VectorField data) {
+        final int result = FieldSampler.findLastValidLine(data);
+        return result >= 0 ? result : 1;
     }
 
     public static void serializeTaskToConfig(final TaskContainer tc, final File out) throws IOException {
@@ -196,11 +189,11 @@ public final class TaskContainerUtils {
     }
 
     public static void serializeTaskToBinary(final TaskContainer tc, final File target) throws IOException {
-        try (ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(target)))) {
-            out.writeObject(tc);
-            out.flush();
-            out.reset();
-        }
+        serializeTaskToBinary(tc, target, true);
+    }
+
+    public static void serializeTaskToBinary(final TaskContainer tc, final File target, final boolean compress) throws IOException {
+        TaskBinaryFormat.write(tc, target, compress);
     }
 
     public static void checkTaskValidity(final TaskContainer tc) throws ComputationException {
@@ -210,7 +203,7 @@ public final class TaskContainerUtils {
         }
         final Object roundData = tc.getParameter(TaskParameter.ROUND_LIMITS);
         if (roundData == null) {
-            tc.setParameter(TaskParameter.ROUND_LIMITS, new int[]{0, tc.getImages().size() - 1});
+            tc.setParameter(TaskParameter.ROUND_LIMITS, new int[]{0, tc.getImageCount() - 1});
         } else {
             final int[] limit = (int[]) roundData;
             if ((limit.length != 2) || (limit[0] > limit[1])) {
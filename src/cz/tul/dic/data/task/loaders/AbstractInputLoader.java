@@ -7,7 +7,8 @@ package cz.tul.dic.data.task.loaders;
 
 import cz.tul.dic.ComputationException;
 import cz.tul.dic.ComputationExceptionCause;
-import cz.tul.dic.data.Image;
+import cz.tul.dic.data.AppSettings;
+import cz.tul.dic.data.ImageCache;
 import cz.tul.dic.data.task.TaskDefaultValues;
 import cz.tul.dic.data.task.TaskContainer;
 import cz.tul.dic.data.task.TaskParameter;
@@ -18,6 +19,7 @@ import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
+import org.pmw.tinylog.Logger;
 
 /**
  *
@@ -35,7 +37,7 @@ public abstract class AbstractInputLoader {
     public abstract boolean canLoad(final Object in);
 
     protected void loadImages(final TaskContainer task, final List<File> inputs) throws ComputationException {
-        final List<Image> images = new ArrayList<>(inputs.size());
+        final List<File> sources = new ArrayList<>(inputs.size());
         final Object in = task.getParameter(TaskParameter.IN);
         final File inputSource;
         if (in != null) {
@@ -51,13 +53,24 @@ public abstract class AbstractInputLoader {
                     throw new ComputationException(ComputationExceptionCause.ILLEGAL_TASK_DATA, "Input file " + image.toString() + " not found.");
                 }
             }
-            try {
-                images.add(Image.loadImageFromDisk(image));
-            } catch (IOException ex) {
-                throw new ComputationException(ComputationExceptionCause.IO, ex);
+            sources.add(image);
+        }
+
+        // images are loaded on demand, first one is loaded right away to check the input
+        // and the beginning of the sequence is decoded in parallel if enabled
+        final int threadCount = AppSettings.getInstance().getImageLoadingThreads();
+        try {
+            final ImageCache images = ImageCache.createCache(sources, AppSettings.getInstance().getImageCacheSize());
+            if (threadCount > 0) {
+                final int count = images.preload(threadCount, loaded -> Logger.trace("Loaded {} of {} images.", loaded, images.size()));
+                Logger.debug("{} of {} images loaded using {} threads.", count, images.size(), threadCount);
+            } else {
+                images.getImage(0);
             }
+            task.setInput(inputs, images);
+        } catch (IOException ex) {
+            throw new ComputationException(ComputationExceptionCause.IO, ex);
         }
-        task.setInput(inputs, images);
     }
 
     protected void loadUdaFile(final String inputName, final TaskContainer tc) {
@@ -7,6 +7,8 @@ package cz.tul.dic.data.task.loaders;
 
 import cz.tul.dic.ComputationException;
 import cz.tul.dic.ComputationExceptionCause;
+import cz.tul.dic.data.AppSettings;
+import cz.tul.dic.data.task.TaskBinaryFormat;
 import cz.tul.dic.data.task.TaskContainer;
 import java.io.BufferedInputStream;
 import java.io.File;
@@ -27,10 +29,19 @@ public class BinaryLoader extends AbstractInputLoader {
 
         final File input = (File) in;
         TaskContainer result;
-        try (ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(input)))) {
-            result = (TaskContainer) ois.readObject();
-        } catch (IOException | ClassNotFoundException ex) {
-            throw new ComputationException(ComputationExceptionCause.IO, ex);
+        if (TaskBinaryFormat.isBinaryFormat(input)) {
+            try {
+                result = TaskBinaryFormat.read(input, AppSettings.getInstance().getResultCacheSize());
+            } catch (IOException ex) {
+                throw new ComputationException(ComputationExceptionCause.IO, ex);
+            }
+        } else {
+            // tasks stored before the binary format using Java serialization
+            try (ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(input)))) {
+                result = (TaskContainer) ois.readObject();
+            } catch (IOException | ClassNotFoundException ex) {
+                throw new ComputationException(ComputationExceptionCause.IO, ex);
+            }
         }
         return result;
     }
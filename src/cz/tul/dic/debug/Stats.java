@@ -22,6 +22,7 @@ import cz.tul.dic.output.Direction;
 import cz.tul.dic.output.ExportUtils;
 import cz.tul.dic.output.NameGenerator;
 import cz.tul.pj.journal.Journal;
+import java.awt.image.BufferedImage;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
@@ -333,7 +334,7 @@ public class Stats implements IGPUResultsReceiver {
                 }
             }
             try {
-                ImageIO.write(ExportUtils.overlayImage(img, ExportUtils.createImageFromMap(resultData, Direction.DABS)), "BMP", out);
+                ImageIO.write(ExportUtils.overlayImage(img.toBufferedImage(), ExportUtils.createImageFromMap(resultData, Direction.DABS)), "BMP", out);
             } catch (IOException ex) {
                 Logger.warn(ex, "Error drawing subset quality statistics.");
             }
@@ -346,7 +347,7 @@ public class Stats implements IGPUResultsReceiver {
             out.getParentFile().mkdirs();
 
             try {
-                ImageIO.write(ExportUtils.overlayImage(tc.getImage(roundTo), ExportUtils.createImageFromMap(tc.getResult(roundFrom, roundTo).getDisplacementResult().getQuality(), Direction.DABS)), "BMP", out);
+                ImageIO.write(ExportUtils.overlayImage(tc.getImage(roundTo).toBufferedImage(), ExportUtils.createImageFromMap(tc.getResult(roundFrom, roundTo).getDisplacementResult().getQuality(), Direction.DABS)), "BMP", out);
             } catch (IOException ex) {
                 Logger.warn(ex, "Error drawing point result statistics.");
             }
@@ -375,12 +376,13 @@ public class Stats implements IGPUResultsReceiver {
 
     public void drawRegressionQualities(final Image img, final double[][] resultQualityU, final double[][] resultQualityV, final String nameA, final String nameB) {
         if (get(Types.REGRESSION_QUALITY)) {
+            final BufferedImage background = img.toBufferedImage();
             final File out = new File(nameA);
             out.getParentFile().mkdirs();
 
             try {
-                ImageIO.write(ExportUtils.overlayImage(img, ExportUtils.createImageFromMap(resultQualityU, Direction.EXX)), "BMP", new File(nameA));
-                ImageIO.write(ExportUtils.overlayImage(img, ExportUtils.createImageFromMap(resultQualityV, Direction.EYY)), "BMP", new File(nameB));
+                ImageIO.write(ExportUtils.overlayImage(background, ExportUtils.createImageFromMap(resultQualityU, Direction.EXX)), "BMP", new File(nameA));
+                ImageIO.write(ExportUtils.overlayImage(background, ExportUtils.createImageFromMap(resultQualityV, Direction.EYY)), "BMP", new File(nameB));
             } catch (IOException ex) {
                 Logger.warn(ex, "Error drawing regression qualities.");
             }
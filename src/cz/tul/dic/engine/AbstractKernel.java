@@ -9,6 +9,7 @@ import cz.tul.dic.data.task.ComputationTask;
 import cz.tul.dic.engine.memory.AbstractMemoryManager;
 import java.lang.reflect.InvocationTargetException;
 import java.util.List;
+import org.pmw.tinylog.Logger;
 
 /**
  *
@@ -25,13 +26,30 @@ public abstract class AbstractKernel<T extends AbstractMemoryManager> {
         this.platform = platform;
     }
 
-    public static AbstractKernel createInstance(final Platform platform) {
-        AbstractKernel result;
+    public static AbstractKernel<?> createInstance(final Platform platform) {
+        final KernelInfo.Type kernelType = platform.getPlatformDefinition().getKernelInfo().getType();
+        try {
+            return createInstance(kernelType, platform);
+        } catch (ClassNotFoundException | LinkageError ex) {
+            if (kernelType.getFallback() == null) {
+                throw new UnsupportedOperationException(ex);
+            }
+            Logger.warn("Kernel {} is not available, using {} instead.", kernelType, kernelType.getFallback());
+        }
+
+        try {
+            return createInstance(kernelType.getFallback(), platform);
+        } catch (ClassNotFoundException | LinkageError ex) {
+            throw new UnsupportedOperationException(ex);
+        }
+    }
+
+    private static AbstractKernel<?> createInstance(final KernelInfo.Type kernelType, final Platform platform) throws ClassNotFoundException {
+        AbstractKernel<?> result;
         try {
-            final KernelInfo.Type kernelType = platform.getPlatformDefinition().getKernelInfo().getType();
             final Class<?> cls = Class.forName(kernelType.getPackageName());
-            result = (AbstractKernel) cls.getConstructor(Platform.class).newInstance(platform);
-        } catch (ClassNotFoundException | InstantiationException | IllegalAccessException | NoSuchMethodException | SecurityException | IllegalArgumentException | InvocationTargetException ex) {            
+            result = (AbstractKernel<?>) cls.getConstructor(Platform.class).newInstance(platform);
+        } catch (InstantiationException | IllegalAccessException | NoSuchMethodException | SecurityException | IllegalArgumentException | InvocationTargetException ex) {            
             throw new UnsupportedOperationException(ex);
         }
 
@@ -10,6 +10,7 @@ import cz.tul.dic.engine.platform.Platform;
 import cz.tul.dic.data.task.FullTask;
 import cz.tul.dic.engine.solvers.AbstractTaskSolver;
 import cz.tul.dic.ComputationException;
+import cz.tul.dic.ComputationExceptionCause;
 import cz.tul.dic.data.Image;
 import cz.tul.dic.data.subset.AbstractSubset;
 import cz.tul.dic.data.roi.AbstractROI;
@@ -20,6 +21,7 @@ import cz.tul.dic.data.task.TaskParameter;
 import cz.tul.dic.data.task.splitter.TaskSplitMethod;
 import cz.tul.dic.debug.DebugControl;
 import cz.tul.dic.debug.Stats;
+import cz.tul.dic.engine.displacement.CumulativeDisplacement;
 import cz.tul.dic.engine.displacement.DisplacementCalculator;
 import cz.tul.dic.data.Interpolation;
 import cz.tul.dic.engine.solvers.SolverType;
@@ -42,10 +44,15 @@ import java.util.Map;
 import java.util.Observable;
 import java.util.Observer;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import org.pmw.tinylog.Logger;
 
 /**
@@ -55,6 +62,9 @@ import org.pmw.tinylog.Logger;
 public final class Engine extends Observable implements Observer {
 
     private static final Engine INSTANCE;
+    private static final int PIPELINE_QUEUE_SIZE = 1;
+    private static final int IMAGE_READ_AHEAD = 2;
+    private static final long NOTIFICATION_INTERVAL = 100;
     private final ExecutorService exec;
     private Platform platform;
     private StrainEstimator strain;
@@ -67,7 +77,7 @@ public final class Engine extends Observable implements Observer {
 
     private Engine() {
         super();
-        exec = Executors.newWorkStealingPool(Runtime.getRuntime().availableProcessors() - 1);        
+        exec = Executors.newWorkStealingPool(Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
     }
 
     public static Engine getInstance() {
@@ -94,25 +104,36 @@ public final class Engine extends Observable implements Observer {
         strain = StrainEstimator.initStrainEstimator((StrainEstimationMethod) task.getParameter(TaskParameter.STRAIN_ESTIMATION_METHOD));
         final Set<Future<Void>> futures = new HashSet<>();
 
-        int r, nextR, baseR = -1;
-        for (Map.Entry<Integer, Integer> e : TaskContainerUtils.getRounds(task).entrySet()) {
+        if (canPipelineRounds(task)) {
+            computeRoundsPipelined(task, futures);
             if (stopEngine) {
                 endTask();
                 return;
             }
-
-            r = e.getKey();
-            nextR = e.getValue();
-
-            setChanged();
-            notifyObservers(r);
-
-            computeRound(task, r, nextR);
-
-            if (baseR == -1) {
-                baseR = r;
-            } else {
-                futures.add(exec.submit(new OverlapComputation(task, baseR, nextR, strain)));
+        } else {
+            int r, nextR, baseR = -1;
+            CumulativeDisplacement cumulative = null;
+            for (Map.Entry<Integer, Integer> e : TaskContainerUtils.getRounds(task).entrySet()) {
+                if (stopEngine) {
+                    endTask();
+                    return;
+                }
+
+                r = e.getKey();
+                nextR = e.getValue();
+
+                setChanged();
+                notifyObservers(r);
+
+                prefetchImages(task, nextR);
+                computeRound(task, r, nextR);
+
+                if (baseR == -1) {
+                    baseR = r;
+                    cumulative = createCumulativeDisplacement(task, baseR);
+                } else {
+                    futures.add(exec.submit(new OverlapComputation(task, baseR, nextR, strain, advanceCumulativeDisplacement(cumulative, task, nextR))));
+                }
             }
         }
 
@@ -147,6 +168,213 @@ public final class Engine extends Observable implements Observer {
 
         Journal.addEntry("Computing round", "Round {0}:{1}.", roundFrom, roundTo);
         Journal.createSubEntry();
+
+        final KernelInfo backup = prepareComputation(task);
+        final RoundData round = prepareRound(task, roundFrom, roundTo, null, this::notifyEngineObservers);
+        final HashMap<AbstractROI, List<CorrelationResult>> correlations = correlateRound(task, round);
+        if (correlations == null) {
+            return;
+        }
+
+        final Future future = finishRound(task, round, correlations, this::notifyEngineObservers);
+        try {
+            setChanged();
+            notifyObservers(StrainEstimator.class);
+            future.get();
+        } catch (InterruptedException | ExecutionException | NullPointerException ex) {
+            Logger.warn(ex, "Error waitng for overlapping computation.");
+        }
+
+        setChanged();
+        notifyObservers(System.currentTimeMillis() - time);
+
+        finishComputation(task, backup);
+
+        Journal.addEntry("Round finished.");
+        Journal.closeSubEntry();
+    }
+
+    /**
+     * Computes all rounds in three stages running concurrently - images and
+     * subsets of next round are prepared and displacement and strain of
+     * previous round are computed while the current round is correlated.
+     * Stages are connected by bounded queues, so only a few rounds are held in
+     * memory at once. Observers are notified only from the calling thread,
+     * notifications of the other stages are queued and published by it.
+     */
+    private void computeRoundsPipelined(final TaskContainer task, final Set<Future<Void>> futures) throws ComputationException {
+        final Map<Integer, Integer> rounds = TaskContainerUtils.getRounds(task);
+        final BlockingQueue<RoundData> prepared = new ArrayBlockingQueue<>(PIPELINE_QUEUE_SIZE);
+        final BlockingQueue<RoundData> correlated = new ArrayBlockingQueue<>(PIPELINE_QUEUE_SIZE);
+        final BlockingQueue<Object> notifications = new LinkedBlockingQueue<>();
+        final ExecutorService stages = Executors.newFixedThreadPool(2);
+
+        final KernelInfo backup = prepareComputation(task);
+        final Future<Void> preparation = stages.submit(() -> {
+            try {
+                RoundData last = null;
+                for (Map.Entry<Integer, Integer> e : rounds.entrySet()) {
+                    if (stopEngine) {
+                        break;
+                    }
+                    prefetchImages(task, e.getValue());
+                    // first image is usually the second image of previous round, which is already filtered and being correlated
+                    last = prepareRound(task, e.getKey(), e.getValue(), last != null && last.roundTo == e.getKey() ? last.out : null, notifications::add);
+                    prepared.put(last);
+                }
+            } finally {
+                prepared.put(RoundData.END);
+            }
+            return null;
+        });
+        final long start = System.currentTimeMillis();
+        final Future<Void> postprocessing = stages.submit(() -> {
+            ComputationException error = null;
+            long lastFinished = start;
+            int baseR = -1;
+            CumulativeDisplacement cumulative = null;
+            RoundData round;
+            while ((round = correlated.take()) != RoundData.END) {
+                if (error != null || stopEngine) {
+                    // drain the queue so the correlation stage cannot block
+                    continue;
+                }
+                try {
+                    futures.add(finishRound(task, round, round.correlations, notifications::add));
+                    notifications.add(StrainEstimator.class);
+                    if (baseR == -1) {
+                        baseR = round.roundFrom;
+                        cumulative = createCumulativeDisplacement(task, baseR);
+                    } else {
+                        futures.add(exec.submit(new OverlapComputation(task, baseR, round.roundTo, strain, advanceCumulativeDisplacement(cumulative, task, round.roundTo))));
+                    }
+                    // rounds overlap, so time of a round is the time between finishing two consecutive rounds
+                    final long now = System.currentTimeMillis();
+                    notifications.add(now - lastFinished);
+                    lastFinished = now;
+                } catch (RuntimeException ex) {
+                    error = new ComputationException(ComputationExceptionCause.ILLEGAL_TASK_DATA, ex);
+                }
+            }
+            if (error != null) {
+                throw error;
+            }
+            return null;
+        });
+
+        boolean correlationFinished = false;
+        try {
+            RoundData round;
+            while ((round = takeRound(prepared, notifications)) != RoundData.END) {
+                if (stopEngine) {
+                    continue;
+                }
+
+                Journal.addEntry("Computing round", "Round {0}:{1}.", round.roundFrom, round.roundTo);
+                setChanged();
+                notifyObservers(round.roundFrom);
+
+                round.correlations = correlateRound(task, round);
+                publishNotifications(notifications);
+                if (round.correlations != null) {
+                    correlated.put(round);
+                }
+            }
+            correlationFinished = true;
+        } catch (InterruptedException ex) {
+            stopEngine = true;
+            Thread.currentThread().interrupt();
+        } finally {
+            try {
+                try {
+                    if (correlationFinished) {
+                        waitForStage(preparation);
+                    } else {
+                        // nobody will read prepared rounds anymore
+                        preparation.cancel(true);
+                    }
+                } finally {
+                    correlated.put(RoundData.END);
+                    waitForStage(postprocessing);
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } finally {
+                stages.shutdownNow();
+                publishNotifications(notifications);
+                finishComputation(task, backup);
+            }
+        }
+    }
+
+    /**
+     * Waits for next round and publishes queued notifications meanwhile.
+     */
+    private RoundData takeRound(final BlockingQueue<RoundData> rounds, final BlockingQueue<Object> notifications) throws InterruptedException {
+        RoundData round;
+        do {
+            publishNotifications(notifications);
+            round = rounds.poll(NOTIFICATION_INTERVAL, TimeUnit.MILLISECONDS);
+        } while (round == null);
+        publishNotifications(notifications);
+        return round;
+    }
+
+    private void publishNotifications(final BlockingQueue<Object> notifications) {
+        Object arg;
+        while ((arg = notifications.poll()) != null) {
+            notifyEngineObservers(arg);
+        }
+    }
+
+    private void notifyEngineObservers(final Object arg) {
+        setChanged();
+        notifyObservers(arg);
+    }
+
+    /**
+     * Subsets of next round are generated while the current round is being
+     * correlated, so generators using results of the previous round cannot be
+     * pipelined.
+     */
+    private static boolean canPipelineRounds(final TaskContainer task) {
+        if (!task.getHints().contains(Hint.PIPELINED)) {
+            return false;
+        }
+        final SubsetGenerator method = (SubsetGenerator) task.getParameter(TaskParameter.SUBSET_GENERATOR_METHOD);
+        if (AbstractSubsetGenerator.initGenerator(method).usesPreviousResults()) {
+            Logger.info("Subset generator {} uses results of previous round, rounds are computed sequentially.", method);
+            return false;
+        }
+        return true;
+    }
+
+    private static CumulativeDisplacement createCumulativeDisplacement(final TaskContainer task, final int baseRound) {
+        return task.getHints().contains(Hint.INCREMENTAL_CUMULATIVE) ? new CumulativeDisplacement(baseRound) : null;
+    }
+
+    /**
+     * Cumulative displacement is advanced in order of rounds by the thread
+     * finishing the rounds, tasks running on the executor only store it.
+     */
+    private static DisplacementResult advanceCumulativeDisplacement(final CumulativeDisplacement cumulative, final TaskContainer task, final int round) {
+        return cumulative != null && cumulative.getBaseRound() + 1 != round ? cumulative.computeDisplacement(task, round) : null;
+    }
+
+    private static void waitForStage(final Future<Void> stage) throws ComputationException, InterruptedException {
+        try {
+            stage.get();
+        } catch (ExecutionException ex) {
+            final Throwable cause = ex.getCause();
+            if (cause instanceof ComputationException) {
+                throw (ComputationException) cause;
+            } else {
+                throw new ComputationException(ComputationExceptionCause.ILLEGAL_TASK_DATA, cause);
+            }
+        }
+    }
+
+    private KernelInfo prepareComputation(final TaskContainer task) throws ComputationException {
         final Set<Hint> hints = task.getHints();
         if (hints.contains(Hint.NO_STATS)) {
             DebugControl.pauseDebugMode();
@@ -176,27 +404,56 @@ public final class Engine extends Observable implements Observer {
 
         strain = StrainEstimator.initStrainEstimator((StrainEstimationMethod) task.getParameter(TaskParameter.STRAIN_ESTIMATION_METHOD));
 
+        return backup;
+    }
+
+    private void finishComputation(final TaskContainer task, final KernelInfo backup) {
+        solver.deleteObserver(this);
+        task.setParameter(TaskParameter.KERNEL, backup);
+    }
+
+    private static void prefetchImages(final TaskContainer task, final int roundTo) {
+        final int[] rounds = new int[IMAGE_READ_AHEAD];
+        for (int i = 0; i < IMAGE_READ_AHEAD; i++) {
+            rounds[i] = roundTo + 1 + i;
+        }
+        task.prefetchImages(rounds);
+    }
+
+    /**
+     * @param preparedIn already filtered first image, null if the image should
+     * be loaded and filtered
+     * @param notifier receives notifications for observers
+     */
+    private RoundData prepareRound(final TaskContainer task, final int roundFrom, final int roundTo, final Image preparedIn, final Consumer<Object> notifier) throws ComputationException {
         final int filterSize = (int) task.getParameter(TaskParameter.FILTER_KERNEL_SIZE);
-        final Image in = task.getImage(roundFrom);
-        in.filter(filterSize);
+        final Image in;
+        if (preparedIn == null) {
+            in = task.getImage(roundFrom);
+            in.filter(filterSize);
+        } else {
+            in = preparedIn;
+        }
         final Image out = task.getImage(roundTo);
         out.filter(filterSize);
 
         // prepare data
-        setChanged();
-        notifyObservers(SubsetGenerator.class);
+        notifier.accept(SubsetGenerator.class);
 
         final AbstractSubsetGenerator generator = AbstractSubsetGenerator.initGenerator((SubsetGenerator) task.getParameter(TaskParameter.SUBSET_GENERATOR_METHOD));
-        final HashMap<AbstractROI, List<AbstractSubset>> subsets = generator.generateSubsets(task, roundFrom);
+        return new RoundData(roundFrom, roundTo, in, out, generator.generateSubsets(task, roundFrom));
+    }
 
-        // compute round                
+    private HashMap<AbstractROI, List<CorrelationResult>> correlateRound(final TaskContainer task, final RoundData round) throws ComputationException {
+        final int roundFrom = round.roundFrom;
+        final HashMap<AbstractROI, List<AbstractSubset>> subsets = round.subsets;
         final HashMap<AbstractROI, List<CorrelationResult>> correlations = new HashMap<>(task.getRois(roundFrom).size());
         List<AbstractSubset> subsetList;
         List<Integer> subsetWeights;
         int subsetSize, correlationWeight;
         for (AbstractROI roi : task.getRois(roundFrom)) {
             if (stopEngine) {
-                return;
+                return null;
             }
 
             subsetList = subsets.get(roi);
@@ -210,42 +467,32 @@ public final class Engine extends Observable implements Observer {
             correlations.put(
                     roi,
                     solver.solve(new FullTask(
-                            in, out,
+                            round.in, round.out,
                             subsetList, subsetWeights,
                             generateDeformations(task.getDeformationLimits(roundFrom, roi), subsets.get(roi).size()))));
         }
+        return correlations;
+    }
 
-        setChanged();
-        notifyObservers(DisplacementCalculator.class);
-        final DisplacementResult displacement = DisplacementCalculator.computeDisplacement(correlations, subsets, task, roundFrom);
+    private Future<Void> finishRound(final TaskContainer task, final RoundData round, final HashMap<AbstractROI, List<CorrelationResult>> correlations, final Consumer<Object> notifier) {
+        final int roundFrom = round.roundFrom;
+        final int roundTo = round.roundTo;
+
+        notifier.accept(DisplacementCalculator.class);
+        final DisplacementResult displacement = DisplacementCalculator.computeDisplacement(correlations, round.subsets, task, roundFrom);
 
-        task.setResult(roundFrom, roundTo, new Result(subsets, correlations, displacement));
+        task.setResult(roundFrom, roundTo, new Result(round.subsets, correlations, displacement));
 
-        final Future future = exec.submit(new OverlapComputation(task, roundFrom, roundTo, strain));
+        final Future<Void> future = exec.submit(new OverlapComputation(task, roundFrom, roundTo, strain));
 
         if (DebugControl.isDebugMode()) {
             Stats.getInstance().dumpDeformationsStatisticsUsage(roundFrom);
             Stats.getInstance().dumpDeformationsStatisticsPerQuality(roundFrom);
-            Stats.getInstance().drawSubsetQualityStatistics(subsets, roundFrom, roundTo);
+            Stats.getInstance().drawSubsetQualityStatistics(round.subsets, roundFrom, roundTo);
             Stats.getInstance().drawPointResultStatistics(roundFrom, roundTo);
         }
 
-        try {
-            setChanged();
-            notifyObservers(StrainEstimator.class);
-            future.get();
-        } catch (InterruptedException | ExecutionException | NullPointerException ex) {
-            Logger.warn(ex, "Error waitng for overlapping computation.");
-        }
-
-        setChanged();
-        notifyObservers(System.currentTimeMillis() - time);
-
-        solver.deleteObserver(this);
-        task.setParameter(TaskParameter.KERNEL, backup);
-
-        Journal.addEntry("Round finished.");
-        Journal.closeSubEntry();
+        return future;
     }
 
     public void endTask() {
@@ -279,4 +526,21 @@ public final class Engine extends Observable implements Observer {
         return exec;
     }
 
+    private static class RoundData {
+
+        private static final RoundData END = new RoundData(-1, -1, null, null, null);
+        private final int roundFrom, roundTo;
+        private final Image in, out;
+        private final HashMap<AbstractROI, List<AbstractSubset>> subsets;
+        private HashMap<AbstractROI, List<CorrelationResult>> correlations;
+
+        RoundData(final int roundFrom, final int roundTo, final Image in, final Image out, final HashMap<AbstractROI, List<AbstractSubset>> subsets) {
+            this.roundFrom = roundFrom;
+            this.roundTo = roundTo;
+            this.in = in;
+            this.out = out;
+            this.subsets = subsets;
+        }
+    }
+
 }
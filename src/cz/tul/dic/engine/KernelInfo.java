@@ -118,17 +118,51 @@ public class KernelInfo implements Serializable {
         CL2D("cz.tul.dic.engine.opencl.kernel.CL2D"),
         CL15D_pF("cz.tul.dic.engine.opencl.kernel.CL15D_pF"),
         JavaKernel("cz.tul.dic.engine.java.JavaKernel"),
+        JavaFloatKernel("cz.tul.dic.engine.java.JavaFloatKernel"),
+        JavaVectorKernel("cz.tul.dic.engine.java.JavaVectorKernel", JavaKernel),
         ANY(null);
         
         String packageName;
+        Type fallback;
 
         private Type(String packageName) {
+            this(packageName, null);
+        }
+
+        private Type(String packageName, Type fallback) {
             this.packageName = packageName;
+            this.fallback = fallback;
         }
 
         public String getPackageName() {
             return packageName;
         }
+
+        /**
+         * @return kernel used when this kernel cannot be loaded, null if
+         * there is no replacement
+         */
+        public Type getFallback() {
+            return fallback;
+        }
+
+        /**
+         * Checks if the kernel class and all classes it depends on can be
+         * loaded (optional kernels need modules not present in all JVMs).
+         *
+         * @return true if the kernel can be instantiated
+         */
+        public boolean isAvailable() {
+            if (packageName == null) {
+                return false;
+            }
+            try {
+                Class.forName(packageName);
+                return true;
+            } catch (ClassNotFoundException | LinkageError ex) {
+                return false;
+            }
+        }
     }
 
     public enum MemoryCoalescing {
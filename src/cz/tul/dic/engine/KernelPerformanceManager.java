@@ -121,10 +121,18 @@ public class KernelPerformanceManager {
         uInfos.addAll(generateKernelInfos(new KernelInfo(Type.CL15D_pF, KernelInfo.Input.ANY, KernelInfo.Correlation.ANY, KernelInfo.MemoryCoalescing.ANY, KernelInfo.UseLimits.ANY)));
         uInfos.addAll(generateKernelInfos(new KernelInfo(Type.CL2D, KernelInfo.Input.ANY, KernelInfo.Correlation.ANY, KernelInfo.MemoryCoalescing.ANY, KernelInfo.UseLimits.ANY)));
         uInfos.addAll(generateKernelInfos(new KernelInfo(Type.JavaKernel, KernelInfo.Input.IMAGE, KernelInfo.Correlation.ANY, KernelInfo.MemoryCoalescing.ANY, KernelInfo.UseLimits.ANY)));
-        uInfos.addAll(generateKernelInfos(new KernelInfo(Type.JavaKernel, KernelInfo.Input.ANY, KernelInfo.Correlation.WZNSSD, KernelInfo.MemoryCoalescing.ANY, KernelInfo.UseLimits.ANY)));
-        uInfos.addAll(generateKernelInfos(new KernelInfo(Type.JavaKernel, KernelInfo.Input.ANY, KernelInfo.Correlation.ZNSSD, KernelInfo.MemoryCoalescing.ANY, KernelInfo.UseLimits.ANY)));
         uInfos.addAll(generateKernelInfos(new KernelInfo(Type.JavaKernel, KernelInfo.Input.ANY, KernelInfo.Correlation.ANY, KernelInfo.MemoryCoalescing.YES, KernelInfo.UseLimits.ANY)));
-        uInfos.addAll(generateKernelInfos(new KernelInfo(Type.JavaKernel, KernelInfo.Input.ANY, KernelInfo.Correlation.ANY, KernelInfo.MemoryCoalescing.ANY, KernelInfo.UseLimits.NO)));
+        uInfos.addAll(generateKernelInfos(new KernelInfo(Type.JavaFloatKernel, KernelInfo.Input.IMAGE, KernelInfo.Correlation.ANY, KernelInfo.MemoryCoalescing.ANY, KernelInfo.UseLimits.ANY)));
+        uInfos.addAll(generateKernelInfos(new KernelInfo(Type.JavaFloatKernel, KernelInfo.Input.ANY, KernelInfo.Correlation.WZNSSD, KernelInfo.MemoryCoalescing.ANY, KernelInfo.UseLimits.ANY)));
+        uInfos.addAll(generateKernelInfos(new KernelInfo(Type.JavaFloatKernel, KernelInfo.Input.ANY, KernelInfo.Correlation.ANY, KernelInfo.MemoryCoalescing.YES, KernelInfo.UseLimits.ANY)));
+        if (Type.JavaVectorKernel.isAvailable()) {
+            uInfos.addAll(generateKernelInfos(new KernelInfo(Type.JavaVectorKernel, KernelInfo.Input.IMAGE, KernelInfo.Correlation.ANY, KernelInfo.MemoryCoalescing.ANY, KernelInfo.UseLimits.ANY)));
+            uInfos.addAll(generateKernelInfos(new KernelInfo(Type.JavaVectorKernel, KernelInfo.Input.ANY, KernelInfo.Correlation.WZNSSD, KernelInfo.MemoryCoalescing.ANY, KernelInfo.UseLimits.ANY)));
+            uInfos.addAll(generateKernelInfos(new KernelInfo(Type.JavaVectorKernel, KernelInfo.Input.ANY, KernelInfo.Correlation.ANY, KernelInfo.MemoryCoalescing.YES, KernelInfo.UseLimits.ANY)));
+        } else {
+            // Vector API (jdk.incubator.vector) not present in running JVM
+            uInfos.addAll(generateKernelInfos(new KernelInfo(Type.JavaVectorKernel, KernelInfo.Input.ANY, KernelInfo.Correlation.ANY, KernelInfo.MemoryCoalescing.ANY, KernelInfo.UseLimits.ANY)));
+        }
         result.get(PlatformType.JAVA).put(DeviceType.CPU, uInfos);
         // Java - GPU + iGPU
         uInfos = new ArrayList<>();
@@ -135,6 +143,8 @@ public class KernelPerformanceManager {
         // OpenCL CPU
         uInfos = new ArrayList<>();
         uInfos.addAll(generateKernelInfos(new KernelInfo(Type.JavaKernel, KernelInfo.Input.ANY, KernelInfo.Correlation.ANY, KernelInfo.MemoryCoalescing.ANY, KernelInfo.UseLimits.ANY)));
+        uInfos.addAll(generateKernelInfos(new KernelInfo(Type.JavaFloatKernel, KernelInfo.Input.ANY, KernelInfo.Correlation.ANY, KernelInfo.MemoryCoalescing.ANY, KernelInfo.UseLimits.ANY)));
+        uInfos.addAll(generateKernelInfos(new KernelInfo(Type.JavaVectorKernel, KernelInfo.Input.ANY, KernelInfo.Correlation.ANY, KernelInfo.MemoryCoalescing.ANY, KernelInfo.UseLimits.ANY)));
         uInfos.addAll(generateKernelInfos(new KernelInfo(Type.CL2D, KernelInfo.Input.ANY, KernelInfo.Correlation.ANY, KernelInfo.MemoryCoalescing.YES, KernelInfo.UseLimits.ANY)));
         uInfos.addAll(generateKernelInfos(new KernelInfo(Type.CL15D_pF, KernelInfo.Input.ANY, KernelInfo.Correlation.ANY, KernelInfo.MemoryCoalescing.ANY, KernelInfo.UseLimits.ANY)));
         uInfos.addAll(generateKernelInfos(new KernelInfo(Type.CL1D, KernelInfo.Input.ARRAY, KernelInfo.Correlation.ANY, KernelInfo.MemoryCoalescing.ANY, KernelInfo.UseLimits.YES)));
@@ -143,12 +153,16 @@ public class KernelPerformanceManager {
         // OpenCL GPU
         uInfos = new ArrayList<>();
         uInfos.addAll(generateKernelInfos(new KernelInfo(Type.JavaKernel, KernelInfo.Input.ANY, KernelInfo.Correlation.ANY, KernelInfo.MemoryCoalescing.ANY, KernelInfo.UseLimits.ANY)));
+        uInfos.addAll(generateKernelInfos(new KernelInfo(Type.JavaFloatKernel, KernelInfo.Input.ANY, KernelInfo.Correlation.ANY, KernelInfo.MemoryCoalescing.ANY, KernelInfo.UseLimits.ANY)));
+        uInfos.addAll(generateKernelInfos(new KernelInfo(Type.JavaVectorKernel, KernelInfo.Input.ANY, KernelInfo.Correlation.ANY, KernelInfo.MemoryCoalescing.ANY, KernelInfo.UseLimits.ANY)));
         uInfos.addAll(generateKernelInfos(new KernelInfo(Type.CL2D, KernelInfo.Input.ANY, KernelInfo.Correlation.ANY, KernelInfo.MemoryCoalescing.YES, KernelInfo.UseLimits.ANY)));
         uInfos.addAll(generateKernelInfos(new KernelInfo(Type.CL15D_pF, KernelInfo.Input.ANY, KernelInfo.Correlation.ANY, KernelInfo.MemoryCoalescing.YES, KernelInfo.UseLimits.ANY)));
         result.get(PlatformType.OPENCL).put(DeviceType.GPU, uInfos);
         // OpenCL iGPU
         uInfos = new ArrayList<>();
         uInfos.addAll(generateKernelInfos(new KernelInfo(Type.JavaKernel, KernelInfo.Input.ANY, KernelInfo.Correlation.ANY, KernelInfo.MemoryCoalescing.ANY, KernelInfo.UseLimits.ANY)));
+        uInfos.addAll(generateKernelInfos(new KernelInfo(Type.JavaFloatKernel, KernelInfo.Input.ANY, KernelInfo.Correlation.ANY, KernelInfo.MemoryCoalescing.ANY, KernelInfo.UseLimits.ANY)));
+        uInfos.addAll(generateKernelInfos(new KernelInfo(Type.JavaVectorKernel, KernelInfo.Input.ANY, KernelInfo.Correlation.ANY, KernelInfo.MemoryCoalescing.ANY, KernelInfo.UseLimits.ANY)));
         uInfos.addAll(generateKernelInfos(new KernelInfo(Type.CL2D, KernelInfo.Input.ANY, KernelInfo.Correlation.ANY, KernelInfo.MemoryCoalescing.YES, KernelInfo.UseLimits.ANY)));
         uInfos.addAll(generateKernelInfos(new KernelInfo(Type.CL15D_pF, KernelInfo.Input.ANY, KernelInfo.Correlation.ANY, KernelInfo.MemoryCoalescing.YES, KernelInfo.UseLimits.ANY)));
         result.get(PlatformType.OPENCL).put(DeviceType.iGPU, uInfos);
@@ -189,12 +203,13 @@ public class KernelPerformanceManager {
                         solver = AbstractTaskSolver.initSolver(SolverType.BRUTE_FORCE, platform);
                         solver.setInterpolation(TaskDefaultValues.DEFAULT_INTERPOLATION);
                         solver.setTaskSplitVariant(TaskSplitMethod.NONE, null);
-                        testKernelInfo(solver, platform);
+                        testKernelInfo(solver, platform, new PerformanceData());
                     }
                 } catch (Exception ex) {
                     Logger.warn(ex, "Blank test failed for {}.", deviceType.toString());
                 }
 
+                final PerformanceData deviceData = new PerformanceData();
                 for (KernelInfo kernel : kernels) {
                     platform = PlatformManager.getInstance().initPlatform(platformType, deviceType, kernel);
                     System.out.println("Test - " + platform);
@@ -202,16 +217,16 @@ public class KernelPerformanceManager {
                     solver.setInterpolation(TaskDefaultValues.DEFAULT_INTERPOLATION);
                     solver.setTaskSplitVariant(TaskSplitMethod.NONE, null);
                     // run test
-                    result.get(platformType).put(deviceType, testKernelInfo(solver, platform));
+                    testKernelInfo(solver, platform, deviceData);
                 }
+                result.get(platformType).put(deviceType, deviceData);
             }
         }
 
         return result;
     }
 
-    private static PerformanceData testKernelInfo(final AbstractTaskSolver solver, final Platform platform) {
-        final PerformanceData result = new PerformanceData();
+    private static void testKernelInfo(final AbstractTaskSolver solver, final Platform platform, final PerformanceData result) {
         final Image img = Image.createImage(new BufferedImage(100, 100, BufferedImage.TYPE_BYTE_GRAY));
 
         List<double[]> deformationLimits;
@@ -240,8 +255,6 @@ public class KernelPerformanceManager {
                 }
             }
         }
-
-        return result;
     }
 
     private void savePerformanceData() throws IOException {
@@ -5,6 +5,7 @@
  */
 package cz.tul.dic.engine;
 
+import cz.tul.dic.data.result.DisplacementResult;
 import cz.tul.dic.data.result.Result;
 import cz.tul.dic.data.task.Hint;
 import cz.tul.dic.data.task.TaskContainer;
@@ -22,18 +23,33 @@ public class OverlapComputation implements Callable<Void> {
     private final int r;
     private final int nextR;
     private final StrainEstimator strain;
+    private final DisplacementResult cumulative;
 
     public OverlapComputation(final TaskContainer task, final int r, final int nextR, final StrainEstimator strain) {
+        this(task, r, nextR, strain, null);
+    }
+
+    /**
+     * @param cumulative displacement from round r to round nextR computed
+     * beforehand, null if the displacement should be computed from all
+     * intermediate results
+     */
+    public OverlapComputation(final TaskContainer task, final int r, final int nextR, final StrainEstimator strain, final DisplacementResult cumulative) {
         this.task = task;
         this.r = r;
         this.nextR = nextR;
         this.strain = strain;
+        this.cumulative = cumulative;
     }
 
     @Override
     public Void call() {
         if (r + 1 != nextR) {
-            task.setResult(r, nextR, new Result(DisplacementCalculator.computeCumulativeDisplacement(task, r, nextR)));
+            if (cumulative != null) {
+                task.setResult(r, nextR, new Result(cumulative));
+            } else {
+                task.setResult(r, nextR, new Result(DisplacementCalculator.computeCumulativeDisplacement(task, r, nextR)));
+            }
         }
         if (!task.getHints().contains(Hint.NO_STRAIN)) {
             strain.estimateStrain(task, r, nextR);
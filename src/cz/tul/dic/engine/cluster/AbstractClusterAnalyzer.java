@@ -14,7 +14,7 @@ import java.util.List;
  */
 public abstract class AbstractClusterAnalyzer<T> {
 
-    private static final double DEFAULT_PRECISION = 0.1;
+    public static final double DEFAULT_PRECISION = 0.1;
     protected double precision;
     protected List<T> values;
 
@@ -5,37 +5,19 @@
  */
 package cz.tul.dic.engine.cluster;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Map.Entry;
-
 public class Analyzer1D extends AbstractClusterAnalyzer<Double> {
 
-    private final Map<Integer, Integer> counter = new HashMap<>();
+    private final ClusterHistogram counter = new ClusterHistogram();
 
     @Override
     public Double findMajorValue() {
-        // find best
-        int maxCnt = -1, maxVal = 0, val;
-        for (Entry<Integer, Integer> e : counter.entrySet()) {
-            val = e.getValue();
-            if (val > maxCnt) {
-                maxCnt = val;
-                maxVal = e.getKey();
-            }
-        }
-
-        return maxVal * precision;
+        final int major = counter.findMajorKey();
+        return (major < 0 ? 0 : counter.getKeyX(major)) * precision;
     }
 
     @Override
     public void addValue(Double d) {
-        final int val = (int) Math.round(d / precision);
-        if (counter.containsKey(val)) {
-            counter.put(val, counter.get(val) + 1);
-        } else {
-            counter.put(val, 1);
-        }
+        counter.addKey((int) Math.round(d / precision), 0);
     }
 
 }
@@ -6,15 +6,11 @@
 package cz.tul.dic.engine.cluster;
 
 import cz.tul.dic.engine.cluster.Analyzer2D.Analayzer2DData;
-import java.util.HashMap;
 import java.util.LinkedList;
-import java.util.Map;
-import java.util.Map.Entry;
 
 public class Analyzer2D extends AbstractClusterAnalyzer<Analayzer2DData> {
 
-    private final Map<Integer, Map<Integer, Integer>> counterVal = new HashMap<>();
-    private final Map<Integer, Map<Integer, Double>> counterQ = new HashMap<>();
+    private static final ThreadLocal<ClusterHistogram> HISTOGRAM = ThreadLocal.withInitial(ClusterHistogram::new);
 
     public Analyzer2D() {
         values = new LinkedList<>();
@@ -22,49 +18,25 @@ public class Analyzer2D extends AbstractClusterAnalyzer<Analayzer2DData> {
 
     @Override
     public Analayzer2DData findMajorValue() {
-        int valX, valY;
-        Map<Integer, Integer> mVal;
-        Map<Integer, Double> mQ;
+        final ClusterHistogram histogram = HISTOGRAM.get();
+        histogram.clear();
         for (Analayzer2DData val : values) {
-            valX = (int) Math.round(val.getX() / precision);
-            valY = (int) Math.round(val.getY() / precision);
-
-            if (counterVal.containsKey(valX)) {
-                mVal = counterVal.get(valX);
-                mQ = counterQ.get(valX);
-            } else {
-                mVal = new HashMap<>();
-                counterVal.put(valX, mVal);
-                mQ = new HashMap<>();
-                counterQ.put(valX, mQ);
-            }
+            histogram.addKey((int) Math.round(val.getX() / precision), (int) Math.round(val.getY() / precision));
+        }
 
-            if (mVal.containsKey(valY)) {
-                mVal.put(valY, mVal.get(valY) + 1);
-                mQ.put(valY, mQ.get(valY) + val.getQuality());
-            } else {
-                mVal.put(valY, 1);
-                mQ.put(valY, val.getQuality());
-            }
+        final int major = histogram.findMajorKey();
+        if (major < 0) {
+            return new Analayzer2DData(0, 0, 0);
         }
 
-        int maxCount = -1;
-        int maxDx = 0;
-        int maxDy = 0;
-        int val;
         double q = 0;
-        for (Entry<Integer, Map<Integer, Integer>> dX : counterVal.entrySet()) {
-            for (Entry<Integer, Integer> dY : dX.getValue().entrySet()) {
-                val = dY.getValue();
-                if (val > maxCount) {
-                    maxCount = val;
-                    maxDx = dX.getKey();
-                    maxDy = dY.getKey();
-                    q = counterQ.get(dX.getKey()).get(dY.getKey());
-                }
+        int i = 0;
+        for (Analayzer2DData val : values) {
+            if (histogram.isSameKey(i++, major)) {
+                q += val.getQuality();
             }
         }
-        return new Analayzer2DData(maxDx * precision, maxDy * precision, q);
+        return new Analayzer2DData(histogram.getKeyX(major) * precision, histogram.getKeyY(major) * precision, q);
     }
 
     public static class Analayzer2DData {
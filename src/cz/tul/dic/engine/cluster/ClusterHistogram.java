@@ -0,0 +1,110 @@
+/* Copyright (C) LENAM, s.r.o. - All Rights Reserved
+ * Unauthorized copying of this file, via any medium is strictly prohibited
+ * Proprietary and confidential
+ * Written by Petr Jecmen <petr.jecmen@tul.cz>, 2015
+ */
+package cz.tul.dic.engine.cluster;
+
+import java.util.Arrays;
+
+/**
+ * Counts occurrences of integer key pairs (rounded values) and finds the
+ * most frequent one. Keys are packed into primitive longs, counting is done
+ * by sorting and scanning them. Buffers are kept between uses, so one
+ * instance can be reused for many searches.
+ *
+ * If more keys have the highest count, the key added first wins.
+ *
+ * @author Petr Jecmen
+ */
+public final class ClusterHistogram {
+
+    private static final int INITIAL_SIZE = 16;
+    private static final long MASK_LOW = 0xffffffffL;
+    private long[] keys, sorted;
+    private int[] counts, first;
+    private int size;
+
+    public ClusterHistogram() {
+        keys = new long[INITIAL_SIZE];
+        sorted = new long[INITIAL_SIZE];
+        counts = new int[INITIAL_SIZE];
+        first = new int[INITIAL_SIZE];
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void addKey(final int keyX, final int keyY) {
+        if (size == keys.length) {
+            final int newSize = 2 * size;
+            keys = Arrays.copyOf(keys, newSize);
+            sorted = new long[newSize];
+            counts = new int[newSize];
+            first = new int[newSize];
+        }
+        keys[size++] = ((long) keyX << 32) | (keyY & MASK_LOW);
+    }
+
+    public int getKeyX(final int index) {
+        return (int) (keys[index] >> 32);
+    }
+
+    public int getKeyY(final int index) {
+        return (int) keys[index];
+    }
+
+    /**
+     * @return true if both added keys are equal
+     */
+    public boolean isSameKey(final int index1, final int index2) {
+        return keys[index1] == keys[index2];
+    }
+
+    /**
+     * @return index of the first occurrence of the key with the highest count,
+     * of the key added first if more keys have the same count, -1 if no key
+     * has been added
+     */
+    public int findMajorKey() {
+        if (size == 0) {
+            return -1;
+        }
+
+        // distinct keys sorted by X, then by Y
+        System.arraycopy(keys, 0, sorted, 0, size);
+        Arrays.sort(sorted, 0, size);
+        int distinct = 0;
+        for (int i = 0; i < size; i++) {
+            if (i == 0 || sorted[i] != sorted[distinct - 1]) {
+                sorted[distinct] = sorted[i];
+                counts[distinct] = 0;
+                first[distinct] = -1;
+                distinct++;
+            }
+        }
+
+        int d;
+        for (int i = 0; i < size; i++) {
+            d = Arrays.binarySearch(sorted, 0, distinct, keys[i]);
+            counts[d]++;
+            if (first[d] < 0) {
+                first[d] = i;
+            }
+        }
+
+        int best = 0;
+        for (d = 1; d < distinct; d++) {
+            if (counts[d] > counts[best] || (counts[d] == counts[best] && first[d] < first[best])) {
+                best = d;
+            }
+        }
+        return first[best];
+    }
+
+}
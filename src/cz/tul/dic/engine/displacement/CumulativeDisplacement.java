@@ -0,0 +1,177 @@
+/* Copyright (C) LENAM, s.r.o. - All Rights Reserved
+ * Unauthorized copying of this file, via any medium is strictly prohibited
+ * Proprietary and confidential
+ * Written by Petr Jecmen <petr.jecmen@tul.cz>, 2015
+ */
+package cz.tul.dic.engine.displacement;
+
+import cz.tul.dic.data.Coordinates;
+import cz.tul.dic.data.result.DisplacementResult;
+import cz.tul.dic.data.result.FieldSampler;
+import cz.tul.dic.data.result.Result;
+import cz.tul.dic.data.result.VectorField;
+import cz.tul.dic.data.task.TaskContainer;
+import cz.tul.dic.engine.Engine;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Displacement of all pixels from the base round, updated by the
+ * displacement of each following round instead of walking through all
+ * intermediate results again. Results are the same as from
+ * {@link DisplacementCalculator#computeCumulativeDisplacement(TaskContainer, int, int)}
+ * over results of single rounds, only positions are kept in float planes.
+ *
+ * Rounds can be requested in any order, the state is always moved forward
+ * and results of skipped rounds are kept until they are requested. Instances
+ * are not thread safe, the displacement of a round is computed in parallel
+ * on the engine executor, so it must not be requested from tasks running on
+ * the executor.
+ *
+ * @author Petr Jecmen
+ */
+public class CumulativeDisplacement {
+
+    private static final int ROWS_PER_TASK = 16;
+    private final int baseRound;
+    private final Map<Integer, DisplacementResult> skippedResults;
+    private int round, width, height;
+    private float[] displacementX, displacementY, qualitySum;
+    private int[] stepCount;
+    private boolean[] active;
+
+    public CumulativeDisplacement(final int baseRound) {
+        this.baseRound = baseRound;
+        round = baseRound;
+        skippedResults = new HashMap<>();
+    }
+
+    public int getBaseRound() {
+        return baseRound;
+    }
+
+    /**
+     * @param tc task with results of single rounds
+     * @param roundTo target round
+     * @return displacement from base round to target round
+     * @throws IllegalStateException computation has failed or has been
+     * interrupted
+     */
+    public DisplacementResult computeDisplacement(final TaskContainer tc, final int roundTo) {
+        if (roundTo <= round) {
+            final DisplacementResult result = skippedResults.remove(roundTo);
+            return result != null ? result : DisplacementCalculator.computeCumulativeDisplacement(tc, baseRound, roundTo);
+        }
+
+        Result step;
+        int previous, next;
+        while (round < roundTo) {
+            step = null;
+            next = round;
+            while (step == null && next < roundTo) {
+                next++;
+                step = tc.getResult(round, next);
+            }
+            if (step == null || step.getDisplacementResult() == null) {
+                return DisplacementCalculator.computeCumulativeDisplacement(tc, baseRound, roundTo);
+            }
+
+            addDisplacement(step.getDisplacementResult());
+            previous = round;
+            round = next;
+            // result of the first round is the round itself, nobody asks for it
+            if (round < roundTo && previous != baseRound) {
+                skippedResults.put(round, createResult());
+            }
+        }
+        return createResult();
+    }
+
+    private void addDisplacement(final DisplacementResult step) {
+        final VectorField field = step.getDisplacement();
+        final double[][] quality = step.getQuality();
+        if (displacementX == null) {
+            width = field.getWidth();
+            height = field.getHeight();
+            displacementX = new float[width * height];
+            displacementY = new float[width * height];
+            qualitySum = new float[width * height];
+            stepCount = new int[width * height];
+            active = new boolean[width * height];
+            Arrays.fill(active, true);
+        }
+
+        final List<Callable<Void>> tasks = new ArrayList<>(height / ROWS_PER_TASK + 1);
+        for (int y = 0; y < height; y += ROWS_PER_TASK) {
+            final int lowerBound = y;
+            final int upperBound = Math.min(y + ROWS_PER_TASK, height);
+            tasks.add(() -> {
+                addDisplacement(field, quality, lowerBound, upperBound);
+                return null;
+            });
+        }
+
+        try {
+            for (Future<Void> f : Engine.getInstance().getExecutorService().invokeAll(tasks)) {
+                f.get();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Cumulative displacement of round " + round + " has been interrupted.", ex);
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException("Cumulative displacement of round " + round + " has failed.", ex.getCause());
+        }
+    }
+
+    private void addDisplacement(final VectorField field, final double[][] quality, final int lowerBound, final int upperBound) {
+        final double[] val = new double[Coordinates.DIMENSION];
+        double posX, posY;
+        int index;
+        for (int y = lowerBound; y < upperBound; y++) {
+            for (int x = 0; x < width; x++) {
+                index = y * width + x;
+                if (!active[index]) {
+                    continue;
+                }
+
+                posX = x + (double) displacementX[index];
+                posY = y + (double) displacementY[index];
+                if (!FieldSampler.sample(field, posX, posY, val)) {
+                    // pixel left the area with results, keep the displacement found so far
+                    active[index] = false;
+                    continue;
+                }
+
+                qualitySum[index] += FieldSampler.sample(quality, posX, posY);
+                stepCount[index]++;
+                displacementX[index] += val[Coordinates.X];
+                displacementY[index] += val[Coordinates.Y];
+            }
+        }
+    }
+
+    private DisplacementResult createResult() {
+        final VectorField field = new VectorField(width, height, Coordinates.DIMENSION);
+        final double[][] quality = new double[width][height];
+        int index;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                index = y * width + x;
+                if (stepCount[index] > 0) {
+                    field.setValues(x, y, displacementX[index], displacementY[index]);
+                    quality[x][y] = qualitySum[index] / stepCount[index];
+                } else {
+                    quality[x][y] = Double.NaN;
+                }
+            }
+        }
+        return new DisplacementResult(field, quality);
+    }
+
+}
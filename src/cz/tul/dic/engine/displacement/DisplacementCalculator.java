@@ -5,6 +5,7 @@
  */
 package cz.tul.dic.engine.displacement;
 
+import cz.tul.dic.Utils;
 import cz.tul.dic.data.subset.AbstractSubset;
 import cz.tul.dic.data.Coordinates;
 import cz.tul.dic.data.Image;
@@ -13,11 +14,18 @@ import cz.tul.dic.data.task.TaskContainer;
 import cz.tul.dic.data.task.TaskParameter;
 import cz.tul.dic.data.result.CorrelationResult;
 import cz.tul.dic.data.result.DisplacementResult;
+import cz.tul.dic.data.result.FieldSampler;
 import cz.tul.dic.data.result.Result;
+import cz.tul.dic.data.result.VectorField;
+import cz.tul.dic.engine.Engine;
+import java.util.ArrayList;
 import java.util.EnumMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 /**
  *
@@ -25,12 +33,12 @@ import java.util.Map;
  */
 public abstract class DisplacementCalculator {
 
-    private static final int INTERPOLATION_DIM = 2;
     private static final Map<DisplacementCalculation, DisplacementCalculator> DATA;
 
     static {
         DATA = new EnumMap<>(DisplacementCalculation.class);
         DATA.put(DisplacementCalculation.MAX_WEIGHTED_AVERAGE, new MaxAndWeightedAverage());
+        DATA.put(DisplacementCalculation.MAX_WEIGHTED_AVERAGE_GRID, new MaxAndWeightedAverageGrid());
     }
 
     public static DisplacementResult computeDisplacement(final Map<AbstractROI, List<CorrelationResult>> correlationResults, Map<AbstractROI, List<AbstractSubset>> allSubsets, final TaskContainer tc, final int round) {
@@ -49,6 +57,61 @@ public abstract class DisplacementCalculator {
 
     abstract DisplacementResult buildFinalResults(final Map<AbstractROI, List<CorrelationResult>> correlationResults, Map<AbstractROI, List<AbstractSubset>> allSubsets, final TaskContainer tc, final int round);
 
+    /**
+     * Splits lines of the image into groups of subsets, computes the groups
+     * in parallel on the engine executor and collects their results.
+     *
+     * @param factory creates computation of a single line group
+     * @return displacement of all groups
+     * @throws IllegalStateException computation of some group has failed or
+     * has been interrupted
+     */
+    static DisplacementResult computeLineGroups(
+            final Map<AbstractROI, List<CorrelationResult>> correlationResults,
+            final Map<AbstractROI, List<AbstractSubset>> allSubsets,
+            final TaskContainer tc, final int round, final LineGroupFactory factory) {
+        final Image img = tc.getImage(round);
+        final int width = img.getWidth();
+        final int height = img.getHeight();
+        final double resultQuality = (double) tc.getParameter(TaskParameter.RESULT_QUALITY);
+        final int linesPerGroup = Math.max(1, (int) tc.getParameter(TaskParameter.DISPLACEMENT_CALCULATION_PARAM) / width);
+
+        final SubsetBands bands = new SubsetBands(correlationResults, allSubsets, resultQuality, height, linesPerGroup);
+        final List<LineGroup> groups = new ArrayList<>(bands.getGroupCount());
+        for (int g = 0; g < bands.getGroupCount(); g++) {
+            groups.add(factory.createGroup(bands, g, width));
+        }
+
+        final VectorField finalDisplacement = new VectorField(width, height, Coordinates.DIMENSION);
+        final double[][] finalQuality = Utils.generateNaNarray(width, height);
+        try {
+            for (Future<LineGroup> f : Engine.getInstance().getExecutorService().invokeAll(groups)) {
+                f.get().storeResults(finalDisplacement, finalQuality);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Displacement calculation of round " + round + " has been interrupted.", ex);
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException("Displacement calculation of round " + round + " has failed.", ex.getCause());
+        }
+
+        return new DisplacementResult(finalDisplacement, finalQuality);
+    }
+
+    /**
+     * Computation of lines [lowerBound, upperBound) of the result.
+     */
+    interface LineGroup extends Callable<LineGroup> {
+
+        void storeResults(final VectorField displacement, final double[][] quality);
+    }
+
+    @FunctionalInterface
+    interface LineGroupFactory {
+
+        LineGroup createGroup(final SubsetBands bands, final int group, final int width);
+    }
+
     public static DisplacementResult computeCumulativeDisplacement(final TaskContainer tc, final int roundFrom, final int roundTo) {
         if (roundFrom >= roundTo) {
             throw new IllegalArgumentException("Source round must be lower than target round.");
@@ -64,14 +127,15 @@ public abstract class DisplacementCalculator {
             final Image img = tc.getImage(roundFrom);
             final int width = img.getWidth();
             final int height = img.getHeight();
-            final double[][][] resultData = new double[width][height][];
+            final VectorField resultData = new VectorField(width, height, Coordinates.DIMENSION);
             final double[][] resultQuality = new double[width][height];
 
             final List<DisplacementResult> resultsCascade = findResultsCascade(tc, roundFrom, roundTo);
 
+            final double[] val = new double[Coordinates.DIMENSION];
             for (int x = 0; x < width; x++) {
                 for (int y = 0; y < height; y++) {
-                    computeDisplacement(resultsCascade, resultData, resultQuality, x, y);
+                    computeDisplacement(resultsCascade, resultData, resultQuality, val, x, y);
                 }
             }
 
@@ -102,18 +166,16 @@ public abstract class DisplacementCalculator {
         return result;
     }
 
-    private static void computeDisplacement(final List<DisplacementResult> resultsCascade, final double[][][] resultData, final double[][] resultQuality, int x, int y) {
+    private static void computeDisplacement(final List<DisplacementResult> resultsCascade, final VectorField resultData, final double[][] resultQuality, final double[] val, int x, int y) {
         double posX = x;
         double posY = y;
 
-        double[] val;
         double quality = 0;
         boolean found = false;
         double counter = 0;
         for (DisplacementResult data : resultsCascade) {
-            val = interpolate(posX, posY, data.getDisplacement());
-            if (val != null) {
-                quality += interpolate(posX, posY, data.getQuality());
+            if (FieldSampler.sample(data.getDisplacement(), posX, posY, val)) {
+                quality += FieldSampler.sample(data.getQuality(), posX, posY);
                 counter++;
 
                 found = true;
@@ -125,88 +187,11 @@ public abstract class DisplacementCalculator {
         }
 
         if (found) {
-            resultData[x][y] = new double[]{posX - x, posY - y};
+            resultData.setValues(x, y, posX - x, posY - y);
             resultQuality[x][y] = quality / counter;
         } else {
             resultQuality[x][y] = Double.NaN;
         }
     }
 
-    private static double[] interpolate(final double x, final double y, final double[][][] data) {
-        double[] result = new double[INTERPOLATION_DIM];
-
-        final int intX = (int) x;
-        final double dX = x - intX;
-        final int intY = (int) y;
-        final double dY = y - intY;
-
-        try {
-            calculateValue(result, data, intX, intY, dX, dY);
-        } catch (ArrayIndexOutOfBoundsException | NullPointerException ex) {
-            result = null;
-        }
-
-        return result;
-    }
-
-    private static void calculateValue(final double[] result, final double[][][] data, final int intX, final int intY, final double dX, final double dY) {
-        for (int dim = 0; dim < INTERPOLATION_DIM; dim++) {
-            result[dim] += data[intX][intY][dim] * (1 - dX) * (1 - dY);
-            if (intX < data.length - 1) {
-                result[dim] += data[intX + 1][intY][dim] * dX * (1 - dY);
-                if (intY < data[intX].length - 1) {
-                    result[dim] += data[intX + 1][intY + 1][dim] * dX * dY;
-                }
-            }
-            if (intY < data[intX].length - 1) {
-                result[dim] += data[intX][intY + 1][dim] * (1 - dX) * dY;
-            }
-        }
-    }
-
-    private static double interpolate(final double x, final double y, final double[][] data) {
-        double result = Double.NaN;
-
-        final int intX = (int) x;
-        final double dX = x - intX;
-        final int intY = (int) y;
-        final double dY = y - intY;
-
-        try {
-            result = calculateValue(data, intX, intY, dX, dY);
-        } catch (ArrayIndexOutOfBoundsException | NullPointerException ex) {
-            // ignore value
-        }
-
-        return result;
-    }
-
-    private static double calculateValue(final double[][] data, final int intX, final int intY, final double dX, final double dY) {
-        double result = 0;
-        double val;
-        val = data[intX][intY];
-        if (Double.isFinite(val)) {
-            result += val * (1 - dX) * (1 - dY);
-        }
-        if (intX < data.length - 1) {
-            val = data[intX + 1][intY];
-            if (Double.isFinite(val)) {
-                result += val * dX * (1 - dY);
-            }
-            if (intY < data[intX].length - 1) {
-                val = data[intX + 1][intY + 1];
-                if (Double.isFinite(val)) {
-                    result += val * dX * dY;
-                }
-            }
-        }
-        if (intY < data[intX].length - 1) {
-            val = data[intX][intY + 1];
-            if (Double.isFinite(val)) {
-                result += val * (1 - dX) * dY;
-            }
-        }
-        return result;
-    }
-
 }
@@ -5,15 +5,12 @@
  */
 package cz.tul.dic.engine.displacement;
 
-import cz.tul.dic.Utils;
 import cz.tul.dic.data.subset.AbstractSubset;
 import cz.tul.dic.data.Coordinates;
-import cz.tul.dic.data.subset.SubsetUtils;
-import cz.tul.dic.data.Image;
 import cz.tul.dic.data.roi.AbstractROI;
 import cz.tul.dic.data.result.DisplacementResult;
+import cz.tul.dic.data.result.VectorField;
 import cz.tul.dic.data.task.TaskContainer;
-import cz.tul.dic.data.task.TaskParameter;
 import cz.tul.dic.debug.DebugControl;
 import cz.tul.dic.debug.Stats;
 import cz.tul.dic.data.result.CorrelationResult;
@@ -29,130 +26,125 @@ import java.util.Map.Entry;
 public class MaxAndWeightedAverage extends DisplacementCalculator {
 
     private static final double PRECISION = 0.5;
-    private double[][][] finalDisplacement;
-    private double[][] finalQuality;
 
     @Override
     public DisplacementResult buildFinalResults(
             final Map<AbstractROI, List<CorrelationResult>> correlationResults,
             final Map<AbstractROI, List<AbstractSubset>> allSubsets,
             final TaskContainer tc, final int round) {
-        final Image img = tc.getImage(round);
-        final int width = img.getWidth();
-        final int height = img.getHeight();
-        final double resultQuality = (double) tc.getParameter(TaskParameter.RESULT_QUALITY);
-
-        final int linesPerGroup = (int) tc.getParameter(TaskParameter.DISPLACEMENT_CALCULATION_PARAM) / width;
-        final int groupCount = (int) Math.ceil(height / (double) linesPerGroup);
-
-        finalDisplacement = new double[width][height][];
-        finalQuality = Utils.generateNaNarray(width, height);
-        final Map<Integer, Map<Integer, Analyzer2D>> counters = new HashMap<>();
-        int lowerBound, upperBound = 0;
-        for (int g = 0; g < groupCount; g++) {
-            lowerBound = upperBound;
-            upperBound += linesPerGroup;
-            upperBound = Math.min(upperBound, height - 1);
-            counters.clear();
+        return computeLineGroups(correlationResults, allSubsets, tc, round, (bands, group, width) -> new AnalyzerGroup(bands, group, tc, round));
+    }
 
-            prepareDeformedSubsetsToCounters(
-                    correlationResults, allSubsets, resultQuality,
-                    lowerBound, upperBound, counters);
+    private static class AnalyzerGroup implements LineGroup {
+
+        private final List<AbstractSubset> subsets;
+        private final List<CorrelationResult> results;
+        private final int lowerBound, upperBound;
+        private final TaskContainer tc;
+        private final int round;
+        private final Map<Integer, Map<Integer, Analyzer2D>> counters;
+        private final Map<Integer, Map<Integer, double[]>> finalResults;
+
+        AnalyzerGroup(final SubsetBands bands, final int group, final TaskContainer tc, final int round) {
+            subsets = bands.getSubsets(group);
+            results = bands.getResults(group);
+            lowerBound = bands.getLowerBound(group);
+            upperBound = bands.getUpperBound(group);
+            this.tc = tc;
+            this.round = round;
+            counters = new HashMap<>();
+            finalResults = new HashMap<>();
+        }
 
-            calculateDisplacementFromCounters(counters, tc, round);
+        @Override
+        public AnalyzerGroup call() {
+            prepareDeformedSubsetsToCounters();
+            calculateDisplacementFromCounters();
+            counters.clear();
+            return this;
         }
 
-        return new DisplacementResult(finalDisplacement, finalQuality);
-    }
+        private void prepareDeformedSubsetsToCounters() {
+            final SubsetDeformator deformator = new SubsetDeformator();
 
-    private static void prepareDeformedSubsetsToCounters(
-            final Map<AbstractROI, List<CorrelationResult>> correlationResults,
-            final Map<AbstractROI, List<AbstractSubset>> allSubsets, final double resultQuality,
-            final int lowerBound, final int upperBound,
-            final Map<Integer, Map<Integer, Analyzer2D>> counters) {
-        final SubsetDeformator deformator = new SubsetDeformator();
-
-        List<AbstractSubset> susbets;
-        List<CorrelationResult> results;
-        CorrelationResult cr;
-        AbstractSubset f;
-        Map<int[], double[]> deformedSubset;
-        int x;
-        int y;
-        for (Entry<AbstractROI, List<CorrelationResult>> e : correlationResults.entrySet()) {
-            susbets = allSubsets.get(e.getKey());
-            results = e.getValue();
-
-            for (int i = 0; i < susbets.size(); i++) {
+            CorrelationResult cr;
+            Map<int[], double[]> deformedSubset;
+            int x;
+            int y;
+            for (int i = 0; i < subsets.size(); i++) {
                 cr = results.get(i);
-                if (cr == null || cr.getQuality() < resultQuality) {
-                    continue;
-                }
-
-                f = susbets.get(i);
-                if (f == null) {
-                    continue;
-                }
-                if (!SubsetUtils.areLinesInsideSubset(f, lowerBound, upperBound)) {
-                    continue;
-                }
-
-                deformedSubset = deformator.computePixelDeformationValues(f, cr.getDeformation());
+                deformedSubset = deformator.computePixelDeformationValues(subsets.get(i), cr.getDeformation());
                 for (Map.Entry<int[], double[]> e2 : deformedSubset.entrySet()) {
                     x = e2.getKey()[Coordinates.X];
                     y = e2.getKey()[Coordinates.Y];
 
-                    if (y >= lowerBound && y <= upperBound) {
+                    if (y >= lowerBound && y < upperBound) {
                         getAnalyzer(counters, x, y).addValue(new Analayzer2DData(e2.getValue()[0], e2.getValue()[1], cr.getQuality()));
                     }
                 }
             }
         }
-    }
 
-    private void calculateDisplacementFromCounters(
-            final Map<Integer, Map<Integer, Analyzer2D>> counters,
-            final TaskContainer tc, final int round) {
-        int x, y;
-        double dx, dy;
-        Analyzer2D counter;
-        double qualitySum;
-        double qualitySumWeighed;
-        Analayzer2DData majorVal;
-        double maxDist2 = 4 * PRECISION * PRECISION;
-        double quality;
-        for (Entry<Integer, Map<Integer, Analyzer2D>> eX : counters.entrySet()) {
-            x = eX.getKey();
-            for (Entry<Integer, Analyzer2D> eY : eX.getValue().entrySet()) {
-                y = eY.getKey();
-                counter = eY.getValue();
-                if (counter != null) {
-                    majorVal = counter.findMajorValue();
-
-                    dx = 0;
-                    dy = 0;
-                    qualitySum = 0;
-                    qualitySumWeighed = 0;
-                    for (Analayzer2DData vals : counter.listValues()) {
-                        if (dist2(vals, majorVal) <= maxDist2) {
-                            quality = vals.getQuality();
-                            qualitySum += quality;
-                            qualitySumWeighed += quality * quality;
-                            dx += vals.getX() * quality;
-                            dy += vals.getY() * quality;
+        private void calculateDisplacementFromCounters() {
+            int x, y;
+            double dx, dy;
+            Analyzer2D counter;
+            double qualitySum;
+            double qualitySumWeighed;
+            Analayzer2DData majorVal;
+            double maxDist2 = 4 * PRECISION * PRECISION;
+            double quality;
+            Map<Integer, double[]> m;
+            for (Entry<Integer, Map<Integer, Analyzer2D>> eX : counters.entrySet()) {
+                x = eX.getKey();
+                m = new HashMap<>(eX.getValue().size());
+                finalResults.put(x, m);
+                for (Entry<Integer, Analyzer2D> eY : eX.getValue().entrySet()) {
+                    y = eY.getKey();
+                    counter = eY.getValue();
+                    if (counter != null) {
+                        majorVal = counter.findMajorValue();
+
+                        dx = 0;
+                        dy = 0;
+                        qualitySum = 0;
+                        qualitySumWeighed = 0;
+                        for (Analayzer2DData vals : counter.listValues()) {
+                            if (dist2(vals, majorVal) <= maxDist2) {
+                                quality = vals.getQuality();
+                                qualitySum += quality;
+                                qualitySumWeighed += quality * quality;
+                                dx += vals.getX() * quality;
+                                dy += vals.getY() * quality;
+                            }
                         }
-                    }
 
-                    finalDisplacement[x][y] = new double[]{dx / qualitySum, dy / qualitySum};
-                    // normalize ZNCC quality result to percent [-1; 1] -> [0; 100]
-                    finalQuality[x][y] = 100 * (((qualitySumWeighed / qualitySum) + 1) / 2.0);
+                        // normalize ZNCC quality result to percent [-1; 1] -> [0; 100]
+                        m.put(y, new double[]{dx / qualitySum, dy / qualitySum, 100 * (((qualitySumWeighed / qualitySum) + 1) / 2.0)});
 
-                    if (DebugControl.isDebugMode()) {
-                        Stats.getInstance().exportPointSubResultsStatistics(counter, NameGenerator.generate2DValueHistogram(tc, round, x, y));
+                        if (DebugControl.isDebugMode()) {
+                            Stats.getInstance().exportPointSubResultsStatistics(counter, NameGenerator.generate2DValueHistogram(tc, round, x, y));
+                        }
                     }
                 }
             }
         }
+
+        @Override
+        public void storeResults(final VectorField finalDisplacement, final double[][] finalQuality) {
+            int x, y;
+            double[] val;
+            for (Entry<Integer, Map<Integer, double[]>> eX : finalResults.entrySet()) {
+                x = eX.getKey();
+                for (Entry<Integer, double[]> eY : eX.getValue().entrySet()) {
+                    y = eY.getKey();
+                    val = eY.getValue();
+                    finalDisplacement.setValues(x, y, val[0], val[1]);
+                    finalQuality[x][y] = val[2];
+                }
+            }
+        }
+
     }
 
     private static Analyzer2D getAnalyzer(final Map<Integer, Map<Integer, Analyzer2D>> maps, final int x, final int y) {
@@ -0,0 +1,219 @@
+/* Copyright (C) LENAM, s.r.o. - All Rights Reserved
+ * Unauthorized copying of this file, via any medium is strictly prohibited
+ * Proprietary and confidential
+ * Written by Petr Jecmen <petr.jecmen@tul.cz>, 2015
+ */
+package cz.tul.dic.engine.displacement;
+
+import cz.tul.dic.data.Coordinates;
+import cz.tul.dic.data.result.CorrelationResult;
+import cz.tul.dic.data.result.DisplacementResult;
+import cz.tul.dic.data.result.VectorField;
+import cz.tul.dic.data.roi.AbstractROI;
+import cz.tul.dic.data.subset.AbstractSubset;
+import cz.tul.dic.data.subset.SubsetDeformator;
+import cz.tul.dic.data.task.TaskContainer;
+import cz.tul.dic.debug.DebugControl;
+import cz.tul.dic.debug.Stats;
+import cz.tul.dic.engine.cluster.AbstractClusterAnalyzer;
+import cz.tul.dic.engine.cluster.Analyzer2D;
+import cz.tul.dic.engine.cluster.ClusterHistogram;
+import cz.tul.dic.engine.cluster.Analyzer2D.Analayzer2DData;
+import cz.tul.dic.output.NameGenerator;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Computes the same results as {@link MaxAndWeightedAverage}, but values of
+ * deformed subsets are collected into primitive arrays of each line group
+ * instead of maps of cluster analyzers. Line groups are computed in parallel.
+ *
+ * @author Petr Jecmen
+ */
+public class MaxAndWeightedAverageGrid extends DisplacementCalculator {
+
+    private static final double PRECISION = 0.5;
+    private static final double MAX_DIST2 = 4 * PRECISION * PRECISION;
+    private static final double CLUSTER_PRECISION = AbstractClusterAnalyzer.DEFAULT_PRECISION;
+    private static final int EMPTY = -1;
+
+    @Override
+    public DisplacementResult buildFinalResults(
+            final Map<AbstractROI, List<CorrelationResult>> correlationResults,
+            final Map<AbstractROI, List<AbstractSubset>> allSubsets,
+            final TaskContainer tc, final int round) {
+        return computeLineGroups(correlationResults, allSubsets, tc, round, (bands, group, width) -> new GridGroup(bands, group, width, tc, round));
+    }
+
+    /**
+     * Values of each pixel of the line group are kept as a linked list inside
+     * shared primitive arrays.
+     */
+    private static final class GridGroup implements LineGroup {
+
+        private final List<AbstractSubset> subsets;
+        private final List<CorrelationResult> results;
+        private final int width, lowerBound, upperBound;
+        private final TaskContainer tc;
+        private final int round;
+        // values of pixels
+        private int[] head, tail, next;
+        private double[] valuesX, valuesY, valuesQ;
+        private int valueCount;
+        // results
+        private double[] resultX, resultY, resultQuality;
+        private final ClusterHistogram histogram;
+
+        GridGroup(final SubsetBands bands, final int group, final int width, final TaskContainer tc, final int round) {
+            subsets = bands.getSubsets(group);
+            results = bands.getResults(group);
+            lowerBound = bands.getLowerBound(group);
+            upperBound = bands.getUpperBound(group);
+            this.width = width;
+            this.tc = tc;
+            this.round = round;
+            histogram = new ClusterHistogram();
+        }
+
+        @Override
+        public GridGroup call() {
+            final int pixelCount = width * (upperBound - lowerBound);
+            head = new int[pixelCount];
+            Arrays.fill(head, EMPTY);
+            tail = new int[pixelCount];
+            ensureValueCapacity(pixelCount);
+
+            collectValues();
+
+            resultX = new double[pixelCount];
+            resultY = new double[pixelCount];
+            resultQuality = new double[pixelCount];
+            for (int i = 0; i < pixelCount; i++) {
+                if (head[i] != EMPTY) {
+                    computePixel(i);
+                }
+            }
+
+            next = null;
+            valuesX = null;
+            valuesY = null;
+            valuesQ = null;
+            return this;
+        }
+
+        private void collectValues() {
+            double[] coords = new double[0];
+            AbstractSubset subset;
+            CorrelationResult cr;
+            int[] data;
+            double quality;
+            int x, y;
+            for (int s = 0; s < subsets.size(); s++) {
+                subset = subsets.get(s);
+                cr = results.get(s);
+                data = subset.getData();
+                if (coords.length < data.length) {
+                    coords = new double[data.length];
+                }
+                SubsetDeformator.deformSubset(subset, cr.getDeformation(), coords);
+                quality = cr.getQuality();
+
+                for (int i = 0; i < data.length; i += Coordinates.DIMENSION) {
+                    x = data[i];
+                    y = data[i + 1];
+                    if (y >= lowerBound && y < upperBound && x >= 0 && x < width) {
+                        addValue((y - lowerBound) * width + x, coords[i] - x, coords[i + 1] - y, quality);
+                    }
+                }
+            }
+        }
+
+        private void addValue(final int pixel, final double dx, final double dy, final double quality) {
+            if (valueCount == next.length) {
+                ensureValueCapacity(2 * valueCount);
+            }
+
+            final int index = valueCount++;
+            valuesX[index] = dx;
+            valuesY[index] = dy;
+            valuesQ[index] = quality;
+            next[index] = EMPTY;
+            if (head[pixel] == EMPTY) {
+                head[pixel] = index;
+            } else {
+                next[tail[pixel]] = index;
+            }
+            tail[pixel] = index;
+        }
+
+        private void computePixel(final int pixel) {
+            histogram.clear();
+            for (int i = head[pixel]; i != EMPTY; i = next[i]) {
+                histogram.addKey((int) Math.round(valuesX[i] / CLUSTER_PRECISION), (int) Math.round(valuesY[i] / CLUSTER_PRECISION));
+            }
+            final int major = histogram.findMajorKey();
+            final double majorX = histogram.getKeyX(major) * CLUSTER_PRECISION;
+            final double majorY = histogram.getKeyY(major) * CLUSTER_PRECISION;
+
+            double dx = 0;
+            double dy = 0;
+            double qualitySum = 0;
+            double qualitySumWeighed = 0;
+            double a, b, quality;
+            for (int i = head[pixel]; i != EMPTY; i = next[i]) {
+                a = majorX - valuesX[i];
+                b = majorY - valuesY[i];
+                if (a * a + b * b <= MAX_DIST2) {
+                    quality = valuesQ[i];
+                    qualitySum += quality;
+                    qualitySumWeighed += quality * quality;
+                    dx += valuesX[i] * quality;
+                    dy += valuesY[i] * quality;
+                }
+            }
+
+            resultX[pixel] = dx / qualitySum;
+            resultY[pixel] = dy / qualitySum;
+            // normalize ZNCC quality result to percent [-1; 1] -> [0; 100]
+            resultQuality[pixel] = 100 * (((qualitySumWeighed / qualitySum) + 1) / 2.0);
+
+            if (DebugControl.isDebugMode()) {
+                final Analyzer2D counter = new Analyzer2D();
+                for (int i = head[pixel]; i != EMPTY; i = next[i]) {
+                    counter.addValue(new Analayzer2DData(valuesX[i], valuesY[i], valuesQ[i]));
+                }
+                Stats.getInstance().exportPointSubResultsStatistics(counter, NameGenerator.generate2DValueHistogram(tc, round, pixel % width, lowerBound + pixel / width));
+            }
+        }
+
+        private void ensureValueCapacity(final int capacity) {
+            if (next == null) {
+                next = new int[capacity];
+                valuesX = new double[capacity];
+                valuesY = new double[capacity];
+                valuesQ = new double[capacity];
+            } else if (next.length < capacity) {
+                next = Arrays.copyOf(next, capacity);
+                valuesX = Arrays.copyOf(valuesX, capacity);
+                valuesY = Arrays.copyOf(valuesY, capacity);
+                valuesQ = Arrays.copyOf(valuesQ, capacity);
+            }
+        }
+
+        @Override
+        public void storeResults(final VectorField displacement, final double[][] quality) {
+            int x, y;
+            for (int i = 0; i < head.length; i++) {
+                if (head[i] != EMPTY) {
+                    x = i % width;
+                    y = lowerBound + i / width;
+                    displacement.setValues(x, y, resultX[i], resultY[i]);
+                    quality[x][y] = resultQuality[i];
+                }
+            }
+        }
+
+    }
+
+}
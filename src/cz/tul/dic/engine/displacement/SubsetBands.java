@@ -0,0 +1,111 @@
+/* Copyright (C) LENAM, s.r.o. - All Rights Reserved
+ * Unauthorized copying of this file, via any medium is strictly prohibited
+ * Proprietary and confidential
+ * Written by Petr Jecmen <petr.jecmen@tul.cz>, 2015
+ */
+package cz.tul.dic.engine.displacement;
+
+import cz.tul.dic.data.Coordinates;
+import cz.tul.dic.data.result.CorrelationResult;
+import cz.tul.dic.data.roi.AbstractROI;
+import cz.tul.dic.data.subset.AbstractSubset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * Splits image lines into groups and assigns subsets with good enough
+ * correlation result to every group they cover. Each subset is examined only
+ * once, subsets of a group keep the order of the input maps.
+ *
+ * @author Petr Jecmen
+ */
+final class SubsetBands {
+
+    private final int height, linesPerGroup;
+    private final List<List<AbstractSubset>> subsets;
+    private final List<List<CorrelationResult>> results;
+
+    SubsetBands(
+            final Map<AbstractROI, List<CorrelationResult>> correlationResults,
+            final Map<AbstractROI, List<AbstractSubset>> allSubsets, final double resultQuality,
+            final int height, final int linesPerGroup) {
+        this.height = height;
+        this.linesPerGroup = linesPerGroup;
+
+        final int groupCount = (height + linesPerGroup - 1) / linesPerGroup;
+        subsets = new ArrayList<>(groupCount);
+        results = new ArrayList<>(groupCount);
+        for (int g = 0; g < groupCount; g++) {
+            subsets.add(new ArrayList<>());
+            results.add(new ArrayList<>());
+        }
+
+        List<AbstractSubset> roiSubsets;
+        List<CorrelationResult> roiResults;
+        CorrelationResult cr;
+        AbstractSubset f;
+        int[] data;
+        int minY, maxY;
+        for (Entry<AbstractROI, List<CorrelationResult>> e : correlationResults.entrySet()) {
+            roiSubsets = allSubsets.get(e.getKey());
+            roiResults = e.getValue();
+
+            for (int i = 0; i < roiSubsets.size(); i++) {
+                cr = roiResults.get(i);
+                if (cr == null || cr.getQuality() < resultQuality) {
+                    continue;
+                }
+
+                f = roiSubsets.get(i);
+                if (f == null) {
+                    continue;
+                }
+
+                data = f.getData();
+                minY = Integer.MAX_VALUE;
+                maxY = Integer.MIN_VALUE;
+                for (int j = Coordinates.Y; j < data.length; j += Coordinates.DIMENSION) {
+                    minY = Math.min(minY, data[j]);
+                    maxY = Math.max(maxY, data[j]);
+                }
+
+                for (int g = Math.max(0, minY / linesPerGroup); g <= Math.min(groupCount - 1, maxY / linesPerGroup); g++) {
+                    subsets.get(g).add(f);
+                    results.get(g).add(cr);
+                }
+            }
+        }
+    }
+
+    int getGroupCount() {
+        return subsets.size();
+    }
+
+    /**
+     * @return first line of the group
+     */
+    int getLowerBound(final int group) {
+        return group * linesPerGroup;
+    }
+
+    /**
+     * @return line after the last line of the group
+     */
+    int getUpperBound(final int group) {
+        return Math.min((group + 1) * linesPerGroup, height);
+    }
+
+    List<AbstractSubset> getSubsets(final int group) {
+        return subsets.get(group);
+    }
+
+    /**
+     * @return correlation results of subsets of the group, in the same order
+     */
+    List<CorrelationResult> getResults(final int group) {
+        return results.get(group);
+    }
+
+}
@@ -0,0 +1,349 @@
+/* Copyright (C) LENAM, s.r.o. - All Rights Reserved
+ * Unauthorized copying of this file, via any medium is strictly prohibited
+ * Proprietary and confidential
+ * Written by Petr Jecmen <petr.jecmen@tul.cz>, 2015
+ */
+package cz.tul.dic.engine.java;
+
+import cz.tul.dic.ComputationException;
+import cz.tul.dic.data.Coordinates;
+import cz.tul.dic.data.BicubicInterpolator;
+import cz.tul.dic.data.Interpolation;
+import cz.tul.dic.data.deformation.DeformationOrder;
+import cz.tul.dic.data.deformation.DeformationUtils;
+import cz.tul.dic.data.result.CorrelationResult;
+import cz.tul.dic.data.subset.AbstractSubset;
+import cz.tul.dic.data.task.ComputationTask;
+import cz.tul.dic.engine.AbstractKernel;
+import cz.tul.dic.engine.KernelInfo;
+import cz.tul.dic.engine.memory.BasicMemoryManager;
+import cz.tul.dic.engine.platform.Platform;
+import java.util.List;
+
+/**
+ * CPU kernel working with unsigned normalized float planes. Subset
+ * coordinates are stored as structure of arrays and the inner loops contain
+ * no branches and no allocations, so the JIT is able to vectorize the
+ * arithmetic parts.
+ *
+ * @author Petr Jecmen
+ */
+public class JavaFloatKernel extends AbstractKernel<BasicMemoryManager> {
+
+    private final SubsetScheduler scheduler;
+    private boolean usesZncc;
+    private boolean usesBicubic;
+    private ReferenceSubsetCache referenceCache;
+
+    public JavaFloatKernel(final Platform platform) {
+        super(platform);
+        scheduler = new SubsetScheduler();
+        usesZncc = true;
+        usesBicubic = false;
+    }
+
+    @Override
+    public void prepareKernel(final int subsetSize, final DeformationOrder deg, final boolean usesLimits, final Interpolation interpolation) throws ComputationException {
+        final KernelInfo.Correlation correlation = getKernelInfo().getCorrelation();
+        switch (correlation) {
+            case ZNCC:
+                usesZncc = true;
+                break;
+            case ZNSSD:
+                usesZncc = false;
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported type of correlation - " + correlation);
+        }
+        usesBicubic = interpolation == Interpolation.BICUBIC;
+    }
+
+    @Override
+    public List<CorrelationResult> computeFindBest(final ComputationTask task) throws ComputationException {
+        final SubsetScheduler.Run run = scheduler.start();
+        final ResultStore store = ResultStore.createBest(task.getSubsets().size());
+        compute(task, store, run);
+        return store.getBestResults(task);
+    }
+
+    @Override
+    public double[] computeRaw(final ComputationTask task) throws ComputationException {
+        final SubsetScheduler.Run run = scheduler.start();
+        final ResultStore store = ResultStore.createRaw(
+                task.getSubsets().size(),
+                DeformationUtils.findMaxDeformationCount(task.getDeformations(), task.getOrder(), task.usesLimits()));
+        compute(task, store, run);
+        return store.getResults();
+    }
+
+    private void compute(final ComputationTask task, final ResultStore store, final SubsetScheduler.Run run) {
+        compute(
+                task.getImageA().toNormalizedBWArray(), task.getImageB().toNormalizedBWArray(),
+                usesBicubic ? BicubicInterpolator.getInstance(task.getImageB()) : null,
+                task.getImageA().getWidth(),
+                task.getSubsets(), task.getDeformations(),
+                task.getOrder(), task.usesLimits(),
+                store, run);
+    }
+
+    @Override
+    public void stopComputation() {
+        scheduler.cancel();
+    }
+
+    @Override
+    public boolean usesGPU() {
+        return false;
+    }
+
+    private void compute(
+            final float[] imageA, final float[] imageB, final BicubicInterpolator interpolator, final int imageWidth,
+            final List<AbstractSubset> subsets, final List<double[]> deformations,
+            final DeformationOrder defOrder, final boolean usesLimits,
+            final ResultStore store, final SubsetScheduler.Run run) {
+        final int subsetCount = subsets.size();
+
+        final SubsetData subsetData = new SubsetData(subsets);
+        final ReferenceSubsetCache cache = ReferenceSubsetCache.forImage(referenceCache, imageA, imageWidth);
+        referenceCache = cache;
+        final List<long[]> counts = usesLimits ? DeformationUtils.generateDeformationCounts(deformations) : null;
+
+        scheduler.execute(run, subsetCount, () -> createWorker(
+                imageB, interpolator, imageWidth,
+                subsets, subsetData, cache,
+                deformations, counts,
+                defOrder, usesZncc, store));
+    }
+
+    Worker createWorker(final float[] imageB, final BicubicInterpolator interpolator, final int imageWidth,
+            final List<AbstractSubset> subsets, final SubsetData subsetData, final ReferenceSubsetCache referenceCache,
+            final List<double[]> deformations, final List<long[]> counts,
+            final DeformationOrder defOrder, final boolean usesZncc, final ResultStore store) {
+        return new Worker(
+                imageB, interpolator, imageWidth,
+                subsets, subsetData, referenceCache,
+                deformations, counts,
+                defOrder, usesZncc, store);
+    }
+
+    /**
+     * Subset coordinates in structure of arrays layout - absolute coordinates
+     * and coordinates relative to subset center, all subsets in one block.
+     */
+    static final class SubsetData {
+
+        final int area;
+        final float[] x, y, dx, dy;
+
+        SubsetData(final List<AbstractSubset> subsets) {
+            area = subsets.get(0).getData().length / Coordinates.DIMENSION;
+            final int size = subsets.size() * area;
+            x = new float[size];
+            y = new float[size];
+            dx = new float[size];
+            dy = new float[size];
+
+            int[] data;
+            double[] center;
+            int base;
+            for (int s = 0; s < subsets.size(); s++) {
+                data = subsets.get(s).getData();
+                center = subsets.get(s).getCenter();
+                base = s * area;
+                for (int i = 0; i < area; i++) {
+                    x[base + i] = data[i * 2];
+                    y[base + i] = data[i * 2 + 1];
+                    dx[base + i] = (float) (data[i * 2] - center[Coordinates.X]);
+                    dy[base + i] = (float) (data[i * 2 + 1] - center[Coordinates.Y]);
+                }
+            }
+        }
+    }
+
+    static class Worker implements SubsetScheduler.RangeWorker {
+
+        final float[] imageB;
+        // shared coefficients of bicubic interpolation, null for bilinear interpolation
+        final BicubicInterpolator interpolator;
+        final int imageWidth, imageHeight;
+        final List<AbstractSubset> subsets;
+        final SubsetData subsetData;
+        final ReferenceSubsetCache referenceCache;
+        final List<double[]> deformations;
+        final List<long[]> counts;
+        final DeformationOrder defOrder;
+        final boolean usesZncc;
+        final ResultStore store;
+        // thread local buffers, deformation coefficients are always stored as second order, unused ones stay zero
+        private final double[] deformation;
+        private final float[] deformedX, deformedY, deformedI;
+
+        Worker(final float[] imageB, final BicubicInterpolator interpolator, final int imageWidth,
+                final List<AbstractSubset> subsets, final SubsetData subsetData, final ReferenceSubsetCache referenceCache,
+                final List<double[]> deformations, final List<long[]> counts,
+                final DeformationOrder defOrder, final boolean usesZncc, final ResultStore store) {
+            this.imageB = imageB;
+            this.interpolator = interpolator;
+            this.imageWidth = imageWidth;
+            this.imageHeight = imageB.length / imageWidth;
+            this.subsets = subsets;
+            this.subsetData = subsetData;
+            this.referenceCache = referenceCache;
+            this.deformations = deformations;
+            this.counts = counts;
+            this.defOrder = defOrder;
+            this.usesZncc = usesZncc;
+            this.store = store;
+
+            deformation = new double[DeformationUtils.getDeformationCoeffCount(DeformationOrder.SECOND)];
+            deformedX = new float[subsetData.area];
+            deformedY = new float[subsetData.area];
+            deformedI = new float[subsetData.area];
+        }
+
+        @Override
+        public void compute(final int startIndex, final int endIndex) {
+            final int area = subsetData.area;
+            final int coeffCount = DeformationUtils.getDeformationCoeffCount(defOrder);
+
+            ReferenceSubsetCache.ReferenceSubset reference;
+            double[] localDeformations;
+            long[] localCounts;
+            int localDeformationCount;
+            for (int si = startIndex; si < endIndex; si++) {
+                reference = referenceCache.getReferenceSubset(subsets.get(si));
+                localDeformations = deformations.get(si);
+                if (counts != null) {
+                    localCounts = counts.get(si);
+                    localDeformationCount = (int) localCounts[coeffCount];
+                } else {
+                    localCounts = null;
+                    localDeformationCount = localDeformations.length / coeffCount;
+                }
+
+                for (int di = 0; di < localDeformationCount; di++) {
+                    if (localCounts != null) {
+                        JavaKernel.generateDeformation(localDeformations, localCounts, di, deformation, coeffCount);
+                    } else {
+                        System.arraycopy(localDeformations, di * coeffCount, deformation, 0, coeffCount);
+                    }
+
+                    deform(si * area, area, deformation, deformedX, deformedY);
+                    final float meanG = interpolate(area, deformedX, deformedY, deformedI);
+                    store.store(si, di, correlate(reference, deformedI, meanG));
+                }
+            }
+        }
+
+        void deform(final int base, final int area, final double[] deformation, final float[] deformedX, final float[] deformedY) {
+            final float[] sx = subsetData.x;
+            final float[] sy = subsetData.y;
+            final float[] sdx = subsetData.dx;
+            final float[] sdy = subsetData.dy;
+
+            final float u = (float) deformation[0];
+            final float v = (float) deformation[1];
+            final float ux = (float) deformation[2];
+            final float uy = (float) deformation[3];
+            final float vx = (float) deformation[4];
+            final float vy = (float) deformation[5];
+            if (defOrder != DeformationOrder.SECOND) {
+                for (int i = 0; i < area; i++) {
+                    final float dx = sdx[base + i];
+                    final float dy = sdy[base + i];
+                    deformedX[i] = Math.max(sx[base + i] + u + ux * dx + uy * dy, 0f);
+                    deformedY[i] = Math.max(sy[base + i] + v + vx * dx + vy * dy, 0f);
+                }
+            } else {
+                final float uxx = (float) (0.5 * deformation[6]);
+                final float uyy = (float) (0.5 * deformation[7]);
+                final float uxy = (float) deformation[8];
+                final float vxx = (float) (0.5 * deformation[9]);
+                final float vyy = (float) (0.5 * deformation[10]);
+                final float vxy = (float) deformation[11];
+                for (int i = 0; i < area; i++) {
+                    final float dx = sdx[base + i];
+                    final float dy = sdy[base + i];
+                    deformedX[i] = Math.max(sx[base + i] + u + ux * dx + uy * dy + uxx * dx * dx + uyy * dy * dy + uxy * dx * dy, 0f);
+                    deformedY[i] = Math.max(sy[base + i] + v + vx * dx + vy * dy + vxx * dx * dx + vyy * dy * dy + vxy * dx * dy, 0f);
+                }
+            }
+        }
+
+        float interpolate(final int area, final float[] deformedX, final float[] deformedY, final float[] deformedI) {
+            if (interpolator != null) {
+                return interpolateBicubic(area, deformedX, deformedY, deformedI);
+            }
+            final float[] image = imageB;
+            final int width = imageWidth;
+            final float lastX = imageWidth - 1;
+            final float lastY = imageHeight - 1;
+            final int maxX = imageWidth - 2;
+            final int maxY = imageHeight - 2;
+
+            float sum = 0;
+            for (int i = 0; i < area; i++) {
+                // coordinates outside of image are clamped to the border
+                final float x = Math.min(deformedX[i], lastX);
+                final float y = Math.min(deformedY[i], lastY);
+                // coordinates are non-negative, cast works as floor
+                final int ix = Math.min((int) x, maxX);
+                final int iy = Math.min((int) y, maxY);
+                final float fx = x - ix;
+                final float fy = y - iy;
+                final int index = iy * width + ix;
+
+                final float top = image[index] + fx * (image[index + 1] - image[index]);
+                final float bottom = image[index + width] + fx * (image[index + width + 1] - image[index + width]);
+                final float val = top + fy * (bottom - top);
+                deformedI[i] = val;
+                sum += val;
+            }
+            return sum / area;
+        }
+
+        float interpolateBicubic(final int area, final float[] deformedX, final float[] deformedY, final float[] deformedI) {
+            final BicubicInterpolator bicubic = interpolator;
+            float sum = 0;
+            for (int i = 0; i < area; i++) {
+                final float val = (float) bicubic.value(deformedX[i], deformedY[i]);
+                deformedI[i] = val;
+                sum += val;
+            }
+            return sum / area;
+        }
+
+        double correlate(final ReferenceSubsetCache.ReferenceSubset reference, final float[] deformedI, final float meanG) {
+            final float[] f = reference.getZeroMean();
+            final float deltaF = reference.getNorm();
+            final int area = f.length;
+
+            float cross = 0;
+            float deltaG = 0;
+            for (int i = 0; i < area; i++) {
+                final float g = deformedI[i] - meanG;
+                cross += f[i] * g;
+                deltaG += g * g;
+            }
+            deltaG = (float) Math.sqrt(deltaG);
+
+            if (deltaF == 0 || deltaG == 0) {
+                return 0;
+            }
+
+            if (usesZncc) {
+                return cross / (deltaF * deltaG);
+            } else {
+                final float invF = 1 / deltaF;
+                final float invG = 1 / deltaG;
+                float sum = 0;
+                for (int i = 0; i < area; i++) {
+                    final float temp = f[i] * invF - (deformedI[i] - meanG) * invG;
+                    sum += temp * temp;
+                }
+                return 1 - sum / 2.0;
+            }
+        }
+    }
+
+}
@@ -13,71 +13,55 @@ import cz.tul.dic.data.deformation.DeformationUtils;
 import cz.tul.dic.data.result.CorrelationResult;
 import cz.tul.dic.data.subset.AbstractSubset;
 import cz.tul.dic.data.task.ComputationTask;
+import cz.tul.dic.engine.KernelInfo;
 import cz.tul.dic.engine.platform.Platform;
 import cz.tul.dic.engine.memory.BasicMemoryManager;
-import java.util.ArrayList;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
-import org.pmw.tinylog.Logger;
 
 public class JavaKernel extends AbstractKernel<BasicMemoryManager> {
 
-    private static final int COUNT_THREADS = Runtime.getRuntime().availableProcessors();
-    private ExecutorService exec;
+    private final SubsetScheduler scheduler;
+    private KernelInfo.Correlation correlation;
+    private Interpolation interpolation;
+    private ReferenceSubsetCache referenceCache;
 
     public JavaKernel(final Platform platform) {
         super(platform);
+        scheduler = new SubsetScheduler();
+        correlation = KernelInfo.Correlation.ZNCC;
+        interpolation = Interpolation.BILINEAR;
     }
 
     @Override
     public List<CorrelationResult> computeFindBest(ComputationTask task) throws ComputationException {
-        final double[] results = computeRaw(task);
-        // create results
-        final int subsetCount = task.getSubsets().size();
-        final int defArrayLength = DeformationUtils.getDeformationCoeffCount(task.getOrder());
-        final List<long[]> deformationCounts = DeformationUtils.generateDeformationCounts(task.getDeformations());
-        final List<CorrelationResult> result = new ArrayList<>(subsetCount);
-
-        int base = 0;
-        double max;
-        int maxIndex;
-        long defCount;        
-        for (int i = 0; i < subsetCount; i++) {
-            max = -Double.MAX_VALUE;
-            maxIndex = -1;
-
-            defCount = deformationCounts.get(i)[defArrayLength];
-            for (int j = 0; j < defCount; j++) {
-                if (results[base + j] > max) {
-                    max = results[base + j];
-                    maxIndex = j;
-                }
-            }
-            base += defCount;
-
-            result.add(new CorrelationResult(
-                    max,
-                    DeformationUtils.extractDeformationFromLimits(maxIndex, task.getDeformations().get(i), deformationCounts.get(i))));
-        }
-
-        return result;
+        final SubsetScheduler.Run run = scheduler.start();
+        final ResultStore store = ResultStore.createBest(task.getSubsets().size());
+        compute(task, store, run);
+        return store.getBestResults(task);
     }
 
     @Override
     public double[] computeRaw(ComputationTask task) throws ComputationException {
-        return compute(
+        final SubsetScheduler.Run run = scheduler.start();
+        final ResultStore store = ResultStore.createRaw(
+                task.getSubsets().size(),
+                DeformationUtils.findMaxDeformationCount(task.getDeformations(), task.getOrder(), task.usesLimits()));
+        compute(task, store, run);
+        return store.getResults();
+    }
+
+    private void compute(final ComputationTask task, final ResultStore store, final SubsetScheduler.Run run) {
+        compute(
                 task.getImageA().toBWArray(), task.getImageB().toBWArray(),
-                task.getSubsets(),
+                task.getSubsets(), task.getSubsetWeights(),
                 task.getDeformations(),
-                task.getImageA().getWidth(), task.getOrder());
+                task.getImageA().getWidth(), task.getOrder(), task.usesLimits(),
+                store, run);
     }
 
     @Override
     public void stopComputation() {
-        exec.shutdownNow();
+        scheduler.cancel();
     }
 
     @Override
@@ -87,23 +71,25 @@ public class JavaKernel extends AbstractKernel<BasicMemoryManager> {
 
     @Override
     public void prepareKernel(int subsetSize, DeformationOrder deg, boolean usesLimits, Interpolation interpolation) throws ComputationException {
-        // no preparation needed
+        correlation = getKernelInfo().getCorrelation();
+        if (correlation != KernelInfo.Correlation.ZNCC && correlation != KernelInfo.Correlation.ZNSSD && correlation != KernelInfo.Correlation.WZNSSD) {
+            throw new IllegalArgumentException("Unsupported type of correlation - " + correlation);
+        }
+        this.interpolation = interpolation;
     }
 
-    public double[] compute(
+    private void compute(
             final byte[] imageA, final byte[] imageB,
-            final List<AbstractSubset> subsets, final List<double[]> deformations,
-            final int imageWidth, final DeformationOrder defOrder) {
+            final List<AbstractSubset> subsets, final List<Integer> weights,
+            final List<double[]> deformations,
+            final int imageWidth, final DeformationOrder defOrder, final boolean usesLimits,
+            final ResultStore store, final SubsetScheduler.Run run) {
+        if (correlation == KernelInfo.Correlation.WZNSSD && (weights == null || weights.size() != subsets.size())) {
+            throw new IllegalArgumentException("Weighted correlation needs weight for each subset.");
+        }
         // preparation
-        exec = Executors.newWorkStealingPool();
-        final List<long[]> counts = DeformationUtils.generateDeformationCounts(deformations);
+        final List<long[]> counts = usesLimits ? DeformationUtils.generateDeformationCounts(deformations) : null;
         final int subsetCount = subsets.size();
-        final int deformationCount = (int) counts.get(0)[counts.get(0).length - 1];
-        final double[] results = new double[subsetCount * deformationCount];
-        // execution        
-        final List<Worker> workers = new ArrayList<>(COUNT_THREADS);
-
-        final List<int[]> workBounds = generateBounds(COUNT_THREADS + 1, subsetCount);
 
         final int subsetDataArrayLength = subsets.get(0).getData().length;
         final int[] subsetData = new int[subsetCount * subsetDataArrayLength];
@@ -113,127 +99,134 @@ public class JavaKernel extends AbstractKernel<BasicMemoryManager> {
             System.arraycopy(subsets.get(i).getCenter(), 0, subsetCenters, i * 2, 2);
         }
 
-        workBounds.stream().forEach((bound) -> {
-            workers.add(new Worker(
-                    bound[0], bound[1],
-                    imageA, imageB,
-                    imageWidth,
-                    subsetData, subsetCenters,
-                    subsets.get(0).getSize(),
-                    deformations,
-                    counts,
-                    defOrder,
-                    results));
-        });
-        try {
-            workers.stream().forEach((w) -> {
-                exec.execute(w);
-            });
-            exec.shutdown();
-            exec.awaitTermination(1, TimeUnit.DAYS);
-        } catch (InterruptedException ex) {
-            Logger.warn(ex);
-        }
-
-        return results;
-    }
-
-    private static List<int[]> generateBounds(final int count, final int size) {
-        final List<int[]> result = new LinkedList<>();
-        int part = Math.max(size / count, 1);
-        int c = 0, prevC = 0;
-        for (int i = 0; i < count; i++) {
-            c += part;
-            result.add(new int[]{prevC, c});
-            prevC = c;
-            if (c >= size) {
-                break;
-            }
-        }
-
-        return result;
+        final ReferenceSubsetCache cache = ReferenceSubsetCache.forImage(referenceCache, imageA, imageWidth);
+        referenceCache = cache;
+        // execution
+        scheduler.execute(run, subsetCount, () -> new Worker(
+                imageB,
+                imageWidth,
+                subsets, weights, cache,
+                subsetData, subsetCenters,
+                subsetDataArrayLength / 2,
+                deformations,
+                counts,
+                defOrder,
+                correlation, interpolation,
+                store));
     }
 
-    private static class Worker implements Runnable {
+    private static class Worker implements SubsetScheduler.RangeWorker {
 
-        private final int startIndex, endIndex;
-        private final byte[] imageA, imageB;
+        private final byte[] imageB;
         private final int imageWidth;
+        private final List<AbstractSubset> subsets;
+        private final List<Integer> weights;
+        private final ReferenceSubsetCache referenceCache;
         private final int[] subsetData;
         private final double[] subsetCenters;
-        private final int subsetSize;
+        private final int subsetArea;
         private final List<double[]> deformations;
         private final List<long[]> counts;
         private final DeformationOrder defOrder;
-        private final double[] results;
+        private final KernelInfo.Correlation correlation;
+        private final Interpolation interpolation;
+        private final ResultStore store;
 
-        public Worker(int startIndex, int endIndex, byte[] imageA, byte[] imageB, int imageWidth, int[] subsetData, double[] subsetCenters, int subsetSize, List<double[]> deformations, List<long[]> counts, DeformationOrder defOrder, double[] results) {
-            this.startIndex = startIndex;
-            this.endIndex = endIndex;
-            this.imageA = imageA;
+        public Worker(byte[] imageB, int imageWidth, List<AbstractSubset> subsets, List<Integer> weights, ReferenceSubsetCache referenceCache, int[] subsetData, double[] subsetCenters, int subsetArea, List<double[]> deformations, List<long[]> counts, DeformationOrder defOrder, KernelInfo.Correlation correlation, Interpolation interpolation, ResultStore store) {
             this.imageB = imageB;
             this.imageWidth = imageWidth;
+            this.subsets = subsets;
+            this.weights = weights;
+            this.referenceCache = referenceCache;
             this.subsetData = subsetData;
             this.deformations = deformations;
             this.counts = counts;
             this.subsetCenters = subsetCenters;
-            this.subsetSize = subsetSize;
-            this.results = results;
+            this.subsetArea = subsetArea;
+            this.store = store;
             this.defOrder = defOrder;
+            this.correlation = correlation;
+            this.interpolation = interpolation;
         }
 
         @Override
-        public void run() {
+        public void compute(final int startIndex, final int endIndex) {
             if (startIndex >= endIndex) {
                 throw new IllegalArgumentException("Subset start index must be smaller than end index.");
             }
 
-            final int subsetArraySize = calculateFacetArraySize(subsetSize);
-            final int subsetArea = calculateFacetArea(subsetSize);
-
-            final double[] deformedSubset = new double[subsetArraySize];
+            final double[] deformedSubset = new double[subsetArea * 2];
             final int[] deformeSubsetI = new int[subsetArea];
-            final int[] subsetI = new int[subsetArea];
 
             final int defArrayLength = DeformationUtils.getDeformationCoeffCount(defOrder);
 
-            final int imageHeight = imageA.length / imageWidth;
+            final int imageHeight = imageB.length / imageWidth;
 
             final double[] deformation = new double[defArrayLength];
-            double[] localDefLimits;
+            ReferenceSubsetCache.ReferenceSubset reference;
+            double[] localDeformations;
             long[] localCounts;
-            int deformationCount;
+            int localDeformationCount;
             for (int si = startIndex; si < endIndex; si++) {
-                interpolate(subsetData, si, subsetI, imageA, imageWidth, imageHeight);
-                localDefLimits = deformations.get(si);
-                localCounts = counts.get(si);
-                deformationCount = (int) localCounts[localCounts.length - 1];
+                reference = referenceCache.getReferenceSubset(subsets.get(si));
+                localDeformations = deformations.get(si);
+                if (counts != null) {
+                    localCounts = counts.get(si);
+                    localDeformationCount = (int) localCounts[localCounts.length - 1];
+                } else {
+                    localCounts = null;
+                    localDeformationCount = localDeformations.length / defArrayLength;
+                }
 
-                for (int di = 0; di < deformationCount; di++) {
-                    generateDeformation(localDefLimits, localCounts, di, deformation, defArrayLength);
+                for (int di = 0; di < localDeformationCount; di++) {
+                    if (localCounts != null) {
+                        generateDeformation(localDeformations, localCounts, di, deformation, defArrayLength);
+                    } else {
+                        System.arraycopy(localDeformations, di * defArrayLength, deformation, 0, defArrayLength);
+                    }
 
                     switch (defOrder) {
                         case ZERO:
-                            deform0(subsetData, subsetSize, si, deformedSubset, deformation);
+                            deform0(subsetData, subsetArea, si, deformedSubset, deformation);
                             break;
                         case FIRST:
-                            deform1(subsetData, subsetSize, subsetCenters, si, deformedSubset, deformation);
+                            deform1(subsetData, subsetArea, subsetCenters, si, deformedSubset, deformation);
                             break;
                         case SECOND:
-                            deform2(subsetData, subsetSize, subsetCenters, si, deformedSubset, deformation);
+                            deform2(subsetData, subsetArea, subsetCenters, si, deformedSubset, deformation);
                             break;
                         default:
-                            throw new UnsupportedOperationException("Second order deformation not support yet.");
+                            throw new UnsupportedOperationException("Unsupported order of deformation - " + defOrder);
                     }
 
-                    interpolate(deformedSubset, deformeSubsetI, imageB, imageWidth, imageHeight);
-                    results[si * deformationCount + di] = correlate(subsetI, deformeSubsetI);
+                    if (interpolation == Interpolation.BICUBIC) {
+                        interpolateBicubic(deformedSubset, deformeSubsetI, imageB, imageWidth, imageHeight);
+                    } else {
+                        interpolate(deformedSubset, deformeSubsetI, imageB, imageWidth, imageHeight);
+                    }
+
+                    switch (correlation) {
+                        case ZNCC:
+                            store.store(si, di, correlate(reference, deformeSubsetI));
+                            break;
+                        case ZNSSD:
+                            store.store(si, di, correlateZNSSD(reference, deformeSubsetI));
+                            break;
+                        case WZNSSD:
+                            store.store(si, di, correlateWZNSSD(
+                                    reference, deformeSubsetI,
+                                    subsetData, subsetArea, subsetCenters, si,
+                                    deformedSubset, deformation, weights.get(si)));
+                            break;
+                        default:
+                            throw new UnsupportedOperationException("Unsupported type of correlation - " + correlation);
+                    }
                 }
             }
         }
     }
 
-    private static void generateDeformation(final double[] limits, final long[] counts, final int deformationIndex, final double[] deformation, final int defArrayLength) {
+    static void generateDeformation(final double[] limits, final long[] counts, final int deformationIndex, final double[] deformation, final int defArrayLength) {
         if (deformationIndex >= counts[defArrayLength]) {
             return;
         }
@@ -286,10 +279,10 @@ public class JavaKernel extends AbstractKernel<BasicMemoryManager> {
     }
 
     private static void deform0(
-            final int[] subsets, final int subsetSize, final int subsetIndex,
+            final int[] subsets, final int subsetArea, final int subsetIndex,
             final double[] deformedFacet, final double[] deformation) {
-        final int facetBase = subsetIndex * calculateFacetArraySize(subsetSize);
-        final int facetArea = calculateFacetArea(subsetSize);
+        final int facetBase = subsetIndex * subsetArea * 2;
+        final int facetArea = subsetArea;
 
         int x, y;
         int baseIndex;
@@ -315,10 +308,10 @@ public class JavaKernel extends AbstractKernel<BasicMemoryManager> {
     }
 
     private static void deform1(
-            final int[] subsets, final int subsetSize, final double[] subsetCenters, final int subsetIndex,
+            final int[] subsets, final int subsetArea, final double[] subsetCenters, final int subsetIndex,
             final double[] deformedSubset, final double[] deformation) {
-        final int facetBase = subsetIndex * calculateFacetArraySize(subsetSize);
-        final int facetArea = calculateFacetArea(subsetSize);
+        final int facetBase = subsetIndex * subsetArea * 2;
+        final int facetArea = subsetArea;
 
         final double cx = subsetCenters[subsetIndex * 2];
         final double cy = subsetCenters[subsetIndex * 2 + 1];
@@ -351,10 +344,10 @@ public class JavaKernel extends AbstractKernel<BasicMemoryManager> {
     }
 
     private static void deform2(
-            final int[] subsets, final int subsetSize, final double[] subsetCenters, final int subsetIndex,
+            final int[] subsets, final int subsetArea, final double[] subsetCenters, final int subsetIndex,
             final double[] deformedSubset, final double[] deformation) {
-        final int facetBase = subsetIndex * calculateFacetArraySize(subsetSize);
-        final int facetArea = calculateFacetArea(subsetSize);
+        final int facetBase = subsetIndex * subsetArea * 2;
+        final int facetArea = subsetArea;
 
         final double cx = subsetCenters[subsetIndex * 2];
         final double cy = subsetCenters[subsetIndex * 2 + 1];
@@ -394,12 +387,13 @@ public class JavaKernel extends AbstractKernel<BasicMemoryManager> {
         for (int i = 0; i < intensities.length; i++) {
             i2 = i * 2;
 
-            val = deformedFacet[i2];
-            x = Math.min((int) Math.floor(val), imageWidth - 2);
+            // coordinates outside of image are clamped to the border
+            val = Math.max(0, Math.min(deformedFacet[i2], imageWidth - 1));
+            x = Math.min((int) val, imageWidth - 2);
             dx = val - x;
 
-            val = deformedFacet[i2 + 1];
-            y = Math.min((int) Math.floor(val), imageHeight - 2);
+            val = Math.max(0, Math.min(deformedFacet[i2 + 1], imageHeight - 1));
+            y = Math.min((int) val, imageHeight - 2);
             dy = val - y;
 
             intensity = 0;
@@ -412,46 +406,60 @@ public class JavaKernel extends AbstractKernel<BasicMemoryManager> {
         }
     }
 
-    private static void interpolate(final int[] facets, final int facetIndex, final int[] intensities, final byte[] image, final int imageWidth, final int imageHeight) {
-        final int facetBase = facetIndex * 2 * intensities.length;
-
-        int x, y, intensity, i2;
+    private static void interpolateBicubic(final double[] deformedFacet, final int[] intensities, final byte[] image, final int imageWidth, final int imageHeight) {
+        int x, y, i2, row;
         double dx, dy, val;
+        final double[] rows = new double[4];
         for (int i = 0; i < intensities.length; i++) {
             i2 = i * 2;
 
-            val = facets[facetBase + i2];
+            val = deformedFacet[i2];
             x = (int) Math.floor(val);
             dx = val - x;
 
-            val = facets[facetBase + i2 + 1];
+            val = deformedFacet[i2 + 1];
             y = (int) Math.floor(val);
             dy = val - y;
 
-            intensity = 0;
-            intensity += image[compute1DIndex(x, y, imageWidth)] * (1 - dx) * (1 - dy);
-            intensity += image[compute1DIndex(Math.min(x + 1, imageWidth - 1), y, imageWidth)] * dx * (1 - dy);
-            intensity += image[compute1DIndex(x, Math.min(y + 1, imageHeight - 1), imageWidth)] * (1 - dx) * dy;
-            intensity += image[compute1DIndex(Math.min(x + 1, imageWidth - 1), Math.min(y + 1, imageHeight - 1), imageWidth)] * dx * dy;
+            for (int j = 0; j < 4; j++) {
+                row = clamp(y + j - 1, imageHeight);
+                rows[j] = interpolateCubic(
+                        image[compute1DIndex(clamp(x - 1, imageWidth), row, imageWidth)],
+                        image[compute1DIndex(clamp(x, imageWidth), row, imageWidth)],
+                        image[compute1DIndex(clamp(x + 1, imageWidth), row, imageWidth)],
+                        image[compute1DIndex(clamp(x + 2, imageWidth), row, imageWidth)],
+                        dx);
+            }
 
-            intensities[i] = intensity;
+            intensities[i] = (int) interpolateCubic(rows[0], rows[1], rows[2], rows[3], dy);
         }
     }
 
-    private static float correlate(final int[] a, final int[] b) {
+    /**
+     * Catmull-Rom spline between p1 and p2.
+     */
+    static double interpolateCubic(final double p0, final double p1, final double p2, final double p3, final double x) {
+        return p1 + 0.5 * x * (p2 - p0 + x * (2.0 * p0 - 5.0 * p1 + 4.0 * p2 - p3 + x * (3.0 * (p1 - p2) + p3 - p0)));
+    }
+
+    private static int clamp(final int val, final int size) {
+        return Math.max(0, Math.min(val, size - 1));
+    }
+
+    private static float correlate(final ReferenceSubsetCache.ReferenceSubset reference, final int[] b) {
+        final float[] a = reference.getZeroMean();
         if (a.length != b.length) {
             throw new IllegalArgumentException("Array size mismatch.");
         }
 
-        final float meanA = mean(a);
-        final float deltaA = delta(a, meanA);
+        final float deltaA = reference.getNorm();
 
         final float meanB = mean(b);
         final float deltaB = delta(b, meanB);
 
         float result = 0;
         for (int i = 0; i < a.length; i++) {
-            result += (a[i] - meanA) * (b[i] - meanB);
+            result += a[i] * (b[i] - meanB);
         }
         if (deltaA != 0 && deltaB != 0) {
             result /= deltaA * deltaB;
@@ -460,6 +468,71 @@ public class JavaKernel extends AbstractKernel<BasicMemoryManager> {
         return result;
     }
 
+    private static float correlateZNSSD(final ReferenceSubsetCache.ReferenceSubset reference, final int[] b) {
+        final float[] a = reference.getZeroMean();
+        if (a.length != b.length) {
+            throw new IllegalArgumentException("Array size mismatch.");
+        }
+
+        final float deltaA = reference.getNorm();
+
+        final float meanB = mean(b);
+        final float deltaB = delta(b, meanB);
+        if (deltaA == 0 || deltaB == 0) {
+            return 0;
+        }
+
+        float result = 0, tmp;
+        for (int i = 0; i < a.length; i++) {
+            tmp = (a[i] / deltaA) - ((b[i] - meanB) / deltaB);
+            result += tmp * tmp;
+        }
+
+        return 1 - (result / 2f);
+    }
+
+    private static float correlateWZNSSD(
+            final ReferenceSubsetCache.ReferenceSubset reference, final int[] b,
+            final int[] subsets, final int subsetArea, final double[] subsetCenters, final int subsetIndex,
+            final double[] deformedSubset, final double[] deformation, final int weight) {
+        final float[] a = reference.getZeroMean();
+        if (a.length != b.length) {
+            throw new IllegalArgumentException("Array size mismatch.");
+        }
+
+        final float deltaA = reference.getNorm();
+
+        final float meanB = mean(b);
+        final float deltaB = delta(b, meanB);
+        if (deltaA == 0 || deltaB == 0) {
+            return 0;
+        }
+
+        final int subsetBase = subsetIndex * subsetArea * 2;
+        final double centerX = subsetCenters[subsetIndex * 2];
+        final double centerY = subsetCenters[subsetIndex * 2 + 1];
+        final double centerDefX = centerX + deformation[0];
+        final double centerDefY = centerY + deformation[1];
+
+        double result = 0, sumWg = 0, wGorig, wGdef, tmp;
+        for (int i = 0; i < a.length; i++) {
+            wGorig = gauss(subsets[subsetBase + i * 2] - centerX, subsets[subsetBase + i * 2 + 1] - centerY, weight);
+            wGdef = gauss(deformedSubset[i * 2] - centerDefX, deformedSubset[i * 2 + 1] - centerDefY, weight);
+            tmp = ((b[i] - meanB) / deltaB) * wGdef - (a[i] / deltaA) * wGorig;
+            result += tmp * tmp;
+            sumWg += wGdef * wGdef;
+        }
+        if (sumWg != 0) {
+            result /= sumWg;
+        }
+
+        return (float) (1 - (result / 2.0));
+    }
+
+    private static double gauss(final double dx, final double dy, final double d0) {
+        return Math.exp(-((dx * dx) + (dy * dy)) / (2 * d0 * d0));
+    }
+
     private static float mean(int[] l) {
         float result = 0;
         for (int i : l) {
@@ -481,14 +554,6 @@ public class JavaKernel extends AbstractKernel<BasicMemoryManager> {
         return (float) Math.sqrt(result);
     }
 
-    private static int calculateFacetArraySize(final int subsetSize) {
-        return (subsetSize * subsetSize) * 2;
-    }
-
-    private static int calculateFacetArea(final int subsetSize) {
-        return subsetSize * subsetSize;
-    }
-
     private static int compute1DIndex(final int x, final int y, final int width) {
         return (y * width) + x;
     }
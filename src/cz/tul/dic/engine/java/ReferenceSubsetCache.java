@@ -0,0 +1,141 @@
+/* Copyright (C) LENAM, s.r.o. - All Rights Reserved
+ * Unauthorized copying of this file, via any medium is strictly prohibited
+ * Proprietary and confidential
+ * Written by Petr Jecmen <petr.jecmen@tul.cz>, 2015
+ */
+package cz.tul.dic.engine.java;
+
+import cz.tul.dic.data.Coordinates;
+import cz.tul.dic.data.subset.AbstractSubset;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Statistics of reference subsets (intensities, zero-mean values and norm)
+ * for single reference image. Values are computed once per subset and reused
+ * for all deformations and all solver iterations on the same image pair.
+ * Each kernel keeps its own cache, so kernels working with different images
+ * do not drop each other's data.
+ *
+ * @author Petr Jecmen
+ */
+final class ReferenceSubsetCache {
+
+    private final Object image;
+    private final int imageWidth;
+    private final Map<AbstractSubset, ReferenceSubset> data;
+
+    private ReferenceSubsetCache(final Object image, final int imageWidth) {
+        this.image = image;
+        this.imageWidth = imageWidth;
+        data = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Returns cache for given reference image. Cache for previous image is
+     * dropped when the reference image changes (next round).
+     *
+     * @param current cache used by the kernel so far, may be null
+     * @param image reference image data
+     * @param imageWidth width of the reference image
+     * @return current cache if it is bound to given image, new cache
+     * otherwise
+     */
+    static ReferenceSubsetCache forImage(final ReferenceSubsetCache current, final byte[] image, final int imageWidth) {
+        return forImage(current, (Object) image, imageWidth);
+    }
+
+    /**
+     * Returns cache for given reference image in form of normalized float
+     * plane.
+     *
+     * @param current cache used by the kernel so far, may be null
+     * @param image reference image data
+     * @param imageWidth width of the reference image
+     * @return current cache if it is bound to given image, new cache
+     * otherwise
+     */
+    static ReferenceSubsetCache forImage(final ReferenceSubsetCache current, final float[] image, final int imageWidth) {
+        return forImage(current, (Object) image, imageWidth);
+    }
+
+    private static ReferenceSubsetCache forImage(final ReferenceSubsetCache current, final Object image, final int imageWidth) {
+        if (current == null || current.image != image || current.imageWidth != imageWidth) {
+            return new ReferenceSubsetCache(image, imageWidth);
+        }
+        return current;
+    }
+
+    ReferenceSubset getReferenceSubset(final AbstractSubset subset) {
+        ReferenceSubset result = data.get(subset);
+        if (result == null) {
+            result = new ReferenceSubset(sampleIntensities(subset.getData()));
+            data.put(subset, result);
+        }
+        return result;
+    }
+
+    private float[] sampleIntensities(final int[] subsetData) {
+        final int pointCount = subsetData.length / Coordinates.DIMENSION;
+        final float[] result = new float[pointCount];
+        // reference subset lies on integer coordinates, no interpolation is needed
+        if (image instanceof byte[]) {
+            final byte[] bytes = (byte[]) image;
+            for (int i = 0; i < pointCount; i++) {
+                result[i] = bytes[subsetData[i * 2 + 1] * imageWidth + subsetData[i * 2]];
+            }
+        } else {
+            final float[] floats = (float[]) image;
+            for (int i = 0; i < pointCount; i++) {
+                result[i] = floats[subsetData[i * 2 + 1] * imageWidth + subsetData[i * 2]];
+            }
+        }
+        return result;
+    }
+
+    static final class ReferenceSubset {
+
+        private final float[] intensities;
+        private final float[] zeroMean;
+        private final float mean;
+        private final float norm;
+
+        private ReferenceSubset(final float[] intensities) {
+            this.intensities = intensities;
+            final int pointCount = intensities.length;
+
+            float sum = 0;
+            for (int i = 0; i < pointCount; i++) {
+                sum += intensities[i];
+            }
+            mean = sum / (float) pointCount;
+
+            zeroMean = new float[pointCount];
+            float deltaSum = 0, tmp;
+            for (int i = 0; i < pointCount; i++) {
+                tmp = intensities[i] - mean;
+                zeroMean[i] = tmp;
+                deltaSum += tmp * tmp;
+            }
+            norm = (float) Math.sqrt(deltaSum);
+        }
+
+        float[] getIntensities() {
+            return intensities;
+        }
+
+        float[] getZeroMean() {
+            return zeroMean;
+        }
+
+        float getMean() {
+            return mean;
+        }
+
+        float getNorm() {
+            return norm;
+        }
+
+    }
+
+}
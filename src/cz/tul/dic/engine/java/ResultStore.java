@@ -0,0 +1,98 @@
+/* Copyright (C) LENAM, s.r.o. - All Rights Reserved
+ * Unauthorized copying of this file, via any medium is strictly prohibited
+ * Proprietary and confidential
+ * Written by Petr Jecmen <petr.jecmen@tul.cz>, 2015
+ */
+package cz.tul.dic.engine.java;
+
+import cz.tul.dic.data.deformation.DeformationOrder;
+import cz.tul.dic.data.deformation.DeformationUtils;
+import cz.tul.dic.data.result.CorrelationResult;
+import cz.tul.dic.data.task.ComputationTask;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Destination of correlation values computed by Java kernels. Either keeps
+ * all values (results[subsetIndex * maxDeformationCount + deformationIndex])
+ * or only the running best deformation for each subset, which needs memory
+ * proportional to subset count only.
+ *
+ * Each subset is computed by a single thread, so no synchronization is
+ * needed.
+ *
+ * @author Petr Jecmen
+ */
+final class ResultStore {
+
+    private final double[] results;
+    private final int deformationCount;
+    private final double[] bestValues;
+    private final int[] bestIndices;
+
+    private ResultStore(final double[] results, final int deformationCount, final double[] bestValues, final int[] bestIndices) {
+        this.results = results;
+        this.deformationCount = deformationCount;
+        this.bestValues = bestValues;
+        this.bestIndices = bestIndices;
+    }
+
+    static ResultStore createRaw(final int subsetCount, final long deformationCount) {
+        final long size = subsetCount * deformationCount;
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many results for raw computation (" + size + "), search for best results instead.");
+        }
+        return new ResultStore(new double[(int) size], (int) deformationCount, null, null);
+    }
+
+    static ResultStore createBest(final int subsetCount) {
+        final double[] bestValues = new double[subsetCount];
+        Arrays.fill(bestValues, -Double.MAX_VALUE);
+        final int[] bestIndices = new int[subsetCount];
+        Arrays.fill(bestIndices, -1);
+        return new ResultStore(null, 0, bestValues, bestIndices);
+    }
+
+    void store(final int subsetIndex, final int deformationIndex, final double value) {
+        if (results != null) {
+            results[subsetIndex * deformationCount + deformationIndex] = value;
+        } else if (value > bestValues[subsetIndex]) {
+            bestValues[subsetIndex] = value;
+            bestIndices[subsetIndex] = deformationIndex;
+        }
+    }
+
+    double[] getResults() {
+        return results;
+    }
+
+    /**
+     * @param task computed task
+     * @return best result for each subset, subsets without any result (e.g.
+     * computation has been stopped) get result without deformation
+     */
+    List<CorrelationResult> getBestResults(final ComputationTask task) {
+        if (bestIndices == null) {
+            throw new IllegalStateException("Best results are not tracked for raw computation.");
+        }
+        final DeformationOrder order = task.getOrder();
+        final List<double[]> deformations = task.getDeformations();
+        final List<long[]> deformationCounts = task.usesLimits() ? DeformationUtils.generateDeformationCounts(deformations) : null;
+
+        final List<CorrelationResult> result = new ArrayList<>(bestIndices.length);
+        for (int i = 0; i < bestIndices.length; i++) {
+            if (bestIndices[i] < 0) {
+                result.add(new CorrelationResult(-1, null));
+                continue;
+            }
+            result.add(new CorrelationResult(
+                    bestValues[i],
+                    deformationCounts != null
+                            ? DeformationUtils.extractDeformationFromLimits(bestIndices[i], deformations.get(i), deformationCounts.get(i))
+                            : DeformationUtils.extractDeformationFromValues(bestIndices[i], deformations.get(i), order)));
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,155 @@
+/* Copyright (C) LENAM, s.r.o. - All Rights Reserved
+ * Unauthorized copying of this file, via any medium is strictly prohibited
+ * Proprietary and confidential
+ * Written by Petr Jecmen <petr.jecmen@tul.cz>, 2015
+ */
+package cz.tul.dic.engine.java;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import org.pmw.tinylog.Logger;
+
+/**
+ * Runs subset computations of Java kernels on one long-lived pool shared by
+ * all kernel instances. Subsets are split into small chunks, which are taken
+ * by the threads on demand, so the load stays balanced even if subsets have
+ * different deformation counts.
+ *
+ * @author Petr Jecmen
+ */
+final class SubsetScheduler {
+
+    private static final int COUNT_THREADS = Runtime.getRuntime().availableProcessors();
+    private static final int CHUNKS_PER_THREAD = 16;
+    private static final ExecutorService POOL = Executors.newFixedThreadPool(COUNT_THREADS, (r) -> {
+        final Thread t = new Thread(r, "JavaKernel-worker");
+        t.setDaemon(true);
+        return t;
+    });
+    private volatile Run current;
+
+    /**
+     * Starts a new computation, stop requested by {@link #cancel()} from now
+     * on applies to it.
+     *
+     * @return token of the computation
+     */
+    synchronized Run start() {
+        final Run run = new Run();
+        current = run;
+        return run;
+    }
+
+    /**
+     * Computes subsets [0, subsetCount) and waits until all pool threads
+     * working on them have finished, even if the computation is stopped. Each
+     * pool thread gets its own worker from the factory, so workers may keep
+     * thread local buffers.
+     *
+     * @param run token of the computation obtained from {@link #start()}
+     * @param subsetCount number of subsets
+     * @param workerFactory creates workers for the pool threads
+     */
+    void execute(final Run run, final int subsetCount, final Supplier<RangeWorker> workerFactory) {
+        try {
+            if (run.cancelled) {
+                return;
+            }
+
+            final int chunk = Math.max(1, subsetCount / (COUNT_THREADS * CHUNKS_PER_THREAD));
+            final int threadCount = Math.min(COUNT_THREADS, (subsetCount + chunk - 1) / chunk);
+            final AtomicInteger next = new AtomicInteger();
+
+            final List<Future<?>> futures = new ArrayList<>(threadCount);
+            for (int i = 0; i < threadCount; i++) {
+                futures.add(POOL.submit(() -> {
+                    final RangeWorker worker = workerFactory.get();
+                    int start;
+                    while (!run.cancelled && (start = next.getAndAdd(chunk)) < subsetCount) {
+                        worker.compute(start, Math.min(start + chunk, subsetCount));
+                    }
+                }));
+            }
+
+            waitFor(run, futures);
+        } finally {
+            synchronized (this) {
+                if (current == run) {
+                    current = null;
+                }
+            }
+        }
+    }
+
+    private static void waitFor(final Run run, final List<Future<?>> futures) {
+        Throwable error = null;
+        boolean interrupted = false;
+        for (Future<?> f : futures) {
+            while (true) {
+                try {
+                    f.get();
+                    break;
+                } catch (InterruptedException ex) {
+                    // workers are still writing results, stop them and keep waiting
+                    if (!interrupted) {
+                        Logger.warn(ex, "Subset computation interrupted.");
+                    }
+                    interrupted = true;
+                    run.cancelled = true;
+                } catch (ExecutionException ex) {
+                    if (error == null) {
+                        error = ex.getCause();
+                    }
+                    run.cancelled = true;
+                    break;
+                }
+            }
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (error instanceof RuntimeException) {
+            throw (RuntimeException) error;
+        } else if (error instanceof Error) {
+            throw (Error) error;
+        } else if (error != null) {
+            throw new IllegalStateException(error);
+        }
+    }
+
+    /**
+     * Stops the current computation, chunks not yet started are skipped. The
+     * pool itself stays alive for further computations.
+     */
+    void cancel() {
+        final Run run = current;
+        if (run != null) {
+            run.cancelled = true;
+        }
+    }
+
+    /**
+     * Token of a single computation, tasks of the computation check it before
+     * taking each chunk.
+     */
+    static final class Run {
+
+        private volatile boolean cancelled;
+
+        private Run() {
+        }
+    }
+
+    interface RangeWorker {
+
+        void compute(final int startIndex, final int endIndex);
+    }
+
+}
@@ -15,60 +15,60 @@ import cz.tul.dic.data.Image;
 import cz.tul.dic.data.deformation.DeformationUtils;
 import cz.tul.dic.data.task.ComputationTask;
 import cz.tul.dic.data.task.TaskContainer;
-import cz.tul.dic.data.task.TaskParameter;
+import cz.tul.dic.data.task.TaskContainerUtils;
 import cz.tul.dic.engine.opencl.kernel.OpenCLKernel;
 import cz.tul.dic.engine.KernelInfo;
 import static cz.tul.dic.engine.KernelInfo.Input.ARRAY;
 import static cz.tul.dic.engine.KernelInfo.Input.IMAGE;
 import java.nio.ByteBuffer;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
+/**
+ * Uploads images of current round and of a few following rounds in advance.
+ * Buffers are kept by round number, so only images of these rounds are held
+ * and images dropped by image cache can be released.
+ */
 public class PrefetchingOpenCLMemoryManager extends AbstractOpenCLMemoryManager {
 
-    private final Map<Image, CLMemory<ByteBuffer>> imageBuffer;
+    // count of rounds uploaded in advance after the second image of current round
+    private static final int IMAGE_LOOKAHEAD = 1;
+    private final Map<Integer, PrefetchedImage> imageBuffer;
     private List<AbstractSubset> subsets;
     private List<Integer> subsetWeights;
     private List<double[]> deformationLimits;
     private List<long[]> deformationCounts;
-    private boolean inited;
     private TaskContainer task;
+    private int round;
+    private boolean ownsImages;
 
     public PrefetchingOpenCLMemoryManager() {
         imageBuffer = new HashMap<>();
-        inited = false;
     }
 
     @Override
     public void assignDataToGPU(final ComputationTask task, final OpenCLKernel kernel) throws ComputationException {
         try {
-            if (clImageA == null) {
-                if (!inited) {
-                    init(this.task);
-                }
+            final KernelInfo.Input input = kernel.getKernelInfo().getInput();
+            round = findRound(task.getImageA());
+            prefetchImages(input);
 
-                clImageA = imageBuffer.get(task.getImageA());
-                clImageB = imageBuffer.get(task.getImageB());
-            } else {
+            if (ownsImages) {
                 release(clImageA);
                 release(clImageB);
-                switch (kernel.getKernelInfo().getInput()) {
-                    case IMAGE:
-                        clImageA = generateImage2d(task.getImageA());
-                        queue.putWriteImage((CLImage2d<?>) clImageA, false);
-                        clImageB = generateImage2d(task.getImageB());
-                        queue.putWriteImage((CLImage2d<?>) clImageB, false);
-                        break;
-                    case ARRAY:
-                        clImageA = generateImageArray(task.getImageA());
-                        queue.putWriteBuffer((CLBuffer<?>) clImageA, false);
-                        clImageB = generateImageArray(task.getImageB());
-                        queue.putWriteBuffer((CLBuffer<?>) clImageB, false);
-                        break;
-                    default:
-                        throw new IllegalArgumentException("Unsupported type of input - " + kernel.getKernelInfo().getInput());
-                }
+            }
+            final CLMemory<ByteBuffer> prefetchedA = findPrefetched(task.getImageA(), input);
+            final CLMemory<ByteBuffer> prefetchedB = findPrefetched(task.getImageB(), input);
+            // images reloaded by image cache or out of prefetched rounds are uploaded separately
+            ownsImages = prefetchedA == null || prefetchedB == null;
+            if (ownsImages) {
+                clImageA = generateImage(task.getImageA(), input);
+                clImageB = generateImage(task.getImageB(), input);
+            } else {
+                clImageA = prefetchedA;
+                clImageB = prefetchedB;
             }
 
             boolean changedResults = false;
@@ -123,48 +123,132 @@ public class PrefetchingOpenCLMemoryManager extends AbstractOpenCLMemoryManager
 
     @Override
     public void assignTask(final TaskContainer task) {
-        imageBuffer.values().stream().forEach((m) -> {
-            release(m);
-        });
-        imageBuffer.clear();
+        releaseImages();
 
-        if (!inited) {
-            init(task);
-        }
+        final Map<Integer, Integer> rounds = TaskContainerUtils.getRounds(task);
+        round = rounds.isEmpty() ? 0 : rounds.keySet().iterator().next();
         this.task = task;
     }
 
-    private void init(final TaskContainer task) {
-        final KernelInfo kt = (KernelInfo) task.getParameter(TaskParameter.KERNEL);        
-        switch (kt.getInput()) {
+    @Override
+    public void clearMemory() {
+        super.clearMemory();
+        releaseImages();
+    }
+
+    /**
+     * @return round of given first image, current round if the image does not
+     * belong to any prefetched round
+     */
+    private int findRound(final Image imageA) {
+        for (Map.Entry<Integer, PrefetchedImage> e : imageBuffer.entrySet()) {
+            if (e.getValue().image == imageA) {
+                return e.getKey();
+            }
+        }
+        if (task != null) {
+            // image could have been reloaded by image cache
+            final int last = Math.min(round + 1 + IMAGE_LOOKAHEAD, task.getImageCount() - 1);
+            for (int r = round; r <= last; r++) {
+                if (task.getImage(r) == imageA) {
+                    return r;
+                }
+            }
+        }
+        return round;
+    }
+
+    /**
+     * Releases images of previous rounds and uploads images of current round
+     * and of lookahead rounds, which are not uploaded yet.
+     */
+    private void prefetchImages(final KernelInfo.Input input) {
+        if (task == null) {
+            return;
+        }
+
+        final int last = Math.min(round + 1 + IMAGE_LOOKAHEAD, task.getImageCount() - 1);
+        final Iterator<Map.Entry<Integer, PrefetchedImage>> it = imageBuffer.entrySet().iterator();
+        Map.Entry<Integer, PrefetchedImage> e;
+        while (it.hasNext()) {
+            e = it.next();
+            if (e.getKey() < round || e.getKey() > last || !e.getValue().isValid(input)) {
+                release(e.getValue().buffer);
+                it.remove();
+            }
+        }
+
+        Image image;
+        for (int r = round; r <= last; r++) {
+            if (!imageBuffer.containsKey(r)) {
+                image = task.getImage(r);
+                imageBuffer.put(r, new PrefetchedImage(image, toData(image, input), input, generateImage(image, input)));
+            }
+        }
+    }
+
+    private CLMemory<ByteBuffer> findPrefetched(final Image image, final KernelInfo.Input input) {
+        for (PrefetchedImage prefetched : imageBuffer.values()) {
+            if (prefetched.image == image && prefetched.isValid(input)) {
+                return prefetched.buffer;
+            }
+        }
+        return null;
+    }
+
+    private CLMemory<ByteBuffer> generateImage(final Image image, final KernelInfo.Input input) {
+        final CLMemory<ByteBuffer> result;
+        switch (input) {
             case IMAGE:
-                generateImagesAsImage2Dt(task.getImages());
+                result = generateImage2d(image);
+                queue.putWriteImage((CLImage2d<?>) result, false);
                 break;
             case ARRAY:
-                generateImagesAsArray(task.getImages());
+                result = generateImageArray(image);
+                queue.putWriteBuffer((CLBuffer<?>) result, false);
                 break;
             default:
-                throw new IllegalArgumentException("Unsupported type of input - " + kt.getInput());
+                throw new IllegalArgumentException("Unsupported type of input - " + input);
         }
+        return result;
+    }
 
-        inited = true;
+    private static byte[] toData(final Image image, final KernelInfo.Input input) {
+        return input == IMAGE ? image.toFiltered() : image.toBWArray();
     }
 
-    private void generateImagesAsImage2Dt(final List<Image> images) {
-        CLMemory<ByteBuffer> clImage;
-        for (Image image : images) {
-            clImage = generateImage2d(image);
-            queue.putWriteImage((CLImage2d<?>) clImage, false);
-            imageBuffer.put(image, clImage);
+    private void releaseImages() {
+        for (PrefetchedImage prefetched : imageBuffer.values()) {
+            release(prefetched.buffer);
+        }
+        imageBuffer.clear();
+        if (!ownsImages) {
+            clImageA = null;
+            clImageB = null;
         }
+        ownsImages = true;
     }
 
-    private void generateImagesAsArray(final List<Image> images) {
-        CLMemory<ByteBuffer> clImage;
-        for (Image image : images) {
-            clImage = generateImageArray(image);
-            queue.putWriteBuffer((CLBuffer<?>) clImage, false);
-            imageBuffer.put(image, clImage);
+    private static class PrefetchedImage {
+
+        private final Image image;
+        private final byte[] data;
+        private final KernelInfo.Input input;
+        private final CLMemory<ByteBuffer> buffer;
+
+        PrefetchedImage(final Image image, final byte[] data, final KernelInfo.Input input, final CLMemory<ByteBuffer> buffer) {
+            this.image = image;
+            this.data = data;
+            this.input = input;
+            this.buffer = buffer;
+        }
+
+        /**
+         * Images are filtered in place, so images prefetched before filtering
+         * have to be uploaded again.
+         */
+        boolean isValid(final KernelInfo.Input input) {
+            return this.input == input && !buffer.isReleased() && data == toData(image, input);
         }
     }
 
@@ -9,6 +9,7 @@ import com.jogamp.opencl.CLException;
 import cz.tul.dic.ComputationException;
 import cz.tul.dic.ComputationExceptionCause;
 import cz.tul.dic.data.Interpolation;
+import cz.tul.dic.data.deformation.DeformationLimit;
 import cz.tul.dic.data.deformation.DeformationOrder;
 import cz.tul.dic.data.deformation.DeformationUtils;
 import cz.tul.dic.data.result.CorrelationResult;
@@ -25,14 +26,15 @@ import cz.tul.dic.engine.platform.Platform;
 import cz.tul.pj.journal.Journal;
 import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
-import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Observable;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntFunction;
+import java.util.function.IntUnaryOperator;
 import org.pmw.tinylog.Logger;
 
 /**
@@ -42,6 +44,7 @@ import org.pmw.tinylog.Logger;
 public abstract class AbstractTaskSolver extends Observable {
 
     private static final Map<Class, SolverType> SOLVERS;
+    private static final int COUNT_ZERO_ORDER_LIMITS = 6;
     protected final Platform platform;
     // dynamic
     Interpolation interpolation;
@@ -52,10 +55,13 @@ public abstract class AbstractTaskSolver extends Observable {
     boolean stop;
     // data storage
     protected FullTask fullTask;
-    protected Map<AbstractSubset, CorrelationResult> results;
-    protected Map<AbstractSubset, double[]> deformations;
-    protected Map<AbstractSubset, Integer> weights;
-    protected List<AbstractSubset> subsetsToCompute;
+    // per subset state, indexed by subset position in full task
+    protected CorrelationResult[] results;
+    protected double[][] deformations;
+    protected int[] weights;
+    protected BitSet subsetsToCompute;
+    // position of subset results in gpuData, -1 if subset was not computed
+    protected int[] resultIndices;
     protected double[] gpuData;
     protected boolean usesWeights;
     // logging
@@ -73,6 +79,7 @@ public abstract class AbstractTaskSolver extends Observable {
         SOLVERS.put(NewtonRaphsonCentralHE.class, SolverType.NEWTON_RHAPSON_CENTRAL_HE);
         SOLVERS.put(NewtonRaphsonForward.class, SolverType.NEWTON_RHAPSON_FORWARD);
         SOLVERS.put(NewtonRaphsonForwardHE.class, SolverType.NEWTON_RHAPSON_FORWARD_HE);
+        SOLVERS.put(InverseCompositionalGaussNewton.class, SolverType.INVERSE_COMPOSITIONAL_GAUSS_NEWTON);
     }
 
     protected AbstractTaskSolver(final Platform platform) {
@@ -116,13 +123,17 @@ public abstract class AbstractTaskSolver extends Observable {
         }
         final int subsetCount = subsets.size();
 
-        results = new LinkedHashMap<>(subsetCount);
-        deformations = new ConcurrentHashMap<>(subsetCount);
-        subsetsToCompute = Collections.synchronizedList(new ArrayList<>(subsets));
-
-        weights = new ConcurrentHashMap<>(subsetCount);
-        for (int i = 0; i < fullTask.getSubsets().size(); i++) {
-            weights.put(fullTask.getSubsets().get(i), fullTask.getSubsetWeights().get(i));
+        results = new CorrelationResult[subsetCount];
+        deformations = new double[subsetCount][];
+        resultIndices = new int[subsetCount];
+        Arrays.fill(resultIndices, -1);
+        subsetsToCompute = new BitSet(subsetCount);
+        subsetsToCompute.set(0, subsetCount);
+
+        weights = new int[subsetCount];
+        final List<Integer> subsetWeights = fullTask.getSubsetWeights();
+        for (int i = 0; i < subsetCount; i++) {
+            weights[i] = subsetWeights.get(i);
         }
 
         kernel = AbstractKernel.createInstance(platform);
@@ -179,6 +190,70 @@ public abstract class AbstractTaskSolver extends Observable {
         return taskResults;
     }
 
+    /**
+     * Computes correlation of all subsets that are still being solved, using
+     * their current deformations and weights.
+     *
+     * @param order deformation order
+     * @throws ComputationException computation failed
+     */
+    protected void computeSubsetsToCompute(final DeformationOrder order) throws ComputationException {
+        computeSubsetsToCompute(order, i -> deformations[i], i -> weights[i]);
+    }
+
+    /**
+     * Computes correlation of all subsets that are still being solved. Results
+     * of each subset can be found in gpuData using {@link #resultIndices}.
+     *
+     * @param order deformation order
+     * @param deformationSource deformation values for subset index
+     * @param weightSource weight for subset index
+     * @throws ComputationException computation failed
+     */
+    protected void computeSubsetsToCompute(final DeformationOrder order, final IntFunction<double[]> deformationSource, final IntUnaryOperator weightSource) throws ComputationException {
+        final List<AbstractSubset> subsets = fullTask.getSubsets();
+        final int count = subsetsToCompute.cardinality();
+        final List<AbstractSubset> subsetsList = new ArrayList<>(count);
+        final List<Integer> weightsList = new ArrayList<>(count);
+        final List<double[]> deformationsList = new ArrayList<>(count);
+
+        Arrays.fill(resultIndices, -1);
+        for (int i = subsetsToCompute.nextSetBit(0); i >= 0; i = subsetsToCompute.nextSetBit(i + 1)) {
+            resultIndices[i] = subsetsList.size();
+            subsetsList.add(subsets.get(i));
+            weightsList.add(weightSource.applyAsInt(i));
+            deformationsList.add(deformationSource.apply(i));
+        }
+
+        computeTask(kernel, new ComputationTask(fullTask.getImageA(), fullTask.getImageB(), subsetsList, weightsList, deformationsList, order, false));
+    }
+
+    /**
+     * Estimates displacement of all subsets by {@link CoarseFine} search
+     * within zero order part of deformation limits, used as initial guess
+     * by iterative solvers.
+     *
+     * @return zero order results for each subset of full task
+     * @throws ComputationException computation failed
+     */
+    protected List<CorrelationResult> computeZeroOrderResults() throws ComputationException {
+        double[] temp;
+        final List<double[]> zeroOrderLimits = new ArrayList<>(fullTask.getSubsets().size());
+
+        // initial pixel step        
+        for (double[] dA : fullTask.getDeformationLimits()) {
+            temp = new double[COUNT_ZERO_ORDER_LIMITS];
+            System.arraycopy(dA, 0, temp, 0, COUNT_ZERO_ORDER_LIMITS);
+            temp[DeformationLimit.UMIN] = Math.floor(temp[DeformationLimit.UMIN]);
+            temp[DeformationLimit.UMAX] = Math.ceil(temp[DeformationLimit.UMAX]);
+            temp[DeformationLimit.VMIN] = Math.floor(temp[DeformationLimit.VMIN]);
+            temp[DeformationLimit.VMAX] = Math.ceil(temp[DeformationLimit.VMAX]);
+            zeroOrderLimits.add(temp);
+        }
+        return AbstractTaskSolver.initSolver(SolverType.COARSE_FINE, platform).solve(
+                new FullTask(fullTask.getImageA(), fullTask.getImageB(), fullTask.getSubsets(), fullTask.getSubsetWeights(), zeroOrderLimits));
+    }
+
     private ComputationTask adjustLimitsUse(final AbstractKernel kernel, final ComputationTask task) {
         // ct coeffs - no change        
         // ct limits - 
@@ -199,6 +274,7 @@ public abstract class AbstractTaskSolver extends Observable {
         boolean finished = false;
         List<double[]> gpuDataList = new LinkedList<>();
         List<CorrelationResult> result;
+        int subsetOffset = 0;
         while (!finished) {
             try {
                 ComputationTask ct;
@@ -211,11 +287,12 @@ public abstract class AbstractTaskSolver extends Observable {
                         result = kernel.computeFindBest(ct);
                         ct.setResults(result);
                         // pick best results for this computation task and discard ct data                   
-                        pickBestResultsForTask(ct, results, fullTask.getSubsets());
+                        pickBestResultsForTask(ct, results, subsetOffset);
                     } else {
                         // TODO join gpuData in case of split computation and no best results
                         gpuDataList.add(kernel.computeRaw(ct));
                     }
+                    subsetOffset += ct.getSubsets().size();
                 }
                 finished = true;
             } catch (ComputationException ex) {
@@ -248,17 +325,20 @@ public abstract class AbstractTaskSolver extends Observable {
         }
     }
 
-    private static void pickBestResultsForTask(final ComputationTask task, final List<CorrelationResult> bestResults, final List<AbstractSubset> globalSubsets) throws ComputationException {
-        final List<AbstractSubset> localSubsets = task.getSubsets();
-        final int subsetCount = localSubsets.size();
+    /**
+     * Task splitters create consecutive parts of the task, so the subsets of
+     * the task start at subsetOffset in the global subset list.
+     */
+    private static void pickBestResultsForTask(final ComputationTask task, final List<CorrelationResult> bestResults, final int subsetOffset) throws ComputationException {
+        final int subsetCount = task.getSubsets().size();
+        if (subsetOffset + subsetCount > bestResults.size()) {
+            throw new IllegalArgumentException("Local subsets exceed global registry.");
+        }
 
         int globaSubsetIndex;
         final List<CorrelationResult> taskResults = task.getResults();
         for (int localSubsetIndex = 0; localSubsetIndex < subsetCount; localSubsetIndex++) {
-            globaSubsetIndex = globalSubsets.indexOf(localSubsets.get(localSubsetIndex));
-            if (globaSubsetIndex < 0) {
-                throw new IllegalArgumentException("Local subset not found in global registry.");
-            }
+            globaSubsetIndex = subsetOffset + localSubsetIndex;
 
             if (localSubsetIndex >= taskResults.size()) {
                 Logger.warn("No best value found for subset nr." + globaSubsetIndex);
@@ -291,12 +371,18 @@ public abstract class AbstractTaskSolver extends Observable {
     }
 
     private ComputationInfo getInfo(final AbstractSubset subset) {
-        ComputationInfo result = computationInfo.get(subset);
-        if (result == null) {
-            result = new ComputationInfo(subset);
-            computationInfo.put(subset, result);
+        synchronized (computationInfo) {
+            ComputationInfo result = computationInfo.get(subset);
+            if (result == null) {
+                result = new ComputationInfo(subset);
+                computationInfo.put(subset, result);
+            }
+            return result;
         }
-        return result;
+    }
+
+    protected List<CorrelationResult> getResults() {
+        return new ArrayList<>(Arrays.asList(results));
     }
 
     protected void addSubsetTerminationInfo(final AbstractSubset subset, final String info) {
@@ -0,0 +1,421 @@
+/* Copyright (C) LENAM, s.r.o. - All Rights Reserved
+ * Unauthorized copying of this file, via any medium is strictly prohibited
+ * Proprietary and confidential
+ * Written by Petr Jecmen <petr.jecmen@tul.cz>, 2015
+ */
+package cz.tul.dic.engine.solvers;
+
+import cz.tul.dic.ComputationException;
+import cz.tul.dic.data.Coordinates;
+import cz.tul.dic.data.BicubicInterpolator;
+import cz.tul.dic.data.Interpolation;
+import cz.tul.dic.data.deformation.DeformationOrder;
+import cz.tul.dic.data.deformation.DeformationUtils;
+import cz.tul.dic.data.result.CorrelationResult;
+import cz.tul.dic.data.subset.AbstractSubset;
+import cz.tul.dic.engine.Engine;
+import cz.tul.dic.engine.platform.Platform;
+import cz.tul.pj.journal.Journal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.LUDecomposition;
+import org.apache.commons.math3.linear.SingularMatrixException;
+
+/**
+ * Inverse compositional Gauss-Newton solver. Gradient and Hessian are
+ * computed from the reference subset once, each iteration only resamples the
+ * deformed subset in the second image and updates the deformation by
+ * composing it with inverse of the increment. Initial guess is found by
+ * {@link CoarseFine}.
+ *
+ * Correlation criterion is ZNSSD, resulting quality is reported as ZNCC
+ * (which equals 1 - ZNSSD / 2).
+ *
+ * @author Petr Jecmen
+ */
+public class InverseCompositionalGaussNewton extends AbstractTaskSolver {
+
+    private static final int MAX_ITERATIONS = 20;
+    private static final double LIMIT_CONVERGENCE = 0.001;
+    // polynomial in dx, dy - coefficients of dx^2, dx*dy, dy^2, dx, dy, 1
+    private static final int POLY_XX = 0, POLY_XY = 1, POLY_YY = 2, POLY_X = 3, POLY_Y = 4, POLY_1 = 5;
+    private static final int POLY_SIZE = 6;
+    private DeformationOrder deformationOrder;
+    private float[] imageA, imageB;
+    private BicubicInterpolator bicubic;
+    private int width, height;
+
+    public InverseCompositionalGaussNewton(final Platform platform) {
+        super(platform);
+    }
+
+    @Override
+    public List<CorrelationResult> solve() throws ComputationException {
+        deformationOrder = DeformationUtils.getOrderFromLimits(fullTask.getDeformationLimits().get(0));
+        final int coeffCount = DeformationUtils.getDeformationCoeffCount(deformationOrder);
+
+        final List<AbstractSubset> subsets = fullTask.getSubsets();
+        final int subsetCount = subsets.size();
+
+        // estimate initial solution by direct search
+        final List<CorrelationResult> initialResults = computeZeroOrderResults();
+        notifyProgress(0.5);
+
+        imageA = fullTask.getImageA().toNormalizedBWArray();
+        imageB = fullTask.getImageB().toNormalizedBWArray();
+        bicubic = interpolation == Interpolation.BICUBIC ? BicubicInterpolator.getInstance(fullTask.getImageB()) : null;
+        width = fullTask.getImageA().getWidth();
+        height = fullTask.getImageA().getHeight();
+
+        final ExecutorService exec = Engine.getInstance().getExecutorService();
+        final List<Future<CorrelationResult>> futures = new ArrayList<>(subsetCount);
+        CorrelationResult initial;
+        for (int i = 0; i < subsetCount; i++) {
+            initial = initialResults.get(i);
+            addSubsetResultInfo(subsets.get(i), initial);
+            futures.add(exec.submit(new SubsetSolver(
+                    subsets.get(i),
+                    new CorrelationResult(initial.getQuality(), Arrays.copyOf(initial.getDeformation(), coeffCount)))));
+        }
+
+        final List<CorrelationResult> result = new ArrayList<>(subsetCount);
+        for (int i = 0; i < subsetCount; i++) {
+            try {
+                result.add(futures.get(i).get());
+            } catch (InterruptedException | ExecutionException ex) {
+                Journal.addDataEntry(ex, "Solver error", "Error retrieving IC-GN result.");
+                result.add(initialResults.get(i));
+            }
+        }
+        notifyProgress(1);
+
+        return result;
+    }
+
+    @Override
+    protected boolean needsBestResult() {
+        return true;
+    }
+
+    @Override
+    public long getDeformationCount() {
+        return 1;
+    }
+
+    private void notifyProgress(final double progress) {
+        setChanged();
+        notifyObservers(progress);
+    }
+
+    private class SubsetSolver implements Callable<CorrelationResult> {
+
+        private final AbstractSubset subset;
+        private final CorrelationResult initial;
+
+        SubsetSolver(final AbstractSubset subset, final CorrelationResult initial) {
+            this.subset = subset;
+            this.initial = initial;
+        }
+
+        @Override
+        public CorrelationResult call() {
+            final int coeffCount = DeformationUtils.getDeformationCoeffCount(deformationOrder);
+            final int[] data = subset.getData();
+            final double[] center = subset.getCenter();
+            final int area = data.length / Coordinates.DIMENSION;
+
+            // reference subset - done once
+            final double[] dx = new double[area];
+            final double[] dy = new double[area];
+            final double[] f = new double[area];
+            final double[][] sd = new double[area][coeffCount];
+            final double[][] hessian = new double[coeffCount][coeffCount];
+            double meanF = 0;
+            int x, y;
+            for (int i = 0; i < area; i++) {
+                x = data[i * 2];
+                y = data[i * 2 + 1];
+                dx[i] = x - center[Coordinates.X];
+                dy[i] = y - center[Coordinates.Y];
+                f[i] = imageA[clamp(y, height) * width + clamp(x, width)];
+                meanF += f[i];
+                computeSteepestDescent(gradientX(x, y), gradientY(x, y), dx[i], dy[i], sd[i]);
+                for (int r = 0; r < coeffCount; r++) {
+                    for (int c = r; c < coeffCount; c++) {
+                        hessian[r][c] += sd[i][r] * sd[i][c];
+                    }
+                }
+            }
+            meanF /= area;
+            double deltaF = 0;
+            for (int i = 0; i < area; i++) {
+                f[i] -= meanF;
+                deltaF += f[i] * f[i];
+            }
+            deltaF = Math.sqrt(deltaF);
+            if (deltaF == 0) {
+                addSubsetTerminationInfo(subset, "Reference subset has no texture");
+                return initial;
+            }
+            for (int r = 0; r < coeffCount; r++) {
+                for (int c = 0; c < r; c++) {
+                    hessian[r][c] = hessian[c][r];
+                }
+            }
+
+            final double[][] inverseHessian;
+            try {
+                inverseHessian = new LUDecomposition(new Array2DRowRealMatrix(hessian, false)).getSolver().getInverse().getData();
+            } catch (SingularMatrixException ex) {
+                addSubsetTerminationInfo(subset, "Singular hessian matrix");
+                return initial;
+            }
+
+            // iterations - only deformed subset is resampled
+            final double[] g = new double[area];
+            final double[] gradient = new double[coeffCount];
+            final double[] increment = new double[coeffCount];
+            final double[] deformation = Arrays.copyOf(initial.getDeformation(), coeffCount);
+            final double radius = Math.max(subset.getSize(), 1);
+            double meanG, deltaG, diff;
+            for (int it = 0; it < MAX_ITERATIONS && !stop; it++) {
+                meanG = sampleDeformed(deformation, center, dx, dy, g);
+                deltaG = 0;
+                for (int i = 0; i < area; i++) {
+                    g[i] -= meanG;
+                    deltaG += g[i] * g[i];
+                }
+                deltaG = Math.sqrt(deltaG);
+                if (deltaG == 0) {
+                    addSubsetTerminationInfo(subset, "Deformed subset has no texture");
+                    return initial;
+                }
+
+                Arrays.fill(gradient, 0);
+                for (int i = 0; i < area; i++) {
+                    diff = f[i] - (deltaF / deltaG) * g[i];
+                    for (int c = 0; c < coeffCount; c++) {
+                        gradient[c] += sd[i][c] * diff;
+                    }
+                }
+
+                for (int r = 0; r < coeffCount; r++) {
+                    increment[r] = 0;
+                    for (int c = 0; c < coeffCount; c++) {
+                        increment[r] -= inverseHessian[r][c] * gradient[c];
+                    }
+                }
+
+                if (!composeInverse(deformation, increment)) {
+                    addSubsetTerminationInfo(subset, "Singular deformation increment");
+                    break;
+                }
+
+                if (computeChange(increment, radius) < LIMIT_CONVERGENCE) {
+                    addSubsetTerminationInfo(subset, "Converged after " + (it + 1) + " iterations");
+                    break;
+                }
+            }
+            // quality of final deformation
+            final double quality = computeZncc(f, deltaF, g, sampleDeformed(deformation, center, dx, dy, g));
+
+            final CorrelationResult result = new CorrelationResult(quality, deformation);
+            if (quality < initial.getQuality()) {
+                return initial;
+            }
+            addSubsetResultInfo(subset, result);
+            return result;
+        }
+
+        private double sampleDeformed(final double[] deformation, final double[] center, final double[] dx, final double[] dy, final double[] g) {
+            final double[] polyX = new double[POLY_SIZE];
+            final double[] polyY = new double[POLY_SIZE];
+            generatePolynomials(deformation, polyX, polyY);
+
+            double sum = 0, px, py;
+            for (int i = 0; i < g.length; i++) {
+                px = center[Coordinates.X] + evaluate(polyX, dx[i], dy[i]);
+                py = center[Coordinates.Y] + evaluate(polyY, dx[i], dy[i]);
+                g[i] = interpolate(px, py);
+                sum += g[i];
+            }
+            return sum / g.length;
+        }
+
+        private double computeZncc(final double[] f, final double deltaF, final double[] g, final double meanG) {
+            double cross = 0, deltaG = 0, val;
+            for (int i = 0; i < g.length; i++) {
+                val = g[i] - meanG;
+                cross += f[i] * val;
+                deltaG += val * val;
+            }
+            deltaG = Math.sqrt(deltaG);
+            return deltaG == 0 ? 0 : cross / (deltaF * deltaG);
+        }
+    }
+
+    // IMAGE ACCESS
+    private double gradientX(final int x, final int y) {
+        final int row = clamp(y, height) * width;
+        return (imageA[row + clamp(x - 2, width)] - 8 * imageA[row + clamp(x - 1, width)]
+                + 8 * imageA[row + clamp(x + 1, width)] - imageA[row + clamp(x + 2, width)]) / 12.0;
+    }
+
+    private double gradientY(final int x, final int y) {
+        final int col = clamp(x, width);
+        return (imageA[clamp(y - 2, height) * width + col] - 8 * imageA[clamp(y - 1, height) * width + col]
+                + 8 * imageA[clamp(y + 1, height) * width + col] - imageA[clamp(y + 2, height) * width + col]) / 12.0;
+    }
+
+    private double interpolate(final double x, final double y) {
+        if (bicubic != null) {
+            return bicubic.value(x, y);
+        } else {
+            final int ix = (int) Math.floor(x);
+            final int iy = (int) Math.floor(y);
+            final double fx = x - ix;
+            final double fy = y - iy;
+            final int row0 = clamp(iy, height) * width;
+            final int row1 = clamp(iy + 1, height) * width;
+            final int x0 = clamp(ix, width);
+            final int x1 = clamp(ix + 1, width);
+            final double top = imageB[row0 + x0] + fx * (imageB[row0 + x1] - imageB[row0 + x0]);
+            final double bottom = imageB[row1 + x0] + fx * (imageB[row1 + x1] - imageB[row1 + x0]);
+            return top + fy * (bottom - top);
+        }
+    }
+
+    private static int clamp(final int val, final int size) {
+        return Math.max(0, Math.min(val, size - 1));
+    }
+
+    // DEFORMATION ALGEBRA
+    /**
+     * Steepest descent image - gradient multiplied by warp jacobian, order of
+     * coefficients matches deformation order [u, v, ux, uy, vx, vy, uxx, uyy,
+     * uxy, vxx, vyy, vxy].
+     */
+    private static void computeSteepestDescent(final double fx, final double fy, final double dx, final double dy, final double[] result) {
+        final double[] full = new double[]{
+            fx, fy,
+            fx * dx, fx * dy, fy * dx, fy * dy,
+            0.5 * fx * dx * dx, 0.5 * fx * dy * dy, fx * dx * dy,
+            0.5 * fy * dx * dx, 0.5 * fy * dy * dy, fy * dx * dy};
+        System.arraycopy(full, 0, result, 0, result.length);
+    }
+
+    /**
+     * Deformation as polynomials (displaced position relative to subset
+     * center) of dx and dy.
+     */
+    private static void generatePolynomials(final double[] deformation, final double[] polyX, final double[] polyY) {
+        final double[] d = Arrays.copyOf(deformation, DeformationUtils.getDeformationCoeffCount(DeformationOrder.SECOND));
+        polyX[POLY_XX] = 0.5 * d[6];
+        polyX[POLY_XY] = d[8];
+        polyX[POLY_YY] = 0.5 * d[7];
+        polyX[POLY_X] = 1 + d[2];
+        polyX[POLY_Y] = d[3];
+        polyX[POLY_1] = d[0];
+
+        polyY[POLY_XX] = 0.5 * d[9];
+        polyY[POLY_XY] = d[11];
+        polyY[POLY_YY] = 0.5 * d[10];
+        polyY[POLY_X] = d[4];
+        polyY[POLY_Y] = 1 + d[5];
+        polyY[POLY_1] = d[1];
+    }
+
+    private static double evaluate(final double[] poly, final double dx, final double dy) {
+        return poly[POLY_XX] * dx * dx + poly[POLY_XY] * dx * dy + poly[POLY_YY] * dy * dy
+                + poly[POLY_X] * dx + poly[POLY_Y] * dy + poly[POLY_1];
+    }
+
+    /**
+     * Product of two polynomials, terms above second order are dropped.
+     */
+    private static double[] multiply(final double[] a, final double[] b) {
+        final double[] result = new double[POLY_SIZE];
+        result[POLY_XX] = a[POLY_XX] * b[POLY_1] + a[POLY_1] * b[POLY_XX] + a[POLY_X] * b[POLY_X];
+        result[POLY_XY] = a[POLY_XY] * b[POLY_1] + a[POLY_1] * b[POLY_XY] + a[POLY_X] * b[POLY_Y] + a[POLY_Y] * b[POLY_X];
+        result[POLY_YY] = a[POLY_YY] * b[POLY_1] + a[POLY_1] * b[POLY_YY] + a[POLY_Y] * b[POLY_Y];
+        result[POLY_X] = a[POLY_X] * b[POLY_1] + a[POLY_1] * b[POLY_X];
+        result[POLY_Y] = a[POLY_Y] * b[POLY_1] + a[POLY_1] * b[POLY_Y];
+        result[POLY_1] = a[POLY_1] * b[POLY_1];
+        return result;
+    }
+
+    /**
+     * Deformation as 6x6 matrix acting on [dx^2, dx*dy, dy^2, dx, dy, 1], so
+     * composition of deformations is a matrix product.
+     */
+    private static double[][] generateMatrix(final double[] deformation) {
+        final double[] polyX = new double[POLY_SIZE];
+        final double[] polyY = new double[POLY_SIZE];
+        generatePolynomials(deformation, polyX, polyY);
+
+        final double[] one = new double[POLY_SIZE];
+        one[POLY_1] = 1;
+        return new double[][]{
+            multiply(polyX, polyX),
+            multiply(polyX, polyY),
+            multiply(polyY, polyY),
+            polyX,
+            polyY,
+            one};
+    }
+
+    /**
+     * Updates deformation to W(deformation) * W(increment)^-1.
+     *
+     * @return false if increment cannot be inverted
+     */
+    static boolean composeInverse(final double[] deformation, final double[] increment) {
+        final double[][] inverse;
+        try {
+            inverse = new LUDecomposition(new Array2DRowRealMatrix(generateMatrix(increment), false)).getSolver().getInverse().getData();
+        } catch (SingularMatrixException ex) {
+            return false;
+        }
+        final double[][] current = generateMatrix(deformation);
+
+        final double[] polyX = new double[POLY_SIZE];
+        final double[] polyY = new double[POLY_SIZE];
+        for (int c = 0; c < POLY_SIZE; c++) {
+            for (int k = 0; k < POLY_SIZE; k++) {
+                polyX[c] += current[POLY_X][k] * inverse[k][c];
+                polyY[c] += current[POLY_Y][k] * inverse[k][c];
+            }
+        }
+
+        final double[] full = new double[]{
+            polyX[POLY_1], polyY[POLY_1],
+            polyX[POLY_X] - 1, polyX[POLY_Y], polyY[POLY_X], polyY[POLY_Y] - 1,
+            2 * polyX[POLY_XX], 2 * polyX[POLY_YY], polyX[POLY_XY],
+            2 * polyY[POLY_XX], 2 * polyY[POLY_YY], polyY[POLY_XY]};
+        System.arraycopy(full, 0, deformation, 0, deformation.length);
+        return true;
+    }
+
+    private static double computeChange(final double[] increment, final double radius) {
+        double sum = 0, val;
+        for (int i = 0; i < increment.length; i++) {
+            // displacement terms directly, gradient terms scaled to subset border
+            if (i < 2) {
+                val = increment[i];
+            } else if (i < 6) {
+                val = increment[i] * radius;
+            } else {
+                val = increment[i] * radius * radius;
+            }
+            sum += val * val;
+        }
+        return Math.sqrt(sum);
+    }
+
+}
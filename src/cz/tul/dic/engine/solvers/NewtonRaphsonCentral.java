@@ -6,7 +6,6 @@
 package cz.tul.dic.engine.solvers;
 
 import cz.tul.dic.data.deformation.DeformationUtils;
-import cz.tul.dic.data.subset.AbstractSubset;
 import cz.tul.dic.engine.AbstractDeviceManager;
 import cz.tul.dic.engine.platform.Platform;
 import java.util.ArrayList;
@@ -30,12 +29,11 @@ public class NewtonRaphsonCentral extends NewtonRaphson {
     // central difference
     // dF / dx = (F(x + h) - F(x - h)) / 2h
     @Override
-    protected RealVector generateNegativeGradient(final AbstractSubset subset, final double step) {
+    protected RealVector generateNegativeGradient(final int subsetIndex, final double step) {
         final int coeffCount = getCoeffCount();
         final double[] data = new double[coeffCount];
 
-        final int deformationCount = (int) getDeformationCount();
-        final int resultsBase = (subsetsToCompute.indexOf(subset) * deformationCount);
+        final int resultsBase = getResultsBase(subsetIndex);
 
         try {            
             for (int i = 0; i < coeffCount; i++) {
@@ -55,12 +53,11 @@ public class NewtonRaphsonCentral extends NewtonRaphson {
 
     // d^2 F / dx1 dx2 = (F(x1 + h, x2 + h) - F(x1 + h, x2 - h) - F(x1 - h, x2 + h) + F(x1 - h, x2 - h)) / (2h)^2
     @Override
-    protected RealMatrix generateHessianMatrix(final AbstractSubset subset, final double step) {
+    protected RealMatrix generateHessianMatrix(final int subsetIndex, final double step) {
         final int coeffCount = getCoeffCount();
         final double[][] data = new double[coeffCount][coeffCount];
 
-        final int deformationCount = (int) getDeformationCount();
-        final int resultsBase = (subsetsToCompute.indexOf(subset) * deformationCount);
+        final int resultsBase = getResultsBase(subsetIndex);
 
         final double step212 = 12 * step * step;
         for (int i = 0; i < coeffCount; i++) {
@@ -5,6 +5,7 @@
  */
 package cz.tul.dic.engine.solvers;
 
+import cz.tul.dic.data.BicubicInterpolator;
 import cz.tul.dic.data.deformation.DeformationUtils;
 import cz.tul.dic.data.subset.AbstractSubset;
 import cz.tul.dic.data.subset.SubsetDeformator;
@@ -13,10 +14,7 @@ import cz.tul.dic.engine.platform.Platform;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 import org.apache.commons.math3.analysis.BivariateFunction;
-import org.apache.commons.math3.analysis.interpolation.PiecewiseBicubicSplineInterpolatingFunction;
-import org.apache.commons.math3.analysis.interpolation.PiecewiseBicubicSplineInterpolator;
 import org.apache.commons.math3.linear.Array2DRowRealMatrix;
 import org.apache.commons.math3.linear.RealMatrix;
 
@@ -62,16 +60,14 @@ public class NewtonRaphsonForwardHE extends NewtonRaphsonForward {
     }
 
     @Override
-    protected RealMatrix generateHessianMatrix(final AbstractSubset subset, final double step) {
+    protected RealMatrix generateHessianMatrix(final int subsetIndex, final double step) {
         final int coeffCount = DeformationUtils.getDeformationCoeffCount(deformationOrder);
         final double[][] data = new double[coeffCount][coeffCount];
 
-        final double[] deformation = extractDeformation(subset);
-        final SubsetDeformator deformator = new SubsetDeformator();
-
-        final byte[][] image = fullTask.getImageB().to2DBWArray();
-        final Map<int[], double[]> deformedSubset = deformator.deformSubset(subset, deformation);
-        final PiecewiseBicubicSplineInterpolatingFunction interpolationFunction = prepareInterpolator(deformedSubset, image);
+        final AbstractSubset subset = fullTask.getSubsets().get(subsetIndex);
+        final double[] deformation = extractDeformation(subsetIndex);
+        final double[] deformedSubset = SubsetDeformator.deformSubset(subset, deformation, null);
+        final BicubicInterpolator interpolationFunction = BicubicInterpolator.getInstance(fullTask.getImageB());
         final double firstSum = computeFirstSum(deformedSubset, interpolationFunction);
 
         for (int i = 0; i < coeffCount; i++) {
@@ -84,19 +80,19 @@ public class NewtonRaphsonForwardHE extends NewtonRaphsonForward {
         return new Array2DRowRealMatrix(data, false);
     }
 
-    private double computeFirstSum(final Map<int[], double[]> deformedSubset, final PiecewiseBicubicSplineInterpolatingFunction interpolation) {
+    private double computeFirstSum(final double[] deformedSubset, final BivariateFunction interpolation) {
         final int imageWidth = fullTask.getImageB().getWidth();
         final int imageHeight = fullTask.getImageB().getHeight();
 
         double sum = 0;
         double val;
         try {
-            for (double[] coords : deformedSubset.values()) {
-                if (!coordsValid(coords, imageWidth, imageHeight)) {
+            for (int i = 0; i < deformedSubset.length; i += 2) {
+                if (!coordsValid(deformedSubset[i], deformedSubset[i + 1], imageWidth, imageHeight)) {
                     continue;
                 }
 
-                val = interpolation.value(coords[0], coords[1]);
+                val = interpolation.value(deformedSubset[i], deformedSubset[i + 1]);
                 sum += val * val;
             }
         } catch (Exception ex) {
@@ -105,69 +101,18 @@ public class NewtonRaphsonForwardHE extends NewtonRaphsonForward {
         return -2 / sum;
     }
 
-    private static boolean coordsValid(final double[] coords, final int width, final int height) {
-        return (coords[0] >= 0)
-                && (coords[1] >= 0)
-                && (coords[0] <= width - 1)
-                && (coords[1] <= height - 1);
-    }
-
-    private PiecewiseBicubicSplineInterpolatingFunction prepareInterpolator(
-            final Map<int[], double[]> deformedSubset, final byte[][] image) {
-        int leftX = image.length - 1;
-        int topY = image[0].length - 1;
-        int rightX = 0;
-        int bottomY = 0;
-        for (double[] val : deformedSubset.values()) {
-            leftX = (int) Math.min(leftX, Math.floor(val[0]));
-            rightX = (int) Math.max(rightX, Math.ceil(val[0]));
-            topY = (int) Math.min(topY, Math.floor(val[1]));
-            bottomY = (int) Math.max(bottomY, Math.ceil(val[1]));
-        }
-        // DX and DY compensation
-        if (leftX > 0) {
-            leftX--;
-        } else {
-            leftX = 0;
-        }
-        if (rightX < image.length - 1) {
-            rightX++;
-        } else {
-            rightX = image.length - 1;
-        }
-        if (topY > 0) {
-            topY--;
-        } else {
-            topY = 0;
-        }
-        if (bottomY < image[0].length - 1) {
-            bottomY++;
-        } else {
-            bottomY = image[0].length - 1;
-        }
-
-        final int pointCountX = rightX - leftX + 1;
-        final int pointCountY = bottomY - topY + 1;
-        double[] xval = new double[pointCountX];
-        double[] yval = new double[pointCountY];
-        double[][] fval = new double[pointCountX][pointCountY];
-        for (int x = leftX; x <= rightX; x++) {
-            xval[x - leftX] = x;
-
-            for (int y = topY; y <= bottomY; y++) {
-                yval[y - topY] = y;
-                fval[x - leftX][y - topY] = image[x][y];
-            }
-        }
-
-        return new PiecewiseBicubicSplineInterpolator().interpolate(xval, yval, fval);
+    private static boolean coordsValid(final double x, final double y, final int width, final int height) {
+        return (x >= 0)
+                && (y >= 0)
+                && (x <= width - 1)
+                && (y <= height - 1);
     }
 
     private double computeSecondSum(
             final int i, final int j,
             final AbstractSubset subset,
-            final Map<int[], double[]> deformedSubset,
-            final PiecewiseBicubicSplineInterpolatingFunction interpolation) {
+            final double[] deformedSubset,
+            final BivariateFunction interpolation) {
         final Approximation approximationI = new Approximation(subset, interpolation, i);
         final Approximation approximationJ = new Approximation(subset, interpolation, j);
 
@@ -176,13 +121,13 @@ public class NewtonRaphsonForwardHE extends NewtonRaphsonForward {
 
         double sum = 0;
         double valueI, valueJ;
-        for (double[] coords : deformedSubset.values()) {
-            if (!coordsValid(coords, (int) (imageWidth - DX), (int) (imageHeight - DY))) {
+        for (int k = 0; k < deformedSubset.length; k += 2) {
+            if (!coordsValid(deformedSubset[k], deformedSubset[k + 1], (int) (imageWidth - DX), (int) (imageHeight - DY))) {
                 continue;
             }
 
-            valueI = approximationI.calculateValue(coords[0], coords[1]);
-            valueJ = approximationJ.calculateValue(coords[0], coords[1]);
+            valueI = approximationI.calculateValue(deformedSubset[k], deformedSubset[k + 1]);
+            valueJ = approximationJ.calculateValue(deformedSubset[k], deformedSubset[k + 1]);
             sum += valueI * valueJ;
         }
 
@@ -10,20 +10,14 @@ import cz.tul.dic.data.deformation.DeformationOrder;
 import cz.tul.dic.data.deformation.DeformationUtils;
 import cz.tul.dic.data.result.CorrelationResult;
 import cz.tul.dic.data.subset.AbstractSubset;
-import cz.tul.dic.data.task.ComputationTask;
 import cz.tul.dic.debug.IGPUResultsReceiver;
 import cz.tul.dic.engine.Engine;
 import cz.tul.dic.engine.platform.Platform;
 import cz.tul.pj.journal.Journal;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.Random;
-import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
@@ -39,8 +33,8 @@ public class SPGD extends AbstractTaskSolver implements IGPUResultsReceiver {
     private static final double PERTUBATION_AMPLITUDE_SECOND = 0.01;
     private static final int PERTUBATION_AMPLITUDE_WEIGHT = 5;
     private static final double GAIN_SYSTEM = 100;
-    private Map<AbstractSubset, double[]> deformationsPertubations;
-    private Map<AbstractSubset, Integer> weightsPertubations;
+    private double[][] deformationsPertubations;
+    private int[] weightsPertubations;
     private DeformationOrder defOrder;
 
     public SPGD(Platform platform) {
@@ -55,8 +49,8 @@ public class SPGD extends AbstractTaskSolver implements IGPUResultsReceiver {
         final List<AbstractSubset> subsets = fullTask.getSubsets();
         final int subsetCount = subsets.size();
 
-        deformationsPertubations = new LinkedHashMap<>(subsetCount);
-        weightsPertubations = new LinkedHashMap<>(subsetCount);
+        deformationsPertubations = new double[subsetCount][];
+        weightsPertubations = new int[subsetCount];
 
         defOrder = DeformationUtils.getOrderFromLimits(fullTask.getDeformationLimits().get(0));
 
@@ -73,7 +67,7 @@ public class SPGD extends AbstractTaskSolver implements IGPUResultsReceiver {
         for (int i = 0; i < LIMIT_ITERATIONS; i++) {
             makeStep();
 
-            notifyProgress(subsetsToCompute.size(), subsetCount);
+            notifyProgress(subsetsToCompute.cardinality(), subsetCount);
 
             if (subsetsToCompute.isEmpty()) {
                 break;
@@ -82,47 +76,25 @@ public class SPGD extends AbstractTaskSolver implements IGPUResultsReceiver {
 
         deregisterGPUDataListener(this);
 
-        return new ArrayList<>(results.values());
+        return getResults();
     }
 
     private void computeStep() throws ComputationException {
-        final List<double[]> deformationsToCompute = new ArrayList<>(subsetsToCompute.size());
-        final List<Integer> weightsToCompute = new ArrayList<>(subsetsToCompute.size());
         if (!usesWeights) {
-            for (AbstractSubset subset : subsetsToCompute) {
-                deformationsToCompute.add(generateDeformation(deformations.get(subset), deformationsPertubations.get(subset)));
-                weightsToCompute.add(weights.get(subset));
-            }
-            computeTask(kernel, new ComputationTask(fullTask.getImageA(), fullTask.getImageB(), subsetsToCompute, weightsToCompute, deformationsToCompute, defOrder, false));
+            computeSubsetsToCompute(defOrder, i -> generateDeformation(deformations[i], deformationsPertubations[i]), i -> weights[i]);
         } else {
             final List<double[]> gpuDataList = new ArrayList<>(3);
 
             // result after step
-            for (AbstractSubset subset : subsetsToCompute) {
-                deformationsToCompute.add(deformations.get(subset));
-                weightsToCompute.add(weights.get(subset));
-            }
-            computeTask(kernel, new ComputationTask(fullTask.getImageA(), fullTask.getImageB(), subsetsToCompute, weightsToCompute, deformationsToCompute, defOrder, false));
+            computeSubsetsToCompute(defOrder);
             gpuDataList.add(gpuData);
 
             // result - pertubation
-            deformationsToCompute.clear();
-            weightsToCompute.clear();
-            for (AbstractSubset subset : subsetsToCompute) {
-                deformationsToCompute.add(subtract(deformations.get(subset), deformationsPertubations.get(subset)));
-                weightsToCompute.add(weights.get(subset) - weightsPertubations.get(subset));
-            }
-            computeTask(kernel, new ComputationTask(fullTask.getImageA(), fullTask.getImageB(), subsetsToCompute, weightsToCompute, deformationsToCompute, defOrder, false));
+            computeSubsetsToCompute(defOrder, i -> subtract(deformations[i], deformationsPertubations[i]), i -> weights[i] - weightsPertubations[i]);
             gpuDataList.add(gpuData);
 
             // result + pertubation
-            deformationsToCompute.clear();
-            weightsToCompute.clear();
-            for (AbstractSubset subset : subsetsToCompute) {
-                deformationsToCompute.add(add(deformations.get(subset), deformationsPertubations.get(subset)));
-                weightsToCompute.add(weights.get(subset) + weightsPertubations.get(subset));
-            }
-            computeTask(kernel, new ComputationTask(fullTask.getImageA(), fullTask.getImageB(), subsetsToCompute, weightsToCompute, deformationsToCompute, defOrder, false));
+            computeSubsetsToCompute(defOrder, i -> add(deformations[i], deformationsPertubations[i]), i -> weights[i] + weightsPertubations[i]);
             gpuDataList.add(gpuData);
 
             // join data together
@@ -162,18 +134,16 @@ public class SPGD extends AbstractTaskSolver implements IGPUResultsReceiver {
         final int coeffCount = DeformationUtils.getDeformationCoeffCount(defOrder);
         final List<AbstractSubset> subsets = fullTask.getSubsets();
         final int subsetCount = subsets.size();
-        AbstractSubset subset;
         for (int i = 0; i < subsetCount; i++) {
-            subset = subsets.get(i);
-            results.put(subset, new CorrelationResult(-Double.MAX_VALUE, new double[coeffCount]));
-            addSubsetResultInfo(subset, results.get(subset));
+            results[i] = new CorrelationResult(-Double.MAX_VALUE, new double[coeffCount]);
+            addSubsetResultInfo(subsets.get(i), results[i]);
         }
     }
 
     private void prepareDeformations() {
-        for (AbstractSubset subset : subsetsToCompute) {
-            deformationsPertubations.put(subset, generateDeformationPertubation(defOrder));
-            deformations.put(subset, results.get(subset).getDeformation());
+        for (int i = subsetsToCompute.nextSetBit(0); i >= 0; i = subsetsToCompute.nextSetBit(i + 1)) {
+            deformationsPertubations[i] = generateDeformationPertubation(defOrder);
+            deformations[i] = results[i].getDeformation();
         }
     }
 
@@ -213,8 +183,8 @@ public class SPGD extends AbstractTaskSolver implements IGPUResultsReceiver {
     }
 
     private void prepareWeightsPertubations(final boolean usesWeights) {
-        for (AbstractSubset subset : subsetsToCompute) {
-            weightsPertubations.put(subset, generateWeightPertubation(usesWeights));
+        for (int i = subsetsToCompute.nextSetBit(0); i >= 0; i = subsetsToCompute.nextSetBit(i + 1)) {
+            weightsPertubations[i] = generateWeightPertubation(usesWeights);
         }
     }
 
@@ -230,23 +200,23 @@ public class SPGD extends AbstractTaskSolver implements IGPUResultsReceiver {
     /**
      * Make one step using SPGD solver. TODO...
      *
-     * @param subsetsToCompute
-     * @param defDegree
      * @throws ComputationException
      */
     private void makeStep() throws ComputationException {
         final ExecutorService exec = Engine.getInstance().getExecutorService();
-        final Set<Future<AbstractSubset>> steps = new HashSet<>(subsetsToCompute.size());
+        final List<Future<Integer>> steps = new ArrayList<>(subsetsToCompute.cardinality());
 
-        final Iterator<AbstractSubset> it = subsetsToCompute.iterator();
-        while (it.hasNext()) {
-            final AbstractSubset as = it.next();
-            steps.add(exec.submit(new StepMaker(as, defOrder, usesWeights)));
+        for (int i = subsetsToCompute.nextSetBit(0); i >= 0; i = subsetsToCompute.nextSetBit(i + 1)) {
+            steps.add(exec.submit(new StepMaker(i, defOrder, usesWeights)));
         }
 
-        for (Future<AbstractSubset> fas : steps) {
+        Integer finishedIndex;
+        for (Future<Integer> fi : steps) {
             try {
-                subsetsToCompute.remove(fas.get());
+                finishedIndex = fi.get();
+                if (finishedIndex != null) {
+                    subsetsToCompute.clear(finishedIndex);
+                }
             } catch (InterruptedException | ExecutionException ex) {
                 Journal.addDataEntry(ex, "Solver error", "Error retrieving result after computing new step.");
             }
@@ -281,33 +251,34 @@ public class SPGD extends AbstractTaskSolver implements IGPUResultsReceiver {
         return 3;
     }
 
-    private class StepMaker implements Callable<AbstractSubset> {
+    private class StepMaker implements Callable<Integer> {
 
+        private final int subsetIndex;
         private final AbstractSubset subset;
         private final DeformationOrder order;
         private final boolean usesWeights;
 
-        public StepMaker(AbstractSubset subset, final DeformationOrder order, boolean usesWeights) {
-            this.subset = subset;
+        public StepMaker(final int subsetIndex, final DeformationOrder order, boolean usesWeights) {
+            this.subsetIndex = subsetIndex;
+            this.subset = fullTask.getSubsets().get(subsetIndex);
             this.order = order;
             this.usesWeights = usesWeights;
         }
 
         @Override
-        public AbstractSubset call() throws Exception {
+        public Integer call() throws Exception {
             try {
-                final int subsetIndex = subsetsToCompute.indexOf(subset);
-                final int resultsBase = (subsetIndex * 3);
+                final int resultsBase = (resultIndices[subsetIndex] * 3);
                 // check result quality
                 final double correlationValue = gpuData[resultsBase];
-                final double[] currentDeformation = extractDeformation(subset, order);
+                final double[] currentDeformation = extractDeformation(order);
                 final CorrelationResult newResult = new CorrelationResult(correlationValue, currentDeformation);
-                results.put(subset, newResult);
+                results[subsetIndex] = newResult;
                 addSubsetResultInfo(subset, newResult);
 
                 if (newResult.getQuality() >= LIMIT_Q_DONE) {
                     addSubsetTerminationInfo(subset, "Good quality");
-                    return subset;
+                    return subsetIndex;
                 }
 
                 final double correlationMinus = gpuData[resultsBase + 1];
@@ -316,26 +287,26 @@ public class SPGD extends AbstractTaskSolver implements IGPUResultsReceiver {
 
                 if (Math.abs(dJ) < LIMIT_Q_DIFF) {
                     addSubsetTerminationInfo(subset, "Low dJ");
-                    return subset;
+                    return subsetIndex;
                 }
 
                 // prepare data for next step
-                final double[] currentDeformationPertubation = deformationsPertubations.get(subset);
+                final double[] currentDeformationPertubation = deformationsPertubations[subsetIndex];
                 final double[] nextDeformation = new double[currentDeformation.length];
                 for (int i = 0; i < nextDeformation.length; i++) {
                     // new = old + Gain * Pertubation * dJ
                     nextDeformation[i] = currentDeformation[i] + (GAIN_SYSTEM * currentDeformationPertubation[i] * dJ);
                 }
                 final double[] nextDeformationPertubation = generateDeformationPertubation(order);
-                deformationsPertubations.put(subset, nextDeformationPertubation);
-                deformations.put(subset, nextDeformation);
+                deformationsPertubations[subsetIndex] = nextDeformationPertubation;
+                deformations[subsetIndex] = nextDeformation;
 
-                final int currentWeight = weights.get(subset);
-                final int currentWeightPertuation = weightsPertubations.get(subset);
+                final int currentWeight = weights[subsetIndex];
+                final int currentWeightPertuation = weightsPertubations[subsetIndex];
                 final int nextWeight = (int) (currentWeight + Math.round(GAIN_SYSTEM * currentWeightPertuation + dJ));
                 final int nextWeightPertubation = generateWeightPertubation(usesWeights);
-                weightsPertubations.put(subset, nextWeightPertubation);
-                weights.put(subset, nextWeight);
+                weightsPertubations[subsetIndex] = nextWeightPertubation;
+                weights[subsetIndex] = nextWeight;
             } catch (Exception ex) {
                 if (ex.getStackTrace().length == 0) {
                     Journal.addEntry("Subset computation stopped", "{0} stop, exception occured - {1}, no stack trace...", subset, ex);
@@ -343,15 +314,15 @@ public class SPGD extends AbstractTaskSolver implements IGPUResultsReceiver {
                     Journal.addDataEntry(ex, "Subset computation stopped", "{0} stop, exception occured.", subset);
                 }
                 addSubsetTerminationInfo(subset, "StepMaker exception - " + ex);
-                return subset;
+                return subsetIndex;
             }
             return null;
         }
 
-        private double[] extractDeformation(final AbstractSubset subset, final DeformationOrder order) {
+        private double[] extractDeformation(final DeformationOrder order) {
             final int coeffCount = DeformationUtils.getDeformationCoeffCount(order);
             final double[] result = new double[coeffCount];
-            System.arraycopy(deformations.get(subset), 0, result, 0, coeffCount);
+            System.arraycopy(deformations[subsetIndex], 0, result, 0, coeffCount);
             return result;
         }
     }
@@ -18,6 +18,7 @@ public enum SolverType {
     NEWTON_RHAPSON_FORWARD("NewtonRaphsonForward", "NRF", true, false),    
     NEWTON_RHAPSON_FORWARD_HE("NewtonRaphsonForwardHE", "NRFH", true, false),
     SPGD("SPGD", "SPGD", true, true),
+    INVERSE_COMPOSITIONAL_GAUSS_NEWTON("InverseCompositionalGaussNewton", "ICGN", true, false),
     ;
     
     private final String className, abbreviation;
@@ -6,12 +6,14 @@
 package cz.tul.dic.engine.strain;
 
 import cz.tul.dic.Utils;
+import cz.tul.dic.data.Coordinates;
 import cz.tul.dic.data.task.TaskContainer;
 import cz.tul.dic.data.task.TaskParameter;
 import cz.tul.dic.debug.DebugControl;
 import cz.tul.dic.debug.Stats;
 import cz.tul.dic.data.result.Result;
 import cz.tul.dic.data.result.StrainResult;
+import cz.tul.dic.data.result.VectorField;
 import cz.tul.dic.output.Direction;
 import cz.tul.dic.output.NameGenerator;
 import cz.tul.pj.journal.Journal;
@@ -49,10 +51,10 @@ public class LocalLeastSquare extends StrainEstimator {
         }
 
         final Result subResult = tc.getResult(roundFrom, roundTo);
-        final double[][][] displacement = subResult.getDisplacementResult().getDisplacement();
+        final VectorField displacement = subResult.getDisplacementResult().getDisplacement();
         if (displacement != null) {
-            final int width = displacement.length;
-            final int height = displacement[0].length;
+            final int width = displacement.getWidth();
+            final int height = displacement.getHeight();
 
             final double mm = (double) tc.getParameter(TaskParameter.STRAIN_ESTIMATION_PARAM);
             final double mmToPx = (double) tc.getParameter(TaskParameter.MM_TO_PX_RATIO);
@@ -65,13 +67,13 @@ public class LocalLeastSquare extends StrainEstimator {
                         return;
                     }
 
-                    if (displacement[x][y] != null) {
+                    if (displacement.isValid(x, y)) {
                         l.add(new ExecutionUnit(x, y, displacement, windowSize));
                     }
                 }
             }
 
-            final double[][][] result = new double[width][height][];
+            final VectorField result = new VectorField(width, height, StrainResult.COMPONENT_COUNT);
             final double[][] resultQualityU = Utils.generateNaNarray(width, height);
             final double[][] resultQualityV = Utils.generateNaNarray(width, height);
             try {
@@ -80,7 +82,9 @@ public class LocalLeastSquare extends StrainEstimator {
                 ExecutionUnit eu;
                 for (Future<ExecutionUnit> f : results) {
                     eu = f.get();
-                    result[eu.getX()][eu.getY()] = eu.getResult();
+                    if (eu.getResult() != null) {
+                        result.setValues(eu.getX(), eu.getY(), eu.getResult());
+                    }
                     resultQualityU[eu.getX()][eu.getY()] = eu.getErrors()[0];
                     resultQualityV[eu.getX()][eu.getY()] = eu.getErrors()[1];
                 }
@@ -99,21 +103,19 @@ public class LocalLeastSquare extends StrainEstimator {
         }
     }
 
-    private static double[] computeCoeffs(final double[][][] data, final int x, final int y, final int radius) {
+    private static double[] computeCoeffs(final VectorField data, final int x, final int y, final int radius) {
         final List<double[]> xU = new LinkedList<>();
         final List<Double> yU = new LinkedList<>();
         final List<double[]> xV = new LinkedList<>();
         final List<Double> yV = new LinkedList<>();
 
-        final int width = data.length;
-        final int height = data[x].length;
         for (int i = x - radius; i <= x + radius; i++) {
             for (int j = y - radius; j <= y + radius; j++) {
-                if (areIndexesValid(i, j, width, height, data)) {
+                if (data.isValid(i, j)) {
                     xU.add(new double[]{1, i - x, j - y});
-                    yU.add(data[i][j][0]);
+                    yU.add(data.getValue(i, j, Coordinates.X));
                     xV.add(new double[]{1, i - x, j - y});
-                    yV.add(data[i][j][1]);
+                    yV.add(data.getValue(i, j, Coordinates.Y));
                 }
             }
         }
@@ -156,10 +158,6 @@ public class LocalLeastSquare extends StrainEstimator {
         return result;
     }
 
-    private static boolean areIndexesValid(int i, int j, final int width, final int height, final double[][][] data) {
-        return i >= 0 && j >= 0 && i < width && j < height && data[i][j] != null;
-    }
-
     private static double[] computeStrains(final double[] coeffs) {
         final double[] result = new double[3];
 
@@ -178,10 +176,10 @@ public class LocalLeastSquare extends StrainEstimator {
     private static class ExecutionUnit implements Callable<ExecutionUnit> {
 
         private final int x, y, ws;
-        private final double[][][] data;
+        private final VectorField data;
         private double[] result, errors;
 
-        public ExecutionUnit(int x, int y, double[][][] data, final int ws) {
+        public ExecutionUnit(int x, int y, VectorField data, final int ws) {
             this.x = x;
             this.y = y;
             this.ws = ws;
@@ -70,7 +70,7 @@ public class InputPresenter extends ScrollPane implements Initializable, ChangeL
         final TaskContainer tc = Context.getInstance().getTc();
         if (tc != null) {
             final cz.tul.dic.data.Image i = tc.getImage(imageIndex);
-            final Image img = SwingFXUtils.toFXImage(i, null);
+            final Image img = SwingFXUtils.toFXImage(i.toBufferedImage(), null);
 
             Platform.runLater(() -> {
                 image.setImage(img);
@@ -417,7 +417,7 @@ public class MainWindow implements Initializable {
             stage.setResizable(false);
             final Scene s = stage.getScene();
             if (s != null) {
-                final BufferedImage image = Context.getInstance().getTc().getImage(0);
+                final BufferedImage image = Context.getInstance().getTc().getImage(0).toBufferedImage();
                 double width = Math.max(PxToMmMapperController.MIN_WIDTH, image.getWidth() + PxToMmMapperController.EXTRA_WIDTH);
                 s.getWindow().setWidth(width);
                 s.getWindow().setHeight(image.getHeight() + PxToMmMapperController.EXTRA_HEIGHT);
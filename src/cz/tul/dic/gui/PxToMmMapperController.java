@@ -50,7 +50,7 @@ public class PxToMmMapperController implements Initializable {
      */
     @Override
     public void initialize(URL url, ResourceBundle rb) {
-        final BufferedImage i = Context.getInstance().getTc().getImage(0);
+        final BufferedImage i = Context.getInstance().getTc().getImage(0).toBufferedImage();
         if (i != null) {
             final Image img = SwingFXUtils.toFXImage(i, null);
             image.setImage(img);
@@ -7,7 +7,9 @@ package cz.tul.dic.output.data;
 
 import cz.tul.dic.FpsManager;
 import cz.tul.dic.data.result.DisplacementResult;
+import cz.tul.dic.data.result.FieldSampler;
 import cz.tul.dic.data.result.Result;
+import cz.tul.dic.data.result.VectorField;
 import cz.tul.dic.data.task.TaskContainer;
 import cz.tul.dic.data.task.TaskContainerUtils;
 import cz.tul.dic.data.task.TaskParameter;
@@ -44,10 +46,7 @@ public class ExportModeMap implements IExportMode<double[][]> {
                         continue;
                     }
                     for (int x = 0; x < width; x++) {
-                        stretchedResult[x][y] = interpolate(
-                                result[x][(int) Math.floor(newY)],
-                                result[x][(int) Math.ceil(newY)],
-                                newY % 1);
+                        stretchedResult[x][y] = FieldSampler.sampleColumn(result, x, newY);
                     }
                 }
                 result = stretchedResult;
@@ -77,8 +76,8 @@ public class ExportModeMap implements IExportMode<double[][]> {
             case EYY:
             case EXY:
             case EABS:
-                final double[][][] results = extractDataResult(direction, tc, round, roundZero);
-                if (results == null || results.length == 0 || results[0].length == 0) {
+                final VectorField results = extractDataResult(direction, tc, round, roundZero);
+                if (results == null || results.getWidth() == 0 || results.getHeight() == 0) {
                     result = null;
                     break;
                 }
@@ -100,9 +99,9 @@ public class ExportModeMap implements IExportMode<double[][]> {
         return result;
     }    
 
-    private static double[][][] extractDataResult(final Direction direction, final TaskContainer tc, final int round, final int roundZero) {
+    private static VectorField extractDataResult(final Direction direction, final TaskContainer tc, final int round, final int roundZero) {
         Result res;
-        final double[][][] results;
+        final VectorField results;
         switch (direction) {
             case D_DX:
             case D_DY:
@@ -139,9 +138,10 @@ public class ExportModeMap implements IExportMode<double[][]> {
         return results;
     }
 
-    private static double[][] reduceDataDimension(final TaskContainer tc, final double[][][] results, final Direction direction) {
-        final int width = results.length;
-        final int height = results[0].length;
+    private static double[][] reduceDataDimension(final TaskContainer tc, final VectorField results, final Direction direction) {
+        final int width = results.getWidth();
+        final int height = results.getHeight();
+        final double[] val = new double[results.getComponentCount()];
 
         double[][] result = new double[width][height];
         final FpsManager fpsM = new FpsManager(tc);
@@ -149,10 +149,11 @@ public class ExportModeMap implements IExportMode<double[][]> {
         final double pxToMm = 1 / (double) tc.getParameter(TaskParameter.MM_TO_PX_RATIO);
         for (int x = 0; x < width; x++) {
             for (int y = 0; y < height; y++) {
-                if (results[x][y] == null) {
+                if (!results.isValid(x, y)) {
                     result[x][y] = Double.NaN;
                     continue;
                 }
+                results.getValues(x, y, val);
 
                 switch (direction) {
                     case D_DX:
@@ -161,7 +162,7 @@ public class ExportModeMap implements IExportMode<double[][]> {
                     case DX:
                     case DY:
                     case DABS:
-                        result[x][y] = ExportUtils.calculateDisplacement(results[x][y], direction);
+                        result[x][y] = ExportUtils.calculateDisplacement(val, direction);
                         break;
                     case D_EXX:
                     case D_EYY:
@@ -171,12 +172,12 @@ public class ExportModeMap implements IExportMode<double[][]> {
                     case EYY:
                     case EXY:
                     case EABS:
-                        result[x][y] = ExportUtils.calculateStrain(results[x][y], direction);
+                        result[x][y] = ExportUtils.calculateStrain(val, direction);
                         break;
                     case R_DX:
                     case R_DY:
                     case R_DABS:
-                        result[x][y] = ExportUtils.calculateSpeed(results[x][y], direction, time);
+                        result[x][y] = ExportUtils.calculateSpeed(val, direction, time);
                         break;
                     default:
                         throw new IllegalArgumentException(UNSUPPORTED_DIRECTION + direction);
@@ -224,14 +225,4 @@ public class ExportModeMap implements IExportMode<double[][]> {
         return results;
     }
 
-    private static double interpolate(final double val1, final double val2, final double ratio) {
-        final double result;
-        if (!Double.isFinite(val1) || !Double.isFinite(val2)) {
-            result = Double.NaN;
-        } else {
-            result = (val1 * ratio) + (val2 * (1 - ratio));
-        }
-        return result;
-    }
-
 }
@@ -10,6 +10,7 @@ import cz.tul.dic.data.task.TaskContainer;
 import cz.tul.dic.data.task.TaskContainerUtils;
 import cz.tul.dic.data.task.TaskParameter;
 import cz.tul.dic.data.result.Result;
+import cz.tul.dic.data.result.VectorField;
 import cz.tul.dic.output.Direction;
 import cz.tul.dic.output.ExportUtils;
 import java.util.EnumMap;
@@ -39,7 +40,7 @@ public class ExportModePoint implements IExportMode<Map<Direction, double[]>> {
         final double pxToMm = 1 / (double) tc.getParameter(TaskParameter.MM_TO_PX_RATIO);
 
         Result res;
-        double[][][] results3D = null;
+        VectorField results3D = null;
         double[][] results2D = null;
         double[] data;
         for (Direction dir : Direction.values()) {
@@ -110,13 +111,10 @@ public class ExportModePoint implements IExportMode<Map<Direction, double[]>> {
                     case DX:
                     case DY:
                     case DABS:
-                        if (results3D == null
-                                || results3D.length < x
-                                || results3D[0].length < y
-                                || results3D[x][y] == null) {
+                        if (results3D == null || !results3D.isValid(x, y)) {
                             data[round] = 0;
                         } else {
-                            data[round] = ExportUtils.calculateDisplacement(results3D[x][y], dir);
+                            data[round] = ExportUtils.calculateDisplacement(results3D.getValues(x, y), dir);
                         }
 
                         break;
@@ -128,25 +126,19 @@ public class ExportModePoint implements IExportMode<Map<Direction, double[]>> {
                     case EYY:
                     case EXY:
                     case EABS:
-                        if (results3D == null
-                                || results3D.length < x
-                                || results3D[0].length < y
-                                || results3D[x][y] == null) {
+                        if (results3D == null || !results3D.isValid(x, y)) {
                             data[round] = 0;
                         } else {
-                            data[round] = ExportUtils.calculateStrain(results3D[x][y], dir);
+                            data[round] = ExportUtils.calculateStrain(results3D.getValues(x, y), dir);
                         }
                         break;
                     case R_DX:
                     case R_DY:
                     case R_DABS:
-                        if (results3D == null
-                                || results3D.length < x
-                                || results3D[0].length < y
-                                || results3D[x][y] == null) {
+                        if (results3D == null || !results3D.isValid(x, y)) {
                             data[round] = 0;
                         } else {
-                            data[round] = ExportUtils.calculateSpeed(results3D[x][y], dir, time);
+                            data[round] = ExportUtils.calculateSpeed(results3D.getValues(x, y), dir, time);
                         }
 
                         break;
@@ -108,7 +108,7 @@ public class ExportTargetFile extends AbstractExportTarget {
         final File target = (File) targetParams;
         Utils.ensureDirectoryExistence(target.getParentFile());
 
-        final BufferedImage background = tc.getImage(position);
+        final BufferedImage background = tc.getImage(position).toBufferedImage();
         final BufferedImage overlay;
         if (data != null) {
             overlay = ExportUtils.overlayImage(background, ExportUtils.createImageFromMap(data, direction, limits[0], limits[1]));
@@ -157,7 +157,7 @@ public class ExportTargetFile extends AbstractExportTarget {
         for (int i = 0; i < data.size(); i++) {
             target = new File(temp.getAbsolutePath() + File.separator + name + nf.format(i) + EXTENSION);
             Utils.ensureDirectoryExistence(target.getParentFile());
-            final BufferedImage background = tc.getImage(i);
+            final BufferedImage background = tc.getImage(i).toBufferedImage();
             final BufferedImage overlay;
             map = data.get(i);
             if (map != null) {
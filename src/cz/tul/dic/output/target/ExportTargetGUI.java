@@ -22,7 +22,7 @@ public class ExportTargetGUI extends AbstractExportTarget {
         final double[][] data = exporter.exportData(tc, direction, dataParams);
 
         final int position = dataParams[0];
-        final BufferedImage background = tc.getImage(position);
+        final BufferedImage background = tc.getImage(position).toBufferedImage();
         final BufferedImage overlay;
         if (data == null) {            
             overlay = ExportUtils.overlayImage(background, ExportUtils.createImageFromMap(ExportUtils.generateNanArray(background.getWidth(), background.getHeight()), direction, 0, 0));
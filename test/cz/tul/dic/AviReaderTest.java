@@ -0,0 +1,239 @@
+/* Copyright (C) LENAM, s.r.o. - All Rights Reserved
+ * Unauthorized copying of this file, via any medium is strictly prohibited
+ * Proprietary and confidential
+ * Written by Petr Jecmen <petr.jecmen@tul.cz>, 2015
+ */
+package cz.tul.dic;
+
+import cz.tul.dic.data.AviReader;
+import cz.tul.dic.data.Image;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import javax.imageio.ImageIO;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Petr Jecmen
+ */
+public class AviReaderTest {
+
+    private static final int WIDTH = 21;
+    private static final int HEIGHT = 13;
+    private static final int FRAME_COUNT = 3;
+
+    @Test
+    public void testUncompressedVideo() throws IOException, URISyntaxException {
+        final AviReader reader = new AviReader(Paths.get(getClass().getResource("/resources/input/image.avi").toURI()).toFile());
+        assertEquals(5, reader.getImageCount());
+
+        Image frame, bmp;
+        for (int i = 0; i < reader.getImageCount(); i++) {
+            frame = reader.loadImage(i);
+            bmp = Image.loadImageFromDisk(Paths.get(getClass().getResource(String.format("/resources/input/image.avi%05d.bmp", i)).toURI()).toFile());
+            assertEquals(bmp.getWidth(), frame.getWidth());
+            assertEquals(bmp.getHeight(), frame.getHeight());
+            assertArrayEquals(bmp.toBWArray(), frame.toBWArray());
+        }
+    }
+
+    @Test
+    public void testGeneratedRgbVideo() throws IOException {
+        final int stride = ((WIDTH * 24 + 31) / 32) * 4;
+        final byte[][] frames = new byte[FRAME_COUNT][];
+        for (int f = 0; f < FRAME_COUNT; f++) {
+            frames[f] = new byte[stride * HEIGHT];
+            for (int y = 0; y < HEIGHT; y++) {
+                for (int x = 0; x < WIDTH; x++) {
+                    // bottom-up BGR rows
+                    final int index = (HEIGHT - 1 - y) * stride + x * 3;
+                    frames[f][index] = (byte) generateValue(f, x, y);
+                    frames[f][index + 1] = (byte) generateValue(f, x, y);
+                    frames[f][index + 2] = (byte) generateValue(f, x, y);
+                }
+            }
+        }
+
+        final AviReader reader = new AviReader(writeAvi(0, 24, HEIGHT, null, frames));
+        assertEquals(FRAME_COUNT + 1, reader.getImageCount());
+        assertEquals(WIDTH, reader.getWidth());
+        assertEquals(HEIGHT, reader.getHeight());
+        assertEquals(25, reader.getFps(), 1e-9);
+        for (int f = FRAME_COUNT - 1; f >= 0; f--) {
+            assertArrayEquals(Image.createImage(generateImage(f)).toBWArray(), reader.loadImage(f).toBWArray());
+        }
+        assertArrayEquals(reader.loadImage(FRAME_COUNT - 1).toBWArray(), reader.loadImage(FRAME_COUNT).toBWArray());
+    }
+
+    @Test
+    public void testGeneratedPaletteVideo() throws IOException {
+        final byte[] palette = new byte[256 * 4];
+        for (int i = 0; i < 256; i++) {
+            palette[i * 4] = (byte) i;
+            palette[i * 4 + 1] = (byte) i;
+            palette[i * 4 + 2] = (byte) i;
+        }
+        final int stride = ((WIDTH * 8 + 31) / 32) * 4;
+        final byte[][] frames = new byte[FRAME_COUNT][];
+        for (int f = 0; f < FRAME_COUNT; f++) {
+            frames[f] = new byte[stride * HEIGHT];
+            for (int y = 0; y < HEIGHT; y++) {
+                for (int x = 0; x < WIDTH; x++) {
+                    // top-down rows
+                    frames[f][y * stride + x] = (byte) generateValue(f, x, y);
+                }
+            }
+        }
+
+        final AviReader reader = new AviReader(writeAvi(0, 8, -HEIGHT, palette, frames));
+        assertEquals(FRAME_COUNT + 1, reader.getImageCount());
+        for (int f = 0; f < FRAME_COUNT; f++) {
+            assertArrayEquals(Image.createImage(generateImage(f)).toBWArray(), reader.loadImage(f).toBWArray());
+        }
+    }
+
+    @Test
+    public void testGeneratedMjpegVideo() throws IOException {
+        final byte[][] frames = new byte[FRAME_COUNT][];
+        final Image[] expected = new Image[FRAME_COUNT];
+        ByteArrayOutputStream out;
+        for (int f = 0; f < FRAME_COUNT; f++) {
+            out = new ByteArrayOutputStream();
+            ImageIO.write(generateImage(f), "jpg", out);
+            expected[f] = Image.createImage(ImageIO.read(new ByteArrayInputStream(out.toByteArray())));
+            frames[f] = stripHuffmanTables(out.toByteArray());
+        }
+
+        final AviReader reader = new AviReader(writeAvi(fourcc("MJPG"), 24, HEIGHT, null, frames));
+        assertEquals(FRAME_COUNT + 1, reader.getImageCount());
+        for (int f = 0; f < FRAME_COUNT; f++) {
+            assertArrayEquals(expected[f].toBWArray(), reader.loadImage(f).toBWArray());
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testIllegalFile() throws IOException {
+        final File file = File.createTempFile("illegal", ".avi");
+        file.deleteOnExit();
+        Files.write(file.toPath(), "RIFF\u0004\u0000\u0000\u0000WAVE".getBytes(StandardCharsets.US_ASCII));
+        new AviReader(file);
+    }
+
+    private static int generateValue(final int frame, final int x, final int y) {
+        return (frame * 40 + x * 7 + y * 11) % 256;
+    }
+
+    private static BufferedImage generateImage(final int frame) {
+        final BufferedImage result = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        int val;
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                val = generateValue(frame, x, y);
+                result.setRGB(x, y, val << 16 | val << 8 | val);
+            }
+        }
+        return result;
+    }
+
+    private static byte[] stripHuffmanTables(final byte[] jpeg) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(jpeg, 0, 2);
+        int position = 2;
+        int length;
+        while ((jpeg[position + 1] & 0xff) != 0xDA) {
+            length = ((jpeg[position + 2] & 0xff) << 8 | (jpeg[position + 3] & 0xff)) + 2;
+            if ((jpeg[position + 1] & 0xff) != 0xC4) {
+                out.write(jpeg, position, length);
+            }
+            position += length;
+        }
+        out.write(jpeg, position, jpeg.length - position);
+        return out.toByteArray();
+    }
+
+    private static File writeAvi(final int compression, final int bitCount, final int height, final byte[] palette, final byte[][] frames) throws IOException {
+        final ByteBuffer avih = createBuffer(56);
+        avih.putInt(0, 40_000);
+        avih.putInt(16, frames.length);
+        avih.putInt(24, 1);
+        avih.putInt(32, WIDTH);
+        avih.putInt(36, Math.abs(height));
+
+        final ByteBuffer strh = createBuffer(56);
+        strh.put("vids".getBytes(StandardCharsets.US_ASCII));
+        strh.putInt(4, compression);
+        strh.putInt(20, 1);
+        strh.putInt(24, 25);
+        strh.putInt(32, frames.length);
+
+        final ByteBuffer strf = createBuffer(40 + (palette == null ? 0 : palette.length));
+        strf.putInt(0, 40);
+        strf.putInt(4, WIDTH);
+        strf.putInt(8, height);
+        strf.putShort(12, (short) 1);
+        strf.putShort(14, (short) bitCount);
+        strf.putInt(16, compression);
+        if (palette != null) {
+            strf.putInt(32, palette.length / 4);
+            strf.position(40);
+            strf.put(palette);
+        }
+
+        final ByteArrayOutputStream movi = new ByteArrayOutputStream();
+        for (byte[] frame : frames) {
+            movi.write(chunk(compression == 0 ? "00db" : "00dc", frame));
+        }
+        // dropped frame repeats the previous one
+        movi.write(chunk("00dc", new byte[0]));
+
+        final byte[] content = concat(
+                list("LIST", "hdrl", concat(
+                        chunk("avih", avih.array()),
+                        list("LIST", "strl", concat(chunk("strh", strh.array()), chunk("strf", strf.array()))))),
+                list("LIST", "movi", movi.toByteArray()));
+
+        final File result = File.createTempFile("video", ".avi");
+        result.deleteOnExit();
+        Files.write(result.toPath(), list("RIFF", "AVI ", content));
+        return result;
+    }
+
+    private static ByteBuffer createBuffer(final int size) {
+        return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static byte[] chunk(final String id, final byte[] data) {
+        final ByteBuffer result = createBuffer(8 + data.length + (data.length & 1));
+        result.put(id.getBytes(StandardCharsets.US_ASCII));
+        result.putInt(data.length);
+        result.put(data);
+        return result.array();
+    }
+
+    private static byte[] list(final String id, final String type, final byte[] data) {
+        return chunk(id, concat(type.getBytes(StandardCharsets.US_ASCII), data));
+    }
+
+    private static byte[] concat(final byte[]... data) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] d : data) {
+            out.write(d, 0, d.length);
+        }
+        return out.toByteArray();
+    }
+
+    private static int fourcc(final String code) {
+        return ByteBuffer.wrap(code.getBytes(StandardCharsets.US_ASCII)).order(ByteOrder.LITTLE_ENDIAN).getInt();
+    }
+
+}
@@ -0,0 +1,121 @@
+/* Copyright (C) LENAM, s.r.o. - All Rights Reserved
+ * Unauthorized copying of this file, via any medium is strictly prohibited
+ * Proprietary and confidential
+ * Written by Petr Jecmen <petr.jecmen@tul.cz>, 2015
+ */
+package cz.tul.dic;
+
+import cz.tul.dic.engine.cluster.Analyzer1D;
+import cz.tul.dic.engine.cluster.Analyzer2D;
+import cz.tul.dic.engine.cluster.Analyzer2D.Analayzer2DData;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Random;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author Petr Jecmen
+ */
+public class ClusterAnalyzerTest {
+
+    private static final double PRECISION = 0.1;
+    private static final double DELTA = 1e-9;
+
+    @Test
+    public void testAnalyzer1D() {
+        final Analyzer1D analyzer = new Analyzer1D();
+        analyzer.setPrecision(0.5);
+        assertEquals(0, analyzer.findMajorValue(), DELTA);
+
+        for (double d : new double[]{1.1, 0.9, -3, 2.6, 1.2, 2.4}) {
+            analyzer.addValue(d);
+        }
+        assertEquals(1.0, analyzer.findMajorValue(), DELTA);
+        assertEquals(1.0, analyzer.findMajorValue(), DELTA);
+    }
+
+    @Test
+    public void testAnalyzer2D() {
+        final Analyzer2D analyzer = new Analyzer2D();
+        analyzer.addValue(new Analayzer2DData(1, 1, 0.5));
+        analyzer.addValue(new Analayzer2DData(-2.01, 0.5, 0.25));
+        analyzer.addValue(new Analayzer2DData(-1.99, 0.52, 0.5));
+        analyzer.addValue(new Analayzer2DData(3, -4, 1));
+
+        for (int i = 0; i < 2; i++) {
+            final Analayzer2DData major = analyzer.findMajorValue();
+            assertEquals(-2.0, major.getX(), DELTA);
+            assertEquals(0.5, major.getY(), DELTA);
+            assertEquals(0.75, major.getQuality(), DELTA);
+        }
+    }
+
+    @Test
+    public void testTieResolution() {
+        final Analyzer2D analyzer = new Analyzer2D();
+        analyzer.addValue(new Analayzer2DData(3, 3, 0.5));
+        analyzer.addValue(new Analayzer2DData(1, 1, 0.5));
+        analyzer.addValue(new Analayzer2DData(1, 1, 0.5));
+        analyzer.addValue(new Analayzer2DData(3, 3, 0.5));
+        final Analayzer2DData major = analyzer.findMajorValue();
+        assertEquals(3, major.getX(), DELTA);
+        assertEquals(3, major.getY(), DELTA);
+
+        final Analyzer1D analyzer1D = new Analyzer1D();
+        for (double d : new double[]{5, -2, -2, 5}) {
+            analyzer1D.addValue(d);
+        }
+        assertEquals(5, analyzer1D.findMajorValue(), DELTA);
+    }
+
+    @Test
+    public void testAnalyzer2DTies() {
+        final Random rnd = new Random(7);
+        for (int test = 0; test < 2000; test++) {
+            final Analyzer2D analyzer = new Analyzer2D();
+            final int count = 1 + rnd.nextInt(40);
+            final int range = 1 + rnd.nextInt(300);
+            for (int i = 0; i < count; i++) {
+                analyzer.addValue(new Analayzer2DData((rnd.nextInt(range) - range / 2) * PRECISION, (rnd.nextInt(range) - range / 2) * PRECISION, rnd.nextDouble()));
+            }
+
+            final Analayzer2DData expected = findMajorValue(analyzer);
+            final Analayzer2DData actual = analyzer.findMajorValue();
+            assertEquals(expected.getX(), actual.getX(), DELTA);
+            assertEquals(expected.getY(), actual.getY(), DELTA);
+            assertEquals(expected.getQuality(), actual.getQuality(), DELTA);
+        }
+    }
+
+    /**
+     * Reference search counting keys in insertion order, the first key with
+     * the highest count wins.
+     */
+    private static Analayzer2DData findMajorValue(final Analyzer2D analyzer) {
+        final Map<List<Integer>, Integer> counterVal = new LinkedHashMap<>();
+        final Map<List<Integer>, Double> counterQ = new HashMap<>();
+        List<Integer> key;
+        for (Analayzer2DData val : analyzer.listValues()) {
+            key = Arrays.asList((int) Math.round(val.getX() / PRECISION), (int) Math.round(val.getY() / PRECISION));
+            counterVal.merge(key, 1, Integer::sum);
+            counterQ.merge(key, val.getQuality(), Double::sum);
+        }
+
+        int maxCount = -1;
+        List<Integer> maxKey = null;
+        for (Entry<List<Integer>, Integer> e : counterVal.entrySet()) {
+            if (e.getValue() > maxCount) {
+                maxCount = e.getValue();
+                maxKey = e.getKey();
+            }
+        }
+        return new Analayzer2DData(maxKey.get(0) * PRECISION, maxKey.get(1) * PRECISION, counterQ.get(maxKey));
+    }
+
+}
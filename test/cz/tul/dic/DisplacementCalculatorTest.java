@@ -11,10 +11,13 @@ import cz.tul.dic.data.roi.RectangleROI;
 import cz.tul.dic.data.task.TaskContainer;
 import cz.tul.dic.data.task.TaskParameter;
 import cz.tul.dic.data.result.CorrelationResult;
+import cz.tul.dic.engine.displacement.CumulativeDisplacement;
 import cz.tul.dic.engine.displacement.DisplacementCalculation;
 import cz.tul.dic.engine.displacement.DisplacementCalculator;
 import cz.tul.dic.data.result.DisplacementResult;
 import cz.tul.dic.data.result.Result;
+import cz.tul.dic.data.result.VectorField;
+import cz.tul.dic.data.subset.AbstractSubset;
 import cz.tul.dic.data.subset.generator.AbstractSubsetGenerator;
 import cz.tul.dic.data.task.TaskContainerUtils;
 import cz.tul.dic.data.subset.generator.SubsetGenerator;
@@ -27,6 +30,11 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import org.junit.Test;
 
 /**
@@ -49,7 +57,67 @@ public class DisplacementCalculatorTest {
         checkResults(result, 2, -2, 62.5);
     }
 
+    @Test
+    public void testGridCalculator() throws IOException, URISyntaxException, ComputationException {
+        final List<File> input = new ArrayList<>(2);
+        input.add(Paths.get(getClass().getResource("/resources/engine/in.bmp").toURI()).toFile());
+        input.add(Paths.get(getClass().getResource("/resources/engine/in.bmp").toURI()).toFile());
+        final TaskContainer tc = TaskContainer.initTaskContainer(input);
+
+        tc.addRoi(ROUND, new RectangleROI(10, 10, 60, 50));
+        tc.addRoi(ROUND, new RectangleROI(40, 30, 90, 70));
+        tc.setParameter(TaskParameter.SUBSET_SIZE, 5);
+        tc.setParameter(TaskParameter.SUBSET_GENERATOR_METHOD, SubsetGenerator.EQUAL);
+        tc.setParameter(TaskParameter.SUBSET_GENERATOR_PARAM, 2);
+        tc.setParameter(TaskParameter.RESULT_QUALITY, 0.25);
+
+        final Map<AbstractROI, List<AbstractSubset>> subsets = AbstractSubsetGenerator.initGenerator(SubsetGenerator.EQUAL).generateSubsets(tc, ROUND);
+        final Map<AbstractROI, List<CorrelationResult>> resultMap = new HashMap<>();
+        final Random rnd = new Random(42);
+        for (Map.Entry<AbstractROI, List<AbstractSubset>> e : subsets.entrySet()) {
+            final List<CorrelationResult> results = new ArrayList<>(e.getValue().size());
+            for (AbstractSubset subset : e.getValue()) {
+                if (rnd.nextInt(10) == 0) {
+                    results.add(null);
+                } else {
+                    results.add(new CorrelationResult(rnd.nextDouble(), new double[]{
+                        rnd.nextInt(9) * 0.25 - 1, rnd.nextInt(9) * 0.25 - 1,
+                        rnd.nextGaussian() * 0.05, rnd.nextGaussian() * 0.05, rnd.nextGaussian() * 0.05, rnd.nextGaussian() * 0.05}));
+                }
+            }
+            resultMap.put(e.getKey(), results);
+        }
+
+        for (int linesPerGroup : new int[]{1, 7, 1000}) {
+            tc.setParameter(TaskParameter.DISPLACEMENT_CALCULATION_PARAM, linesPerGroup * tc.getImage(ROUND).getWidth());
+            tc.setParameter(TaskParameter.DISPLACEMENT_CALCULATION_METHOD, DisplacementCalculation.MAX_WEIGHTED_AVERAGE);
+            final DisplacementResult expected = DisplacementCalculator.computeDisplacement(resultMap, subsets, tc, ROUND);
+            tc.setParameter(TaskParameter.DISPLACEMENT_CALCULATION_METHOD, DisplacementCalculation.MAX_WEIGHTED_AVERAGE_GRID);
+            final DisplacementResult actual = DisplacementCalculator.computeDisplacement(resultMap, subsets, tc, ROUND);
+
+            assert equals(actual.getDisplacement(), expected.getDisplacement(), 0);
+            assert Arrays.deepEquals(actual.getQuality(), expected.getQuality());
+        }
+    }
+
+    @Test
+    public void testFailedLineGroup() throws IOException, URISyntaxException, ComputationException {
+        // deformation with illegal length cannot be applied to subsets
+        for (DisplacementCalculation method : DisplacementCalculation.values()) {
+            try {
+                prepareAndComputeDisplacement(new CorrelationResult(1.0, new double[]{2}), method);
+                fail("Displacement computed from illegal deformation using " + method);
+            } catch (IllegalStateException ex) {
+                assertTrue(ex.getCause() instanceof IllegalArgumentException);
+            }
+        }
+    }
+
     private DisplacementResult prepareAndComputeDisplacement(final CorrelationResult deformation) throws IOException, URISyntaxException, ComputationException {
+        return prepareAndComputeDisplacement(deformation, DisplacementCalculation.MAX_WEIGHTED_AVERAGE);
+    }
+
+    private DisplacementResult prepareAndComputeDisplacement(final CorrelationResult deformation, final DisplacementCalculation method) throws IOException, URISyntaxException, ComputationException {
         final List<File> input = new ArrayList<>(2);
         input.add(Paths.get(getClass().getResource("/resources/engine/in.bmp").toURI()).toFile());
         input.add(Paths.get(getClass().getResource("/resources/engine/in.bmp").toURI()).toFile());
@@ -64,7 +132,7 @@ public class DisplacementCalculatorTest {
         tc.setParameter(TaskParameter.SUBSET_SIZE, 5);
         tc.setParameter(TaskParameter.SUBSET_GENERATOR_METHOD, SubsetGenerator.EQUAL);
         tc.setParameter(TaskParameter.SUBSET_GENERATOR_PARAM, 11);
-        tc.setParameter(TaskParameter.DISPLACEMENT_CALCULATION_METHOD, DisplacementCalculation.MAX_WEIGHTED_AVERAGE);
+        tc.setParameter(TaskParameter.DISPLACEMENT_CALCULATION_METHOD, method);
         tc.setParameter(TaskParameter.DISPLACEMENT_CALCULATION_PARAM, 2000);
         tc.setParameter(TaskParameter.RESULT_QUALITY, 0.25);
 
@@ -78,15 +146,15 @@ public class DisplacementCalculatorTest {
     }
 
     private void checkResults(final DisplacementResult result, final double dx, final double dy, final double q) {
-        final double[][][] results = result.getDisplacement();
+        final VectorField results = result.getDisplacement();
         final double[][] quality = result.getQuality();
 
-        for (int x = 0; x < results.length; x++) {
-            for (int y = 0; y < results[x].length; y++) {
-                if (results[x][y] != null) {
-                    assert (results[x][y].length == 2);
-                    assert (results[x][y][0] == dx);
-                    assert (results[x][y][1] == dy);
+        assert (results.getComponentCount() == 2);
+        for (int x = 0; x < results.getWidth(); x++) {
+            for (int y = 0; y < results.getHeight(); y++) {
+                if (results.isValid(x, y)) {
+                    assert (results.getValue(x, y, 0) == dx);
+                    assert (results.getValue(x, y, 1) == dy);
                     assert (quality[x][y] == q);
                 }
             }
@@ -107,30 +175,76 @@ public class DisplacementCalculatorTest {
 
         final int width = tc.getImage(ROUND).getWidth();
         final int height = tc.getImage(ROUND).getHeight();
-        tc.setResult(0, 1, new Result(new DisplacementResult(prepareArray3D(width, height, 0), prepareArray2D(width, height, 100))));
-        tc.setResult(1, 2, new Result(new DisplacementResult(prepareArray3D(width, height, 0), prepareArray2D(width, height, 100))));
-        tc.setResult(2, 3, new Result(new DisplacementResult(prepareArray3D(width, height, 1), prepareArray2D(width, height, 50))));
-        tc.setResult(3, 4, new Result(new DisplacementResult(prepareArray3D(width, height, 1), prepareArray2D(width, height, 50))));
+        tc.setResult(0, 1, new Result(new DisplacementResult(prepareField(width, height, 0), prepareArray2D(width, height, 100))));
+        tc.setResult(1, 2, new Result(new DisplacementResult(prepareField(width, height, 0), prepareArray2D(width, height, 100))));
+        tc.setResult(2, 3, new Result(new DisplacementResult(prepareField(width, height, 1), prepareArray2D(width, height, 50))));
+        tc.setResult(3, 4, new Result(new DisplacementResult(prepareField(width, height, 1), prepareArray2D(width, height, 50))));
 
         tc.setResult(0, 2, new Result(DisplacementCalculator.computeCumulativeDisplacement(tc, 0, 2)));
         tc.setResult(0, 3, new Result(DisplacementCalculator.computeCumulativeDisplacement(tc, 0, 3)));
         tc.setResult(0, 4, new Result(DisplacementCalculator.computeCumulativeDisplacement(tc, 0, 4)));
 
-        assert equals(tc.getResult(0, 1).getDisplacementResult().getDisplacement(), prepareArray3D(width, height, 0), 0);
+        assert equals(tc.getResult(0, 1).getDisplacementResult().getDisplacement(), prepareField(width, height, 0), 0);
         assert equals(tc.getResult(0, 1).getDisplacementResult().getQuality(), prepareArray2D(width, height, 100.0), 0);
-        assert equals(tc.getResult(0, 2).getDisplacementResult().getDisplacement(), prepareArray3D(width, height, 0), 0);
+        assert equals(tc.getResult(0, 2).getDisplacementResult().getDisplacement(), prepareField(width, height, 0), 0);
         assert equals(tc.getResult(0, 2).getDisplacementResult().getQuality(), prepareArray2D(width, height, 100.0), 0);
-        assert equals(tc.getResult(0, 3).getDisplacementResult().getDisplacement(), prepareArray3D(width, height, 1), 0);
+        assert equals(tc.getResult(0, 3).getDisplacementResult().getDisplacement(), prepareField(width, height, 1), 0);
         assert equals(tc.getResult(0, 3).getDisplacementResult().getQuality(), prepareArray2D(width, height, 150 / 2.0), 0);
-        assert equals(tc.getResult(0, 4).getDisplacementResult().getDisplacement(), prepareArray3D(width, height, 2), 1);
+        assert equals(tc.getResult(0, 4).getDisplacementResult().getDisplacement(), prepareField(width, height, 2), 1);
         assert equals(tc.getResult(0, 4).getDisplacementResult().getQuality(), prepareArray2D(width, height, 125 / 2.0), 1);
     }
 
-    private double[][][] prepareArray3D(final int width, final int height, final double val) {
-        final double[][][] result = new double[width][height][Coordinates.DIMENSION];
+    @Test
+    public void testIncrementalCumulativeDisplacement() throws IOException, URISyntaxException, ComputationException {
+        final List<File> input = new ArrayList<>(5);
+        for (int i = 0; i < 5; i++) {
+            input.add(Paths.get(getClass().getResource("/resources/engine/in.bmp").toURI()).toFile());
+        }
+        final TaskContainer tc = TaskContainer.initTaskContainer(input);
+
+        final int width = tc.getImage(ROUND).getWidth();
+        final int height = tc.getImage(ROUND).getHeight();
+        for (int r = 0; r < 4; r++) {
+            final VectorField field = new VectorField(width, height, Coordinates.DIMENSION);
+            final double[][] quality = new double[width][height];
+            for (int x = 0; x < width; x++) {
+                for (int y = 0; y < height; y++) {
+                    // hole moving with rounds
+                    if (Math.abs(x - 20 - 10 * r) > 3 || Math.abs(y - 30) > 5) {
+                        field.setValues(x, y, 0.3 + 0.01 * y - 0.2 * r, -0.7 + 0.005 * x);
+                    }
+                    quality[x][y] = (x + r) % 7 == 0 ? Double.NaN : 50 + x % 11;
+                }
+            }
+            tc.setResult(r, r + 1, new Result(new DisplacementResult(field, quality)));
+        }
+
+        final DisplacementResult[] expected = new DisplacementResult[5];
+        for (int r = 2; r < 5; r++) {
+            expected[r] = DisplacementCalculator.computeCumulativeDisplacement(tc, 0, r);
+        }
+
+        final CumulativeDisplacement cumulative = new CumulativeDisplacement(0);
+        for (int r : new int[]{3, 2, 4}) {
+            final DisplacementResult actual = cumulative.computeDisplacement(tc, r);
+            final VectorField expectedField = expected[r].getDisplacement();
+            for (int x = 0; x < width; x++) {
+                for (int y = 0; y < height; y++) {
+                    assertEquals(expectedField.isValid(x, y), actual.getDisplacement().isValid(x, y));
+                    if (expectedField.isValid(x, y)) {
+                        assertArrayEquals(expectedField.getValues(x, y), actual.getDisplacement().getValues(x, y), 1e-4);
+                    }
+                    assertEquals(expected[r].getQuality()[x][y], actual.getQuality()[x][y], 1e-3);
+                }
+            }
+        }
+    }
+
+    private VectorField prepareField(final int width, final int height, final double val) {
+        final VectorField result = new VectorField(width, height, Coordinates.DIMENSION);
         for (int x = 0; x < width; x++) {
             for (int y = 0; y < height; y++) {
-                Arrays.fill(result[x][y], val);
+                result.setValues(x, y, val, val);
             }
         }
         return result;
@@ -146,21 +260,21 @@ public class DisplacementCalculatorTest {
         return result;
     }
 
-    private boolean equals(final double[][][] A, final double[][][] B, final int gap) {
+    private boolean equals(final VectorField A, final VectorField B, final int gap) {
         boolean result = true;
 
         if (A != null && B != null) {
             loop:
-            for (int x = 0; x < A.length - gap; x++) {
-                for (int y = 0; y < A[x].length - gap; y++) {
-                    if (A[x][y] == null || B[x][y] == null) {
-                        if (!(A[x][y] == null && B[x][y] == null)) {
+            for (int x = 0; x < A.getWidth() - gap; x++) {
+                for (int y = 0; y < A.getHeight() - gap; y++) {
+                    if (!A.isValid(x, y) || !B.isValid(x, y)) {
+                        if (A.isValid(x, y) != B.isValid(x, y)) {
                             result = false;
                             break loop;
                         }
                     } else {
-                        for (int z = 0; z < A[x][y].length; z++) {
-                            if (A[x][y][z] != B[x][y][z]) {
+                        for (int z = 0; z < A.getComponentCount(); z++) {
+                            if (A.getValue(x, y, z) != B.getValue(x, y, z)) {
                                 result = false;
                                 break loop;
                             }
@@ -7,10 +7,10 @@ package cz.tul.dic;
 
 import cz.tul.dic.data.subset.AbstractSubset;
 import cz.tul.dic.data.subset.SquareSubset2D;
-import cz.tul.dic.data.Image;
 import cz.tul.dic.data.roi.AbstractROI;
 import cz.tul.dic.data.roi.RectangleROI;
 import cz.tul.dic.data.result.DisplacementResult;
+import cz.tul.dic.data.result.VectorField;
 import cz.tul.dic.data.task.Hint;
 import cz.tul.dic.data.task.TaskContainer;
 import cz.tul.dic.data.task.TaskContainerUtils;
@@ -22,6 +22,7 @@ import cz.tul.dic.engine.Engine;
 import cz.tul.dic.engine.displacement.DisplacementCalculator;
 import cz.tul.dic.data.Interpolation;
 import cz.tul.dic.engine.solvers.SolverType;
+import cz.tul.dic.engine.strain.StrainEstimator;
 import cz.tul.dic.data.result.Result;
 import cz.tul.dic.data.task.FullTask;
 import cz.tul.dic.data.subset.generator.SubsetGenerator;
@@ -32,6 +33,7 @@ import cz.tul.dic.engine.KernelPerformanceManager;
 import cz.tul.dic.engine.platform.Platform;
 import cz.tul.dic.engine.platform.PlatformManager;
 import cz.tul.dic.engine.platform.PlatformType;
+import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 import java.net.URISyntaxException;
@@ -45,6 +47,7 @@ import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Observer;
 import java.util.Set;
 import org.junit.Assert;
 import org.junit.Test;
@@ -76,6 +79,8 @@ public class EngineTest {
         -1.0, 1.0, 0.5, -1.0, 1.0, 0.5, -1.0, 1.0, 0.5, -1.0, 1.0, 0.5};
     private static final String[] DEF_ZERO_FIRST_FILES = new String[]{
         "out_2_0_1_0_0_0", "out_1_-2_0_0_0_1", "out_-2_-1_1_0_0_1"};
+    private static final double[] DEF_SEQUENCE = new double[]{
+        -3, 3, 1, -3, 3, 1};
     private static final double[] DEF_LARGE = new double[]{
         -5, 5, 1, -5, 5, 1,
         -1.0, 1.0, 0.2, -1.0, 1.0, 0.2, -1.0, 1.0, 0.2, -1.0, 1.0, 0.2};
@@ -205,6 +210,146 @@ public class EngineTest {
         return tc;
     }
 
+    @Test
+    public void testPipelinedDynamicSubsets() throws IOException, URISyntaxException, ComputationException {
+        final TaskContainer sequential = generateSequenceTask(SubsetGenerator.DYNAMIC);
+        Engine.getInstance().computeTask(sequential);
+        final TaskContainer pipelined = generateSequenceTask(SubsetGenerator.DYNAMIC);
+        pipelined.addHint(Hint.PIPELINED);
+        Engine.getInstance().computeTask(pipelined);
+
+        // subsets of the second round are refined using results of the first round
+        final TaskContainer equal = generateSequenceTask(SubsetGenerator.EQUAL);
+        Engine.getInstance().computeTask(equal);
+        Assert.assertTrue(countSubsets(sequential.getResult(ROUND + 1, ROUND + 2)) > countSubsets(equal.getResult(ROUND + 1, ROUND + 2)));
+
+        Result expected, actual;
+        VectorField expectedField, actualField;
+        for (int round = ROUND; round < ROUND + 2; round++) {
+            expected = sequential.getResult(round, round + 1);
+            actual = pipelined.getResult(round, round + 1);
+            Assert.assertEquals(countSubsets(expected), countSubsets(actual));
+
+            expectedField = expected.getDisplacementResult().getDisplacement();
+            actualField = actual.getDisplacementResult().getDisplacement();
+            for (int x = 0; x < expectedField.getWidth(); x++) {
+                for (int y = 0; y < expectedField.getHeight(); y++) {
+                    Assert.assertEquals(expectedField.isValid(x, y), actualField.isValid(x, y));
+                    if (expectedField.isValid(x, y)) {
+                        Assert.assertArrayEquals(expectedField.getValues(x, y), actualField.getValues(x, y), 0);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testIncrementalCumulativeDisplacement() throws IOException, URISyntaxException, ComputationException {
+        final int roundCount = 4;
+        TaskContainer incremental, singleRounds;
+        DisplacementResult expected, actual;
+        for (boolean pipelined : new boolean[]{false, true}) {
+            incremental = generateSequenceTask(SubsetGenerator.EQUAL, roundCount + 1);
+            incremental.addHint(Hint.INCREMENTAL_CUMULATIVE);
+            if (pipelined) {
+                incremental.addHint(Hint.PIPELINED);
+            }
+            Engine.getInstance().computeTask(incremental);
+
+            // reference walks through results of single rounds only
+            singleRounds = TaskContainer.initTaskContainer(incremental.getInput());
+            for (int round = ROUND; round < ROUND + roundCount; round++) {
+                singleRounds.setResult(round, round + 1, incremental.getResult(round, round + 1));
+            }
+
+            for (int round = ROUND + 2; round <= ROUND + roundCount; round++) {
+                expected = DisplacementCalculator.computeCumulativeDisplacement(singleRounds, ROUND, round);
+                actual = incremental.getResult(ROUND, round).getDisplacementResult();
+                for (int x = 0; x < expected.getDisplacement().getWidth(); x++) {
+                    for (int y = 0; y < expected.getDisplacement().getHeight(); y++) {
+                        Assert.assertEquals(expected.getDisplacement().isValid(x, y), actual.getDisplacement().isValid(x, y));
+                        if (expected.getDisplacement().isValid(x, y)) {
+                            // incremental displacement is kept in float precision
+                            Assert.assertArrayEquals(expected.getDisplacement().getValues(x, y), actual.getDisplacement().getValues(x, y), 1e-4);
+                        }
+                        Assert.assertEquals(expected.getQuality()[x][y], actual.getQuality()[x][y], 1e-3);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testPipelinedNotifications() throws IOException, URISyntaxException, ComputationException {
+        final int roundCount = 3;
+        final TaskContainer task = generateSequenceTask(SubsetGenerator.EQUAL, roundCount + 1);
+        task.addHint(Hint.PIPELINED);
+
+        final List<Object> args = Collections.synchronizedList(new ArrayList<>());
+        final Set<Thread> threads = Collections.synchronizedSet(new HashSet<>());
+        final Observer observer = (o, arg) -> {
+            threads.add(Thread.currentThread());
+            args.add(arg);
+        };
+        Engine.getInstance().addObserver(observer);
+        try {
+            Engine.getInstance().computeTask(task);
+        } finally {
+            Engine.getInstance().deleteObserver(observer);
+        }
+
+        // observers are notified from the computing thread only, same as in sequential computation
+        Assert.assertEquals(Collections.singleton(Thread.currentThread()), threads);
+        Assert.assertEquals(roundCount, args.stream().filter(arg -> arg instanceof Long).count());
+        Assert.assertTrue(args.stream().filter(arg -> arg == StrainEstimator.class).count() > roundCount);
+        Assert.assertTrue(args.contains(DisplacementCalculator.class));
+        Assert.assertTrue(args.contains(SubsetGenerator.class));
+    }
+
+    private TaskContainer generateSequenceTask(final SubsetGenerator generator) throws IOException, URISyntaxException, ComputationException {
+        return generateSequenceTask(generator, 3);
+    }
+
+    /**
+     * Image is deformed and back again, so the first round has displacement
+     * gradient for the dynamic subset generator.
+     */
+    private TaskContainer generateSequenceTask(final SubsetGenerator generator, final int imageCount) throws IOException, URISyntaxException, ComputationException {
+        final List<File> input = new ArrayList<>(imageCount);
+        final File in = Paths.get(getClass().getResource("/resources/engine/in.bmp").toURI()).toFile();
+        final File out = Paths.get(getClass().getResource("/resources/engine/" + DEF_FIRST_FILES[0] + ".bmp").toURI()).toFile();
+        for (int i = 0; i < imageCount; i++) {
+            input.add(i % 2 == 0 ? in : out);
+        }
+
+        final TaskContainer tc = TaskContainer.initTaskContainer(input);
+
+        final AbstractROI roi = new RectangleROI(40, 40, 140, 140);
+
+        tc.addRoi(ROUND, roi);
+        tc.setDeformationLimits(ROUND, roi, DEF_SEQUENCE);
+
+        tc.addHint(Hint.NO_STRAIN);
+        tc.addHint(Hint.NO_STATS);
+
+        tc.setParameter(TaskParameter.IN, input.get(0));
+        tc.setParameter(TaskParameter.SUBSET_SIZE, 5);
+        tc.setParameter(TaskParameter.SUBSET_GENERATOR_METHOD, generator);
+        tc.setParameter(TaskParameter.SUBSET_GENERATOR_PARAM, 11);
+        tc.setParameter(TaskParameter.SOLVER, SolverType.BRUTE_FORCE);
+        tc.setParameter(TaskParameter.FILTER_KERNEL_SIZE, -1);
+
+        return tc;
+    }
+
+    private static int countSubsets(final Result result) {
+        int count = 0;
+        for (List<AbstractSubset> subsets : result.getSubsets().values()) {
+            count += subsets.size();
+        }
+        return count;
+    }
+
     private String computeAndCheckTask(final TaskContainer tc, final String fileName) {
         try {
             Engine.getInstance().computeTask(tc);
@@ -216,9 +361,9 @@ public class EngineTest {
     }
 
     private String checkTask(final TaskContainer tc, final String fileName) {
-        final Image img1 = tc.getImage(ROUND);
-        final Image img2 = tc.getImage(ROUND + 1);
-        double[][][] results = tc.getResult(ROUND, ROUND + 1).getDisplacementResult().getDisplacement();
+        final BufferedImage img1 = tc.getImage(ROUND).toBufferedImage();
+        final BufferedImage img2 = tc.getImage(ROUND + 1).toBufferedImage();
+        final VectorField results = tc.getResult(ROUND, ROUND + 1).getDisplacementResult().getDisplacement();
 
         // displacement map
         final Map<Integer, Map<Integer, List<Integer>>> defMap = new HashMap<>();
@@ -228,9 +373,9 @@ public class EngineTest {
         List<Integer> l;
         int newX, newY;
         int errorCount = 0;
-        for (int x = 0; x < results.length; x++) {
-            for (int y = 0; y < results[x].length; y++) {
-                def = results[x][y];
+        for (int x = 0; x < results.getWidth(); x++) {
+            for (int y = 0; y < results.getHeight(); y++) {
+                def = results.getValues(x, y);
                 if (def != null) {
                     assert (def.length == 2);
                 } else {
@@ -256,8 +401,8 @@ public class EngineTest {
 
         // check data
         int color;
-        for (int x = 0; x < results.length; x++) {
-            for (int y = 0; y < results[x].length; y++) {
+        for (int x = 0; x < results.getWidth(); x++) {
+            for (int y = 0; y < results.getHeight(); y++) {
                 color = img2.getRGB(x, y);
 
                 m = defMap.get(x);
@@ -0,0 +1,74 @@
+/* Copyright (C) LENAM, s.r.o. - All Rights Reserved
+ * Unauthorized copying of this file, via any medium is strictly prohibited
+ * Proprietary and confidential
+ * Written by Petr Jecmen <petr.jecmen@tul.cz>, 2015
+ */
+package cz.tul.dic;
+
+import cz.tul.dic.data.result.FieldSampler;
+import cz.tul.dic.data.result.VectorField;
+
+/**
+ * Compares speed of sampling with explicit checks and of the former sampling
+ * relying on caught exceptions, on the data of
+ * {@link FieldSamplerTest#testBorderHeavySampling()}. Not a part of the test
+ * suite, run manually.
+ *
+ * @author Petr Jecmen
+ */
+public final class FieldSamplerBenchmark {
+
+    private static final int SAMPLE_COUNT = 200_000;
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int PERFORMANCE_ROUNDS = 10;
+
+    private FieldSamplerBenchmark() {
+    }
+
+    public static void main(final String[] args) {
+        final double[][][] data = new double[FieldSamplerTest.WIDTH][FieldSamplerTest.HEIGHT][];
+        final double[][] quality = new double[FieldSamplerTest.WIDTH][FieldSamplerTest.HEIGHT];
+        final VectorField field = new VectorField(FieldSamplerTest.WIDTH, FieldSamplerTest.HEIGHT, 2);
+        final double[] positions = FieldSamplerTest.prepareBorderHeavyData(data, quality, field, SAMPLE_COUNT);
+
+        for (int r = 0; r < WARMUP_ROUNDS; r++) {
+            measureExceptions(data, quality, positions);
+            measureChecks(field, quality, positions);
+        }
+        System.out.println("Border heavy sampling - exceptions " + measureExceptions(data, quality, positions) + " ms, checks " + measureChecks(field, quality, positions) + " ms");
+    }
+
+    private static long measureExceptions(final double[][][] data, final double[][] quality, final double[] positions) {
+        double sum = 0;
+        final long start = System.nanoTime();
+        for (int r = 0; r < PERFORMANCE_ROUNDS; r++) {
+            for (int i = 0; i < SAMPLE_COUNT; i++) {
+                if (FieldSamplerTest.interpolateWithExceptions(positions[2 * i], positions[2 * i + 1], data) != null) {
+                    sum += FieldSamplerTest.interpolateWithExceptions(positions[2 * i], positions[2 * i + 1], quality);
+                }
+            }
+        }
+        if (Double.isInfinite(sum)) {
+            throw new IllegalStateException("Illegal sum of samples.");
+        }
+        return (System.nanoTime() - start) / PERFORMANCE_ROUNDS / 1_000_000;
+    }
+
+    private static long measureChecks(final VectorField field, final double[][] quality, final double[] positions) {
+        final double[] val = new double[2];
+        double sum = 0;
+        final long start = System.nanoTime();
+        for (int r = 0; r < PERFORMANCE_ROUNDS; r++) {
+            for (int i = 0; i < SAMPLE_COUNT; i++) {
+                if (FieldSampler.sample(field, positions[2 * i], positions[2 * i + 1], val)) {
+                    sum += FieldSampler.sample(quality, positions[2 * i], positions[2 * i + 1]);
+                }
+            }
+        }
+        if (Double.isInfinite(sum)) {
+            throw new IllegalStateException("Illegal sum of samples.");
+        }
+        return (System.nanoTime() - start) / PERFORMANCE_ROUNDS / 1_000_000;
+    }
+
+}
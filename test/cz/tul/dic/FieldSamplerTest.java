@@ -0,0 +1,198 @@
+/* Copyright (C) LENAM, s.r.o. - All Rights Reserved
+ * Unauthorized copying of this file, via any medium is strictly prohibited
+ * Proprietary and confidential
+ * Written by Petr Jecmen <petr.jecmen@tul.cz>, 2015
+ */
+package cz.tul.dic;
+
+import cz.tul.dic.data.result.FieldSampler;
+import cz.tul.dic.data.result.VectorField;
+import java.util.Random;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author Petr Jecmen
+ */
+public class FieldSamplerTest {
+
+    static final int WIDTH = 64;
+    static final int HEIGHT = 48;
+    private static final int SAMPLE_COUNT = 200_000;
+    private static final double DELTA = 1e-9;
+
+    @Test
+    public void testVectorField() {
+        final VectorField field = new VectorField(3, 2, 2);
+        field.setValues(0, 0, 0, 10);
+        field.setValues(1, 0, 1, 20);
+        field.setValues(0, 1, 2, 30);
+        field.setValues(1, 1, 3, 40);
+        field.setValues(2, 1, 5, 50);
+
+        final double[] val = new double[2];
+        assertTrue(FieldSampler.sample(field, 0.5, 0.5, val));
+        assertArrayEquals(new double[]{1.5, 25}, val, DELTA);
+        // last line and column use only neighbours inside the field
+        assertTrue(FieldSampler.sample(field, 1.5, 1, val));
+        assertArrayEquals(new double[]{4, 45}, val, DELTA);
+        // neighbour without value
+        assertFalse(FieldSampler.sample(field, 1.5, 0.5, val));
+        assertFalse(FieldSampler.sample(field, 2, 0, val));
+        // outside of the field
+        assertFalse(FieldSampler.sample(field, 3.5, 0, val));
+        assertFalse(FieldSampler.sample(field, 0, 2, val));
+        assertFalse(FieldSampler.sample(field, -1.5, 0, val));
+        assertArrayEquals(new double[]{4, 45}, val, DELTA);
+    }
+
+    @Test
+    public void testArray() {
+        final double[][] data = new double[][]{{1, 2}, {3, Double.NaN}};
+        // values which are not finite are left out
+        assertEquals(1.5, FieldSampler.sample(data, 0.5, 0.5), DELTA);
+        assertEquals(1, FieldSampler.sample(data, 0.5, 1), DELTA);
+        assertEquals(3, FieldSampler.sample(data, 1, 0), DELTA);
+        assertTrue(Double.isNaN(FieldSampler.sample(data, 2, 0)));
+        assertTrue(Double.isNaN(FieldSampler.sample(data, 0, 2.5)));
+        assertTrue(Double.isNaN(FieldSampler.sample(data, -1.5, 0)));
+        assertTrue(Double.isNaN(FieldSampler.sample(null, 0, 0)));
+        assertTrue(Double.isNaN(FieldSampler.sample(new double[][]{null}, 0, 0)));
+    }
+
+    @Test
+    public void testColumn() {
+        final double[][] data = new double[][]{{0, 10, Double.NaN}};
+        assertEquals(2.5, FieldSampler.sampleColumn(data, 0, 0.25), DELTA);
+        assertEquals(10, FieldSampler.sampleColumn(data, 0, 1), DELTA);
+        assertTrue(Double.isNaN(FieldSampler.sampleColumn(data, 0, 1.5)));
+        assertTrue(Double.isNaN(FieldSampler.sampleColumn(data, 0, 2)));
+        assertTrue(Double.isNaN(FieldSampler.sampleColumn(data, 0, 2.5)));
+        assertTrue(Double.isNaN(FieldSampler.sampleColumn(data, 1, 0)));
+    }
+
+    @Test
+    public void testLastValidLine() {
+        final VectorField field = new VectorField(4, 5, 2);
+        assertEquals(-1, FieldSampler.findLastValidLine(field));
+        field.setValues(3, 0, 1, 1);
+        assertEquals(0, FieldSampler.findLastValidLine(field));
+        field.setValues(0, 3, 1, 1);
+        assertEquals(3, FieldSampler.findLastValidLine(field));
+    }
+
+    /**
+     * Compares sampling with explicit checks against the former sampling
+     * relying on caught exceptions, with most of the positions at borders of
+     * the field or outside of it.
+     */
+    @Test
+    public void testBorderHeavySampling() {
+        final double[][][] data = new double[WIDTH][HEIGHT][];
+        final double[][] quality = new double[WIDTH][HEIGHT];
+        final VectorField field = new VectorField(WIDTH, HEIGHT, 2);
+        final double[] positions = prepareBorderHeavyData(data, quality, field, SAMPLE_COUNT);
+
+        final double[] val = new double[2];
+        double[] expected;
+        boolean valid;
+        for (int i = 0; i < SAMPLE_COUNT; i++) {
+            expected = interpolateWithExceptions(positions[2 * i], positions[2 * i + 1], data);
+            valid = FieldSampler.sample(field, positions[2 * i], positions[2 * i + 1], val);
+            assertEquals(expected != null, valid);
+            if (valid) {
+                assertArrayEquals(expected, val, DELTA);
+            }
+            assertEquals(
+                    interpolateWithExceptions(positions[2 * i], positions[2 * i + 1], quality),
+                    FieldSampler.sample(quality, positions[2 * i], positions[2 * i + 1]), DELTA);
+        }
+    }
+
+    /**
+     * Fills the field with random values and a band without results inside
+     * it, most of the generated positions lie at the bottom border.
+     *
+     * @param data values of the field, [WIDTH][HEIGHT] array
+     * @param quality quality of the values, [WIDTH][HEIGHT] array
+     * @param field field of WIDTH x HEIGHT size
+     * @param sampleCount count of generated positions
+     * @return positions [x0, y0, x1, y1, ...]
+     */
+    static double[] prepareBorderHeavyData(final double[][][] data, final double[][] quality, final VectorField field, final int sampleCount) {
+        final Random rnd = new Random(3);
+        for (int x = 0; x < WIDTH; x++) {
+            for (int y = 0; y < HEIGHT; y++) {
+                quality[x][y] = rnd.nextDouble();
+                // band without results inside the field
+                if (x % 16 > 12) {
+                    quality[x][y] = Double.NaN;
+                    continue;
+                }
+                data[x][y] = new double[]{rnd.nextDouble() * 4 - 2, rnd.nextDouble() * 4 - 2};
+                field.setValues(x, y, data[x][y]);
+            }
+        }
+
+        final double[] positions = new double[2 * sampleCount];
+        for (int i = 0; i < sampleCount; i++) {
+            positions[2 * i] = rnd.nextDouble() * (WIDTH + 8) - 4;
+            positions[2 * i + 1] = rnd.nextBoolean() ? HEIGHT - 2 + rnd.nextDouble() * 4 : rnd.nextDouble() * HEIGHT;
+        }
+        return positions;
+    }
+
+    static double[] interpolateWithExceptions(final double x, final double y, final double[][][] data) {
+        final double[] result = new double[2];
+        final int intX = (int) x;
+        final double dX = x - intX;
+        final int intY = (int) y;
+        final double dY = y - intY;
+        try {
+            for (int dim = 0; dim < result.length; dim++) {
+                result[dim] += data[intX][intY][dim] * (1 - dX) * (1 - dY);
+                if (intX < data.length - 1) {
+                    result[dim] += data[intX + 1][intY][dim] * dX * (1 - dY);
+                    if (intY < data[intX].length - 1) {
+                        result[dim] += data[intX + 1][intY + 1][dim] * dX * dY;
+                    }
+                }
+                if (intY < data[intX].length - 1) {
+                    result[dim] += data[intX][intY + 1][dim] * (1 - dX) * dY;
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | NullPointerException ex) {
+            return null;
+        }
+        return result;
+    }
+
+    static double interpolateWithExceptions(final double x, final double y, final double[][] data) {
+        final int intX = (int) x;
+        final double dX = x - intX;
+        final int intY = (int) y;
+        final double dY = y - intY;
+        double result = 0;
+        try {
+            result += finiteValue(data[intX][intY]) * (1 - dX) * (1 - dY);
+            if (intX < data.length - 1) {
+                result += finiteValue(data[intX + 1][intY]) * dX * (1 - dY);
+                if (intY < data[intX].length - 1) {
+                    result += finiteValue(data[intX + 1][intY + 1]) * dX * dY;
+                }
+            }
+            if (intY < data[intX].length - 1) {
+                result += finiteValue(data[intX][intY + 1]) * (1 - dX) * dY;
+            }
+        } catch (ArrayIndexOutOfBoundsException | NullPointerException ex) {
+            return Double.NaN;
+        }
+        return result;
+    }
+
+    private static double finiteValue(final double val) {
+        return Double.isFinite(val) ? val : 0;
+    }
+
+}
@@ -0,0 +1,122 @@
+/* Copyright (C) LENAM, s.r.o. - All Rights Reserved
+ * Unauthorized copying of this file, via any medium is strictly prohibited
+ * Proprietary and confidential
+ * Written by Petr Jecmen <petr.jecmen@tul.cz>, 2015
+ */
+package cz.tul.dic;
+
+import cz.tul.dic.data.AviReader;
+import cz.tul.dic.data.FrameStore;
+import cz.tul.dic.data.ImageCache;
+import cz.tul.dic.data.ImageSource;
+import cz.tul.dic.data.task.TaskContainer;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Petr Jecmen
+ */
+public class FrameStoreTest {
+
+    @Test
+    public void testStoreReuse() throws IOException, URISyntaxException {
+        final File dir = Files.createTempDirectory("frameStore").toFile();
+        final File video = new File(dir, "image.avi");
+        Files.copy(Paths.get(getClass().getResource("/resources/input/image.avi").toURI()), video.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        final AviReader reader = new AviReader(video);
+        final byte[][] frames = new byte[reader.getImageCount()][];
+        for (int i = 0; i < frames.length; i++) {
+            frames[i] = reader.loadImage(i).toBWArray();
+        }
+
+        final ImageSource first = FrameStore.open(video);
+        assertTrue(first instanceof FrameStore);
+        assertEquals(frames.length, first.getImageCount());
+        for (int i = 0; i < frames.length; i++) {
+            assertArrayEquals(frames[i], first.loadImage(i).toBWArray());
+        }
+
+        final File store = new File(Utils.getTempDir(video), "image.avi.frames");
+        assertTrue(store.isFile());
+
+        // change end of last frame (outside of checksum) without changing
+        // size and modification time, frames must be read from the store
+        final byte[] content = Files.readAllBytes(video.toPath());
+        final long modified = video.lastModified();
+        final int frameSize = reader.getWidth() * reader.getHeight() * 3;
+        final int lastFrame = findLastFrame(content, frameSize);
+        for (int i = frameSize - 300; i < frameSize; i++) {
+            content[lastFrame + i] += 50;
+        }
+        Files.write(video.toPath(), content);
+        assertTrue(video.setLastModified(modified));
+
+        final int last = frames.length - 1;
+        final ImageSource second = FrameStore.open(video);
+        assertEquals(frames.length, second.getImageCount());
+        for (int i = last; i >= 0; i--) {
+            assertArrayEquals(frames[i], second.loadImage(i).toBWArray());
+        }
+
+        // changed modification time invalidates the store
+        assertTrue(video.setLastModified(modified + 2000));
+        final ImageSource third = FrameStore.open(video);
+        assertArrayEquals(new AviReader(video).loadImage(last).toBWArray(), third.loadImage(last).toBWArray());
+        assertFalse(Arrays.equals(frames[last], third.loadImage(last).toBWArray()));
+    }
+
+    @Test
+    public void testMovedVideo() throws IOException, URISyntaxException, ClassNotFoundException {
+        final File dir = Files.createTempDirectory("frameStore").toFile();
+        final File video = new File(dir, "moved.avi");
+        Files.copy(Paths.get(getClass().getResource("/resources/input/image.avi").toURI()), video.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        final TaskContainer task = new TaskContainer();
+        final List<File> input = Collections.singletonList(video);
+        task.setInput(input, ImageCache.createCache(input, Long.MAX_VALUE));
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(task);
+        }
+        assertTrue(video.delete());
+
+        // task is loaded, video is required only when its images are used
+        final TaskContainer loaded;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            loaded = (TaskContainer) in.readObject();
+        }
+        assertEquals(input, loaded.getInput());
+        assertTrue(loaded.getImages().isEmpty());
+        assertNull(loaded.getImage(0));
+    }
+
+    private static int findLastFrame(final byte[] content, final int frameSize) {
+        final byte[] id = "00db".getBytes(StandardCharsets.US_ASCII);
+        for (int i = content.length - id.length; i >= 0; i--) {
+            // index entries contain the chunk ids too, frame chunk is followed by its size
+            if (content[i] == id[0] && content[i + 1] == id[1] && content[i + 2] == id[2] && content[i + 3] == id[3]
+                    && ByteBuffer.wrap(content, i + 4, 4).order(ByteOrder.LITTLE_ENDIAN).getInt() == frameSize) {
+                return i + 8;
+            }
+        }
+        throw new IllegalArgumentException("No frame found.");
+    }
+
+}
@@ -0,0 +1,107 @@
+/* Copyright (C) LENAM, s.r.o. - All Rights Reserved
+ * Unauthorized copying of this file, via any medium is strictly prohibited
+ * Proprietary and confidential
+ * Written by Petr Jecmen <petr.jecmen@tul.cz>, 2015
+ */
+package cz.tul.dic;
+
+import cz.tul.dic.data.Image;
+import java.util.Arrays;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Petr Jecmen
+ */
+public class ImageFilterTest {
+
+    private static final int WIDTH = 97;
+    private static final int HEIGHT = 41;
+
+    @Test
+    public void testUniformImage() {
+        final byte[] data = new byte[WIDTH * HEIGHT];
+        Arrays.fill(data, (byte) 200);
+        final Image img = Image.createImage(WIDTH, HEIGHT, data, null);
+        img.filter(7);
+        assertArrayEquals(data, img.toFiltered());
+    }
+
+    @Test
+    public void testImpulse() {
+        final int cx = 60, cy = 10;
+        final byte[] data = new byte[WIDTH * HEIGHT];
+        data[cy * WIDTH + cx] = (byte) 255;
+        final Image img = Image.createImage(WIDTH, HEIGHT, data, null);
+        img.filter(5);
+
+        final byte[] filtered = img.toFiltered();
+        int sum = 0;
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                final int val = filtered[y * WIDTH + x] & 0xff;
+                if (Math.abs(x - cx) > 2 || Math.abs(y - cy) > 2) {
+                    assertEquals(0, val);
+                }
+                sum += val;
+            }
+        }
+        // response is symmetric around the impulse
+        for (int d = 1; d <= 2; d++) {
+            assertEquals(filtered[cy * WIDTH + cx - d], filtered[cy * WIDTH + cx + d]);
+            assertEquals(filtered[(cy - d) * WIDTH + cx], filtered[(cy + d) * WIDTH + cx]);
+            assertEquals(filtered[cy * WIDTH + cx + d], filtered[(cy + d) * WIDTH + cx]);
+        }
+        assertTrue((filtered[cy * WIDTH + cx] & 0xff) > (filtered[cy * WIDTH + cx + 1] & 0xff));
+        assertEquals(255, sum, 15);
+    }
+
+    @Test
+    public void testOpenCvImpulseResponse() {
+        // GaussianBlur(impulse, size, 0) output of OpenCV
+        assertImpulseResponse(3, new int[][]{
+            {16, 32, 16},
+            {32, 64, 32},
+            {16, 32, 16}});
+        assertImpulseResponse(5, new int[][]{
+            {1, 4, 6, 4, 1},
+            {4, 16, 24, 16, 4},
+            {6, 24, 36, 24, 6},
+            {4, 16, 24, 16, 4},
+            {1, 4, 6, 4, 1}});
+    }
+
+    private static void assertImpulseResponse(final int size, final int[][] expected) {
+        final int cx = 30, cy = 20, radius = size / 2;
+        final byte[] data = new byte[WIDTH * HEIGHT];
+        data[cy * WIDTH + cx] = (byte) 255;
+        final Image img = Image.createImage(WIDTH, HEIGHT, data, null);
+        img.filter(size);
+
+        final byte[] filtered = img.toFiltered();
+        for (int y = -radius; y <= radius; y++) {
+            for (int x = -radius; x <= radius; x++) {
+                assertEquals(expected[y + radius][x + radius], filtered[(cy + y) * WIDTH + cx + x] & 0xff);
+            }
+        }
+    }
+
+    @Test
+    public void testFilterResultReuse() {
+        final byte[] data = new byte[WIDTH * HEIGHT];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i * 31);
+        }
+        final Image img = Image.createImage(WIDTH, HEIGHT, data, null);
+        img.filter(4);
+        final byte[] filtered = img.toFiltered();
+        img.filter(5);
+        assertSame(filtered, img.toFiltered());
+        img.filter(3);
+        assertNotSame(filtered, img.toFiltered());
+        img.filter(0);
+        assertSame(data, img.toFiltered());
+    }
+
+}
@@ -0,0 +1,42 @@
+/* Copyright (C) LENAM, s.r.o. - All Rights Reserved
+ * Unauthorized copying of this file, via any medium is strictly prohibited
+ * Proprietary and confidential
+ * Written by Petr Jecmen <petr.jecmen@tul.cz>, 2015
+ */
+package cz.tul.dic;
+
+import cz.tul.dic.data.Image;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author Petr Jecmen
+ */
+public class ImageTest {
+
+    @Test
+    public void testGrayImage() {
+        final BufferedImage gray = new BufferedImage(16, 16, BufferedImage.TYPE_BYTE_GRAY);
+        final byte[] raw = ((DataBufferByte) gray.getRaster().getDataBuffer()).getData();
+        for (int i = 0; i < raw.length; i++) {
+            raw[i] = (byte) i;
+        }
+
+        // gray values are read in sRGB like from any other image type
+        final BufferedImage rgb = new BufferedImage(16, 16, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < 16; y++) {
+            for (int x = 0; x < 16; x++) {
+                rgb.setRGB(x, y, gray.getRGB(x, y));
+            }
+        }
+
+        final byte[] expected = Image.createImage(rgb).toBWArray();
+        final byte[] actual = Image.createImage(gray).toBWArray();
+        assertArrayEquals(expected, actual);
+        assertEquals(188, actual[128] & 0xff);
+    }
+
+}
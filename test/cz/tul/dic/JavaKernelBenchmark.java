@@ -0,0 +1,69 @@
+/* Copyright (C) LENAM, s.r.o. - All Rights Reserved
+ * Unauthorized copying of this file, via any medium is strictly prohibited
+ * Proprietary and confidential
+ * Written by Petr Jecmen <petr.jecmen@tul.cz>, 2015
+ */
+package cz.tul.dic;
+
+import cz.tul.dic.data.Image;
+import cz.tul.dic.data.deformation.DeformationOrder;
+import cz.tul.dic.data.subset.AbstractSubset;
+import cz.tul.dic.data.task.ComputationTask;
+import cz.tul.dic.engine.AbstractKernel;
+import cz.tul.dic.engine.KernelInfo;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Compares throughput of {@link cz.tul.dic.engine.java.JavaKernel} and
+ * {@link cz.tul.dic.engine.java.JavaFloatKernel} on the data of
+ * {@link JavaKernelTest}. Not a part of the test suite, run manually.
+ *
+ * @author Petr Jecmen
+ */
+public final class JavaKernelBenchmark {
+
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int PERFORMANCE_ROUNDS = 10;
+    private static final KernelInfo.Type[] TYPES = new KernelInfo.Type[]{KernelInfo.Type.JavaKernel, KernelInfo.Type.JavaFloatKernel};
+
+    private JavaKernelBenchmark() {
+    }
+
+    public static void main(final String[] args) throws ComputationException {
+        final Image[] images = JavaKernelTest.generateImages();
+        final List<AbstractSubset> subsets = JavaKernelTest.generateSubsets();
+
+        measureOrder(images, subsets, JavaKernelTest.DEF_LIMITS, DeformationOrder.ZERO);
+        measureOrder(images, subsets, JavaKernelTest.DEF_LIMITS_FIRST, DeformationOrder.FIRST);
+    }
+
+    private static void measureOrder(final Image[] images, final List<AbstractSubset> subsets, final double[] limits, final DeformationOrder order) throws ComputationException {
+        final List<double[]> deformations = new ArrayList<>(Collections.nCopies(subsets.size(), limits));
+        final ComputationTask task = new ComputationTask(images[0], images[1], subsets, null, deformations, order, true);
+
+        final StringBuilder sb = new StringBuilder(order.toString());
+        for (KernelInfo.Type type : TYPES) {
+            final AbstractKernel<?> kernel = JavaKernelTest.prepareKernel(type, KernelInfo.Correlation.ZNCC, order, true);
+            sb.append(" - ").append(type).append(' ').append(measure(kernel, task)).append(" ms");
+        }
+        System.out.println(sb.toString());
+    }
+
+    private static long measure(final AbstractKernel<?> kernel, final ComputationTask task) throws ComputationException {
+        for (int r = 0; r < WARMUP_ROUNDS; r++) {
+            kernel.computeRaw(task);
+        }
+        double sum = 0;
+        final long start = System.nanoTime();
+        for (int r = 0; r < PERFORMANCE_ROUNDS; r++) {
+            sum += kernel.computeRaw(task)[0];
+        }
+        if (Double.isNaN(sum)) {
+            throw new IllegalStateException("Illegal correlation result.");
+        }
+        return (System.nanoTime() - start) / PERFORMANCE_ROUNDS / 1_000_000;
+    }
+
+}
@@ -0,0 +1,341 @@
+/* Copyright (C) LENAM, s.r.o. - All Rights Reserved
+ * Unauthorized copying of this file, via any medium is strictly prohibited
+ * Proprietary and confidential
+ * Written by Petr Jecmen <petr.jecmen@tul.cz>, 2015
+ */
+package cz.tul.dic;
+
+import cz.tul.dic.data.Image;
+import cz.tul.dic.data.Interpolation;
+import cz.tul.dic.data.deformation.DeformationOrder;
+import cz.tul.dic.data.result.CorrelationResult;
+import cz.tul.dic.data.subset.AbstractSubset;
+import cz.tul.dic.data.subset.SquareSubset2D;
+import cz.tul.dic.data.task.ComputationTask;
+import cz.tul.dic.engine.AbstractKernel;
+import cz.tul.dic.engine.DeviceType;
+import cz.tul.dic.engine.KernelInfo;
+import cz.tul.dic.engine.java.JavaKernel;
+import cz.tul.dic.engine.platform.Platform;
+import cz.tul.dic.engine.platform.PlatformManager;
+import cz.tul.dic.engine.platform.PlatformType;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author Petr Jecmen
+ */
+public class JavaKernelTest {
+
+    private static final int IMAGE_SIZE = 128;
+    private static final int SUBSET_SIZE = 7;
+    private static final int SHIFT_X = 3;
+    private static final int SHIFT_Y = -2;
+    static final double[] DEF_LIMITS = new double[]{-5, 5, 1, -5, 5, 1};
+    static final double[] DEF_LIMITS_FIRST = new double[]{
+        1, 4, 1, -3, 0, 1,
+        -0.1, 0.1, 0.1, -0.1, 0.1, 0.1, -0.1, 0.1, 0.1, -0.1, 0.1, 0.1};
+    private static final double DELTA = 0.01;
+    // JavaKernel truncates interpolated intensities to integers
+    private static final double DELTA_PARITY = 0.05;
+
+    @Test
+    public void testFloatKernelParityZeroOrder() throws ComputationException {
+        testParity(DEF_LIMITS, DeformationOrder.ZERO);
+    }
+
+    @Test
+    public void testFloatKernelParityFirstOrder() throws ComputationException {
+        testParity(DEF_LIMITS_FIRST, DeformationOrder.FIRST);
+    }
+
+    @Test
+    public void testFloatKernelValues() throws ComputationException {
+        final Image[] images = generateImages();
+        final List<AbstractSubset> subsets = generateSubsets();
+        final double[] values = new double[]{0, 0, SHIFT_X, SHIFT_Y, -SHIFT_X, -SHIFT_Y};
+        final List<double[]> deformations = new ArrayList<>(Collections.nCopies(subsets.size(), values));
+
+        final AbstractKernel kernel = prepareKernel(KernelInfo.Type.JavaFloatKernel, KernelInfo.Correlation.ZNCC, DeformationOrder.ZERO, false);
+        final List<CorrelationResult> results = kernel.computeFindBest(new ComputationTask(images[0], images[1], subsets, null, deformations, DeformationOrder.ZERO, false));
+        for (CorrelationResult result : results) {
+            Assert.assertArrayEquals(new double[]{SHIFT_X, SHIFT_Y}, result.getDeformation(), DELTA);
+        }
+    }
+
+    @Test
+    public void testFloatKernelZnssd() throws ComputationException {
+        final Image[] images = generateImages();
+        final List<AbstractSubset> subsets = generateSubsets();
+        final List<double[]> deformations = new ArrayList<>(Collections.nCopies(subsets.size(), DEF_LIMITS));
+
+        final AbstractKernel kernel = prepareKernel(KernelInfo.Type.JavaFloatKernel, KernelInfo.Correlation.ZNSSD, DeformationOrder.ZERO, true);
+        final List<CorrelationResult> results = kernel.computeFindBest(new ComputationTask(images[0], images[1], subsets, null, deformations, DeformationOrder.ZERO, true));
+        for (CorrelationResult result : results) {
+            Assert.assertArrayEquals(new double[]{SHIFT_X, SHIFT_Y}, result.getDeformation(), DELTA);
+            Assert.assertEquals(1, result.getQuality(), DELTA);
+        }
+    }
+
+    @Test
+    public void testJavaKernelCriteria() throws ComputationException {
+        final Image[] images = generateImages();
+        final List<AbstractSubset> subsets = generateSubsets();
+        final List<Integer> weights = new ArrayList<>(Collections.nCopies(subsets.size(), SUBSET_SIZE));
+        final List<double[]> limits = new ArrayList<>(Collections.nCopies(subsets.size(), DEF_LIMITS));
+        final List<double[]> values = new ArrayList<>(Collections.nCopies(subsets.size(), new double[]{0, 0, SHIFT_X, SHIFT_Y, -SHIFT_X, -SHIFT_Y}));
+
+        for (KernelInfo.Correlation correlation : new KernelInfo.Correlation[]{KernelInfo.Correlation.ZNCC, KernelInfo.Correlation.ZNSSD, KernelInfo.Correlation.WZNSSD}) {
+            for (Interpolation interpolation : Interpolation.values()) {
+                AbstractKernel kernel = prepareKernel(KernelInfo.Type.JavaKernel, correlation, DeformationOrder.ZERO, true, interpolation);
+                checkShift(kernel.computeFindBest(new ComputationTask(images[0], images[1], subsets, weights, limits, DeformationOrder.ZERO, true)));
+
+                kernel = prepareKernel(KernelInfo.Type.JavaKernel, correlation, DeformationOrder.ZERO, false, interpolation);
+                checkShift(kernel.computeFindBest(new ComputationTask(images[0], images[1], subsets, weights, values, DeformationOrder.ZERO, false)));
+            }
+        }
+    }
+
+    @Test
+    public void testFloatKernelBicubic() throws ComputationException {
+        final Image[] images = generateImages();
+        final List<AbstractSubset> subsets = generateSubsets();
+        final List<double[]> deformations = new ArrayList<>(Collections.nCopies(subsets.size(), DEF_LIMITS_FIRST));
+        final ComputationTask task = new ComputationTask(images[0], images[1], subsets, null, deformations, DeformationOrder.FIRST, true);
+
+        final double[] expected = prepareKernel(KernelInfo.Type.JavaKernel, KernelInfo.Correlation.ZNCC, DeformationOrder.FIRST, true, Interpolation.BICUBIC).computeRaw(task);
+        final double[] actual = prepareKernel(KernelInfo.Type.JavaFloatKernel, KernelInfo.Correlation.ZNCC, DeformationOrder.FIRST, true, Interpolation.BICUBIC).computeRaw(task);
+        Assert.assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            Assert.assertEquals(expected[i], actual[i], DELTA_PARITY);
+        }
+    }
+
+    @Test
+    public void testBorderInterpolation() throws ComputationException {
+        // image A is image B shifted by (2, 1) with the border of B repeated
+        final Random rnd = new Random(11);
+        final int[][] speckles = new int[IMAGE_SIZE][IMAGE_SIZE];
+        final BufferedImage imageB = new BufferedImage(IMAGE_SIZE, IMAGE_SIZE, BufferedImage.TYPE_INT_RGB);
+        for (int x = 0; x < IMAGE_SIZE; x++) {
+            for (int y = 0; y < IMAGE_SIZE; y++) {
+                speckles[x][y] = rnd.nextInt(128);
+                imageB.setRGB(x, y, toGray(speckles[x][y]));
+            }
+        }
+        final BufferedImage imageA = new BufferedImage(IMAGE_SIZE, IMAGE_SIZE, BufferedImage.TYPE_INT_RGB);
+        for (int x = 0; x < IMAGE_SIZE; x++) {
+            for (int y = 0; y < IMAGE_SIZE; y++) {
+                imageA.setRGB(x, y, toGray(speckles[Math.min(x + 2, IMAGE_SIZE - 1)][Math.min(y + 1, IMAGE_SIZE - 1)]));
+            }
+        }
+
+        // subsets along right and bottom border, deformed subsets leave the image
+        final List<AbstractSubset> subsets = new ArrayList<>();
+        final int last = IMAGE_SIZE - 1 - SUBSET_SIZE;
+        for (int i = SUBSET_SIZE; i < IMAGE_SIZE - SUBSET_SIZE; i += SUBSET_SIZE) {
+            subsets.add(new SquareSubset2D(SUBSET_SIZE, last, i));
+            subsets.add(new SquareSubset2D(SUBSET_SIZE, i, last));
+        }
+        final List<double[]> deformations = new ArrayList<>(Collections.nCopies(subsets.size(), DEF_LIMITS));
+        final ComputationTask task = new ComputationTask(Image.createImage(imageA), Image.createImage(imageB), subsets, null, deformations, DeformationOrder.ZERO, true);
+
+        for (KernelInfo.Type type : new KernelInfo.Type[]{KernelInfo.Type.JavaKernel, KernelInfo.Type.JavaFloatKernel}) {
+            for (Interpolation interpolation : Interpolation.values()) {
+                final List<CorrelationResult> results = prepareKernel(type, KernelInfo.Correlation.ZNCC, DeformationOrder.ZERO, true, interpolation).computeFindBest(task);
+                for (CorrelationResult result : results) {
+                    Assert.assertArrayEquals(new double[]{2, 1}, result.getDeformation(), DELTA);
+                    Assert.assertEquals(1, result.getQuality(), DELTA);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testStopComputation() throws ComputationException, InterruptedException {
+        final Image[] images = generateImages();
+        final List<AbstractSubset> subsets = generateSubsets();
+        final List<double[]> deformations = new ArrayList<>(Collections.nCopies(subsets.size(), DEF_LIMITS_FIRST));
+        final ComputationTask task = new ComputationTask(images[0], images[1], subsets, null, deformations, DeformationOrder.FIRST, true);
+        final AbstractKernel kernel = prepareKernel(KernelInfo.Type.JavaKernel, KernelInfo.Correlation.ZNCC, DeformationOrder.FIRST, true);
+
+        final double[][] result = new double[1][];
+        stopWhileRunning(kernel, () -> result[0] = kernel.computeRaw(task));
+
+        // computation ended early, some subsets have no results
+        final int deformationCount = result[0].length / subsets.size();
+        boolean skipped = false;
+        for (int i = 0; i < subsets.size() && !skipped; i++) {
+            skipped = true;
+            for (int j = 0; j < deformationCount; j++) {
+                if (result[0][i * deformationCount + j] != 0) {
+                    skipped = false;
+                    break;
+                }
+            }
+        }
+        Assert.assertTrue(skipped);
+
+        // subsets without results are marked when searching for best results
+        final List<List<CorrelationResult>> best = new ArrayList<>(1);
+        stopWhileRunning(kernel, () -> best.add(kernel.computeFindBest(task)));
+        Assert.assertEquals(subsets.size(), best.get(0).size());
+        boolean missing = false;
+        for (CorrelationResult cr : best.get(0)) {
+            if (cr.getDeformation() == null) {
+                Assert.assertEquals(-1, cr.getQuality(), 0);
+                missing = true;
+            }
+        }
+        Assert.assertTrue(missing);
+
+        // kernel stays usable after stop
+        checkShift(kernel.computeFindBest(task));
+    }
+
+    /**
+     * Runs the computation in another thread and repeats the stop until the
+     * computation ends, it may not have started yet.
+     */
+    private static void stopWhileRunning(final AbstractKernel<?> kernel, final KernelComputation computation) throws InterruptedException {
+        final Thread thread = new Thread(() -> {
+            try {
+                computation.compute();
+            } catch (ComputationException ex) {
+                Assert.fail(ex.getLocalizedMessage());
+            }
+        });
+        thread.start();
+        while (thread.isAlive()) {
+            kernel.stopComputation();
+            thread.join(1);
+        }
+    }
+
+    @FunctionalInterface
+    private interface KernelComputation {
+
+        void compute() throws ComputationException;
+    }
+
+    @Test
+    public void testVectorKernel() throws ComputationException {
+        final AbstractKernel kernel = prepareKernel(KernelInfo.Type.JavaVectorKernel, KernelInfo.Correlation.ZNCC, DeformationOrder.FIRST, true);
+        if (!KernelInfo.Type.JavaVectorKernel.isAvailable()) {
+            // jdk.incubator.vector module missing
+            Assert.assertEquals(JavaKernel.class, kernel.getClass());
+            return;
+        }
+
+        testParity(DEF_LIMITS_FIRST, DeformationOrder.FIRST, KernelInfo.Type.JavaFloatKernel, KernelInfo.Type.JavaVectorKernel, DELTA);
+        final Image[] images = generateImages();
+        final List<AbstractSubset> subsets = generateSubsets();
+        final List<double[]> deformations = new ArrayList<>(Collections.nCopies(subsets.size(), DEF_LIMITS));
+        final AbstractKernel znssd = prepareKernel(KernelInfo.Type.JavaVectorKernel, KernelInfo.Correlation.ZNSSD, DeformationOrder.ZERO, true);
+        final List<CorrelationResult> results = znssd.computeFindBest(new ComputationTask(images[0], images[1], subsets, null, deformations, DeformationOrder.ZERO, true));
+        for (CorrelationResult result : results) {
+            Assert.assertArrayEquals(new double[]{SHIFT_X, SHIFT_Y}, result.getDeformation(), DELTA);
+            Assert.assertEquals(1, result.getQuality(), DELTA);
+        }
+    }
+
+    private void testParity(final double[] limits, final DeformationOrder order) throws ComputationException {
+        testParity(limits, order, KernelInfo.Type.JavaKernel, KernelInfo.Type.JavaFloatKernel, DELTA_PARITY);
+    }
+
+    private void testParity(final double[] limits, final DeformationOrder order, final KernelInfo.Type referenceType, final KernelInfo.Type testedType, final double delta) throws ComputationException {
+        final Image[] images = generateImages();
+        final List<AbstractSubset> subsets = generateSubsets();
+        final List<double[]> deformations = new ArrayList<>(Collections.nCopies(subsets.size(), limits));
+        final ComputationTask task = new ComputationTask(images[0], images[1], subsets, null, deformations, order, true);
+
+        final AbstractKernel reference = prepareKernel(referenceType, KernelInfo.Correlation.ZNCC, order, true);
+        final AbstractKernel tested = prepareKernel(testedType, KernelInfo.Correlation.ZNCC, order, true);
+
+        final double[] expected = reference.computeRaw(task);
+        final double[] actual = tested.computeRaw(task);
+        Assert.assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            Assert.assertEquals(expected[i], actual[i], delta);
+        }
+
+        final List<CorrelationResult> expectedBest = reference.computeFindBest(task);
+        final List<CorrelationResult> actualBest = tested.computeFindBest(task);
+        final int deformationCount = expected.length / subsets.size();
+        double max;
+        for (int i = 0; i < expectedBest.size(); i++) {
+            Assert.assertArrayEquals(expectedBest.get(i).getDeformation(), actualBest.get(i).getDeformation(), DELTA);
+            // streamed best value matches maximum of raw results
+            max = -Double.MAX_VALUE;
+            for (int j = 0; j < deformationCount; j++) {
+                max = Math.max(max, actual[i * deformationCount + j]);
+            }
+            Assert.assertEquals(max, actualBest.get(i).getQuality(), 0);
+        }
+    }
+
+    private static void checkShift(final List<CorrelationResult> results) {
+        for (CorrelationResult result : results) {
+            Assert.assertArrayEquals(new double[]{SHIFT_X, SHIFT_Y}, Arrays.copyOf(result.getDeformation(), 2), DELTA);
+            Assert.assertEquals(1, result.getQuality(), DELTA);
+        }
+    }
+
+    static AbstractKernel prepareKernel(final KernelInfo.Type type, final KernelInfo.Correlation correlation, final DeformationOrder order, final boolean usesLimits) throws ComputationException {
+        return prepareKernel(type, correlation, order, usesLimits, Interpolation.BILINEAR);
+    }
+
+    static AbstractKernel prepareKernel(final KernelInfo.Type type, final KernelInfo.Correlation correlation, final DeformationOrder order, final boolean usesLimits, final Interpolation interpolation) throws ComputationException {
+        final KernelInfo kernelInfo = new KernelInfo(type, KernelInfo.Input.ARRAY, correlation, KernelInfo.MemoryCoalescing.NO, usesLimits ? KernelInfo.UseLimits.YES : KernelInfo.UseLimits.NO);
+        final Platform platform = PlatformManager.getInstance().initPlatform(PlatformType.JAVA, DeviceType.CPU, kernelInfo);
+        final AbstractKernel kernel = AbstractKernel.createInstance(platform);
+        kernel.prepareKernel(SUBSET_SIZE, order, usesLimits, interpolation);
+        return kernel;
+    }
+
+    static Image[] generateImages() {
+        // intensities limited to 0 - 127, so signed and unsigned byte representations match
+        final Random rnd = new Random(42);
+        final int size = IMAGE_SIZE + 2 * Math.max(Math.abs(SHIFT_X), Math.abs(SHIFT_Y));
+        final int[][] speckles = new int[size][size];
+        for (int x = 0; x < size; x++) {
+            for (int y = 0; y < size; y++) {
+                speckles[x][y] = rnd.nextInt(128);
+            }
+        }
+
+        final int offset = (size - IMAGE_SIZE) / 2;
+        final BufferedImage imageA = new BufferedImage(IMAGE_SIZE, IMAGE_SIZE, BufferedImage.TYPE_INT_RGB);
+        final BufferedImage imageB = new BufferedImage(IMAGE_SIZE, IMAGE_SIZE, BufferedImage.TYPE_INT_RGB);
+        for (int x = 0; x < IMAGE_SIZE; x++) {
+            for (int y = 0; y < IMAGE_SIZE; y++) {
+                imageA.setRGB(x, y, toGray(speckles[x + offset][y + offset]));
+                imageB.setRGB(x, y, toGray(speckles[x + offset - SHIFT_X][y + offset - SHIFT_Y]));
+            }
+        }
+        return new Image[]{Image.createImage(imageA), Image.createImage(imageB)};
+    }
+
+    private static int toGray(final int val) {
+        return (val << 16) | (val << 8) | val;
+    }
+
+    static List<AbstractSubset> generateSubsets() {
+        final List<AbstractSubset> result = new ArrayList<>();
+        final int border = SUBSET_SIZE + 8;
+        for (int x = border; x < IMAGE_SIZE - border; x += SUBSET_SIZE) {
+            for (int y = border; y < IMAGE_SIZE - border; y += SUBSET_SIZE) {
+                result.add(new SquareSubset2D(SUBSET_SIZE, x, y));
+            }
+        }
+        return result;
+    }
+
+}
@@ -5,12 +5,14 @@
  */
 package cz.tul.dic;
 
+import cz.tul.dic.data.Coordinates;
 import cz.tul.dic.data.Image;
 import cz.tul.dic.data.result.DisplacementResult;
 import cz.tul.dic.data.task.TaskContainer;
 import cz.tul.dic.data.task.TaskParameter;
 import cz.tul.dic.data.result.Result;
 import cz.tul.dic.data.result.StrainResult;
+import cz.tul.dic.data.result.VectorField;
 import cz.tul.dic.engine.strain.StrainEstimator;
 import cz.tul.dic.engine.strain.StrainEstimationMethod;
 import java.io.File;
@@ -50,19 +52,19 @@ public class StrainEstimatorTest {
             {{0, 0}, null, {2, 0.5}, {2, 0.0}, null},
             {null, null, {0, 0}, null, null},
             {null, null, null, null, null},};
-        tc.setResult(ROUND, ROUND + 1, new Result(new DisplacementResult(displacement, null)));
+        tc.setResult(ROUND, ROUND + 1, new Result(new DisplacementResult(VectorField.fromArray(displacement, Coordinates.DIMENSION), null)));
 
         StrainEstimator.initStrainEstimator(method).estimateStrain(tc, ROUND, ROUND + 1);
-        final double[][][] strains = tc.getResult(ROUND, ROUND + 1).getStrainResult().getStrain();
+        final VectorField strains = tc.getResult(ROUND, ROUND + 1).getStrainResult().getStrain();
 
-        Assert.assertNotNull(strains[2][2]);
+        Assert.assertTrue(strains.isValid(2, 2));
 
         for (int x = 0; x < 5; x++) {
             for (int y = 0; y < 5; y++) {
                 if (x == 2 && y == 2) {
                     continue;
                 }
-                Assert.assertNull(strains[x][y]);
+                Assert.assertFalse(strains.isValid(x, y));
             }
         }
     }
@@ -92,18 +94,18 @@ public class StrainEstimatorTest {
                 dA[1] = dY;
             }
         }
-        tc.setResult(ROUND, ROUND + 1, new Result(new DisplacementResult(displacement, null)));
+        tc.setResult(ROUND, ROUND + 1, new Result(new DisplacementResult(VectorField.fromArray(displacement, Coordinates.DIMENSION), null)));
 
         StrainEstimator.initStrainEstimator(method).estimateStrain(tc, ROUND, ROUND + 1);
 
-        final double[][][] strains = tc.getResult(ROUND, ROUND + 1).getStrainResult().getStrain();
+        final VectorField strains = tc.getResult(ROUND, ROUND + 1).getStrainResult().getStrain();
 
         for (int x = 0; x < img.getWidth(); x++) {
             for (int y = 0; y < img.getHeight(); y++) {
-                Assert.assertNotNull(strains[x][y]);
-                Assert.assertEquals("Exx", 0.0, strains[x][y][StrainResult.E_XX], DELTA);
-                Assert.assertEquals("Eyy", 0.0, strains[x][y][StrainResult.E_YY], DELTA);
-                Assert.assertEquals("Exy", 0.0, strains[x][y][StrainResult.E_XY], DELTA);
+                Assert.assertTrue(strains.isValid(x, y));
+                Assert.assertEquals("Exx", 0.0, strains.getValue(x, y, StrainResult.E_XX), DELTA);
+                Assert.assertEquals("Eyy", 0.0, strains.getValue(x, y, StrainResult.E_YY), DELTA);
+                Assert.assertEquals("Exy", 0.0, strains.getValue(x, y, StrainResult.E_XY), DELTA);
             }
         }
     }
@@ -126,17 +128,17 @@ public class StrainEstimatorTest {
             {{2, 1}, {2, 0.5}, {2, 0.0}},
             {{3, 1}, {3, 0.5}, {3, 0.0}}
         };
-        tc.setResult(ROUND, ROUND + 1, new Result(new DisplacementResult(displacement, null)));
+        tc.setResult(ROUND, ROUND + 1, new Result(new DisplacementResult(VectorField.fromArray(displacement, Coordinates.DIMENSION), null)));
 
         StrainEstimator.initStrainEstimator(method).estimateStrain(tc, ROUND, ROUND + 1);
-        final double[][][] strains = tc.getResult(ROUND, ROUND + 1).getStrainResult().getStrain();
-
-        for (double[][] strain : strains) {
-            for (double[] strain1 : strain) {
-                Assert.assertNotNull(strain1);
-                Assert.assertEquals("Exx", 100.0, strain1[StrainResult.E_XX], DELTA);
-                Assert.assertEquals("Eyy", -50.0, strain1[StrainResult.E_YY], DELTA);
-                Assert.assertEquals("Exy", 0.0, strain1[StrainResult.E_XY], DELTA);
+        final VectorField strains = tc.getResult(ROUND, ROUND + 1).getStrainResult().getStrain();
+
+        for (int x = 0; x < strains.getWidth(); x++) {
+            for (int y = 0; y < strains.getHeight(); y++) {
+                Assert.assertTrue(strains.isValid(x, y));
+                Assert.assertEquals("Exx", 100.0, strains.getValue(x, y, StrainResult.E_XX), DELTA);
+                Assert.assertEquals("Eyy", -50.0, strains.getValue(x, y, StrainResult.E_YY), DELTA);
+                Assert.assertEquals("Exy", 0.0, strains.getValue(x, y, StrainResult.E_XY), DELTA);
             }
         }
     }
@@ -159,17 +161,17 @@ public class StrainEstimatorTest {
             {{1, 0.5}, {0, 0.5}, {-1, 0.5}},
             {{1, 0.0}, {0, 0.0}, {-1, 0.0}}
         };
-        tc.setResult(ROUND, ROUND + 1, new Result(new DisplacementResult(displacement, null)));
+        tc.setResult(ROUND, ROUND + 1, new Result(new DisplacementResult(VectorField.fromArray(displacement, Coordinates.DIMENSION), null)));
 
         StrainEstimator.initStrainEstimator(method).estimateStrain(tc, ROUND, ROUND + 1);
-        final double[][][] strains = tc.getResult(ROUND, ROUND + 1).getStrainResult().getStrain();
-
-        for (double[][] strain : strains) {
-            for (double[] strain1 : strain) {
-                Assert.assertNotNull(strain1);
-                Assert.assertEquals("Exx", 0.0, strain1[StrainResult.E_XX], DELTA);
-                Assert.assertEquals("Eyy", 0.0, strain1[StrainResult.E_YY], DELTA);
-                Assert.assertEquals("Exy", -75.0, strain1[StrainResult.E_XY], DELTA);
+        final VectorField strains = tc.getResult(ROUND, ROUND + 1).getStrainResult().getStrain();
+
+        for (int x = 0; x < strains.getWidth(); x++) {
+            for (int y = 0; y < strains.getHeight(); y++) {
+                Assert.assertTrue(strains.isValid(x, y));
+                Assert.assertEquals("Exx", 0.0, strains.getValue(x, y, StrainResult.E_XX), DELTA);
+                Assert.assertEquals("Eyy", 0.0, strains.getValue(x, y, StrainResult.E_YY), DELTA);
+                Assert.assertEquals("Exy", -75.0, strains.getValue(x, y, StrainResult.E_XY), DELTA);
             }
         }
     }
@@ -5,8 +5,10 @@
  */
 package cz.tul.dic;
 
+import cz.tul.dic.data.Coordinates;
 import cz.tul.dic.data.result.DisplacementResult;
 import cz.tul.dic.data.result.Result;
+import cz.tul.dic.data.result.VectorField;
 import cz.tul.dic.data.subset.AbstractSubset;
 import cz.tul.dic.data.roi.AbstractROI;
 import cz.tul.dic.data.roi.RectangleROI;
@@ -114,11 +116,11 @@ public class SubsetGeneratorTest {
         Assert.assertEquals(66, data.get(ROI_FULL).size());
     }
 
-    private static double[][][] generateDisplacement(final double step) {
-        final double[][][] displacement = new double[180][180][2];
-        for (int x = 90; x < 180; x++) {
+    private static VectorField generateDisplacement(final double step) {
+        final VectorField displacement = new VectorField(180, 180, Coordinates.DIMENSION);
+        for (int x = 0; x < 180; x++) {
             for (int y = 0; y < 180; y++) {
-                displacement[x][y][0] = step;
+                displacement.setValues(x, y, x < 90 ? 0 : step, 0);
             }
         }
         return displacement;
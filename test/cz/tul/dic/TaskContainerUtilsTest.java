@@ -5,6 +5,18 @@
  */
 package cz.tul.dic;
 
+import cz.tul.dic.data.Coordinates;
+import cz.tul.dic.data.ImageCache;
+import cz.tul.dic.data.result.CorrelationResult;
+import cz.tul.dic.data.result.DisplacementResult;
+import cz.tul.dic.data.result.Result;
+import cz.tul.dic.data.result.StrainResult;
+import cz.tul.dic.data.result.VectorField;
+import cz.tul.dic.data.roi.AbstractROI;
+import cz.tul.dic.data.roi.RectangleROI;
+import cz.tul.dic.data.subset.AbstractSubset;
+import cz.tul.dic.data.subset.SquareSubset2D;
+import cz.tul.dic.data.task.TaskBinaryFormat;
 import cz.tul.dic.data.task.TaskContainer;
 import cz.tul.dic.data.task.TaskContainerUtils;
 import java.io.File;
@@ -12,6 +24,9 @@ import java.io.IOException;
 import java.net.URISyntaxException;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import org.junit.Test;
 import static org.junit.Assert.*;
@@ -46,4 +61,125 @@ public class TaskContainerUtilsTest {
         final TaskContainer task2 = TaskContainer.initTaskContainer(testFile);
     }
 
+    @Test
+    public void testBinaryResults() throws URISyntaxException, ComputationException, IOException {
+        final List<File> inputs = new ArrayList<>(3);
+        for (int i = 0; i < 3; i++) {
+            inputs.add(Paths.get(getClass().getResource(String.format("/resources/input/image.avi%05d.bmp", i)).toURI()).toFile());
+        }
+        final TaskContainer task = TaskContainer.initTaskContainer(inputs);
+        final AbstractROI roi = new RectangleROI(1, 2, 10, 12);
+        task.addRoi(0, roi);
+
+        final int width = 7, height = 5;
+        final double[][][] displacement = new double[width][height][];
+        final double[][] quality = new double[width][height];
+        final double[][][] strain = new double[width][height][];
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                if ((x + y) % 3 != 0) {
+                    displacement[x][y] = new double[]{x * 0.25, -y / 3.0};
+                    strain[x][y] = new double[]{x * 1e-3, y * 1e-4, Double.NaN};
+                }
+                quality[x][y] = (x * y) / 35.0;
+            }
+        }
+        final VectorField displacementField = VectorField.fromArray(displacement, Coordinates.DIMENSION);
+        final VectorField strainField = VectorField.fromArray(strain, StrainResult.COMPONENT_COUNT);
+        final HashMap<AbstractROI, List<AbstractSubset>> subsets = new HashMap<>();
+        subsets.put(roi, Arrays.asList(new SquareSubset2D(7, 3, 4), new SquareSubset2D(7, 5.5, 6)));
+        final HashMap<AbstractROI, List<CorrelationResult>> correlations = new HashMap<>();
+        correlations.put(roi, Arrays.asList(new CorrelationResult(0.9, new double[]{1, 2}), null));
+        final Result round = new Result(new Result(subsets, correlations, new DisplacementResult(displacementField, quality)), new StrainResult(strainField, quality, null));
+        task.setResult(0, 1, round);
+        task.setResult(0, 2, new Result(new DisplacementResult(displacementField, null)));
+
+        for (boolean compress : new boolean[]{true, false}) {
+            final File testFile = testFolder.newFile("results" + compress + ".task");
+            TaskContainerUtils.serializeTaskToBinary(task, testFile, compress);
+            final TaskContainer loaded = TaskContainer.initTaskContainer(testFile);
+
+            assertNull(loaded.getResult(1, 2));
+            final Result r = loaded.getResult(0, 1);
+            assertEquals(1, r.getSubsets().size());
+            final AbstractROI loadedRoi = r.getSubsets().keySet().iterator().next();
+            assertTrue(loaded.getRois(0).contains(loadedRoi));
+            assertArrayEquals(new double[]{5.5, 6}, r.getSubsets().get(loadedRoi).get(1).getCenter(), 0);
+            assertEquals(0.9, r.getCorrelations().get(loadedRoi).get(0).getQuality(), 0);
+            assertNull(r.getCorrelations().get(loadedRoi).get(1));
+            assertNull(r.getStrainResult().getQualityY());
+            for (int x = 0; x < width; x++) {
+                for (int y = 0; y < height; y++) {
+                    assertArrayEquals(displacement[x][y], r.getDisplacementResult().getDisplacement().getValues(x, y), 1e-6);
+                    assertArrayEquals(strain[x][y], r.getStrainResult().getStrain().getValues(x, y), 1e-6);
+                    assertEquals(quality[x][y], r.getDisplacementResult().getQuality()[x][y], 1e-6);
+                    assertEquals(quality[x][y], r.getStrainResult().getQualityX()[x][y], 1e-6);
+                }
+            }
+            assertNull(loaded.getResult(0, 2).getSubsets());
+            assertNull(loaded.getResult(0, 2).getDisplacementResult().getQuality());
+            assertArrayEquals(displacement[1][1], loaded.getResult(0, 2).getDisplacementResult().getDisplacement().getValues(1, 1), 1e-6);
+        }
+    }
+
+    @Test
+    public void testLazyResults() throws URISyntaxException, ComputationException, IOException {
+        final List<File> inputs = new ArrayList<>(3);
+        for (int i = 0; i < 3; i++) {
+            inputs.add(Paths.get(getClass().getResource(String.format("/resources/input/image.avi%05d.bmp", i)).toURI()).toFile());
+        }
+        final TaskContainer task = TaskContainer.initTaskContainer(inputs);
+        task.setResult(0, 1, createResult(1));
+        task.setResult(1, 2, createResult(2));
+        task.setResult(0, 2, createResult(3));
+
+        final File testFile = testFolder.newFile("lazy.task");
+        TaskContainerUtils.serializeTaskToBinary(task, testFile);
+        final TaskContainer loaded = TaskBinaryFormat.read(testFile, 2);
+
+        final Result first = loaded.getResult(0, 1);
+        assertEquals(1, first.getDisplacementResult().getDisplacement().getValue(2, 3, 0), 1e-6);
+        assertSame(first, loaded.getResult(0, 1));
+        assertEquals(2, loaded.getResult(1, 2).getDisplacementResult().getDisplacement().getValue(2, 3, 0), 1e-6);
+        assertEquals(3, loaded.getResult(0, 2).getDisplacementResult().getDisplacement().getValue(2, 3, 0), 1e-6);
+        // least recently used result has been dropped
+        assertNotSame(first, loaded.getResult(0, 1));
+        assertNull(loaded.getResult(1, 3));
+
+        loaded.setResult(1, 2, createResult(4));
+        TaskContainerUtils.serializeTaskToBinary(loaded, testFile);
+        final TaskContainer reloaded = TaskBinaryFormat.read(testFile, 1);
+        assertEquals(1, reloaded.getResult(0, 1).getDisplacementResult().getDisplacement().getValue(2, 3, 0), 1e-6);
+        assertEquals(4, reloaded.getResult(1, 2).getDisplacementResult().getDisplacement().getValue(2, 3, 0), 1e-6);
+        assertEquals(3, reloaded.getResult(0, 2).getDisplacementResult().getDisplacement().getValue(2, 3, 0), 1e-6);
+    }
+
+    @Test
+    public void testMissingVideoResults() throws ComputationException, IOException {
+        final List<File> inputs = Collections.singletonList(new File(testFolder.getRoot(), "missing.avi"));
+        final TaskContainer task = new TaskContainer();
+        task.setInput(inputs, ImageCache.createCache(inputs, 0));
+        task.setResult(0, 1, createResult(1));
+        task.setResult(3, 4, createResult(2));
+        task.setResult(0, 4, createResult(3));
+        assertEquals(0, task.getImageCount());
+
+        final File testFile = testFolder.newFile("missing.task");
+        TaskContainerUtils.serializeTaskToBinary(task, testFile);
+        final TaskContainer loaded = TaskBinaryFormat.read(testFile);
+        assertEquals(1, loaded.getResult(0, 1).getDisplacementResult().getDisplacement().getValue(2, 3, 0), 1e-6);
+        assertEquals(2, loaded.getResult(3, 4).getDisplacementResult().getDisplacement().getValue(2, 3, 0), 1e-6);
+        assertEquals(3, loaded.getResult(0, 4).getDisplacementResult().getDisplacement().getValue(2, 3, 0), 1e-6);
+    }
+
+    private static Result createResult(final double value) {
+        final VectorField displacement = new VectorField(5, 4, Coordinates.DIMENSION);
+        for (int x = 0; x < displacement.getWidth(); x++) {
+            for (int y = 0; y < displacement.getHeight(); y++) {
+                displacement.setValues(x, y, value, -value);
+            }
+        }
+        return new Result(new DisplacementResult(displacement, null));
+    }
+
 }